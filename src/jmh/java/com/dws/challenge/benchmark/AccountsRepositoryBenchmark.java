@@ -0,0 +1,99 @@
+package com.dws.challenge.benchmark;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.repository.AccountsRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * getAccount (by id and by handle) and createAccount of the repositories
+ */
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class AccountsRepositoryBenchmark {
+
+    private static final int SAMPLES = 1 << 16;
+    private static final int CREATED_PER_INVOCATION = 100_000;
+
+    @Param({"in-memory", "off-heap"})
+    public String repository;
+
+    @Param({"1000000"})
+    public int accounts;
+
+    AccountsRepository accountsRepository;
+    String[] accountIds;
+    int[] handles;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        accountsRepository = Workloads.newRepository(repository, accounts);
+        accountIds = Workloads.createAccounts(accountsRepository, accounts, BigDecimal.TEN);
+        handles = new int[accounts];
+        for (int i = 0; i < accounts; i++) {
+            handles[i] = accountsRepository.handleOf(accountIds[i]);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Lookups {
+        int[] indexes;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp(AccountsRepositoryBenchmark benchmark, ThreadParams threadParams) {
+            indexes = Workloads.sample("uniform", benchmark.accounts, SAMPLES, threadParams.getThreadIndex());
+        }
+    }
+
+    /**
+     * A fresh repository and ids for every invocation of createAccount
+     */
+    @State(Scope.Thread)
+    public static class Creations {
+        AccountsRepository accountsRepository;
+        String[] accountIds = new String[CREATED_PER_INVOCATION];
+
+        @Setup(Level.Invocation)
+        public void setUp(AccountsRepositoryBenchmark benchmark, ThreadParams threadParams) {
+            accountsRepository = Workloads.newRepository(benchmark.repository, CREATED_PER_INVOCATION);
+            for (int i = 0; i < CREATED_PER_INVOCATION; i++) {
+                accountIds[i] = "new-" + threadParams.getThreadIndex() + "-" + i;
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public Account getAccount(Lookups lookups) {
+        return accountsRepository.getAccount(accountIds[lookups.indexes[lookups.next++ & (SAMPLES - 1)]]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public Account getAccountByHandle(Lookups lookups) {
+        return accountsRepository.getAccount(handles[lookups.indexes[lookups.next++ & (SAMPLES - 1)]]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OperationsPerInvocation(CREATED_PER_INVOCATION)
+    public AccountsRepository createAccount(Creations creations) {
+        for (String accountId : creations.accountIds) {
+            creations.accountsRepository.createAccount(new Account(accountId, BigDecimal.TEN));
+        }
+        return creations.accountsRepository;
+    }
+}
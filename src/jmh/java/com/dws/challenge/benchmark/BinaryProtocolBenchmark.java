@@ -0,0 +1,141 @@
+package com.dws.challenge.benchmark;
+
+import com.dws.challenge.ChallengeApplication;
+import com.dws.challenge.binary.BinaryProtocol;
+import com.dws.challenge.binary.BinaryTransferClient;
+import com.dws.challenge.binary.BinaryTransferServer;
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.service.AccountsService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transfers over real sockets: REST (one HTTP request per transfer) against the binary protocol,
+ * one request per round trip or pipelined by windows of WINDOW transfers
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class BinaryProtocolBenchmark {
+
+    private static final int SAMPLES = 1 << 16;
+    private static final int WINDOW = 256;
+
+    @Param({"1000"})
+    public int accounts;
+
+    ConfigurableApplicationContext context;
+    int httpPort;
+    int binaryPort;
+    String[] accountIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SpringApplication application = new SpringApplication(ChallengeApplication.class);
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("account.binary.port", "0");
+        properties.put("account.admission.enabled", "false");
+        properties.put("logging.level.com.dws.challenge", "WARN");
+        properties.put("account.notification.overflow-policy", "DROP");
+        application.setDefaultProperties(properties);
+        context = application.run("--server.port=0"); // application.properties sets it, defaults wouldn't override it
+        httpPort = ((WebServerApplicationContext) context).getWebServer().getPort();
+        binaryPort = context.getBean(BinaryTransferServer.class).getPort();
+
+        AccountsService accountsService = context.getBean(AccountsService.class);
+        accountIds = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            accountIds[i] = "account-" + i;
+            accountsService.createAccount(new Account(accountIds[i], new BigDecimal(1_000_000_000)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Connection {
+        BinaryTransferClient client;
+        HttpClient httpClient;
+        long[] indexes;
+        int[] sources;
+        int[] destinations;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp(BinaryProtocolBenchmark benchmark, ThreadParams threadParams) throws IOException {
+            client = new BinaryTransferClient("localhost", benchmark.binaryPort);
+            indexes = new long[benchmark.accounts];
+            for (int i = 0; i < benchmark.accounts; i++) {
+                indexes[i] = client.lookup(benchmark.accountIds[i]);
+            }
+            httpClient = HttpClient.newHttpClient();
+            long seed = 31L * threadParams.getThreadIndex();
+            sources = Workloads.sampleSources("uniform", benchmark.accounts, SAMPLES, seed);
+            destinations = Workloads.sampleDestinations("uniform", benchmark.accounts, SAMPLES, seed + 1);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            client.close();
+        }
+    }
+
+    @Benchmark
+    public int rest(BinaryProtocolBenchmark benchmark, Connection connection) throws Exception {
+        int i = connection.next++ & (SAMPLES - 1);
+        URI uri = URI.create("http://localhost:" + benchmark.httpPort + "/v1/accounts/operation?source="
+                + benchmark.accountIds[connection.sources[i]] + "&destination="
+                + benchmark.accountIds[connection.destinations[i]] + "&amount=0.01");
+        return connection.httpClient.send(HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.noBody()).build(),
+                HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    @Benchmark
+    public byte binaryRoundTrip(Connection connection) throws IOException {
+        int i = connection.next++ & (SAMPLES - 1);
+        return connection.client.transfer(connection.indexes[connection.sources[i]],
+                connection.indexes[connection.destinations[i]], 1);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WINDOW)
+    public int binaryPipelined(Connection connection) throws IOException {
+        for (int n = 0; n < WINDOW; n++) {
+            int i = connection.next++ & (SAMPLES - 1);
+            connection.client.send(connection.indexes[connection.sources[i]],
+                    connection.indexes[connection.destinations[i]], 1);
+        }
+        connection.client.flush();
+        int rejected = 0;
+        for (int n = 0; n < WINDOW; n++) {
+            rejected += connection.client.receive() == BinaryProtocol.OK ? 0 : 1;
+        }
+        return rejected;
+    }
+}
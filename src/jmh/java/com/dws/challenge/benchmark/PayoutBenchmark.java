@@ -0,0 +1,73 @@
+package com.dws.challenge.benchmark;
+
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.service.AccountBalanceService;
+import com.dws.challenge.service.NotificationDispatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One payer paying many payees (a payroll) with the locking engine: one multi-leg transfer,
+ * against one transferBalanceBWAccounts call per payee
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class PayoutBenchmark {
+
+    @Param({"100", "10000"})
+    public int payees;
+
+    AccountBalanceService accountBalanceService;
+    String[] accountIds;
+    List<TransferLeg> debit;
+    List<TransferLeg> credits;
+    private NotificationDispatcher notificationDispatcher;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        AccountsRepository accountsRepository = Workloads.newRepository("in-memory", payees + 1);
+        // account 0 pays the others, large enough for every run
+        accountIds = Workloads.createAccounts(accountsRepository, payees + 1, new BigDecimal(1_000_000_000));
+        notificationDispatcher = Workloads.silentDispatcher();
+        accountBalanceService = Workloads.newEngine("locking", accountsRepository, notificationDispatcher);
+        debit = List.of(new TransferLeg(accountIds[0], payees));
+        credits = new ArrayList<>(payees);
+        for (int i = 1; i <= payees; i++) {
+            credits.add(new TransferLeg(accountIds[i], 1));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        notificationDispatcher.shutdown();
+    }
+
+    @Benchmark
+    public boolean multiLeg() {
+        return accountBalanceService.transferMultiLeg(debit, credits);
+    }
+
+    @Benchmark
+    public boolean transferPerPayee() {
+        boolean done = true;
+        for (int i = 1; i <= payees; i++) {
+            done &= accountBalanceService.transferBalanceBWAccounts(accountIds[0], accountIds[i], 1);
+        }
+        return done;
+    }
+}
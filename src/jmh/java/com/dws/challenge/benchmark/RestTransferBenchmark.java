@@ -0,0 +1,109 @@
+package com.dws.challenge.benchmark;
+
+import com.dws.challenge.ChallengeApplication;
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.service.AccountsService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+/**
+ * Transfers and lookups through the REST layer (MockMvc), to see what the HTTP / parsing layer costs on top of the engine
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class RestTransferBenchmark {
+
+    private static final int SAMPLES = 1 << 16;
+
+    @Param({"locking"})
+    public String engine;
+
+    @Param({"uniform", "zipfian"})
+    public String distribution;
+
+    @Param({"10000"})
+    public int accounts;
+
+    ConfigurableApplicationContext context;
+    MockMvc mockMvc;
+    String[] accountIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SpringApplication application = new SpringApplication(ChallengeApplication.class);
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("server.port", "0");
+        properties.put("account.transfer.engine", engine);
+        properties.put("logging.level.com.dws.challenge", "WARN");
+        properties.put("account.notification.overflow-policy", "DROP");
+        application.setDefaultProperties(properties);
+        context = application.run();
+        mockMvc = webAppContextSetup((WebApplicationContext) context).build();
+
+        AccountsService accountsService = context.getBean(AccountsService.class);
+        accountIds = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            accountIds[i] = "account-" + i;
+            accountsService.createAccount(new Account(accountIds[i], new BigDecimal(1_000_000_000)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Pairs {
+        int[] sources;
+        int[] destinations;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp(RestTransferBenchmark benchmark, ThreadParams threadParams) {
+            long seed = 31L * threadParams.getThreadIndex();
+            sources = Workloads.sampleSources(benchmark.distribution, benchmark.accounts, SAMPLES, seed);
+            destinations = Workloads.sampleDestinations(benchmark.distribution, benchmark.accounts, SAMPLES, seed + 1);
+        }
+    }
+
+    @Benchmark
+    public MvcResult transfer(Pairs pairs) throws Exception {
+        int i = pairs.next++ & (SAMPLES - 1);
+        return mockMvc.perform(post("/v1/accounts/operation")
+                .param("source", accountIds[pairs.sources[i]])
+                .param("destination", accountIds[pairs.destinations[i]])
+                .param("amount", "1"))
+                .andReturn();
+    }
+
+    @Benchmark
+    public MvcResult getAccount(Pairs pairs) throws Exception {
+        int i = pairs.next++ & (SAMPLES - 1);
+        return mockMvc.perform(get("/v1/accounts/" + accountIds[pairs.sources[i]])).andReturn();
+    }
+}
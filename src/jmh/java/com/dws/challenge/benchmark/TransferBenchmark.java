@@ -0,0 +1,91 @@
+package com.dws.challenge.benchmark;
+
+import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.service.AccountBalanceService;
+import com.dws.challenge.service.NotificationDispatcher;
+import com.dws.challenge.service.ShardedAccountBalanceService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of transferBalanceBWAccounts per engine, under uniform and Zipfian (hot accounts) contention.
+ * hot-destinations draws uniform sources and Zipfian destinations: customers paying a few merchants.
+ * locking-hot is the locking engine with hot account detection (credits to hot accounts without their lock),
+ * locking-limits the locking engine with velocity limits on every account (the cost of the counters).
+ * The number of threads is set with -PjmhThreads (jmh -t)
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class TransferBenchmark {
+
+    private static final int SAMPLES = 1 << 16;
+
+    @Param({"locking", "locking-hot", "locking-limits", "lock-free", "sharded"})
+    public String engine;
+
+    @Param({"uniform", "zipfian", "hot-destinations"})
+    public String distribution;
+
+    @Param({"10000"})
+    public int accounts;
+
+    @Param({"in-memory"})
+    public String repository;
+
+    AccountBalanceService accountBalanceService;
+    String[] accountIds;
+    private NotificationDispatcher notificationDispatcher;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        AccountsRepository accountsRepository = Workloads.newRepository(repository, accounts);
+        // large enough for no transfer to be rejected during a run
+        accountIds = Workloads.createAccounts(accountsRepository, accounts, new BigDecimal(1_000_000_000));
+        notificationDispatcher = Workloads.silentDispatcher();
+        accountBalanceService = Workloads.newEngine(engine, accountsRepository, notificationDispatcher);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        if (accountBalanceService instanceof ShardedAccountBalanceService) {
+            ((ShardedAccountBalanceService) accountBalanceService).shutdown();
+        }
+        notificationDispatcher.shutdown();
+    }
+
+    /**
+     * Pre-drawn source / destination pairs of a benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class Pairs {
+        int[] sources;
+        int[] destinations;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp(TransferBenchmark benchmark, ThreadParams threadParams) {
+            long seed = 31L * threadParams.getThreadIndex();
+            sources = Workloads.sampleSources(benchmark.distribution, benchmark.accounts, SAMPLES, seed);
+            destinations = Workloads.sampleDestinations(benchmark.distribution, benchmark.accounts, SAMPLES, seed + 1);
+        }
+    }
+
+    @Benchmark
+    public boolean transfer(Pairs pairs) {
+        int i = pairs.next++ & (SAMPLES - 1);
+        return accountBalanceService.transferBalanceBWAccounts(accountIds[pairs.sources[i]], accountIds[pairs.destinations[i]], 1L);
+    }
+}
@@ -0,0 +1,137 @@
+package com.dws.challenge.benchmark;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.AccountPage;
+import com.dws.challenge.domain.AccountSnapshot;
+import com.dws.challenge.domain.TransferLimits;
+import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.AccountsRepositoryOffHeap;
+import com.dws.challenge.service.AccountBalanceService;
+import com.dws.challenge.service.AccountBalanceServiceImpl;
+import com.dws.challenge.service.HotAccountDetector;
+import com.dws.challenge.service.IdempotencyCache;
+import com.dws.challenge.service.LockFreeAccountBalanceService;
+import com.dws.challenge.service.NotificationDispatcher;
+import com.dws.challenge.service.ShardedAccountBalanceService;
+import com.dws.challenge.service.TransferLimiter;
+import com.dws.challenge.service.TransferMetrics;
+import com.dws.challenge.service.TransferValidator;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Shared set up of the benchmarks: engines, repositories and account access distributions
+ */
+final class Workloads {
+
+    /** Exponent of the Zipfian distribution, 0.99 is the usual "hot keys" skew (YCSB) */
+    static final double ZIPFIAN_EXPONENT = 0.99;
+
+    private Workloads() {
+    }
+
+    static AccountsRepository newRepository(String repository, int capacity) {
+        if ("off-heap".equals(repository)) {
+            return new AccountsRepositoryOffHeap(capacity, 54, 1 << 16);
+        }
+        return new AccountsRepositoryInMemory();
+    }
+
+    static String[] createAccounts(AccountsRepository repository, int accounts, BigDecimal balance) {
+        String[] accountIds = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            accountIds[i] = "account-" + i;
+            repository.createAccount(new Account(accountIds[i], balance));
+        }
+        return accountIds;
+    }
+
+    /**
+     * Notifications are dropped, the benchmarks measure the engine not the email gateway
+     */
+    static NotificationDispatcher silentDispatcher() {
+        return new NotificationDispatcher((account, description) -> { }, 1, 1 << 16, 1024,
+                NotificationDispatcher.OverflowPolicy.DROP, 0, 1000);
+    }
+
+    static AccountBalanceService newEngine(String engine, AccountsRepository repository, NotificationDispatcher dispatcher) {
+        switch (engine) {
+            case "locking":
+                return new AccountBalanceServiceImpl(repository, dispatcher);
+            case "locking-hot": // with the hot account detection of the Spring configuration
+                return new AccountBalanceServiceImpl(repository, dispatcher, TransferMetrics.noop(),
+                        new IdempotencyCache(10_000, 3600, 16), new HotAccountDetector(50, 100, 10_000));
+            case "locking-limits": // with velocity limits on every account, high enough for no transfer to be rejected
+                return new AccountBalanceServiceImpl(repository, dispatcher, TransferMetrics.noop(),
+                        new IdempotencyCache(10_000, 3600, 16), HotAccountDetector.disabled(),
+                        new TransferValidator(List.of(withLimits(repository))));
+            case "lock-free":
+                return new LockFreeAccountBalanceService(repository, dispatcher);
+            case "sharded":
+                return new ShardedAccountBalanceService(repository, dispatcher, 0, 4096);
+            default:
+                throw new IllegalArgumentException("Unknown engine " + engine);
+        }
+    }
+
+    private static TransferLimiter withLimits(AccountsRepository repository) {
+        TransferLimiter transferLimiter = new TransferLimiter(repository, 86_400_000, 24);
+        TransferLimits limits = new TransferLimits(new BigDecimal(Long.MAX_VALUE / 1000), Long.MAX_VALUE / 2);
+        AccountPage page = repository.listAccounts(null, 1000);
+        while (true) {
+            for (AccountSnapshot account : page.getAccounts()) {
+                transferLimiter.setLimits(account.getAccountId(), limits);
+            }
+            if (page.getNextCursor() == null) {
+                return transferLimiter;
+            }
+            page = repository.listAccounts(page.getNextCursor(), 1000);
+        }
+    }
+
+    /**
+     * Sources of transfers: hot-destinations has uniform sources
+     */
+    static int[] sampleSources(String distribution, int accounts, int samples, long seed) {
+        return sample("hot-destinations".equals(distribution) ? "uniform" : distribution, accounts, samples, seed);
+    }
+
+    /**
+     * Destinations of transfers: hot-destinations has Zipfian destinations, i.e. customers paying a few merchants
+     */
+    static int[] sampleDestinations(String distribution, int accounts, int samples, long seed) {
+        return sample("hot-destinations".equals(distribution) ? "zipfian" : distribution, accounts, samples, seed);
+    }
+
+    /**
+     * @return samples account indexes drawn from the distribution (uniform or zipfian)
+     */
+    static int[] sample(String distribution, int accounts, int samples, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] indexes = new int[samples];
+        if ("uniform".equals(distribution)) {
+            for (int i = 0; i < samples; i++) {
+                indexes[i] = random.nextInt(accounts);
+            }
+            return indexes;
+        }
+        if (!"zipfian".equals(distribution)) {
+            throw new IllegalArgumentException("Unknown distribution " + distribution);
+        }
+        double[] cumulative = new double[accounts];
+        double total = 0;
+        for (int k = 0; k < accounts; k++) {
+            total += 1 / Math.pow(k + 1, ZIPFIAN_EXPONENT);
+            cumulative[k] = total;
+        }
+        for (int i = 0; i < samples; i++) {
+            int position = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            indexes[i] = Math.min(position < 0 ? -position - 1 : position, accounts - 1);
+        }
+        return indexes;
+    }
+}
@@ -0,0 +1,69 @@
+package com.dws.challenge.binary;
+
+import com.dws.challenge.domain.TransferResult;
+
+/**
+ * Frames of the binary transfer protocol, see {@link BinaryTransferServer}. Numbers are big-endian.
+ *
+ * Requests start with their type:
+ * - LOOKUP: type(1) requestId(8) idLength(2) id(idLength bytes, UTF-8). Returns the handle of the account in the
+ *   response: the repository handle (see {@link com.dws.challenge.repository.AccountsRepository#handleOf(String)})
+ *   in the low 32 bits, the epoch of the repository handles in the high 32 bits. Handles are the same on every
+ *   connection, a client can look them up once and share them.
+ * - TRANSFER: type(1) requestId(8) source(8) destination(8) amount(8), fixed width. The accounts are handles
+ *   returned by LOOKUP, the amount is in minor units. A transfer with a handle of another epoch (the accounts were
+ *   cleared, or the server restarted, since it was looked up) is answered STALE_HANDLES and not applied.
+ * Every request gets a response of RESPONSE_SIZE bytes: requestId(8) status(1) handle(8), handle is only set for a
+ * LOOKUP. Requests can be pipelined, their responses come back in the same order.
+ */
+public final class BinaryProtocol {
+
+  public static final byte LOOKUP = 1;
+  public static final byte TRANSFER = 2;
+
+  public static final int LOOKUP_HEADER_SIZE = 1 + 8 + 2;
+  public static final int TRANSFER_SIZE = 1 + 8 + 8 + 8 + 8;
+  public static final int RESPONSE_SIZE = 8 + 1 + 8;
+  public static final int MAX_ID_LENGTH = 255;
+
+  public static final byte OK = 0;
+  public static final byte INSUFFICIENT_FUNDS = 1;
+  public static final byte INVALID_ACCOUNT = 2;
+  public static final byte INVALID_AMOUNT = 3;
+  /** Rejected by another rule of the engine, e.g. a transfer limit */
+  public static final byte REJECTED = 4;
+  /** Unknown request type or invalid id length, the server closes the connection after this response */
+  public static final byte MALFORMED = 5;
+  /** A handle of the transfer was looked up before the handles changed, look the accounts up again */
+  public static final byte STALE_HANDLES = 6;
+
+  private BinaryProtocol() {
+  }
+
+  static long handle(int epoch, int handle) {
+    return (long) epoch << 32 | (handle & 0xFFFFFFFFL);
+  }
+
+  static int epochOf(long handle) {
+    return (int) (handle >>> 32);
+  }
+
+  static byte statusOf(TransferResult result) {
+    if (result.getStatus() == TransferResult.Status.APPLIED) {
+      return OK;
+    }
+    if (result.getReason() == null) {
+      return REJECTED;
+    }
+    switch (result.getReason()) {
+      case INSUFFICIENT_FUNDS:
+        return INSUFFICIENT_FUNDS;
+      case INVALID_ACCOUNT:
+        return INVALID_ACCOUNT;
+      case NON_POSITIVE_AMOUNT:
+        return INVALID_AMOUNT;
+      default:
+        return REJECTED;
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package com.dws.challenge.binary;
+
+import com.dws.challenge.exception.InvalidTransactionException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import static com.dws.challenge.binary.BinaryProtocol.LOOKUP;
+import static com.dws.challenge.binary.BinaryProtocol.LOOKUP_HEADER_SIZE;
+import static com.dws.challenge.binary.BinaryProtocol.MAX_ID_LENGTH;
+import static com.dws.challenge.binary.BinaryProtocol.OK;
+import static com.dws.challenge.binary.BinaryProtocol.RESPONSE_SIZE;
+import static com.dws.challenge.binary.BinaryProtocol.TRANSFER;
+import static com.dws.challenge.binary.BinaryProtocol.TRANSFER_SIZE;
+
+/**
+ * Blocking client of the {@link BinaryTransferServer}, one connection, not thread safe.
+ *
+ * Requests are buffered by {@link #send} and sent by {@link #flush}, or when the buffer is full; {@link #receive}
+ * returns the status of the oldest request without response. A caller pipelines by sending many requests
+ * before receiving their statuses, {@link #transfer} is the one request round trip.
+ * The server doesn't read while its responses aren't read: keep the requests in flight to a few thousand
+ * (what the socket buffers hold), or a client which only sends would wait forever.
+ */
+public class BinaryTransferClient implements AutoCloseable {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final SocketChannel channel;
+  private final ByteBuffer requests = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private final ByteBuffer responses = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private long nextRequestId;
+  private long nextResponseId;
+  private long lastHandle;
+
+  public BinaryTransferClient(String host, int port) throws IOException {
+    this.channel = SocketChannel.open(new InetSocketAddress(host, port));
+    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    responses.flip();
+  }
+
+  /**
+   * @return handle of the account, to use in the transfers of any connection until the server answers
+   *         {@link BinaryProtocol#STALE_HANDLES}
+   * @throws InvalidTransactionException if the account doesn't exist
+   */
+  public long lookup(String accountId) throws IOException {
+    byte[] encodedId = accountId.getBytes(StandardCharsets.UTF_8);
+    if (encodedId.length == 0 || encodedId.length > MAX_ID_LENGTH) {
+      throw new IllegalArgumentException("Account ids have 1 to " + MAX_ID_LENGTH + " bytes");
+    }
+    reserve(LOOKUP_HEADER_SIZE + encodedId.length);
+    requests.put(LOOKUP).putLong(nextRequestId++).putShort((short) encodedId.length).put(encodedId);
+    flush();
+    byte status = receive();
+    if (status != OK) {
+      throw new InvalidTransactionException("invalid account !");
+    }
+    return lastHandle;
+  }
+
+  /**
+   * Transfers and waits for the outcome, one round trip
+   *
+   * @return status of the transfer, see {@link BinaryProtocol}
+   */
+  public byte transfer(long sourceHandle, long destinationHandle, long amount) throws IOException {
+    send(sourceHandle, destinationHandle, amount);
+    flush();
+    return receive();
+  }
+
+  /**
+   * Buffers a transfer, its status is returned by a later {@link #receive}
+   */
+  public void send(long sourceHandle, long destinationHandle, long amount) throws IOException {
+    reserve(TRANSFER_SIZE);
+    requests.put(TRANSFER).putLong(nextRequestId++).putLong(sourceHandle).putLong(destinationHandle).putLong(amount);
+  }
+
+  public void flush() throws IOException {
+    requests.flip();
+    while (requests.hasRemaining()) {
+      channel.write(requests);
+    }
+    requests.clear();
+  }
+
+  /**
+   * Waits for the response of the oldest request without one, the requests must have been flushed
+   *
+   * @return its status, see {@link BinaryProtocol}
+   */
+  public byte receive() throws IOException {
+    if (nextResponseId == nextRequestId) {
+      throw new IllegalStateException("No request waiting for a response");
+    }
+    while (responses.remaining() < RESPONSE_SIZE) {
+      responses.compact();
+      int read = channel.read(responses);
+      responses.flip();
+      if (read < 0) {
+        throw new EOFException("Connection closed by the server");
+      }
+    }
+    long requestId = responses.getLong();
+    byte status = responses.get();
+    lastHandle = responses.getLong();
+    if (requestId != nextResponseId++) {
+      throw new IOException("Response to request " + requestId + " instead of " + (nextResponseId - 1));
+    }
+    return status;
+  }
+
+  /**
+   * @return number of requests sent (or buffered) which have no response yet
+   */
+  public long pending() {
+    return nextRequestId - nextResponseId;
+  }
+
+  private void reserve(int size) throws IOException {
+    if (requests.remaining() < size) {
+      flush();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
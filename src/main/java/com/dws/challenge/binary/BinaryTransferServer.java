@@ -0,0 +1,396 @@
+package com.dws.challenge.binary;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.BatchMode;
+import com.dws.challenge.domain.Transfer;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.service.AccountBalanceService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.dws.challenge.binary.BinaryProtocol.INVALID_ACCOUNT;
+import static com.dws.challenge.binary.BinaryProtocol.LOOKUP;
+import static com.dws.challenge.binary.BinaryProtocol.LOOKUP_HEADER_SIZE;
+import static com.dws.challenge.binary.BinaryProtocol.MALFORMED;
+import static com.dws.challenge.binary.BinaryProtocol.MAX_ID_LENGTH;
+import static com.dws.challenge.binary.BinaryProtocol.OK;
+import static com.dws.challenge.binary.BinaryProtocol.REJECTED;
+import static com.dws.challenge.binary.BinaryProtocol.RESPONSE_SIZE;
+import static com.dws.challenge.binary.BinaryProtocol.STALE_HANDLES;
+import static com.dws.challenge.binary.BinaryProtocol.TRANSFER;
+import static com.dws.challenge.binary.BinaryProtocol.TRANSFER_SIZE;
+
+/**
+ * Binary TCP endpoint next to the REST endpoints, for high volume internal callers: enabled with account.binary.port.
+ * It has no authentication, so it only listens on account.binary.address, the loopback interface by default.
+ *
+ * Requests are fixed width frames (see {@link BinaryProtocol}) instead of HTTP requests whose parsing costs more than
+ * the transfer itself. Accounts are addressed by their repository handles, a transfer finds its accounts by array
+ * index instead of hashing their ids. Handles carry the epoch of the repository handles, a handle looked up before
+ * the accounts were cleared (or before a restart) can't reach the account which got its number since. Connections are spread over account.binary.threads event loops, one selector each.
+ * A loop decodes all the complete requests of a read, applies their transfers with one best effort batch of the
+ * {@link AccountBalanceService} and answers them with one write: pipelining clients pay the per-request costs once
+ * per read. A connection isn't read while its responses can't be written, so a slow reader only holds its own buffers.
+ * Transfers run on the loop thread, like the engines they are short; with a durable journal a batch waits for its commit.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "account.binary.port")
+public class BinaryTransferServer {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /** Requests which fit in a read buffer, the smallest one is a lookup of a 1 byte id */
+  private static final int MAX_REQUESTS_PER_READ = BUFFER_SIZE / (LOOKUP_HEADER_SIZE + 1) + 1;
+
+  /** Accepts paused after a failed accept (e.g. out of file descriptors), instead of spinning on it */
+  private static final long ACCEPT_BACKOFF_MILLIS = 100;
+
+  private final AccountBalanceService accountBalanceService;
+
+  private final AccountsRepository accountsRepository;
+
+  private final ServerSocketChannel serverChannel;
+
+  private final EventLoop[] loops;
+
+  @Autowired
+  public BinaryTransferServer(AccountBalanceService accountBalanceService, AccountsRepository accountsRepository,
+                              @Value("${account.binary.address:127.0.0.1}") String address,
+                              @Value("${account.binary.port}") int port,
+                              @Value("${account.binary.threads:1}") int threads) throws IOException {
+    this.accountBalanceService = accountBalanceService;
+    this.accountsRepository = accountsRepository;
+    this.serverChannel = ServerSocketChannel.open();
+    serverChannel.bind(new InetSocketAddress(address, port));
+    serverChannel.configureBlocking(false);
+    this.loops = new EventLoop[Math.max(threads, 1)];
+    for (int i = 0; i < loops.length; i++) {
+      loops[i] = new EventLoop(i);
+    }
+    serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT); // the first loop accepts for all of them
+    for (EventLoop loop : loops) {
+      loop.thread.start();
+    }
+    log.info("Binary transfer endpoint listening on {}:{} with {} event loops", address, getPort(), loops.length);
+  }
+
+  public int getPort() {
+    return ((InetSocketAddress) serverChannel.socket().getLocalSocketAddress()).getPort();
+  }
+
+  @PreDestroy
+  public void shutdown() throws InterruptedException, IOException {
+    for (EventLoop loop : loops) {
+      loop.running = false;
+      loop.selector.wakeup();
+    }
+    for (EventLoop loop : loops) {
+      loop.thread.join(TimeUnit.SECONDS.toMillis(5));
+    }
+    serverChannel.close();
+  }
+
+  private final class EventLoop implements Runnable {
+    final Selector selector;
+    final Thread thread;
+    final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+    volatile boolean running = true;
+    private int nextLoop;
+    /** Accept key whose interest is paused until acceptPausedUntil (nanoTime), null if accepts aren't paused */
+    private SelectionKey pausedAccept;
+    private long acceptPausedUntil;
+
+    // responses of the read being processed, shared by the connections of the loop
+    final long[] requestIds = new long[MAX_REQUESTS_PER_READ];
+    final byte[] statuses = new byte[MAX_REQUESTS_PER_READ];
+    final long[] handles = new long[MAX_REQUESTS_PER_READ];
+    final int[] transferPositions = new int[MAX_REQUESTS_PER_READ];
+    final List<Transfer> transfers = new ArrayList<>();
+
+    EventLoop(int number) throws IOException {
+      this.selector = Selector.open();
+      this.thread = new Thread(this, "binary-loop-" + number);
+      thread.setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (running) {
+          if (pausedAccept == null) {
+            selector.select();
+          } else {
+            selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(acceptPausedUntil - System.nanoTime())));
+            resumeAccept();
+          }
+          SocketChannel channel;
+          while ((channel = accepted.poll()) != null) {
+            registerQuietly(channel);
+          }
+          Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+          while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            if (key.isAcceptable()) {
+              accept(key);
+              continue;
+            }
+            Connection connection = (Connection) key.attachment();
+            try {
+              if (key.isWritable()) {
+                connection.write();
+              }
+              if (key.isValid() && key.isReadable()) {
+                connection.read();
+              }
+            } catch (IOException | RuntimeException e) {
+              log.debug("Binary connection closed: {}", e.toString());
+              connection.close();
+            }
+          }
+        }
+      } catch (IOException e) {
+        log.error("Binary event loop {} failed", thread.getName(), e);
+      } finally {
+        for (SelectionKey key : selector.keys()) {
+          closeQuietly(key);
+        }
+        try {
+          selector.close();
+        } catch (IOException e) {
+          log.debug("Selector of {} not closed: {}", thread.getName(), e.toString());
+        }
+      }
+    }
+
+    /**
+     * A failed accept doesn't stop the loop, which serves the connections already accepted: accepts are paused
+     * for ACCEPT_BACKOFF_MILLIS, the pending connections wait in the backlog meanwhile
+     */
+    private void accept(SelectionKey key) {
+      SocketChannel channel;
+      try {
+        while ((channel = serverChannel.accept()) != null) {
+          EventLoop loop = loops[nextLoop++ % loops.length];
+          if (loop == this) {
+            registerQuietly(channel);
+          } else {
+            loop.accepted.add(channel);
+            loop.selector.wakeup();
+          }
+        }
+      } catch (IOException e) {
+        log.warn("Binary accept failed, accepts paused for {} ms: {}", ACCEPT_BACKOFF_MILLIS, e.toString());
+        key.interestOps(0);
+        pausedAccept = key;
+        acceptPausedUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ACCEPT_BACKOFF_MILLIS);
+      }
+    }
+
+    private void resumeAccept() {
+      if (System.nanoTime() - acceptPausedUntil >= 0) {
+        if (pausedAccept.isValid()) {
+          pausedAccept.interestOps(SelectionKey.OP_ACCEPT);
+        }
+        pausedAccept = null;
+      }
+    }
+
+    /**
+     * A connection which can't be set up is closed, the others of the loop are not affected
+     */
+    private void registerQuietly(SocketChannel channel) {
+      try {
+        register(channel);
+      } catch (IOException e) {
+        log.debug("Binary connection not registered: {}", e.toString());
+        try {
+          channel.close();
+        } catch (IOException closeFailure) {
+          log.debug("Channel not closed: {}", closeFailure.toString());
+        }
+      }
+    }
+
+    private void register(SocketChannel channel) throws IOException {
+      channel.configureBlocking(false);
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+      key.attach(new Connection(channel, key, this));
+    }
+
+    private void closeQuietly(SelectionKey key) {
+      try {
+        key.channel().close();
+      } catch (IOException e) {
+        log.debug("Channel not closed: {}", e.toString());
+      }
+    }
+  }
+
+  private final class Connection {
+    final SocketChannel channel;
+    final SelectionKey key;
+    final EventLoop loop;
+    final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    final ByteBuffer out = ByteBuffer.allocateDirect(MAX_REQUESTS_PER_READ * RESPONSE_SIZE);
+    /** Responses waiting for the socket, nothing is read meanwhile */
+    boolean writing;
+    /** Malformed request seen, closed once its response is written */
+    boolean closing;
+
+    Connection(SocketChannel channel, SelectionKey key, EventLoop loop) {
+      this.channel = channel;
+      this.key = key;
+      this.loop = loop;
+    }
+
+    void read() throws IOException {
+      if (channel.read(in) < 0) {
+        close();
+        return;
+      }
+      process();
+    }
+
+    void write() throws IOException {
+      flush();
+      if (!writing && key.isValid()) {
+        process(); // the requests read while the responses were pending
+      }
+    }
+
+    /**
+     * Decodes the complete requests of the input buffer, applies them, then writes their responses
+     */
+    private void process() throws IOException {
+      int count = 0;
+      int epoch = accountsRepository.getHandleEpoch(); // read before the lookups, their handles can only be older
+      in.flip();
+      while (in.hasRemaining() && !closing) {
+        int start = in.position();
+        byte type = in.get(start);
+        if (type == TRANSFER) {
+          if (in.remaining() < TRANSFER_SIZE) {
+            break;
+          }
+          in.get();
+          long requestId = in.getLong();
+          long sourceHandle = in.getLong();
+          long destinationHandle = in.getLong();
+          long amount = in.getLong();
+          Account source = accountsRepository.getAccount((int) sourceHandle);
+          Account destination = accountsRepository.getAccount((int) destinationHandle);
+          // checked once the accounts are resolved, they belong to the epoch of the handles
+          int currentEpoch = accountsRepository.getHandleEpoch();
+          if (BinaryProtocol.epochOf(sourceHandle) != currentEpoch || BinaryProtocol.epochOf(destinationHandle) != currentEpoch) {
+            count = respond(count, requestId, STALE_HANDLES, -1);
+          } else if (source == null || destination == null) {
+            count = respond(count, requestId, INVALID_ACCOUNT, -1);
+          } else {
+            loop.transferPositions[loop.transfers.size()] = count;
+            loop.transfers.add(new Transfer(source.getAccountId(), destination.getAccountId(), amount,
+                    (int) sourceHandle, (int) destinationHandle));
+            count = respond(count, requestId, OK, -1);
+          }
+        } else if (type == LOOKUP && in.remaining() >= LOOKUP_HEADER_SIZE) {
+          int length = in.getShort(start + 9) & 0xFFFF;
+          if (length == 0 || length > MAX_ID_LENGTH) {
+            count = malformed(count, in.getLong(start + 1));
+          } else if (in.remaining() < LOOKUP_HEADER_SIZE + length) {
+            break;
+          } else {
+            in.position(start + LOOKUP_HEADER_SIZE);
+            byte[] encodedId = new byte[length];
+            in.get(encodedId);
+            int handle = accountsRepository.handleOf(new String(encodedId, StandardCharsets.UTF_8));
+            count = respond(count, in.getLong(start + 1), handle < 0 ? INVALID_ACCOUNT : OK,
+              handle < 0 ? -1 : BinaryProtocol.handle(epoch, handle));
+          }
+        } else if (type == LOOKUP) {
+          break;
+        } else {
+          count = malformed(count, in.remaining() >= 9 ? in.getLong(start + 1) : 0);
+        }
+      }
+      in.compact();
+
+      if (!loop.transfers.isEmpty()) {
+        apply();
+      }
+      for (int i = 0; i < count; i++) {
+        out.putLong(loop.requestIds[i]).put(loop.statuses[i]).putLong(loop.handles[i]);
+      }
+      out.flip();
+      writing = true;
+      flush();
+    }
+
+    private void apply() {
+      List<TransferResult> results = null;
+      try {
+        results = accountBalanceService.transferBatch(loop.transfers, BatchMode.BEST_EFFORT);
+      } catch (RuntimeException e) {
+        log.warn("Batch of {} binary transfers failed", loop.transfers.size(), e);
+      }
+      for (int i = 0; i < loop.transfers.size(); i++) {
+        loop.statuses[loop.transferPositions[i]] = results == null ? REJECTED : BinaryProtocol.statusOf(results.get(i));
+      }
+      loop.transfers.clear();
+    }
+
+    private int respond(int count, long requestId, byte status, long handle) {
+      loop.requestIds[count] = requestId;
+      loop.statuses[count] = status;
+      loop.handles[count] = handle;
+      return count + 1;
+    }
+
+    private int malformed(int count, long requestId) {
+      closing = true;
+      return respond(count, requestId, MALFORMED, -1);
+    }
+
+    private void flush() throws IOException {
+      channel.write(out);
+      if (out.hasRemaining()) {
+        key.interestOps(SelectionKey.OP_WRITE);
+        return;
+      }
+      out.clear();
+      writing = false;
+      if (closing) {
+        close();
+      } else {
+        key.interestOps(SelectionKey.OP_READ);
+      }
+    }
+
+    void close() {
+      key.cancel();
+      loop.closeQuietly(key);
+    }
+  }
+}
@@ -1,38 +1,188 @@
 package com.dws.challenge.domain;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import java.math.BigDecimal;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
 
+/**
+ * Account and its balance.
+ *
+ * The balance is kept as a scaled long (minor units, i.e. cents) in a volatile field, so it can be
+ * read without locking and updated with compare-and-set by {@link #tryDebit(long)} / {@link #credit(long)}.
+ * {@link #getBalance()} / {@link #setBalance(BigDecimal)} convert from / to BigDecimal for the REST layer, see {@link Money}.
+ * Repositories may subclass it to keep the balance elsewhere (e.g. off-heap), overriding the balance methods.
+ *
+ * Every balance change bumps the version, readers get an immutable {@link AccountSnapshot} through {@link #snapshot()}
+ * without touching the write path; the last snapshot is cached until the balance changes again.
+ *
+ * An account with transfer limits carries its {@link VelocityCounter}, null when it has none.
+ * Once created it also carries its repository handle, see {@link #getHandle()}.
+ */
 @Data
 public class Account {
 
+  private static final AtomicLongFieldUpdater<Account> BALANCE =
+    AtomicLongFieldUpdater.newUpdater(Account.class, "balanceMinorUnits");
+
+  private static final AtomicLongFieldUpdater<Account> VERSION =
+    AtomicLongFieldUpdater.newUpdater(Account.class, "version");
+
   @NotNull
   @NotEmpty
   private final String accountId;
 
-  @NotNull
-  @Min(value = 0, message = "Initial balance must be positive.")
-  private BigDecimal balance;
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  @ToString.Exclude
+  private volatile long balanceMinorUnits;
+
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  @ToString.Exclude
+  @EqualsAndHashCode.Exclude
+  private volatile long version;
+
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  @ToString.Exclude
+  @EqualsAndHashCode.Exclude
+  private volatile AccountSnapshot snapshot;
+
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  @ToString.Exclude
+  @EqualsAndHashCode.Exclude
+  private volatile VelocityCounter velocityCounter;
+
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  @ToString.Exclude
+  @EqualsAndHashCode.Exclude
+  private int handle = -1;
 
   public Account(String accountId) {
     this.accountId = accountId;
-    this.balance = BigDecimal.ZERO;
+    this.balanceMinorUnits = 0L;
   }
 
   @JsonCreator
   public Account(@JsonProperty("accountId") String accountId,
     @JsonProperty("balance") BigDecimal balance) {
     this.accountId = accountId;
-    this.balance = balance;
+    this.balanceMinorUnits = Money.toMinorUnits(balance);
+  }
+
+  @NotNull
+  @Min(value = 0, message = "Initial balance must be positive.")
+  @ToString.Include(name = "balance")
+  public BigDecimal getBalance() {
+    return Money.toBigDecimal(getBalanceMinorUnits());
+  }
+
+  public void setBalance(BigDecimal balance) {
+    this.balanceMinorUnits = Money.toMinorUnits(balance);
+    VERSION.incrementAndGet(this);
+  }
+
+  @JsonIgnore
+  public long getBalanceMinorUnits() {
+    return balanceMinorUnits;
+  }
+
+  /**
+   * @return number of balance changes, bumped right after each change
+   */
+  @JsonIgnore
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * @return the counter of the transfers out of the account, null if the account has no transfer limits
+   */
+  @JsonIgnore
+  public VelocityCounter getVelocityCounter() {
+    return velocityCounter;
+  }
+
+  public void setVelocityCounter(VelocityCounter velocityCounter) {
+    this.velocityCounter = velocityCounter;
+  }
+
+  /**
+   * @return handle of the account in its repository, -1 until it is created, see {@link com.dws.challenge.repository.AccountsRepository#handleOf(String)}
+   */
+  @JsonIgnore
+  public int getHandle() {
+    return handle;
+  }
+
+  /**
+   * Set by the repository before the account becomes visible
+   */
+  @JsonIgnore
+  public void setHandle(int handle) {
+    this.handle = handle;
+  }
+
+  /**
+   * Reads the balance with its version, without locking: retried if the version moved meanwhile.
+   * A change in flight may not be counted in the version yet, see {@link AccountSnapshot#getETag()}.
+   * Doesn't allocate as long as the balance doesn't change.
+   */
+  public AccountSnapshot snapshot() {
+    long currentVersion;
+    long balance;
+    do {
+      currentVersion = getVersion();
+      balance = getBalanceMinorUnits();
+    } while (currentVersion != getVersion());
+    AccountSnapshot cached = snapshot;
+    if (cached == null || cached.getVersion() != currentVersion || cached.getBalanceMinorUnits() != balance) {
+      cached = new AccountSnapshot(accountId, balance, currentVersion);
+      snapshot = cached; // racy publication is fine, snapshots are immutable
+    }
+    return cached;
+  }
+
+  /**
+   * Atomically takes the amount out of the balance, unless that would make the balance negative.
+   *
+   * @param amount amount in minor units, must be positive
+   * @return false if the balance is not sufficient, the balance is unchanged in that case
+   */
+  public boolean tryDebit(long amount) {
+    long current;
+    do {
+      current = balanceMinorUnits;
+      if (current < amount) {
+        return false;
+      }
+    } while (!BALANCE.compareAndSet(this, current, current - amount));
+    VERSION.incrementAndGet(this);
+    return true;
+  }
+
+  /**
+   * Atomically adds the amount to the balance.
+   *
+   * @param amount amount in minor units, must be positive
+   */
+  public void credit(long amount) {
+    BALANCE.addAndGet(this, amount);
+    VERSION.incrementAndGet(this);
   }
 }
@@ -0,0 +1,17 @@
+package com.dws.challenge.domain;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * One page of a cursor-paginated account listing, see {@link com.dws.challenge.repository.AccountsRepository#listAccounts(String, int)}
+ */
+@Value
+public class AccountPage {
+
+  List<AccountSnapshot> accounts;
+
+  /** opaque cursor of the next page, null on the last page */
+  String nextCursor;
+}
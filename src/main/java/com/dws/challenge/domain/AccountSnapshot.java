@@ -0,0 +1,40 @@
+package com.dws.challenge.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import lombok.Value;
+
+import java.math.BigDecimal;
+
+/**
+ * Immutable, consistent view of an account at a given version, see {@link Account#snapshot()}.
+ * Serialized exactly like {@link Account}, so it can be returned to readers instead of the live instance.
+ */
+@Value
+@JsonPropertyOrder({"accountId", "balance"})
+public class AccountSnapshot {
+
+  String accountId;
+
+  @JsonIgnore
+  long balanceMinorUnits;
+
+  /**
+   * Number of balance changes of the account when the snapshot was taken
+   */
+  @JsonIgnore
+  long version;
+
+  public BigDecimal getBalance() {
+    return Money.toBigDecimal(balanceMinorUnits);
+  }
+
+  /**
+   * Strong entity tag of the representation. It includes the balance: in the lock-free engine the version
+   * is bumped right after the balance changes, so the version alone could briefly name two balances.
+   */
+  @JsonIgnore
+  public String getETag() {
+    return "\"" + version + "-" + balanceMinorUnits + "\"";
+  }
+}
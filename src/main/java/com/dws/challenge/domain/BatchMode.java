@@ -0,0 +1,11 @@
+package com.dws.challenge.domain;
+
+/**
+ * How a batch of transfers is applied
+ */
+public enum BatchMode {
+  /** Either every transfer of the batch is applied or none is */
+  ALL_OR_NOTHING,
+  /** Every valid transfer is applied, invalid ones are reported and skipped */
+  BEST_EFFORT
+}
@@ -0,0 +1,28 @@
+package com.dws.challenge.domain;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Outcome of a bulk account import. Only the first duplicate ids and errors are listed, all of them are counted.
+ */
+@Value
+public class ImportResult {
+
+  long created;
+
+  long duplicates;
+
+  long invalid;
+
+  /** accounts owned by another node of the cluster, not created here */
+  long skipped;
+
+  List<String> duplicateIds;
+
+  List<String> skippedIds;
+
+  /** "line n: reason" of the first invalid lines */
+  List<String> errors;
+}
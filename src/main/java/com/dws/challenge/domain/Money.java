@@ -0,0 +1,54 @@
+package com.dws.challenge.domain;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Currency;
+
+/**
+ * Fixed-scale money representation used inside the services and the repository.
+ *
+ * An amount is a plain long holding minor units of its currency (cents for USD, yen for JPY, fils for BHD),
+ * so the transfer path does arithmetic on primitives and allocates nothing.
+ * BigDecimal is only used at the REST edge, through {@link #toMinorUnits(BigDecimal)} and {@link #toBigDecimal(long)}.
+ */
+public final class Money {
+
+  /** Currency of all accounts until accounts carry their own currency */
+  public static final Currency DEFAULT_CURRENCY = Currency.getInstance("USD");
+
+  public static final int DEFAULT_SCALE = scaleOf(DEFAULT_CURRENCY);
+
+  private Money() {
+  }
+
+  /**
+   * @return number of decimals of the currency's minor unit, 0 for currencies without one
+   */
+  public static int scaleOf(Currency currency) {
+    return Math.max(currency.getDefaultFractionDigits(), 0);
+  }
+
+  public static long toMinorUnits(BigDecimal amount) {
+    return toMinorUnits(amount, DEFAULT_CURRENCY);
+  }
+
+  /**
+   * Converts an amount to minor units of the currency.
+   *
+   * @throws ArithmeticException if the amount has more decimals than the currency or does not fit in a long
+   */
+  public static long toMinorUnits(BigDecimal amount, Currency currency) {
+    if (amount == null) {
+      throw new IllegalArgumentException("amount is required");
+    }
+    return amount.setScale(scaleOf(currency), RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+  }
+
+  public static BigDecimal toBigDecimal(long minorUnits) {
+    return toBigDecimal(minorUnits, DEFAULT_CURRENCY);
+  }
+
+  public static BigDecimal toBigDecimal(long minorUnits, Currency currency) {
+    return BigDecimal.valueOf(minorUnits, scaleOf(currency));
+  }
+}
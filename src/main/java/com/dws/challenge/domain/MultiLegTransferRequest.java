@@ -0,0 +1,40 @@
+package com.dws.challenge.domain;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.math.BigDecimal;
+import java.util.List;
+import lombok.Data;
+
+/**
+ * A multi-leg transfer as received at the REST edge, e.g. a payroll: one debit and many credits
+ */
+@Data
+public class MultiLegTransferRequest {
+
+  private final List<Leg> debits;
+
+  private final List<Leg> credits;
+
+  @JsonCreator
+  public MultiLegTransferRequest(@JsonProperty("debits") List<Leg> debits,
+    @JsonProperty("credits") List<Leg> credits) {
+    this.debits = debits;
+    this.credits = credits;
+  }
+
+  @Data
+  public static class Leg {
+
+    private final String accountId;
+
+    private final BigDecimal amount;
+
+    @JsonCreator
+    public Leg(@JsonProperty("accountId") String accountId,
+      @JsonProperty("amount") BigDecimal amount) {
+      this.accountId = accountId;
+      this.amount = amount;
+    }
+  }
+}
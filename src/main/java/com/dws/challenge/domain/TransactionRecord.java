@@ -0,0 +1,23 @@
+package com.dws.challenge.domain;
+
+import lombok.Value;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+/**
+ * A transfer as seen from one of its accounts, a line of GET /v1/accounts/{accountId}/transactions
+ */
+@Value
+public class TransactionRecord {
+
+  /** position of the transfer in the history of the account, from 0 */
+  long sequence;
+
+  Instant timestamp;
+
+  String counterpartyAccountId;
+
+  /** negative for a debit of the account, positive for a credit */
+  BigDecimal amount;
+}
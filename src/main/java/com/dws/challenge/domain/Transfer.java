@@ -0,0 +1,37 @@
+package com.dws.challenge.domain;
+
+import lombok.Value;
+
+/**
+ * A transfer of an amount in minor units (see {@link Money}) between two accounts, used by batches.
+ *
+ * Callers which keep the repository handles of the accounts (see
+ * {@link com.dws.challenge.repository.AccountsRepository#handleOf(String)}) pass them along, the engine then finds
+ * the accounts by handle instead of by id. Handles are -1 otherwise.
+ */
+@Value
+public class Transfer {
+
+  String sourceAccountId;
+
+  String destinationAccountId;
+
+  long amount;
+
+  int sourceHandle;
+
+  int destinationHandle;
+
+  public Transfer(String sourceAccountId, String destinationAccountId, long amount) {
+    this(sourceAccountId, destinationAccountId, amount, -1, -1);
+  }
+
+  public Transfer(String sourceAccountId, String destinationAccountId, long amount, int sourceHandle,
+                  int destinationHandle) {
+    this.sourceAccountId = sourceAccountId;
+    this.destinationAccountId = destinationAccountId;
+    this.amount = amount;
+    this.sourceHandle = sourceHandle;
+    this.destinationHandle = destinationHandle;
+  }
+}
@@ -0,0 +1,15 @@
+package com.dws.challenge.domain;
+
+import lombok.Value;
+
+/**
+ * One leg of a multi-leg transfer: an account and the amount in minor units (see {@link Money})
+ * debited from it or credited to it
+ */
+@Value
+public class TransferLeg {
+
+  String accountId;
+
+  long amount;
+}
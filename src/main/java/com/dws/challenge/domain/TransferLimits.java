@@ -0,0 +1,39 @@
+package com.dws.challenge.domain;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Value;
+
+import java.math.BigDecimal;
+
+/**
+ * Transfer limits of an account over the rolling window (account.limits.window-ms), null for no limit.
+ * Set with PUT /v1/accounts/{accountId}/limits, read back with the usage of the current window.
+ */
+@Value
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TransferLimits {
+
+  /** total amount of the transfers out of the account */
+  BigDecimal maxAmount;
+
+  /** number of transfers out of the account */
+  Long maxCount;
+
+  BigDecimal amountInWindow;
+
+  Long countInWindow;
+
+  @JsonCreator
+  public TransferLimits(@JsonProperty("maxAmount") BigDecimal maxAmount, @JsonProperty("maxCount") Long maxCount) {
+    this(maxAmount, maxCount, null, null);
+  }
+
+  public TransferLimits(BigDecimal maxAmount, Long maxCount, BigDecimal amountInWindow, Long countInWindow) {
+    this.maxAmount = maxAmount;
+    this.maxCount = maxCount;
+    this.amountInWindow = amountInWindow;
+    this.countInWindow = countInWindow;
+  }
+}
@@ -0,0 +1,28 @@
+package com.dws.challenge.domain;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.math.BigDecimal;
+import lombok.Data;
+
+/**
+ * One transfer of a batch as received at the REST edge
+ */
+@Data
+public class TransferRequest {
+
+  private final String source;
+
+  private final String destination;
+
+  private final BigDecimal amount;
+
+  @JsonCreator
+  public TransferRequest(@JsonProperty("source") String source,
+    @JsonProperty("destination") String destination,
+    @JsonProperty("amount") BigDecimal amount) {
+    this.source = source;
+    this.destination = destination;
+    this.amount = amount;
+  }
+}
@@ -0,0 +1,45 @@
+package com.dws.challenge.domain;
+
+import com.dws.challenge.service.TransferMetrics;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Value;
+
+/**
+ * Outcome of one transfer of a batch
+ */
+@Value
+public class TransferResult {
+
+  public enum Status {
+    APPLIED,
+    REJECTED,
+    /** Valid, but not applied because another transfer of an all-or-nothing batch was rejected */
+    ABORTED
+  }
+
+  int index;
+
+  Status status;
+
+  String message;
+
+  /** Why the transfer was rejected, null if it wasn't or the engine doesn't know */
+  @JsonIgnore
+  TransferMetrics.Reason reason;
+
+  public static TransferResult applied(int index) {
+    return new TransferResult(index, Status.APPLIED, null, null);
+  }
+
+  public static TransferResult rejected(int index, String message) {
+    return new TransferResult(index, Status.REJECTED, message, null);
+  }
+
+  public static TransferResult rejected(int index, TransferMetrics.Reason reason, String message) {
+    return new TransferResult(index, Status.REJECTED, message, reason);
+  }
+
+  public static TransferResult aborted(int index) {
+    return new TransferResult(index, Status.ABORTED, null, null);
+  }
+}
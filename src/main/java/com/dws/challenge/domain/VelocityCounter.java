@@ -0,0 +1,158 @@
+package com.dws.challenge.domain;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Amount and number of the transfers out of an account over a rolling window, with the limits of the account.
+ *
+ * The window is a ring of time buckets [epoch][amount][count], the bucket of a transfer is its time / bucket width.
+ * The writer keeps running totals of the window, moving the head of the ring expires the buckets which leave it:
+ * a check is a couple of comparisons (amortized O(1)) and nothing is allocated.
+ * The window slides by whole buckets, a transfer stays counted between windowMillis - bucket width and windowMillis.
+ *
+ * Updated by one thread at a time, the one holding the lock of the source account (see TransferLimiter);
+ * {@link #getAmountInWindow(long)} / {@link #getCountInWindow(long)} read the ring without locking.
+ */
+public class VelocityCounter {
+
+  private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+
+  private static final int EPOCH = 0;
+  private static final int AMOUNT = 1;
+  private static final int COUNT = 2;
+
+  private final int buckets;
+
+  private final long bucketMillis;
+
+  /** written with release stores: the writer is single, readers only need to see whole values */
+  private final long[] ring;
+
+  private volatile long maxAmount;
+
+  private volatile long maxCount;
+
+  /** guarded by the lock of the source account, like the totals */
+  private long headEpoch;
+
+  private int headSlot;
+
+  private long amountInWindow;
+
+  private long countInWindow;
+
+  /**
+   * @param maxAmount limit of the amount in minor units, Long.MAX_VALUE for none
+   * @param maxCount limit of the number of transfers, Long.MAX_VALUE for none
+   */
+  public VelocityCounter(long windowMillis, int buckets, long maxAmount, long maxCount) {
+    if (buckets < 1 || windowMillis < buckets) {
+      throw new IllegalArgumentException("Invalid window of " + windowMillis + " ms in " + buckets + " buckets");
+    }
+    this.buckets = buckets;
+    this.bucketMillis = windowMillis / buckets;
+    this.ring = new long[buckets * 3];
+    this.maxAmount = maxAmount;
+    this.maxCount = maxCount;
+  }
+
+  public long getMaxAmount() {
+    return maxAmount;
+  }
+
+  public long getMaxCount() {
+    return maxCount;
+  }
+
+  public void setLimits(long maxAmount, long maxCount) {
+    this.maxAmount = maxAmount;
+    this.maxCount = maxCount;
+  }
+
+  /**
+   * @return true if a transfer of the amount at that time stays within the limits, nothing is recorded
+   */
+  public boolean allows(long amount, long nowMillis) {
+    advance(nowMillis / bucketMillis);
+    return !exceedsAmount(amount) && countInWindow < maxCount;
+  }
+
+  /**
+   * @return true if the amount limit (rather than the count limit) is the one a transfer of the amount would exceed
+   */
+  public boolean exceedsAmount(long amount) {
+    return amountInWindow + amount > maxAmount;
+  }
+
+  /**
+   * Counts a transfer in the current bucket, after {@link #allows(long, long)}
+   */
+  public void record(long amount) {
+    add(amount, 1);
+  }
+
+  /**
+   * Takes back a recorded transfer which ends up not applied, from the current bucket
+   */
+  public void revert(long amount) {
+    add(-amount, -1);
+  }
+
+  private void add(long amount, long count) {
+    LONGS.setRelease(ring, headSlot + AMOUNT, ring[headSlot + AMOUNT] + amount);
+    LONGS.setRelease(ring, headSlot + COUNT, ring[headSlot + COUNT] + count);
+    amountInWindow += amount;
+    countInWindow += count;
+  }
+
+  /**
+   * Moves the head of the ring to the epoch, the buckets reused for the new epochs leave the window
+   */
+  private void advance(long epoch) {
+    if (epoch <= headEpoch) { // also when the clock goes back, counted in the head bucket
+      return;
+    }
+    if (epoch - headEpoch >= buckets) { // idle for the whole window, every bucket expired
+      for (int slot = 0; slot < ring.length; slot += 3) {
+        LONGS.setRelease(ring, slot + AMOUNT, 0L);
+        LONGS.setRelease(ring, slot + COUNT, 0L);
+      }
+      headSlot = (int) (epoch % buckets) * 3;
+      LONGS.setRelease(ring, headSlot + EPOCH, epoch);
+      amountInWindow = 0;
+      countInWindow = 0;
+      headEpoch = epoch;
+      return;
+    }
+    for (long e = headEpoch + 1; e <= epoch; e++) {
+      int slot = (int) (e % buckets) * 3;
+      amountInWindow -= ring[slot + AMOUNT];
+      countInWindow -= ring[slot + COUNT];
+      LONGS.setRelease(ring, slot + AMOUNT, 0L);
+      LONGS.setRelease(ring, slot + COUNT, 0L);
+      LONGS.setRelease(ring, slot + EPOCH, e);
+    }
+    headSlot = (int) (epoch % buckets) * 3;
+    headEpoch = epoch;
+  }
+
+  public long getAmountInWindow(long nowMillis) {
+    return sum(AMOUNT, nowMillis);
+  }
+
+  public long getCountInWindow(long nowMillis) {
+    return sum(COUNT, nowMillis);
+  }
+
+  private long sum(int field, long nowMillis) {
+    long oldest = nowMillis / bucketMillis - buckets + 1;
+    long total = 0;
+    for (int slot = 0; slot < ring.length; slot += 3) {
+      if ((long) LONGS.getAcquire(ring, slot + EPOCH) >= oldest) {
+        total += (long) LONGS.getAcquire(ring, slot + field);
+      }
+    }
+    return total;
+  }
+}
@@ -5,4 +5,11 @@ public class InvalidTransactionException extends RuntimeException{
     public InvalidTransactionException(String message) {
         super(message);
     }
+
+    /**
+     * @param writableStackTrace false for expected rejections (e.g. insufficient funds), which don't need a stack trace
+     */
+    public InvalidTransactionException(String message, boolean writableStackTrace) {
+        super(message, null, false, writableStackTrace);
+    }
 }
@@ -0,0 +1,11 @@
+package com.dws.challenge.exception;
+
+/**
+ * The node owning an account can't be reached, answered with 503 so the client retries later
+ */
+public class PartitionUnavailableException extends RuntimeException {
+
+  public PartitionUnavailableException(String node, Throwable cause) {
+    super("Partition owner " + node + " is unavailable", cause);
+  }
+}
@@ -0,0 +1,18 @@
+package com.dws.challenge.exception;
+
+import com.dws.challenge.service.TransferRejection;
+import lombok.Getter;
+
+/**
+ * A transfer rejected by a {@link TransferRejection}, which callers can switch on instead of parsing the message
+ */
+@Getter
+public class TransferRejectedException extends InvalidTransactionException {
+
+  private final TransferRejection rejection;
+
+  public TransferRejectedException(TransferRejection rejection, String message) {
+    super(message, false);
+    this.rejection = rejection;
+  }
+}
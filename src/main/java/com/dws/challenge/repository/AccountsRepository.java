@@ -1,13 +1,100 @@
 package com.dws.challenge.repository;
 
 import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.AccountPage;
+import com.dws.challenge.domain.Transfer;
 import com.dws.challenge.exception.DuplicateAccountIdException;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public interface AccountsRepository {
 
   void createAccount(Account account) throws DuplicateAccountIdException;
 
+  /**
+   * Creates many accounts at once, for bulk imports. Ids which already exist (or appear twice in the batch)
+   * are skipped and reported instead of throwing {@link DuplicateAccountIdException} per account.
+   *
+   * @return ids of the accounts which were not created because they already existed
+   */
+  default List<String> createAccounts(List<Account> accounts) {
+    List<String> duplicates = new ArrayList<>();
+    for (Account account : accounts) {
+      try {
+        createAccount(account);
+      } catch (DuplicateAccountIdException daie) {
+        duplicates.add(account.getAccountId());
+      }
+    }
+    return duplicates;
+  }
+
+  /**
+   * The returned account isn't necessarily the same instance on every lookup (the off-heap repository returns
+   * a new view per lookup): callers which keep state per account, or compare accounts, must look each id up once.
+   *
+   * @return the account, null if it doesn't exist
+   */
   Account getAccount(String accountId);
 
+  /**
+   * Handle of an account: a dense int assigned when the account is created (0, 1, 2... in creation order).
+   * Internal callers keep it to address the account by array index, without hashing and comparing its id again.
+   * Handles stay valid until {@link #clearAccounts()}, which starts them over from 0, see {@link #getHandleEpoch()}.
+   *
+   * @return the handle of the account, -1 if it doesn't exist
+   */
+  int handleOf(String accountId);
+
+  /**
+   * @return the account of the handle, see {@link #handleOf(String)}, null if no account has it
+   */
+  Account getAccount(int handle);
+
+  /**
+   * Changes whenever handles may be reassigned: on {@link #clearAccounts()}, and on restart (it starts from a random
+   * value, the accounts may be recovered in another order). A caller keeping handles keeps their epoch with them,
+   * and looks them up again once it changed.
+   */
+  int getHandleEpoch();
+
+  /**
+   * Lists the accounts page by page, for reconciliation and exports. Never takes a lock transfers could wait on:
+   * every account is a consistent {@link com.dws.challenge.domain.AccountSnapshot}, but the listing is only weakly
+   * consistent, accounts created (or balances changed) while it runs may or may not be seen.
+   *
+   * @param cursor nextCursor of the previous page, null for the first page
+   * @param limit  maximum number of accounts of the page
+   * @throws IllegalArgumentException if the cursor was not issued by this repository
+   */
+  AccountPage listAccounts(String cursor, int limit);
+
   void clearAccounts();
+
+  /**
+   * Records a committed transfer, engines call it while they still own both accounts
+   * so the journal order respects the order in which balances were used.
+   *
+   * @return sequence to pass to {@link #awaitDurable(long)}, -1 when the repository is not durable
+   */
+  default long journalTransfer(String sourceAccountId, String destinationAccountId, long amount) {
+    return -1;
+  }
+
+  /**
+   * Records transfers committed together (all legs of a multi-leg transfer, an all or nothing batch) as one record,
+   * so that a failure leaves either all of them or none in the journal
+   *
+   * @return sequence to pass to {@link #awaitDurable(long)}, -1 when the repository is not durable
+   */
+  default long journalTransfers(List<Transfer> transfers) {
+    return -1;
+  }
+
+  /**
+   * Blocks until the journal record is durable, engines call it after releasing the accounts
+   */
+  default void awaitDurable(long sequence) {
+  }
 }
@@ -1,24 +1,155 @@
 package com.dws.challenge.repository;
 
 import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.AccountPage;
+import com.dws.challenge.domain.AccountSnapshot;
+import com.dws.challenge.domain.Money;
+import com.dws.challenge.domain.Transfer;
 import com.dws.challenge.exception.DuplicateAccountIdException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Repository;
 
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Accounts kept in memory, this is the default repository (account.repository=in-memory)
+ * They are made durable by the optional {@link TransferJournal} (account.journal.enabled=true) which is replayed on startup
+ *
+ * Ids are also kept sorted in a skip list, so listings are paginated by id without copying or locking the map
+ * (an account is indexed right after it becomes visible, lookups don't use the index).
+ * Accounts are also kept in an array by handle, appended to as they are created: a lookup by handle is a bounds check
+ * and an array read. The array is replaced by a larger copy when full, under the lock which assigns the handles.
+ */
 @Repository
+@ConditionalOnProperty(name = "account.repository", havingValue = "in-memory", matchIfMissing = true)
 public class AccountsRepositoryInMemory implements AccountsRepository {
 
-    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+    private final Map<String, Account> accounts;
+
+    private final NavigableSet<String> accountIds = new ConcurrentSkipListSet<>();
+
+    private final ReentrantLock handleLock = new ReentrantLock();
+
+    /** Accounts by handle, written under the handle lock then republished, so readers see the new slot */
+    private volatile Account[] accountsByHandle;
+
+    private int handleCount;
+
+    private final AtomicInteger handleEpoch = new AtomicInteger(ThreadLocalRandom.current().nextInt());
+
+    private TransferJournal journal;
+
+    public AccountsRepositoryInMemory() {
+        this(16);
+    }
+
+    /**
+     * @param initialCapacity expected number of accounts, so a bulk import doesn't keep resizing the map
+     */
+    @Autowired
+    public AccountsRepositoryInMemory(@Value("${account.in-memory.initial-capacity:16}") int initialCapacity) {
+        this.accounts = new ConcurrentHashMap<>(initialCapacity);
+        this.accountsByHandle = new Account[Math.max(initialCapacity, 16)];
+    }
+
+    @Autowired(required = false)
+    public void setJournal(TransferJournal journal) {
+        this.journal = journal;
+    }
+
+    @PostConstruct
+    public void recover() throws IOException {
+        if (journal == null) {
+            return;
+        }
+        journal.recover().forEach((accountId, balance) -> {
+            Account account = new Account(accountId, Money.toBigDecimal(balance));
+            assignHandle(account);
+            accounts.put(accountId, account);
+        });
+        accountIds.addAll(accounts.keySet());
+    }
 
     @Override
     public void createAccount(Account account) throws DuplicateAccountIdException {
-        Account previousAccount = accounts.putIfAbsent(account.getAccountId(), account);
-        if (previousAccount != null) {
+        long[] sequence = {-1};
+        if (!insert(account, sequence)) {
             throw new DuplicateAccountIdException(
                     "Account id " + account.getAccountId() + " already exists!");
         }
+        if (journal != null) {
+            journal.awaitDurable(sequence[0]);
+        }
+    }
+
+    /**
+     * With a journal every account is journaled as it becomes visible,
+     * and the batch waits once for the last record instead of once per account.
+     */
+    @Override
+    public List<String> createAccounts(List<Account> batch) {
+        List<String> duplicates = new ArrayList<>();
+        long[] sequence = {-1};
+        for (Account account : batch) {
+            if (!insert(account, sequence)) {
+                duplicates.add(account.getAccountId());
+            }
+        }
+        if (journal != null) {
+            journal.awaitDurable(sequence[0]);
+        }
+        return duplicates;
+    }
+
+    /**
+     * Journals the account and gives it its handle before it becomes visible,
+     * so no transfer of it can precede its creation and it is never seen without handle
+     *
+     * @param sequence set to the sequence of the journal record, if any
+     * @return false if the id already exists
+     */
+    private boolean insert(Account account, long[] sequence) {
+        boolean[] created = {false};
+        accounts.computeIfAbsent(account.getAccountId(), accountId -> {
+            if (journal != null) {
+                sequence[0] = journal.appendAccount(accountId, account.getBalanceMinorUnits());
+            }
+            assignHandle(account);
+            created[0] = true;
+            return account;
+        });
+        if (created[0]) {
+            accountIds.add(account.getAccountId());
+        }
+        return created[0];
+    }
+
+    private void assignHandle(Account account) {
+        handleLock.lock();
+        try {
+            Account[] byHandle = accountsByHandle;
+            if (handleCount == byHandle.length) {
+                byHandle = Arrays.copyOf(byHandle, byHandle.length * 2);
+            }
+            account.setHandle(handleCount);
+            byHandle[handleCount++] = account;
+            accountsByHandle = byHandle;
+        } finally {
+            handleLock.unlock();
+        }
     }
 
     @Override
@@ -26,9 +157,75 @@ public class AccountsRepositoryInMemory implements AccountsRepository {
         return accounts.get(accountId);
     }
 
+    @Override
+    public int handleOf(String accountId) {
+        Account account = accounts.get(accountId);
+        return account == null ? -1 : account.getHandle();
+    }
+
+    @Override
+    public Account getAccount(int handle) {
+        Account[] byHandle = accountsByHandle;
+        return handle >= 0 && handle < byHandle.length ? byHandle[handle] : null;
+    }
+
+    @Override
+    public int getHandleEpoch() {
+        return handleEpoch.get();
+    }
+
+    /**
+     * Accounts in id order, the cursor is the last id of the previous page
+     */
+    @Override
+    public AccountPage listAccounts(String cursor, int limit) {
+        NavigableSet<String> ids = cursor == null ? accountIds : accountIds.tailSet(cursor, false);
+        List<AccountSnapshot> page = new ArrayList<>(Math.min(limit, 1024));
+        String lastId = null;
+        for (String accountId : ids) {
+            if (page.size() == limit) {
+                return new AccountPage(page, lastId);
+            }
+            Account account = accounts.get(accountId);
+            if (account != null) { // null if cleared meanwhile
+                page.add(account.snapshot());
+                lastId = accountId;
+            }
+        }
+        return new AccountPage(page, null);
+    }
+
     @Override
     public void clearAccounts() {
+        if (journal != null) {
+            journal.awaitDurable(journal.appendClear());
+        }
+        handleEpoch.incrementAndGet(); // before the handles are reused
         accounts.clear();
+        accountIds.clear();
+        handleLock.lock();
+        try {
+            accountsByHandle = new Account[accountsByHandle.length];
+            handleCount = 0;
+        } finally {
+            handleLock.unlock();
+        }
+    }
+
+    @Override
+    public long journalTransfer(String sourceAccountId, String destinationAccountId, long amount) {
+        return journal == null ? -1 : journal.appendTransfer(sourceAccountId, destinationAccountId, amount);
     }
 
+    @Override
+    public long journalTransfers(List<Transfer> transfers) {
+        return journal == null ? -1 : journal.appendTransfers(transfers);
+    }
+
+    @Override
+    public void awaitDurable(long sequence) {
+        if (journal != null) {
+            journal.awaitDurable(sequence);
+        }
+    }
 }
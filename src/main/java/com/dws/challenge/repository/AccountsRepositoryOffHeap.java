@@ -0,0 +1,389 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.AccountPage;
+import com.dws.challenge.domain.AccountSnapshot;
+import com.dws.challenge.domain.VelocityCounter;
+import com.dws.challenge.exception.DuplicateAccountIdException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Accounts kept off-heap, enabled with account.repository=off-heap
+ *
+ * Accounts are fixed width records [long balance][long version][short id length][id UTF-8 bytes] in direct buffers
+ * (chunks of records-per-chunk records, allocated as accounts are created), indexed by an off-heap
+ * open addressing hash table of record numbers. The heap doesn't grow with the number of accounts,
+ * an {@link OffHeapAccount} view is only created when an account is looked up. Views aren't cached, every lookup
+ * returns a new one: views of the same record share its balance but are different instances.
+ * Balances are updated atomically in place through VarHandles on the direct buffers.
+ * Listings walk the records in creation order, the cursor is a record number. Record numbers are the account handles.
+ * The {@link VelocityCounter}s of the accounts with transfer limits are heap objects, indexed by record number
+ * in per chunk arrays which are only allocated once an account of the chunk has limits.
+ */
+@Repository
+@ConditionalOnProperty(name = "account.repository", havingValue = "off-heap")
+public class AccountsRepositoryOffHeap implements AccountsRepository {
+
+  private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+  private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+  private static final int BALANCE_OFFSET = 0;
+  private static final int VERSION_OFFSET = 8;
+  private static final int ID_LENGTH_OFFSET = 16;
+  private static final int ID_OFFSET = 18;
+  private static final int MAX_INDEX_SLOTS = 1 << 28;
+
+  private final int capacity;
+  private final int maxIdLength;
+  private final int recordSize;
+  private final int chunkShift;
+  private final int chunkMask;
+  private final ByteBuffer[] chunks;
+  private final AtomicReferenceArray<AtomicReferenceArray<VelocityCounter>> velocityCounters;
+  private final ByteBuffer index;
+  private final int indexMask;
+
+  private final ReentrantLock insertLock = new ReentrantLock();
+  private volatile int size;
+  private final AtomicInteger handleEpoch = new AtomicInteger(ThreadLocalRandom.current().nextInt());
+
+  @Autowired
+  public AccountsRepositoryOffHeap(@Value("${account.offheap.capacity:1048576}") int capacity,
+                                   @Value("${account.offheap.max-id-length:54}") int maxIdLength,
+                                   @Value("${account.offheap.records-per-chunk:65536}") int recordsPerChunk) {
+    this.capacity = capacity;
+    this.maxIdLength = maxIdLength;
+    this.recordSize = (ID_OFFSET + maxIdLength + 7) & ~7; // 8 aligned for atomic access to balances
+    this.chunkShift = 31 - Integer.numberOfLeadingZeros(Integer.highestOneBit(recordsPerChunk));
+    this.chunkMask = (1 << chunkShift) - 1;
+    this.chunks = new ByteBuffer[(capacity >>> chunkShift) + 1];
+    this.velocityCounters = new AtomicReferenceArray<>(chunks.length);
+    int slots = Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1) << 1;
+    if (slots > MAX_INDEX_SLOTS || slots <= 0) {
+      throw new IllegalArgumentException("Off-heap capacity " + capacity + " is too large");
+    }
+    this.index = ByteBuffer.allocateDirect(slots * Integer.BYTES).order(ByteOrder.nativeOrder());
+    this.indexMask = slots - 1;
+  }
+
+  @Override
+  public void createAccount(Account account) throws DuplicateAccountIdException {
+    byte[] encodedId = encode(account.getAccountId());
+    insertLock.lock();
+    try {
+      if (!insert(account, encodedId)) {
+        throw new DuplicateAccountIdException(
+          "Account id " + account.getAccountId() + " already exists!");
+      }
+    } finally {
+      insertLock.unlock();
+    }
+  }
+
+  /**
+   * Takes the insert lock once for the whole batch; ids are checked before anything is inserted
+   */
+  @Override
+  public List<String> createAccounts(List<Account> accounts) {
+    byte[][] encodedIds = new byte[accounts.size()][];
+    for (int i = 0; i < encodedIds.length; i++) {
+      encodedIds[i] = encode(accounts.get(i).getAccountId());
+    }
+    List<String> duplicates = new ArrayList<>();
+    insertLock.lock();
+    try {
+      for (int i = 0; i < encodedIds.length; i++) {
+        if (!insert(accounts.get(i), encodedIds[i])) {
+          duplicates.add(accounts.get(i).getAccountId());
+        }
+      }
+    } finally {
+      insertLock.unlock();
+    }
+    return duplicates;
+  }
+
+  /**
+   * @return the UTF-8 bytes of a non ASCII id, null for an ASCII id (its chars are its bytes)
+   */
+  private byte[] encode(String accountId) {
+    byte[] encodedId = isAscii(accountId) ? null : accountId.getBytes(StandardCharsets.UTF_8);
+    int idLength = encodedId == null ? accountId.length() : encodedId.length;
+    if (idLength > maxIdLength) {
+      throw new IllegalArgumentException("Account id " + accountId + " is longer than " + maxIdLength + " bytes");
+    }
+    return encodedId;
+  }
+
+  /**
+   * Called with the insert lock held
+   *
+   * @return false if the id already exists
+   */
+  private boolean insert(Account account, byte[] encodedId) {
+    String accountId = account.getAccountId();
+    int idLength = encodedId == null ? accountId.length() : encodedId.length;
+    int slot = hash(accountId) & indexMask;
+    int entry;
+    while ((entry = (int) INTS.getAcquire(index, slot * Integer.BYTES)) != 0) {
+      if (idEquals(entry - 1, accountId)) {
+        return false;
+      }
+      slot = (slot + 1) & indexMask;
+    }
+    int record = size;
+    if (record >= capacity) {
+      throw new IllegalStateException("Off-heap account store is full (" + capacity + " accounts)");
+    }
+    ByteBuffer chunk = chunkOf(record);
+    if (chunk == null) {
+      chunk = ByteBuffer.allocateDirect(recordSize << chunkShift).order(ByteOrder.nativeOrder());
+      chunks[record >>> chunkShift] = chunk;
+    }
+    int offset = offsetOf(record);
+    chunk.putShort(offset + ID_LENGTH_OFFSET, (short) idLength);
+    for (int i = 0; i < idLength; i++) {
+      chunk.put(offset + ID_OFFSET + i, encodedId == null ? (byte) accountId.charAt(i) : encodedId[i]);
+    }
+    LONGS.setVolatile(chunk, offset + VERSION_OFFSET, 0L); // chunks are reused after clearAccounts
+    LONGS.setVolatile(chunk, offset + BALANCE_OFFSET, account.getBalanceMinorUnits());
+    // published last, readers see a complete record
+    INTS.setRelease(index, slot * Integer.BYTES, record + 1);
+    size = record + 1;
+    return true;
+  }
+
+  @Override
+  public Account getAccount(String accountId) {
+    int record = find(accountId);
+    return record < 0 ? null : new OffHeapAccount(accountId, this, record);
+  }
+
+  @Override
+  public int handleOf(String accountId) {
+    return find(accountId);
+  }
+
+  /**
+   * The view gets the id decoded from the record
+   */
+  @Override
+  public Account getAccount(int handle) {
+    return handle >= 0 && handle < size ? new OffHeapAccount(idOf(handle), this, handle) : null;
+  }
+
+  @Override
+  public int getHandleEpoch() {
+    return handleEpoch.get();
+  }
+
+  /**
+   * Accounts in creation order, reading the records up to the size published when the page starts
+   */
+  @Override
+  public AccountPage listAccounts(String cursor, int limit) {
+    int from = cursor == null ? 0 : parseCursor(cursor);
+    int end = size;
+    int to = (int) Math.min(end, (long) from + limit);
+    List<AccountSnapshot> page = new ArrayList<>(Math.max(to - from, 0));
+    for (int record = from; record < to; record++) {
+      page.add(snapshotOf(record));
+    }
+    return new AccountPage(page, to < end ? String.valueOf(to) : null);
+  }
+
+  private static int parseCursor(String cursor) {
+    try {
+      int record = Integer.parseInt(cursor);
+      if (record >= 0) {
+        return record;
+      }
+    } catch (NumberFormatException e) {
+      // reported below
+    }
+    throw new IllegalArgumentException("Invalid cursor " + cursor);
+  }
+
+  @Override
+  public void clearAccounts() {
+    insertLock.lock();
+    try {
+      handleEpoch.incrementAndGet(); // before the records are reused
+      for (int i = 0; i <= indexMask; i++) {
+        index.putInt(i * Integer.BYTES, 0);
+      }
+      for (int i = 0; i < velocityCounters.length(); i++) {
+        velocityCounters.set(i, null);
+      }
+      size = 0;
+    } finally {
+      insertLock.unlock();
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return bytes of direct memory currently used by the records and the index
+   */
+  public long getOffHeapBytes() {
+    long bytes = index.capacity();
+    for (ByteBuffer chunk : chunks) {
+      if (chunk != null) {
+        bytes += chunk.capacity();
+      }
+    }
+    return bytes;
+  }
+
+  long balanceOf(int record) {
+    return (long) LONGS.getVolatile(chunkOf(record), offsetOf(record) + BALANCE_OFFSET);
+  }
+
+  long versionOf(int record) {
+    return (long) LONGS.getVolatile(chunkOf(record), offsetOf(record) + VERSION_OFFSET);
+  }
+
+  /**
+   * Balance read with its version like {@link Account#snapshot()}, the id is decoded from the record
+   */
+  AccountSnapshot snapshotOf(int record) {
+    long version;
+    long balance;
+    do {
+      version = versionOf(record);
+      balance = balanceOf(record);
+    } while (version != versionOf(record));
+    return new AccountSnapshot(idOf(record), balance, version);
+  }
+
+  private String idOf(int record) {
+    ByteBuffer chunk = chunkOf(record);
+    int offset = offsetOf(record);
+    byte[] encodedId = new byte[chunk.getShort(offset + ID_LENGTH_OFFSET)];
+    for (int i = 0; i < encodedId.length; i++) {
+      encodedId[i] = chunk.get(offset + ID_OFFSET + i);
+    }
+    return new String(encodedId, StandardCharsets.UTF_8);
+  }
+
+  void setBalance(int record, long balance) {
+    LONGS.setVolatile(chunkOf(record), offsetOf(record) + BALANCE_OFFSET, balance);
+    LONGS.getAndAdd(chunkOf(record), offsetOf(record) + VERSION_OFFSET, 1L);
+  }
+
+  boolean tryDebit(int record, long amount) {
+    ByteBuffer chunk = chunkOf(record);
+    int offset = offsetOf(record) + BALANCE_OFFSET;
+    long current;
+    do {
+      current = (long) LONGS.getVolatile(chunk, offset);
+      if (current < amount) {
+        return false;
+      }
+    } while (!LONGS.compareAndSet(chunk, offset, current, current - amount));
+    LONGS.getAndAdd(chunk, offsetOf(record) + VERSION_OFFSET, 1L);
+    return true;
+  }
+
+  void credit(int record, long amount) {
+    ByteBuffer chunk = chunkOf(record);
+    LONGS.getAndAdd(chunk, offsetOf(record) + BALANCE_OFFSET, amount);
+    LONGS.getAndAdd(chunk, offsetOf(record) + VERSION_OFFSET, 1L);
+  }
+
+  VelocityCounter velocityCounterOf(int record) {
+    AtomicReferenceArray<VelocityCounter> counters = velocityCounters.get(record >>> chunkShift);
+    return counters == null ? null : counters.get(record & chunkMask);
+  }
+
+  void setVelocityCounter(int record, VelocityCounter velocityCounter) {
+    AtomicReferenceArray<VelocityCounter> counters = velocityCounters.get(record >>> chunkShift);
+    if (counters == null) {
+      velocityCounters.compareAndSet(record >>> chunkShift, null, new AtomicReferenceArray<>(chunkMask + 1));
+      counters = velocityCounters.get(record >>> chunkShift);
+    }
+    counters.set(record & chunkMask, velocityCounter);
+  }
+
+  /**
+   * @return record number of the account, -1 if unknown
+   */
+  private int find(String accountId) {
+    int slot = hash(accountId) & indexMask;
+    int entry;
+    while ((entry = (int) INTS.getAcquire(index, slot * Integer.BYTES)) != 0) {
+      if (idEquals(entry - 1, accountId)) {
+        return entry - 1;
+      }
+      slot = (slot + 1) & indexMask;
+    }
+    return -1;
+  }
+
+  private boolean idEquals(int record, String accountId) {
+    ByteBuffer chunk = chunkOf(record);
+    int offset = offsetOf(record);
+    int length = chunk.getShort(offset + ID_LENGTH_OFFSET);
+    if (!isAscii(accountId)) {
+      byte[] encodedId = accountId.getBytes(StandardCharsets.UTF_8);
+      if (encodedId.length != length) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (chunk.get(offset + ID_OFFSET + i) != encodedId[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (accountId.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (chunk.get(offset + ID_OFFSET + i) != (byte) accountId.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private ByteBuffer chunkOf(int record) {
+    return chunks[record >>> chunkShift];
+  }
+
+  private int offsetOf(int record) {
+    return (record & chunkMask) * recordSize;
+  }
+
+  private static int hash(String accountId) {
+    int h = accountId.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private static boolean isAscii(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      if (value.charAt(i) >= 0x80) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,566 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.Transfer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Memory-mapped {@link TransferJournal}, enabled with account.journal.enabled=true
+ *
+ * The journal is a sequence of fixed size segment files (journal-N.log) of binary records
+ * [int body length][int crc32 of body][body], a zero length marks the end of a segment.
+ * Bodies are [byte type] followed by
+ * ACCOUNT: [id][long balance], TRANSFER: [source id][destination id][long amount], CLEAR: nothing,
+ * TRANSFERS: [int count] then count times [source id][destination id][long amount], applied together,
+ * where an id is [short length][UTF-8 bytes], so ids longer than 65535 bytes are rejected.
+ *
+ * A flusher thread forces the segment once group-commit-records records are pending or the oldest pending record
+ * is group-commit-micros old, then wakes up everyone waiting for those records (group commit).
+ * A full segment, or one older than snapshot-interval-ms, is closed and folded with the previous snapshot
+ * into a new snapshot.bin in the background, so startup only replays the snapshot and the open segments.
+ * Appends go on in the next segment while the flusher forces the closed one, outside of the append lock:
+ * its records are only durable, and it is only compacted, once forced.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "account.journal.enabled", havingValue = "true")
+public class MappedTransferJournal implements TransferJournal {
+
+  private static final byte ACCOUNT = 1;
+  private static final byte TRANSFER = 2;
+  private static final byte CLEAR = 3;
+  private static final byte TRANSFERS = 4;
+  private static final int RECORD_HEADER = 8;
+  private static final int MAX_ID_BYTES = 0xFFFF;
+  private static final String SNAPSHOT = "snapshot.bin";
+
+  private final Path directory;
+  private final int segmentSize;
+  private final int groupCommitRecords;
+  private final long groupCommitNanos;
+  private final long snapshotIntervalNanos;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition pending = lock.newCondition();
+  private final Condition durable = lock.newCondition();
+  private final CRC32 crc = new CRC32();
+  private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "journal-compactor");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  // guarded by lock
+  private long segmentNumber;
+  private MappedByteBuffer segment;
+  private FileChannel segmentChannel;
+  private long segmentOpenedAt;
+  /** closed segments, oldest first, the flusher forces them before the open one */
+  private final ArrayDeque<ClosedSegment> closedSegments = new ArrayDeque<>();
+  private long writtenSequence;
+  private long durableSequence;
+  private long oldestPendingAt;
+  private boolean running;
+  private boolean closed;
+  private Thread flusher;
+
+  @Autowired
+  public MappedTransferJournal(@Value("${account.journal.dir:data/journal}") String directory,
+                               @Value("${account.journal.segment-size:67108864}") int segmentSize,
+                               @Value("${account.journal.group-commit-records:64}") int groupCommitRecords,
+                               @Value("${account.journal.group-commit-micros:200}") long groupCommitMicros,
+                               @Value("${account.journal.snapshot-interval-ms:60000}") long snapshotIntervalMillis) {
+    this.directory = Paths.get(directory);
+    this.segmentSize = segmentSize;
+    this.groupCommitRecords = groupCommitRecords;
+    this.groupCommitNanos = TimeUnit.MICROSECONDS.toNanos(groupCommitMicros);
+    this.snapshotIntervalNanos = TimeUnit.MILLISECONDS.toNanos(snapshotIntervalMillis);
+  }
+
+  /**
+   * Replays the snapshot and the segments, then starts appending to a new segment
+   */
+  @Override
+  public Map<String, Long> recover() throws IOException {
+    Files.createDirectories(directory);
+    Map<String, Long> balances = new LinkedHashMap<>();
+    long lastSegment = readSnapshot(directory.resolve(SNAPSHOT), balances);
+    for (long number : segmentNumbers()) {
+      if (number > lastSegment) {
+        replaySegment(directory.resolve(segmentName(number)), balances);
+        lastSegment = number;
+      }
+    }
+    lock.lock();
+    try {
+      openSegment(lastSegment + 1);
+      running = true;
+      flusher = new Thread(this::flushLoop, "journal-flusher");
+      flusher.setDaemon(true);
+      flusher.start();
+    } finally {
+      lock.unlock();
+    }
+    log.info("Recovered {} accounts from journal {}", balances.size(), directory.toAbsolutePath());
+    return balances;
+  }
+
+  @Override
+  public long appendAccount(String accountId, long balance) {
+    lock.lock();
+    try {
+      int length = 1 + idLength(accountId) + 8;
+      ensureCapacity(length);
+      beginRecord(length);
+      putByte(ACCOUNT);
+      putId(accountId);
+      putLong(balance);
+      return endRecord(length);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public long appendTransfer(String sourceAccountId, String destinationAccountId, long amount) {
+    lock.lock();
+    try {
+      int length = 1 + idLength(sourceAccountId) + idLength(destinationAccountId) + 8;
+      ensureCapacity(length);
+      beginRecord(length);
+      putByte(TRANSFER);
+      putId(sourceAccountId);
+      putId(destinationAccountId);
+      putLong(amount);
+      return endRecord(length);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public long appendTransfers(List<Transfer> transfers) {
+    int length = 1 + 4;
+    for (Transfer transfer : transfers) {
+      length += idLength(transfer.getSourceAccountId()) + idLength(transfer.getDestinationAccountId()) + 8;
+    }
+    lock.lock();
+    try {
+      ensureCapacity(length);
+      beginRecord(length);
+      putByte(TRANSFERS);
+      putInt(transfers.size());
+      for (Transfer transfer : transfers) {
+        putId(transfer.getSourceAccountId());
+        putId(transfer.getDestinationAccountId());
+        putLong(transfer.getAmount());
+      }
+      return endRecord(length);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public long appendClear() {
+    lock.lock();
+    try {
+      ensureCapacity(1);
+      beginRecord(1);
+      putByte(CLEAR);
+      return endRecord(1);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @throws IllegalStateException if the journal is closed before the record is durable
+   */
+  @Override
+  public void awaitDurable(long sequence) {
+    lock.lock();
+    try {
+      while (durableSequence < sequence) {
+        if (closed) {
+          throw new IllegalStateException("Journal closed before record " + sequence + " was durable");
+        }
+        durable.awaitUninterruptibly();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @PreDestroy
+  public void close() throws InterruptedException {
+    lock.lock();
+    try {
+      if (!running) {
+        return;
+      }
+      running = false;
+      pending.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    flusher.join(TimeUnit.SECONDS.toMillis(5));
+    lock.lock();
+    try {
+      for (ClosedSegment closedSegment = closedSegments.poll(); closedSegment != null; closedSegment = closedSegments.poll()) {
+        closedSegment.getBuffer().force();
+        closeChannel(closedSegment.getNumber(), closedSegment.getChannel());
+        long number = closedSegment.getNumber();
+        compactor.execute(() -> compact(number));
+      }
+      segment.force();
+      durableSequence = writtenSequence;
+    } finally {
+      closed = true;
+      durable.signalAll();
+      closeChannel(segmentNumber, segmentChannel);
+      lock.unlock();
+    }
+    compactor.shutdown();
+    compactor.awaitTermination(30, TimeUnit.SECONDS);
+  }
+
+  private void flushLoop() {
+    lock.lock();
+    try {
+      while (running) {
+        ClosedSegment closedSegment = closedSegments.peek();
+        if (closedSegment != null) {
+          lock.unlock();
+          try {
+            closedSegment.getBuffer().force();
+            closeChannel(closedSegment.getNumber(), closedSegment.getChannel());
+          } finally {
+            lock.lock();
+          }
+          closedSegments.poll();
+          markDurable(closedSegment.getLastSequence());
+          compactor.execute(() -> compact(closedSegment.getNumber()));
+          continue;
+        }
+        if (writtenSequence == durableSequence) {
+          rollIfOld();
+          pending.awaitNanos(Math.max(groupCommitNanos, TimeUnit.MILLISECONDS.toNanos(10)));
+          continue;
+        }
+        long waited = System.nanoTime() - oldestPendingAt;
+        if (writtenSequence - durableSequence < groupCommitRecords && waited < groupCommitNanos) {
+          pending.awaitNanos(groupCommitNanos - waited);
+          continue;
+        }
+        long target = writtenSequence;
+        MappedByteBuffer toForce = segment;
+        lock.unlock();
+        try {
+          toForce.force();
+        } finally {
+          lock.lock();
+        }
+        markDurable(target);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void markDurable(long sequence) {
+    if (sequence > durableSequence) {
+      durableSequence = sequence;
+      oldestPendingAt = System.nanoTime();
+      durable.signalAll();
+    }
+  }
+
+  private void rollIfOld() {
+    if (snapshotIntervalNanos > 0 && segment.position() > 0 && System.nanoTime() - segmentOpenedAt > snapshotIntervalNanos) {
+      roll();
+    }
+  }
+
+  private void ensureCapacity(int length) {
+    if (!running) {
+      throw new IllegalStateException("Journal is not open");
+    }
+    if (RECORD_HEADER + length > segmentSize - RECORD_HEADER) {
+      throw new IllegalArgumentException("Journal record of " + length + " bytes doesn't fit in a segment");
+    }
+    if (segment.remaining() < RECORD_HEADER + length + RECORD_HEADER) {
+      roll();
+    }
+  }
+
+  /**
+   * Switches to a new segment, the flusher forces the closed one then compacts it into the snapshot
+   */
+  private void roll() {
+    ClosedSegment closedSegment = new ClosedSegment(segmentNumber, segment, segmentChannel, writtenSequence);
+    try {
+      openSegment(segmentNumber + 1);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    closedSegments.add(closedSegment);
+    pending.signal();
+  }
+
+  private void beginRecord(int length) {
+    if (writtenSequence == durableSequence) {
+      oldestPendingAt = System.nanoTime();
+    }
+    crc.reset();
+    segment.position(segment.position() + RECORD_HEADER);
+  }
+
+  private long endRecord(int length) {
+    int end = segment.position();
+    int start = end - length - RECORD_HEADER;
+    segment.putInt(start + 4, (int) crc.getValue());
+    segment.putInt(start, length); // written last, a record is only visible once complete
+    writtenSequence++;
+    long pendingRecords = writtenSequence - durableSequence;
+    if (pendingRecords == 1 || pendingRecords >= groupCommitRecords) {
+      pending.signal();
+    }
+    return writtenSequence;
+  }
+
+  private void putByte(byte value) {
+    segment.put(value);
+    crc.update(value);
+  }
+
+  private void putInt(int value) {
+    for (int shift = 24; shift >= 0; shift -= 8) {
+      putByte((byte) (value >>> shift));
+    }
+  }
+
+  private void putLong(long value) {
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      putByte((byte) (value >>> shift));
+    }
+  }
+
+  private void putId(String id) {
+    int length = idLength(id) - 2;
+    putByte((byte) (length >>> 8));
+    putByte((byte) length);
+    if (length == id.length()) {
+      for (int i = 0; i < length; i++) {
+        putByte((byte) id.charAt(i));
+      }
+    } else {
+      for (byte b : id.getBytes(StandardCharsets.UTF_8)) {
+        putByte(b);
+      }
+    }
+  }
+
+  /**
+   * Encoded length of an id, without allocating for ASCII ids
+   *
+   * @throws IllegalArgumentException if the id is longer than its 16 bits length can tell
+   */
+  private static int idLength(String id) {
+    int length = id.length();
+    for (int i = 0; i < id.length(); i++) {
+      if (id.charAt(i) >= 0x80) {
+        length = id.getBytes(StandardCharsets.UTF_8).length;
+        break;
+      }
+    }
+    if (length > MAX_ID_BYTES) {
+      throw new IllegalArgumentException("Account id of " + length + " bytes is too long for the journal");
+    }
+    return 2 + length;
+  }
+
+  private void openSegment(long number) throws IOException {
+    segmentNumber = number;
+    segmentChannel = FileChannel.open(directory.resolve(segmentName(number)),
+      StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    segmentOpenedAt = System.nanoTime();
+  }
+
+  private static void closeChannel(long number, FileChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      log.warn("Failed to close journal segment {}", number, e);
+    }
+  }
+
+  /**
+   * Folds the snapshot and every segment up to the given one into a new snapshot, then deletes those segments
+   */
+  private void compact(long upToSegment) {
+    try {
+      Map<String, Long> balances = new LinkedHashMap<>();
+      Path snapshot = directory.resolve(SNAPSHOT);
+      long lastSegment = readSnapshot(snapshot, balances);
+      List<Path> folded = new ArrayList<>();
+      for (long number : segmentNumbers()) {
+        if (number > lastSegment && number <= upToSegment) {
+          Path segmentFile = directory.resolve(segmentName(number));
+          replaySegment(segmentFile, balances);
+          folded.add(segmentFile);
+        }
+      }
+      Path temporary = directory.resolve(SNAPSHOT + ".tmp");
+      try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+           DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+        out.writeLong(upToSegment);
+        out.writeInt(balances.size());
+        for (Map.Entry<String, Long> entry : balances.entrySet()) {
+          out.writeUTF(entry.getKey());
+          out.writeLong(entry.getValue());
+        }
+        out.flush();
+        channel.force(true);
+      }
+      Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      for (Path segmentFile : folded) {
+        Files.deleteIfExists(segmentFile);
+      }
+      log.info("Journal snapshot of {} accounts written up to segment {}", balances.size(), upToSegment);
+    } catch (IOException | RuntimeException e) {
+      log.error("Journal compaction up to segment {} failed, segments are kept", upToSegment, e);
+    }
+  }
+
+  /**
+   * @return number of the last segment included in the snapshot, 0 if there is no snapshot
+   */
+  private static long readSnapshot(Path snapshot, Map<String, Long> balances) throws IOException {
+    if (!Files.exists(snapshot)) {
+      return 0;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+      long lastSegment = in.readLong();
+      int accounts = in.readInt();
+      for (int i = 0; i < accounts; i++) {
+        balances.put(in.readUTF(), in.readLong());
+      }
+      return lastSegment;
+    }
+  }
+
+  /**
+   * Applies the complete records of a segment, stopping at the end marker or at a torn / corrupted record
+   */
+  static void replaySegment(Path segmentFile, Map<String, Long> balances) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segmentFile));
+    CRC32 checksum = new CRC32();
+    try {
+      while (buffer.remaining() >= RECORD_HEADER) {
+        int length = buffer.getInt();
+        int expectedCrc = buffer.getInt();
+        if (length <= 0 || length > buffer.remaining()) {
+          return;
+        }
+        checksum.reset();
+        checksum.update(buffer.array(), buffer.position(), length);
+        if ((int) checksum.getValue() != expectedCrc) {
+          log.warn("Corrupted record in {}, replay of this segment stops here", segmentFile);
+          return;
+        }
+        byte type = buffer.get();
+        if (type == ACCOUNT) {
+          balances.put(readId(buffer), buffer.getLong());
+        } else if (type == TRANSFER) {
+          replayTransfer(buffer, balances);
+        } else if (type == TRANSFERS) {
+          for (int count = buffer.getInt(); count > 0; count--) {
+            replayTransfer(buffer, balances);
+          }
+        } else if (type == CLEAR) {
+          balances.clear();
+        }
+      }
+    } catch (BufferUnderflowException e) {
+      log.warn("Truncated record in {}", segmentFile);
+    }
+  }
+
+  private static void replayTransfer(ByteBuffer buffer, Map<String, Long> balances) {
+    String source = readId(buffer);
+    String destination = readId(buffer);
+    long amount = buffer.getLong();
+    balances.computeIfPresent(source, (id, balance) -> balance - amount);
+    balances.computeIfPresent(destination, (id, balance) -> balance + amount);
+  }
+
+  private static String readId(ByteBuffer buffer) {
+    int length = buffer.getShort() & 0xFFFF;
+    String id = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+    buffer.position(buffer.position() + length);
+    return id;
+  }
+
+  private List<Long> segmentNumbers() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.map(path -> path.getFileName().toString())
+        .filter(name -> name.startsWith("journal-") && name.endsWith(".log"))
+        .map(name -> Long.parseLong(name.substring("journal-".length(), name.length() - ".log".length())))
+        .sorted()
+        .collect(Collectors.toList());
+    }
+  }
+
+  private static String segmentName(long number) {
+    return "journal-" + number + ".log";
+  }
+
+  @lombok.Value
+  private static class ClosedSegment {
+    long number;
+    MappedByteBuffer buffer;
+    FileChannel channel;
+    /** sequence of its last record */
+    long lastSequence;
+  }
+}
@@ -0,0 +1,64 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.Money;
+import com.dws.challenge.domain.VelocityCounter;
+
+import java.math.BigDecimal;
+
+/**
+ * View on an account record of {@link AccountsRepositoryOffHeap}, the balance stays off-heap.
+ * Only created when an account is looked up, it holds nothing but the id and the record index, which is its handle.
+ */
+public class OffHeapAccount extends Account {
+
+  private final AccountsRepositoryOffHeap store;
+
+  private final int record;
+
+  OffHeapAccount(String accountId, AccountsRepositoryOffHeap store, int record) {
+    super(accountId);
+    this.store = store;
+    this.record = record;
+  }
+
+  @Override
+  public int getHandle() {
+    return record;
+  }
+
+  @Override
+  public long getBalanceMinorUnits() {
+    return store.balanceOf(record);
+  }
+
+  @Override
+  public long getVersion() {
+    return store.versionOf(record);
+  }
+
+  @Override
+  public void setBalance(BigDecimal balance) {
+    store.setBalance(record, Money.toMinorUnits(balance));
+  }
+
+  @Override
+  public boolean tryDebit(long amount) {
+    return store.tryDebit(record, amount);
+  }
+
+  @Override
+  public void credit(long amount) {
+    store.credit(record, amount);
+  }
+
+  @Override
+  public VelocityCounter getVelocityCounter() {
+    return store.velocityCounterOf(record);
+  }
+
+  @Override
+  public void setVelocityCounter(VelocityCounter velocityCounter) {
+    store.setVelocityCounter(record, velocityCounter);
+  }
+}
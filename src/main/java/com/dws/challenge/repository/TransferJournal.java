@@ -0,0 +1,37 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.Transfer;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only journal of the changes made to the accounts, replayed on startup.
+ *
+ * Append methods return the sequence of the record; {@link #awaitDurable(long)} blocks until that record
+ * is on disk. Records are flushed by group commit, so one fsync covers many records.
+ */
+public interface TransferJournal {
+
+  /**
+   * Rebuilds the accounts from the last snapshot and the journal written since
+   *
+   * @return accountId to balance in minor units, in creation order
+   */
+  Map<String, Long> recover() throws IOException;
+
+  long appendAccount(String accountId, long balance);
+
+  long appendTransfer(String sourceAccountId, String destinationAccountId, long amount);
+
+  /**
+   * Appends transfers which are applied together as one record: replay applies all of them or, when the record
+   * is torn, none of them
+   */
+  long appendTransfers(List<Transfer> transfers);
+
+  long appendClear();
+
+  void awaitDurable(long sequence);
+}
@@ -1,7 +1,201 @@
 package com.dws.challenge.service;
 
+import com.dws.challenge.domain.BatchMode;
+import com.dws.challenge.domain.Money;
+import com.dws.challenge.domain.Transfer;
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.exception.InvalidTransactionException;
+import com.dws.challenge.exception.TransferRejectedException;
+
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public interface AccountBalanceService {
-    boolean transferBalanceBWAccounts(String sourceAccount, String destinationAccount, BigDecimal transferAmount);
+
+    /**
+     * Transfers an amount given in minor units (see {@link Money}); this is the allocation free hot path
+     */
+    boolean transferBalanceBWAccounts(String sourceAccount, String destinationAccount, long transferAmount);
+
+    default boolean transferBalanceBWAccounts(String sourceAccount, String destinationAccount, BigDecimal transferAmount) {
+        return transferBalanceBWAccounts(sourceAccount, destinationAccount, toMinorUnits(transferAmount));
+    }
+
+    /**
+     * Transfers at most once per idempotency key: a retry with the same key gets the outcome of
+     * the first transfer (or its exception) without touching the balances again, see {@link IdempotencyCache}
+     *
+     * @throws InvalidTransactionException if the key was used for a different transfer
+     */
+    default boolean transferBalanceBWAccounts(String sourceAccount, String destinationAccount, long transferAmount,
+                                              String idempotencyKey) {
+        return getIdempotencyCache().execute(idempotencyKey, sourceAccount, destinationAccount, transferAmount,
+                () -> transferBalanceBWAccounts(sourceAccount, destinationAccount, transferAmount));
+    }
+
+    /**
+     * @return outcomes of the recent transfers with an idempotency key
+     */
+    IdempotencyCache getIdempotencyCache();
+
+    /**
+     * @return true if the transfers are checked by the {@link TransferRule}s, e.g. the limits of the {@link TransferLimiter}
+     */
+    default boolean appliesTransferRules() {
+        return false;
+    }
+
+    /**
+     * Debits the local source of a transfer whose destination is owned by another node, see {@link ClusterTransferCoordinator}.
+     * Only the id of the destination is known here: the rules see a detached account, and the journal record is
+     * replayed on the source side only.
+     *
+     * @throws InvalidTransactionException if the transfer is rejected, or if the engine doesn't support partitioning
+     */
+    default void debitForRemote(String sourceAccount, String remoteDestinationAccount, long transferAmount) {
+        throw new InvalidTransactionException("Cross-partition transfers are not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Credits the local destination of a transfer whose source was debited by another node
+     *
+     * @throws InvalidTransactionException if the destination doesn't exist, or if the engine doesn't support partitioning
+     */
+    default void creditFromRemote(String remoteSourceAccount, String destinationAccount, long transferAmount) {
+        throw new InvalidTransactionException("Cross-partition transfers are not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Gives back to the source the amount of a {@link #debitForRemote} whose transfer was aborted
+     */
+    default void cancelDebitForRemote(String sourceAccount, String remoteDestinationAccount, long transferAmount) {
+        throw new InvalidTransactionException("Cross-partition transfers are not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Applies the transfers in the given order and reports one result per transfer, in the same order.
+     *
+     * This default applies them one at a time and only supports {@link BatchMode#BEST_EFFORT},
+     * engines override it to take their locks once per group of accounts
+     *
+     * @throws InvalidTransactionException if the mode is not supported by the engine
+     */
+    default List<TransferResult> transferBatch(List<Transfer> transfers, BatchMode mode) {
+        if (mode != BatchMode.BEST_EFFORT) {
+            throw new InvalidTransactionException(mode + " batches are not supported by " + getClass().getSimpleName());
+        }
+        List<TransferResult> results = new ArrayList<>(transfers.size());
+        for (int i = 0; i < transfers.size(); i++) {
+            Transfer transfer = transfers.get(i);
+            try {
+                transferBalanceBWAccounts(transfer.getSourceAccountId(), transfer.getDestinationAccountId(), transfer.getAmount());
+                results.add(TransferResult.applied(i));
+            } catch (TransferRejectedException e) {
+                results.add(TransferResult.rejected(i, e.getRejection().getReason(), e.getMessage()));
+            } catch (RuntimeException e) {
+                results.add(TransferResult.rejected(i, e.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Applies a multi-leg transfer (e.g. a payroll: one debit, many credits) atomically: all of its legs or none.
+     * The debits and the credits must add up to the same total, and an account can't be on both sides.
+     *
+     * This default applies the legs as an {@link BatchMode#ALL_OR_NOTHING} batch of the transfers of
+     * {@link #toTransfers}, engines override it to debit each account once (the lock-free and sharded engines,
+     * whose batches are best effort only, with {@link MultiLegTransfer})
+     *
+     * @throws InvalidTransactionException if the legs are invalid or a leg is rejected, nothing is applied then
+     */
+    default boolean transferMultiLeg(List<TransferLeg> debits, List<TransferLeg> credits) {
+        List<TransferResult> results = transferBatch(toTransfers(debits, credits), BatchMode.ALL_OR_NOTHING);
+        for (TransferResult result : results) {
+            if (result.getStatus() == TransferResult.Status.REJECTED) {
+                throw new InvalidTransactionException(result.getMessage(), false);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks the legs of a multi-leg transfer and pairs them into transfers between a debited and a credited
+     * account, at most debits + credits - 1 of them: the rules, the journal and the history work on pairs
+     *
+     * @throws InvalidTransactionException if the legs don't balance, an amount isn't positive or an account is on both sides
+     */
+    static List<Transfer> toTransfers(List<TransferLeg> debits, List<TransferLeg> credits) {
+        if (debits == null || credits == null || debits.isEmpty() || credits.isEmpty()) {
+            throw new InvalidTransactionException("A multi-leg transfer needs at least one debit and one credit");
+        }
+        Set<String> debited = new HashSet<>();
+        long debitTotal = total(debits, debited);
+        Set<String> credited = new HashSet<>();
+        long creditTotal = total(credits, credited);
+        if (debitTotal != creditTotal) {
+            throw new InvalidTransactionException("Debits (" + Money.toBigDecimal(debitTotal) + ") and credits ("
+                    + Money.toBigDecimal(creditTotal) + ") don't balance");
+        }
+        for (String accountId : credited) {
+            if (debited.contains(accountId)) {
+                throw new InvalidTransactionException("Account <" + accountId + "> can't be debited and credited by the same transfer");
+            }
+        }
+
+        List<Transfer> transfers = new ArrayList<>(debits.size() + credits.size() - 1);
+        int debit = 0;
+        int credit = 0;
+        long debitLeft = debits.get(0).getAmount();
+        long creditLeft = credits.get(0).getAmount();
+        while (debit < debits.size()) {
+            long amount = Math.min(debitLeft, creditLeft);
+            transfers.add(new Transfer(debits.get(debit).getAccountId(), credits.get(credit).getAccountId(), amount));
+            debitLeft -= amount;
+            creditLeft -= amount;
+            if (debitLeft == 0 && ++debit < debits.size()) {
+                debitLeft = debits.get(debit).getAmount();
+            }
+            if (creditLeft == 0 && ++credit < credits.size()) {
+                creditLeft = credits.get(credit).getAmount();
+            }
+        }
+        return transfers;
+    }
+
+    private static long total(List<TransferLeg> legs, Set<String> accountIds) {
+        long total = 0;
+        for (TransferLeg leg : legs) {
+            if (leg.getAccountId() == null) {
+                throw new InvalidTransactionException(TransferRejection.INVALID_ACCOUNT.getMessage());
+            }
+            if (leg.getAmount() <= 0) {
+                throw new InvalidTransactionException(TransferRejection.NON_POSITIVE_AMOUNT.getMessage());
+            }
+            accountIds.add(leg.getAccountId());
+            try {
+                total = Math.addExact(total, leg.getAmount());
+            } catch (ArithmeticException e) {
+                throw new InvalidTransactionException("The legs add up to more than " + Money.toBigDecimal(Long.MAX_VALUE));
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Converts a transfer amount received at the edge to minor units
+     *
+     * @throws InvalidTransactionException if the amount has more decimals than the currency allows
+     */
+    static long toMinorUnits(BigDecimal transferAmount) {
+        try {
+            return Money.toMinorUnits(transferAmount);
+        } catch (ArithmeticException ae) {
+            throw new InvalidTransactionException("Transfer amount "+transferAmount+" can't be represented with "+Money.DEFAULT_SCALE+" decimals");
+        }
+    }
 }
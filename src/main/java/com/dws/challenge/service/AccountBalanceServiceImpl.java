@@ -1,89 +1,687 @@
 package com.dws.challenge.service;
 
 import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.BatchMode;
+import com.dws.challenge.domain.Transfer;
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.domain.TransferResult;
 import com.dws.challenge.exception.InvalidTransactionException;
 import com.dws.challenge.repository.AccountsRepository;
 import lombok.Getter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
-import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.locks.ReentrantLock;
 
 
 /**
  * This is an implementation for Account's balance related operations
  *
+ * Accounts are locked through a fixed array of LOCK_STRIPES locks, an account uses the stripe of its id: transfers
+ * between unrelated accounts run in parallel, and the locks don't grow with the accounts (nor outlive them).
+ * The locks of a transfer are always taken in stripe order to avoid deadlocks; two accounts of the same stripe
+ * share its lock, it is reentrant.
+ * This is the default engine (account.transfer.engine=locking)
+ *
+ * Transfers are instrumented with {@link TransferMetrics}: outcome and latency of the call,
+ * lock wait / hold times and the accounts whose lock was contended.
+ * Transfers with an idempotency key go through the {@link IdempotencyCache} first.
+ * Transfers are checked by the {@link TransferValidator} rules: stateless rules before taking any lock,
+ * balance dependent rules under the locks; a rejection is only turned into an exception once unlocked.
+ *
+ * Accounts whose lock is contended by many credits are switched to lock-free credits by the {@link HotAccountDetector}:
+ * a transfer to a hot account only takes the lock of its source. Debits (and batches) still lock hot accounts.
+ *
+ * In a partitioned deployment this engine also applies the local halves of cross-partition transfers
+ * for the {@link ClusterTransferCoordinator}: the debit of the source, the credit of the destination, or the refund.
  */
 @Service
+@ConditionalOnProperty(name = "account.transfer.engine", havingValue = "locking", matchIfMissing = true)
 public class AccountBalanceServiceImpl implements AccountBalanceService{
 
     @Getter
     private final AccountsRepository accountsRepository;
 
-    private final Map<String, ReentrantLock> accountLocks = new ConcurrentHashMap<>();
+    static final int LOCK_STRIPES = 4096;
 
-    @Autowired
-    private NotificationService notificationService;
+    private final ReentrantLock[] lockStripes = new ReentrantLock[LOCK_STRIPES];
+
+    private final NotificationDispatcher notificationDispatcher;
+
+    private final TransferMetrics transferMetrics;
+
+    @Getter
+    private final IdempotencyCache idempotencyCache;
+
+    private final HotAccountDetector hotAccountDetector;
+
+    private final TransferValidator transferValidator;
 
+    private final TransactionHistory transactionHistory;
+
+
+    public AccountBalanceServiceImpl(AccountsRepository accountsRepository, NotificationDispatcher notificationDispatcher) {
+        this(accountsRepository, notificationDispatcher, TransferMetrics.noop(), new IdempotencyCache(10_000, 3600, 16));
+    }
+
+    public AccountBalanceServiceImpl(AccountsRepository accountsRepository, NotificationDispatcher notificationDispatcher,
+                                     TransferMetrics transferMetrics, IdempotencyCache idempotencyCache) {
+        this(accountsRepository, notificationDispatcher, transferMetrics, idempotencyCache, HotAccountDetector.disabled());
+    }
+
+    public AccountBalanceServiceImpl(AccountsRepository accountsRepository, NotificationDispatcher notificationDispatcher,
+                                     TransferMetrics transferMetrics, IdempotencyCache idempotencyCache,
+                                     HotAccountDetector hotAccountDetector) {
+        this(accountsRepository, notificationDispatcher, transferMetrics, idempotencyCache, hotAccountDetector,
+                TransferValidator.defaults());
+    }
+
+    public AccountBalanceServiceImpl(AccountsRepository accountsRepository, NotificationDispatcher notificationDispatcher,
+                                     TransferMetrics transferMetrics, IdempotencyCache idempotencyCache,
+                                     HotAccountDetector hotAccountDetector, TransferValidator transferValidator) {
+        this(accountsRepository, notificationDispatcher, transferMetrics, idempotencyCache, hotAccountDetector,
+                transferValidator, TransactionHistory.disabled());
+    }
 
     @Autowired
-    public AccountBalanceServiceImpl(AccountsRepository accountsRepository) {
+    public AccountBalanceServiceImpl(AccountsRepository accountsRepository, NotificationDispatcher notificationDispatcher,
+                                     TransferMetrics transferMetrics, IdempotencyCache idempotencyCache,
+                                     HotAccountDetector hotAccountDetector, TransferValidator transferValidator,
+                                     TransactionHistory transactionHistory) {
         this.accountsRepository = accountsRepository;
+        this.notificationDispatcher = notificationDispatcher;
+        this.transferMetrics = transferMetrics;
+        this.idempotencyCache = idempotencyCache;
+        this.hotAccountDetector = hotAccountDetector;
+        this.transferValidator = transferValidator;
+        this.transactionHistory = transactionHistory;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            lockStripes[i] = new ReentrantLock();
+        }
     }
 
-    ReentrantLock lock = new ReentrantLock();
-
     /**
      * This method transfers balance between the accounts.
      * It also checks for some base condition which needs to meets and facilitate transfer
      *
-     * First take lock and do the transfer between accounts
+     * First take the locks of both accounts (lower stripe first), or only the source lock when the
+     * destination is hot, and do the transfer between accounts, then publish the notifications asynchronously
      *
      * @param srcAccountId
      * @param destAccountId
-     * @param transferAmount
+     * @param transferAmount amount in minor units
      * @return returns true if transfer successful - else throw the exception
      */
     @Override
-    public boolean  transferBalanceBWAccounts(String srcAccountId, String destAccountId, BigDecimal transferAmount) {
+    public boolean  transferBalanceBWAccounts(String srcAccountId, String destAccountId, long transferAmount) {
+
+        long start = System.nanoTime();
+        Account srcAccount = accountsRepository.getAccount(srcAccountId);
+        Account destAccount = accountsRepository.getAccount(destAccountId);
+        TransferRejection rejection = transferValidator.checkBeforeLocking(srcAccount, destAccount, transferAmount);
+        if (rejection != null) {
+            throw reject(rejection, srcAccountId, destAccountId, start);
+        }
 
-        if (transferAmount.compareTo(new BigDecimal(0)) <= 0){
-            throw new InvalidTransactionException("Transfer amount can't be less than 0");
+        long journalSequence = -1;
+        long lockRequested = System.nanoTime();
+        long lockAcquired = 0;
+        if (hotAccountDetector.isHot(destAccountId)) {
+            ReentrantLock sourceLock = lockFor(srcAccountId);
+            lock(sourceLock, srcAccountId);
+            try {
+                lockAcquired = System.nanoTime();
+                rejection = debit(srcAccount, destAccount, transferAmount);
+                if (rejection == null) {
+                    // journaled before the credit is visible: a debit of the hot account which uses it is journaled after it
+                    journalSequence = journalDebited(srcAccount, destAccount, transferAmount);
+                    destAccount.credit(transferAmount);
+                }
+            } finally {
+                sourceLock.unlock();
+                transferMetrics.recordLocking(lockRequested, lockAcquired, System.nanoTime());
+            }
+        } else {
+            String firstAccountId = srcAccountId;
+            String secondAccountId = destAccountId;
+            if (stripeOf(srcAccountId) > stripeOf(destAccountId)) {
+                firstAccountId = destAccountId;
+                secondAccountId = srcAccountId;
+            }
+            ReentrantLock firstLock = lockFor(firstAccountId);
+            ReentrantLock secondLock = lockFor(secondAccountId);
+            // Making validate / credit / debit an atomic operation
+            boolean creditContended = lock(firstLock, firstAccountId) && firstAccountId.equals(destAccountId);
+            try {
+                creditContended |= lock(secondLock, secondAccountId) && secondAccountId.equals(destAccountId);
+                lockAcquired = System.nanoTime();
+                try {
+                    rejection = debit(srcAccount, destAccount, transferAmount);
+                    if (rejection == null) {
+                        journalSequence = journalDebited(srcAccount, destAccount, transferAmount);
+                        destAccount.credit(transferAmount);
+                    }
+                } finally {
+                    secondLock.unlock();
+                }
+            } finally {
+                firstLock.unlock();
+                transferMetrics.recordLocking(lockRequested, lockAcquired, System.nanoTime());
+            }
+            if (creditContended) {
+                hotAccountDetector.contendedCredit(destAccountId);
+            }
+        }
+        if (rejection != null) {
+            throw reject(rejection, srcAccountId, destAccountId, start);
         }
+        accountsRepository.awaitDurable(journalSequence);
+        // Recorded and published once committed and unlocked, so they don't extend the lock hold time
+        transactionHistory.record(srcAccount, destAccount, transferAmount);
+        notificationDispatcher.publish(srcAccount, transferAmount, true);
+        notificationDispatcher.publish(destAccount, transferAmount, false);
+        transferMetrics.record(TransferMetrics.Reason.NONE, start);
+        return true;
+    }
+
+    @Override
+    public boolean appliesTransferRules() {
+        return true;
+    }
+
+    @Override
+    public void debitForRemote(String srcAccountId, String destAccountId, long transferAmount) {
+        long start = System.nanoTime();
         Account srcAccount = accountsRepository.getAccount(srcAccountId);
+        Account destAccount = new Account(destAccountId); // owned by another node
+        TransferRejection rejection = transferValidator.checkBeforeLocking(srcAccount, destAccount, transferAmount);
+        long journalSequence = -1;
+        if (rejection == null) {
+            ReentrantLock sourceLock = lockFor(srcAccountId);
+            long lockRequested = System.nanoTime();
+            long lockAcquired = 0;
+            lock(sourceLock, srcAccountId);
+            try {
+                lockAcquired = System.nanoTime();
+                rejection = debit(srcAccount, destAccount, transferAmount);
+                if (rejection == null) {
+                    journalSequence = journalDebited(srcAccount, destAccount, transferAmount);
+                }
+            } finally {
+                sourceLock.unlock();
+                transferMetrics.recordLocking(lockRequested, lockAcquired, System.nanoTime());
+            }
+        }
+        if (rejection != null) {
+            throw reject(rejection, srcAccountId, destAccountId, start);
+        }
+        accountsRepository.awaitDurable(journalSequence);
+        transactionHistory.record(srcAccount, destAccount, transferAmount);
+        notificationDispatcher.publish(srcAccount, transferAmount, true);
+        transferMetrics.record(TransferMetrics.Reason.NONE, start);
+    }
+
+    /**
+     * A credit can't be rejected, so it doesn't take the lock (like credits of hot accounts):
+     * journaled before it is visible, a debit which uses the money is journaled after it
+     */
+    @Override
+    public void creditFromRemote(String srcAccountId, String destAccountId, long transferAmount) {
         Account destAccount = accountsRepository.getAccount(destAccountId);
-       try {
-           lock.lock(); // Making validate / credit / debit an atomic operation
-           validateAccount(srcAccount, transferAmount, "SOURCE"); // We can have multiple such pre validations
-           validateAccount(destAccount, transferAmount, "DEST");
-           srcAccount.setBalance(srcAccount.getBalance().subtract(transferAmount));
-           destAccount.setBalance(destAccount.getBalance().add(transferAmount));
-           notificationService.notifyAboutTransfer(srcAccount,"Dear account holder ! $"+ transferAmount +" is debited from account :"+srcAccountId);
-           notificationService.notifyAboutTransfer(destAccount,"Dear account holder ! $"+ transferAmount +" is credited from account :"+destAccountId);
-
-       }finally {
-           lock.unlock();
-       }
-        return false;
+        if (destAccount == null || transferAmount <= 0) {
+            throw (destAccount == null ? TransferRejection.INVALID_ACCOUNT : TransferRejection.NON_POSITIVE_AMOUNT)
+                    .toException(srcAccountId, destAccountId);
+        }
+        long journalSequence = accountsRepository.journalTransfer(srcAccountId, destAccountId, transferAmount);
+        destAccount.credit(transferAmount);
+        accountsRepository.awaitDurable(journalSequence);
+        transactionHistory.record(new Account(srcAccountId), destAccount, transferAmount);
+        notificationDispatcher.publish(destAccount, transferAmount, false);
     }
 
-    private void validateAccount(Account account, BigDecimal transferAmount, String accountType) {
-        if (account == null ){ // or any other account invalidity related thing
-            throw new RuntimeException( "invalid account !");
+    @Override
+    public void cancelDebitForRemote(String srcAccountId, String destAccountId, long transferAmount) {
+        Account srcAccount = accountsRepository.getAccount(srcAccountId);
+        if (srcAccount == null) {
+            throw TransferRejection.INVALID_ACCOUNT.toException(srcAccountId, destAccountId);
+        }
+        Account destAccount = new Account(destAccountId);
+        long journalSequence;
+        // under the source lock, like the debit it reverts
+        ReentrantLock sourceLock = lockFor(srcAccountId);
+        lock(sourceLock, srcAccountId);
+        try {
+            journalSequence = accountsRepository.journalTransfer(destAccountId, srcAccountId, transferAmount);
+            srcAccount.credit(transferAmount);
+            transferValidator.reverted(srcAccount, destAccount, transferAmount);
+        } finally {
+            sourceLock.unlock();
+        }
+        accountsRepository.awaitDurable(journalSequence);
+        transactionHistory.record(destAccount, srcAccount, transferAmount);
+        notificationDispatcher.publish(srcAccount, transferAmount, false);
+    }
+
+    /**
+     * Applies a batch of transfers.
+     *
+     * BEST_EFFORT: transfers are split in groups of transfers sharing accounts (connected components),
+     * the locks of a group are taken once and its transfers are applied in batch order.
+     * ALL_OR_NOTHING: the locks of all accounts of the batch are taken once, the whole batch is validated
+     * in order against the locked balances and only then applied with its net changes, journaled as one record.
+     */
+    @Override
+    public List<TransferResult> transferBatch(List<Transfer> transfers, BatchMode mode) {
+        long start = System.nanoTime();
+        int size = transfers.size();
+        TransferResult[] results = new TransferResult[size];
+        Account[] sources = new Account[size];
+        Account[] destinations = new Account[size];
+        boolean anyRejected = false;
+        Map<String, Account> accounts = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            Transfer transfer = transfers.get(i);
+            sources[i] = accountOf(transfer.getSourceAccountId(), transfer.getSourceHandle(), accounts);
+            destinations[i] = accountOf(transfer.getDestinationAccountId(), transfer.getDestinationHandle(), accounts);
+            TransferRejection rejection = transferValidator.checkBeforeLocking(sources[i], destinations[i], transfer.getAmount());
+            if (rejection != null) {
+                results[i] = rejected(i, rejection, transfer);
+            }
+            anyRejected |= results[i] != null;
+        }
+
+        if (mode == BatchMode.ALL_OR_NOTHING) {
+            if (!anyRejected) {
+                applyAllOrNothing(transfers, sources, destinations, results);
+            }
+            for (int i = 0; i < size; i++) {
+                if (results[i] == null) {
+                    results[i] = TransferResult.aborted(i);
+                }
+            }
+        } else {
+            for (List<Integer> group : groupByAccounts(transfers, results)) {
+                applyGroup(group, transfers, sources, destinations, results);
+            }
         }
-        if ("SOURCE".equals(accountType)) {
-            if (account.getBalance().subtract(transferAmount).compareTo(BigDecimal.ZERO) == -1){
-                throw new InvalidTransactionException("Not sufficient balance in account <"+account.getAccountId()+">");
+        // one request per transfer, the aborted ones of an all-or-nothing batch weren't checked
+        for (TransferResult result : results) {
+            if (result.getStatus() == TransferResult.Status.APPLIED) {
+                transferMetrics.record(TransferMetrics.Reason.NONE, start);
+            } else if (result.getStatus() == TransferResult.Status.REJECTED) {
+                transferMetrics.record(result.getReason(), start);
             }
-        }else if ("DEST".equals(accountType)){
-            //TODO have implementation
         }
+        return Arrays.asList(results);
     }
 
-    private void checkIfBalAvailable(Account srcAccount, BigDecimal transferAmount) {
+    private void applyGroup(List<Integer> group, List<Transfer> transfers, Account[] sources, Account[] destinations,
+                            TransferResult[] results) {
+        Set<String> accountIds = new TreeSet<>();
+        for (int i : group) {
+            accountIds.add(transfers.get(i).getSourceAccountId());
+            accountIds.add(transfers.get(i).getDestinationAccountId());
+        }
+        long lockRequested = System.nanoTime();
+        List<ReentrantLock> locks = lockInOrder(accountIds);
+        long lockAcquired = System.nanoTime();
+        long journalSequence = -1;
+        try {
+            for (int i : group) {
+                long amount = transfers.get(i).getAmount();
+                TransferRejection rejection = debit(sources[i], destinations[i], amount);
+                if (rejection == null) {
+                    journalSequence = journalDebited(sources[i], destinations[i], amount);
+                    destinations[i].credit(amount);
+                    results[i] = TransferResult.applied(i);
+                } else {
+                    results[i] = rejected(i, rejection, transfers.get(i));
+                }
+            }
+        } finally {
+            unlockAll(locks);
+            transferMetrics.recordLocking(lockRequested, lockAcquired, System.nanoTime());
+        }
+        accountsRepository.awaitDurable(journalSequence);
+        for (int i : group) {
+            if (results[i].getStatus() == TransferResult.Status.APPLIED) {
+                transactionHistory.record(sources[i], destinations[i], transfers.get(i).getAmount());
+                notificationDispatcher.publish(sources[i], transfers.get(i).getAmount(), true);
+                notificationDispatcher.publish(destinations[i], transfers.get(i).getAmount(), false);
+            }
+        }
+    }
 
+    private void applyAllOrNothing(List<Transfer> transfers, Account[] sources, Account[] destinations,
+                                   TransferResult[] results) {
+        Set<String> accountIds = new TreeSet<>();
+        for (Transfer transfer : transfers) {
+            accountIds.add(transfer.getSourceAccountId());
+            accountIds.add(transfer.getDestinationAccountId());
+        }
+        long lockRequested = System.nanoTime();
+        List<ReentrantLock> locks = lockInOrder(accountIds);
+        long lockAcquired = System.nanoTime();
+        long journalSequence = -1;
+        try {
+            // dry run on a copy of the locked balances, nothing is touched unless every transfer passes
+            Map<Account, long[]> balances = new IdentityHashMap<>();
+            for (int i = 0; i < transfers.size(); i++) {
+                long amount = transfers.get(i).getAmount();
+                TransferRejection rejection = transferValidator.checkLocked(sources[i], destinations[i], amount);
+                long[] sourceBalance = balances.computeIfAbsent(sources[i], account -> new long[]{account.getBalanceMinorUnits()});
+                if (rejection == null && sourceBalance[0] < amount) {
+                    rejection = TransferRejection.INSUFFICIENT_FUNDS;
+                }
+                if (rejection != null) {
+                    results[i] = rejected(i, rejection, transfers.get(i));
+                    for (int j = i - 1; j >= 0; j--) {
+                        transferValidator.reverted(sources[j], destinations[j], transfers.get(j).getAmount());
+                    }
+                    return;
+                }
+                // applied in the dry run, so the rules see the earlier transfers of the batch
+                transferValidator.applied(sources[i], destinations[i], amount);
+                sourceBalance[0] -= amount;
+                balances.computeIfAbsent(destinations[i], account -> new long[]{account.getBalanceMinorUnits()})[0] += amount;
+            }
+            // the dry run checked the funds under the same locks, a debit failing now fails loudly
+            journalSequence = applyChecked(transfers, sources, destinations);
+            for (int i = 0; i < transfers.size(); i++) {
+                results[i] = TransferResult.applied(i);
+            }
+        } finally {
+            unlockAll(locks);
+            transferMetrics.recordLocking(lockRequested, lockAcquired, System.nanoTime());
+        }
+        accountsRepository.awaitDurable(journalSequence);
+        for (int i = 0; i < transfers.size(); i++) {
+            transactionHistory.record(sources[i], destinations[i], transfers.get(i).getAmount());
+            notificationDispatcher.publish(sources[i], transfers.get(i).getAmount(), true);
+            notificationDispatcher.publish(destinations[i], transfers.get(i).getAmount(), false);
+        }
     }
+
+    /**
+     * Applies a multi-leg transfer in one critical section: the locks of its debited accounts are taken once,
+     * in accountId order. The rules see every pair of {@link AccountBalanceService#toTransfers}, the funds are
+     * checked on the total debit of each account, then each debited account is debited once.
+     * Credits can't fail, so like credits of hot accounts they don't take the locks of the credited accounts:
+     * a payroll to 10,000 employees takes one lock.
+     */
+    @Override
+    public boolean transferMultiLeg(List<TransferLeg> debits, List<TransferLeg> credits) {
+        long start = System.nanoTime();
+        List<Transfer> transfers = AccountBalanceService.toTransfers(debits, credits);
+        int size = transfers.size();
+        Account[] sources = new Account[size];
+        Account[] destinations = new Account[size];
+        Set<String> accountIds = new TreeSet<>();
+        Map<String, Account> accounts = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            Transfer transfer = transfers.get(i);
+            sources[i] = accountOf(transfer.getSourceAccountId(), transfer.getSourceHandle(), accounts);
+            destinations[i] = accountOf(transfer.getDestinationAccountId(), transfer.getDestinationHandle(), accounts);
+            TransferRejection rejection = transferValidator.checkBeforeLocking(sources[i], destinations[i], transfer.getAmount());
+            if (rejection != null) {
+                throw reject(rejection, transfer.getSourceAccountId(), transfer.getDestinationAccountId(), start);
+            }
+            accountIds.add(transfer.getSourceAccountId());
+        }
+
+        Map<Account, long[]> debitTotals = new IdentityHashMap<>();
+        TransferRejection rejection = null;
+        Transfer rejected = null;
+        long journalSequence = -1;
+        long lockRequested = System.nanoTime();
+        List<ReentrantLock> locks = lockInOrder(accountIds);
+        long lockAcquired = System.nanoTime();
+        try {
+            int applied = 0;
+            for (; applied < size; applied++) {
+                long amount = transfers.get(applied).getAmount();
+                rejection = transferValidator.checkLocked(sources[applied], destinations[applied], amount);
+                if (rejection != null) {
+                    rejected = transfers.get(applied);
+                    break;
+                }
+                transferValidator.applied(sources[applied], destinations[applied], amount);
+                debitTotals.computeIfAbsent(sources[applied], account -> new long[1])[0] += amount;
+            }
+            for (int i = 0; i < size && rejection == null; i++) {
+                if (sources[i].getBalanceMinorUnits() < debitTotals.get(sources[i])[0]) {
+                    rejection = TransferRejection.INSUFFICIENT_FUNDS;
+                    rejected = transfers.get(i);
+                }
+            }
+            if (rejection != null) {
+                for (int j = applied - 1; j >= 0; j--) {
+                    transferValidator.reverted(sources[j], destinations[j], transfers.get(j).getAmount());
+                }
+            } else {
+                journalSequence = applyChecked(transfers, sources, destinations);
+            }
+        } finally {
+            unlockAll(locks);
+            transferMetrics.recordLocking(lockRequested, lockAcquired, System.nanoTime());
+        }
+        if (rejection != null) {
+            throw reject(rejection, rejected.getSourceAccountId(), rejected.getDestinationAccountId(), start);
+        }
+        accountsRepository.awaitDurable(journalSequence);
+        for (int i = 0; i < size; i++) {
+            transactionHistory.record(sources[i], destinations[i], transfers.get(i).getAmount());
+            notificationDispatcher.publish(destinations[i], transfers.get(i).getAmount(), false);
+        }
+        // one notification per debited account, not one per credit
+        debitTotals.forEach((account, total) -> notificationDispatcher.publish(account, total[0], true));
+        transferMetrics.record(TransferMetrics.Reason.NONE, start);
+        return true;
+    }
+
+    /**
+     * Applies transfers whose rules and funds were checked under the locks of their debited accounts, all of them
+     * or none. Each account gets its net change: the accounts which lose money are debited, all the transfers are
+     * journaled as one record, then the accounts which gain money are credited. No credit is visible before the
+     * whole record is journaled; when a debit or the append fails, the debits already made are undone and the rules
+     * told every transfer was reverted before the exception is rethrown.
+     *
+     * @return sequence of the journal record
+     * @throws IllegalStateException if a debit fails although the funds were checked
+     */
+    private long applyChecked(List<Transfer> transfers, Account[] sources, Account[] destinations) {
+        Map<Account, long[]> changes = new IdentityHashMap<>();
+        for (int i = 0; i < transfers.size(); i++) {
+            long amount = transfers.get(i).getAmount();
+            changes.computeIfAbsent(sources[i], account -> new long[1])[0] -= amount;
+            changes.computeIfAbsent(destinations[i], account -> new long[1])[0] += amount;
+        }
+        List<Map.Entry<Account, long[]>> debited = new ArrayList<>(changes.size());
+        long journalSequence;
+        try {
+            for (Map.Entry<Account, long[]> change : changes.entrySet()) {
+                long debit = -change.getValue()[0];
+                if (debit <= 0) {
+                    continue;
+                }
+                if (!change.getKey().tryDebit(debit)) {
+                    throw new IllegalStateException("Debit of " + debit + " from account <" + change.getKey().getAccountId()
+                            + "> failed although its funds were checked under its lock");
+                }
+                debited.add(change);
+            }
+            journalSequence = accountsRepository.journalTransfers(transfers);
+        } catch (RuntimeException e) {
+            for (Map.Entry<Account, long[]> change : debited) {
+                change.getKey().credit(-change.getValue()[0]);
+            }
+            for (int j = transfers.size() - 1; j >= 0; j--) {
+                transferValidator.reverted(sources[j], destinations[j], transfers.get(j).getAmount());
+            }
+            throw e;
+        }
+        changes.forEach((account, change) -> {
+            if (change[0] > 0) {
+                account.credit(change[0]);
+            }
+        });
+        return journalSequence;
+    }
+
+    /**
+     * Looks each account up once, so that all the transfers of a call share one {@link Account} per id:
+     * the balances and debit totals are kept per Account instance, and the off-heap repository returns
+     * a new view of the account on every lookup.
+     * The account is found by handle when the caller gave one, unless the handle is stale (accounts cleared since).
+     */
+    private Account accountOf(String accountId, int handle, Map<String, Account> accounts) {
+        Account account = accounts.get(accountId);
+        if (account == null) {
+            account = handle < 0 ? null : accountsRepository.getAccount(handle);
+            if (account == null || !account.getAccountId().equals(accountId)) {
+                account = accountsRepository.getAccount(accountId);
+            }
+            if (account != null) {
+                accounts.put(accountId, account);
+            }
+        }
+        return account;
+    }
+
+    /**
+     * Splits the not yet rejected transfers in groups which share no account (union-find on account ids)
+     */
+    private static Collection<List<Integer>> groupByAccounts(List<Transfer> transfers, TransferResult[] results) {
+        Map<String, Integer> accountIndexes = new HashMap<>();
+        int[] parents = new int[2 * transfers.size()];
+        int[] transferAccounts = new int[transfers.size()];
+        for (int i = 0; i < transfers.size(); i++) {
+            if (results[i] != null) {
+                continue;
+            }
+            int source = accountIndexes.computeIfAbsent(transfers.get(i).getSourceAccountId(), id -> newSet(parents, accountIndexes.size()));
+            int destination = accountIndexes.computeIfAbsent(transfers.get(i).getDestinationAccountId(), id -> newSet(parents, accountIndexes.size()));
+            parents[find(parents, source)] = find(parents, destination);
+            transferAccounts[i] = source;
+        }
+        Map<Integer, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < transfers.size(); i++) {
+            if (results[i] == null) {
+                groups.computeIfAbsent(find(parents, transferAccounts[i]), root -> new ArrayList<>()).add(i);
+            }
+        }
+        return groups.values();
+    }
+
+    private static int newSet(int[] parents, int index) {
+        parents[index] = index;
+        return index;
+    }
+
+    private static int find(int[] parents, int index) {
+        while (parents[index] != index) {
+            parents[index] = parents[parents[index]];
+            index = parents[index];
+        }
+        return index;
+    }
+
+    private List<ReentrantLock> lockInOrder(Set<String> accountIds) {
+        Map<Integer, String> stripes = new TreeMap<>(); // each stripe once, named by one of its accounts
+        for (String accountId : accountIds) {
+            stripes.putIfAbsent(stripeOf(accountId), accountId);
+        }
+        List<ReentrantLock> locks = new ArrayList<>(stripes.size());
+        for (Map.Entry<Integer, String> stripe : stripes.entrySet()) {
+            ReentrantLock lock = lockStripes[stripe.getKey()];
+            lock(lock, stripe.getValue());
+            locks.add(lock);
+        }
+        return locks;
+    }
+
+    private static void unlockAll(List<ReentrantLock> locks) {
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            locks.get(i).unlock();
+        }
+    }
+
+    /**
+     * Journals a transfer whose source is debited, before its credit is visible. When the append fails the debit
+     * is undone before the exception is rethrown: no transfer is applied without its journal record.
+     * Called with the lock(s) of the transfer held.
+     */
+    private long journalDebited(Account srcAccount, Account destAccount, long transferAmount) {
+        try {
+            return accountsRepository.journalTransfer(srcAccount.getAccountId(), destAccount.getAccountId(), transferAmount);
+        } catch (RuntimeException e) {
+            srcAccount.credit(transferAmount);
+            transferValidator.reverted(srcAccount, destAccount, transferAmount);
+            throw e;
+        }
+    }
+
+    /**
+     * Runs the IN_LOCK rules then debits the source, called with the lock(s) of the transfer held.
+     * The rules are told once the source is debited.
+     *
+     * @return null if the source was debited
+     */
+    private TransferRejection debit(Account srcAccount, Account destAccount, long transferAmount) {
+        TransferRejection rejection = transferValidator.checkLocked(srcAccount, destAccount, transferAmount);
+        if (rejection != null) {
+            return rejection;
+        }
+        if (!srcAccount.tryDebit(transferAmount)) {
+            return TransferRejection.INSUFFICIENT_FUNDS;
+        }
+        transferValidator.applied(srcAccount, destAccount, transferAmount);
+        return null;
+    }
+
+    private InvalidTransactionException reject(TransferRejection rejection, String srcAccountId, String destAccountId, long start) {
+        transferMetrics.record(rejection.getReason(), start);
+        return rejection.toException(srcAccountId, destAccountId);
+    }
+
+    private static TransferResult rejected(int index, TransferRejection rejection, Transfer transfer) {
+        return TransferResult.rejected(index, rejection.getReason(),
+                rejection.describe(transfer.getSourceAccountId(), transfer.getDestinationAccountId()));
+    }
+
+    /**
+     * Counts the acquisitions which can't get the lock right away
+     *
+     * @return true if the lock was contended
+     */
+    private boolean lock(ReentrantLock lock, String accountId) {
+        if (!lock.tryLock()) {
+            transferMetrics.contended(accountId);
+            lock.lock();
+            return true;
+        }
+        return false;
+    }
+
+    private ReentrantLock lockFor(String accountId) {
+        return lockStripes[stripeOf(accountId)];
+    }
+
+    static int stripeOf(String accountId) {
+        int hash = accountId.hashCode();
+        return (hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1);
+    }
+
 }
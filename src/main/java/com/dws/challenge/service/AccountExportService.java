@@ -0,0 +1,125 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.AccountPage;
+import com.dws.challenge.domain.AccountSnapshot;
+import com.dws.challenge.repository.AccountsRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Export of all the balances, streamed page after page of {@link AccountsRepository#listAccounts(String, int)}:
+ * memory use doesn't depend on the number of accounts and transfers are never blocked by a running export.
+ *
+ * Formats: NDJSON, one {"accountId":..,"balance":..} per line (the import format), or BINARY, per account
+ * [short id length][id UTF-8 bytes][long balance in minor units][long version], big-endian.
+ */
+@Service
+@Slf4j
+public class AccountExportService {
+
+  public enum Format {
+    NDJSON("application/x-ndjson"), BINARY("application/octet-stream");
+
+    private final String contentType;
+
+    Format(String contentType) {
+      this.contentType = contentType;
+    }
+
+    public String getContentType() {
+      return contentType;
+    }
+
+    /**
+     * @param name ndjson or binary, case insensitive
+     */
+    public static Format of(String name) {
+      for (Format format : values()) {
+        if (format.name().equalsIgnoreCase(name)) {
+          return format;
+        }
+      }
+      throw new IllegalArgumentException("Unknown export format " + name + ", expected ndjson or binary");
+    }
+  }
+
+  private final AccountsRepository accountsRepository;
+
+  private final ObjectWriter snapshotWriter;
+
+  private final int pageSize;
+
+  @Autowired
+  public AccountExportService(AccountsRepository accountsRepository, ObjectMapper objectMapper,
+                              @Value("${account.export.page-size:1000}") int pageSize) {
+    this.accountsRepository = accountsRepository;
+    this.snapshotWriter = objectMapper.writerFor(AccountSnapshot.class);
+    this.pageSize = pageSize;
+  }
+
+  /**
+   * Writes every account, the output is flushed after each page
+   */
+  public void export(OutputStream out, Format format) throws IOException {
+    long exported = 0;
+    String cursor = null;
+    do {
+      AccountPage page = nextPage(cursor);
+      write(page.getAccounts(), format, out);
+      out.flush();
+      exported += page.getAccounts().size();
+      cursor = page.getNextCursor();
+    } while (cursor != null);
+    log.info("Exported {} accounts as {}", exported, format);
+  }
+
+  /**
+   * For callers which write the output themselves (e.g. a reactive body), see {@link #encode(List, Format)}
+   *
+   * @param cursor null for the first page
+   */
+  public AccountPage nextPage(String cursor) {
+    return accountsRepository.listAccounts(cursor, pageSize);
+  }
+
+  public byte[] encode(List<AccountSnapshot> accounts, Format format) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(accounts.size() * 48);
+    try {
+      write(accounts, format, out);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e); // not thrown by a ByteArrayOutputStream
+    }
+    return out.toByteArray();
+  }
+
+  private void write(List<AccountSnapshot> accounts, Format format, OutputStream out) throws IOException {
+    if (format == Format.NDJSON) {
+      for (AccountSnapshot account : accounts) {
+        out.write(snapshotWriter.writeValueAsBytes(account));
+        out.write('\n');
+      }
+      return;
+    }
+    DataOutputStream data = new DataOutputStream(out);
+    for (AccountSnapshot account : accounts) {
+      byte[] encodedId = account.getAccountId().getBytes(StandardCharsets.UTF_8);
+      data.writeShort(encodedId.length);
+      data.write(encodedId);
+      data.writeLong(account.getBalanceMinorUnits());
+      data.writeLong(account.getVersion());
+    }
+    data.flush();
+  }
+}
@@ -0,0 +1,165 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Money;
+import com.dws.challenge.domain.TransactionRecord;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Latest transfers of an account, see {@link TransactionHistory}.
+ *
+ * A ring of capacity (power of 2) records [stamp][timestamp][amount] in a long array, with the counterparties
+ * in a parallel array of the ids of the accounts (no copy). A writer claims the next sequence with an atomic
+ * increment, then fills the slot seqlock style: the stamp is -(sequence + 1) while the slot is written,
+ * sequence + 1 once published, readers check it before and after reading the slot.
+ * A writer only waits for the writer of the same slot one full ring earlier, if that one didn't publish yet.
+ *
+ * Timestamps follow the sequences, up to the scheduling delay between concurrent writers:
+ * queries binary search the ring by timestamp over the sequences.
+ */
+class AccountHistory {
+
+  private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+
+  private static final AtomicLongFieldUpdater<AccountHistory> NEXT =
+    AtomicLongFieldUpdater.newUpdater(AccountHistory.class, "next");
+
+  private static final AtomicLongFieldUpdater<AccountHistory> SPILL_HEAD =
+    AtomicLongFieldUpdater.newUpdater(AccountHistory.class, "spillHead");
+
+  private static final int STAMP = 0;
+  private static final int TIMESTAMP = 1;
+  private static final int AMOUNT = 2;
+
+  /** timestampAt of a record which left the ring */
+  static final long OVERWRITTEN = Long.MIN_VALUE;
+
+  /** timestampAt of a record not published yet */
+  static final long PENDING = Long.MAX_VALUE;
+
+  private final int mask;
+
+  private final long[] slots;
+
+  private final String[] counterparties;
+
+  private volatile long next;
+
+  /** offset in the spill log of the last record of the account, -1 if none */
+  private volatile long spillHead = -1;
+
+  /** offset in the spill log of the first record of the account, -1 if none */
+  private volatile long spillTail = -1;
+
+  AccountHistory(int capacity) {
+    this.mask = capacity - 1;
+    this.slots = new long[capacity * 3];
+    this.counterparties = new String[capacity];
+  }
+
+  /**
+   * @return sequence of the record
+   */
+  long append(String counterparty, long amount, long timestamp) {
+    long sequence = NEXT.getAndIncrement(this);
+    int slot = (int) (sequence & mask);
+    int base = slot * 3;
+    while (true) {
+      long stamp = (long) LONGS.getAcquire(slots, base + STAMP);
+      if (Math.abs(stamp) - 1 > sequence) {
+        return sequence; // stalled for a full ring, already overwritten by a later record
+      }
+      if (stamp >= 0 && LONGS.compareAndSet(slots, base + STAMP, stamp, -(sequence + 1))) {
+        break;
+      }
+      Thread.onSpinWait(); // the previous record of the slot is being written
+    }
+    slots[base + TIMESTAMP] = timestamp;
+    slots[base + AMOUNT] = amount;
+    counterparties[slot] = counterparty;
+    LONGS.setRelease(slots, base + STAMP, sequence + 1);
+    return sequence;
+  }
+
+  /**
+   * @return number of records appended so far, i.e. the next sequence
+   */
+  long size() {
+    return next;
+  }
+
+  int capacity() {
+    return mask + 1;
+  }
+
+  /**
+   * @return timestamp of the record, {@link #OVERWRITTEN} or {@link #PENDING} if it can't be read from the ring
+   */
+  long timestampAt(long sequence) {
+    int base = (int) (sequence & mask) * 3;
+    long stamp = (long) LONGS.getAcquire(slots, base + STAMP);
+    long timestamp = slots[base + TIMESTAMP];
+    VarHandle.loadLoadFence();
+    if (stamp == sequence + 1 && (long) LONGS.getOpaque(slots, base + STAMP) == stamp) {
+      return timestamp;
+    }
+    return Math.abs(stamp) - 1 > sequence ? OVERWRITTEN : PENDING;
+  }
+
+  /**
+   * Adds the record to the list if it is still in the ring and published
+   *
+   * @return false if it isn't
+   */
+  boolean readInto(long sequence, List<TransactionRecord> records) {
+    int slot = (int) (sequence & mask);
+    int base = slot * 3;
+    long stamp = (long) LONGS.getAcquire(slots, base + STAMP);
+    long timestamp = slots[base + TIMESTAMP];
+    long amount = slots[base + AMOUNT];
+    String counterparty = counterparties[slot];
+    VarHandle.loadLoadFence();
+    if (stamp != sequence + 1 || (long) LONGS.getOpaque(slots, base + STAMP) != stamp) {
+      return false;
+    }
+    records.add(new TransactionRecord(sequence, Instant.ofEpochMilli(timestamp), counterparty, Money.toBigDecimal(amount)));
+    return true;
+  }
+
+  /**
+   * @return first sequence in [from, to) whose timestamp is at least fromMillis, to if none
+   */
+  long search(long from, long to, long fromMillis) {
+    long low = from;
+    long high = to;
+    while (low < high) {
+      long middle = (low + high) >>> 1;
+      if (timestampAt(middle) < fromMillis) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  long swapSpillHead(long offset) {
+    return SPILL_HEAD.getAndSet(this, offset);
+  }
+
+  long spillHead() {
+    return spillHead;
+  }
+
+  void setSpillTail(long offset) {
+    spillTail = offset;
+  }
+
+  long spillTail() {
+    return spillTail;
+  }
+}
@@ -0,0 +1,42 @@
+package com.dws.challenge.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Imports the accounts of account.import.file (NDJSON, or CSV for a .csv file) on startup.
+ * Every node of a cluster can be given the same file, each one creates the accounts of its partition.
+ */
+@Component
+@ConditionalOnProperty(name = "account.import.file")
+@Slf4j
+public class AccountImportLoader implements ApplicationRunner {
+
+  private final AccountImportService accountImportService;
+
+  private final Path file;
+
+  @Autowired
+  public AccountImportLoader(AccountImportService accountImportService, @Value("${account.import.file}") Path file) {
+    this.accountImportService = accountImportService;
+    this.file = file;
+  }
+
+  @Override
+  public void run(ApplicationArguments args) throws IOException {
+    log.info("Importing accounts from {}", file);
+    try (InputStream content = Files.newInputStream(file)) {
+      accountImportService.importAccounts(content, AccountImportService.Format.of(file.getFileName().toString()));
+    }
+  }
+}
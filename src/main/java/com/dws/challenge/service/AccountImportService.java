@@ -0,0 +1,210 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.ImportResult;
+import com.dws.challenge.repository.AccountsRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Bulk creation of accounts from NDJSON ({"accountId":..,"balance":..} per line) or CSV (accountId,balance per line,
+ * optional header line) content.
+ *
+ * Lines are read incrementally and handled in batches of batch-size lines: a batch is parsed and validated
+ * in parallel, then its valid accounts are inserted with {@link AccountsRepository#createAccounts(List)}.
+ * Invalid lines and duplicate ids are counted and reported, they don't stop the import.
+ *
+ * In a partitioned deployment (see {@link AccountPartitioner}) a node only creates the accounts it owns, the others
+ * are skipped and reported: the same content is imported on every node, each one keeps its partition.
+ */
+@Service
+@Slf4j
+public class AccountImportService {
+
+  public enum Format {
+    NDJSON, CSV;
+
+    /**
+     * @param contentTypeOrFileName e.g. text/csv or accounts.csv, anything else is NDJSON
+     */
+    public static Format of(String contentTypeOrFileName) {
+      return contentTypeOrFileName != null && contentTypeOrFileName.toLowerCase().contains("csv") ? CSV : NDJSON;
+    }
+  }
+
+  static final int MAX_REPORTED = 100;
+
+  private final AccountsRepository accountsRepository;
+
+  private final ObjectReader accountReader;
+
+  private final Validator validator;
+
+  private final int batchSize;
+
+  /** null unless the accounts are partitioned */
+  private final AccountPartitioner partitioner;
+
+  @Autowired
+  public AccountImportService(AccountsRepository accountsRepository, ObjectMapper objectMapper, Validator validator,
+                              @Value("${account.import.batch-size:10000}") int batchSize,
+                              ObjectProvider<AccountPartitioner> partitioner) {
+    this(accountsRepository, objectMapper, validator, batchSize, partitioner.getIfAvailable());
+  }
+
+  public AccountImportService(AccountsRepository accountsRepository, ObjectMapper objectMapper, Validator validator,
+                              int batchSize) {
+    this(accountsRepository, objectMapper, validator, batchSize, (AccountPartitioner) null);
+  }
+
+  AccountImportService(AccountsRepository accountsRepository, ObjectMapper objectMapper, Validator validator,
+                       int batchSize, AccountPartitioner partitioner) {
+    this.accountsRepository = accountsRepository;
+    this.accountReader = objectMapper.readerFor(Account.class);
+    this.validator = validator;
+    this.batchSize = batchSize;
+    this.partitioner = partitioner;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Imports the whole stream, the content is never held in memory beyond one batch of lines
+   */
+  public ImportResult importAccounts(InputStream content, Format format) throws IOException {
+    Import anImport = newImport(format);
+    BufferedReader reader = new BufferedReader(new InputStreamReader(content, StandardCharsets.UTF_8), 1 << 16);
+    List<String> lines = new ArrayList<>(batchSize);
+    String line;
+    while ((line = reader.readLine()) != null) {
+      lines.add(line);
+      if (lines.size() == batchSize) {
+        anImport.addLines(lines);
+        lines.clear();
+      }
+    }
+    anImport.addLines(lines);
+    ImportResult result = anImport.result();
+    log.info("Imported {} accounts, {} duplicates, {} invalid lines, {} of other partitions", result.getCreated(),
+      result.getDuplicates(), result.getInvalid(), result.getSkipped());
+    return result;
+  }
+
+  /**
+   * For callers which read the content themselves (e.g. a reactive body), lines are given batch after batch
+   */
+  public Import newImport(Format format) {
+    return new Import(format);
+  }
+
+  public final class Import {
+    private final Format format;
+    private long lineNumber;
+    private long created;
+    private long duplicates;
+    private long invalid;
+    private long skipped;
+    private final List<String> duplicateIds = new ArrayList<>();
+    private final List<String> skippedIds = new ArrayList<>();
+    private final List<String> errors = new ArrayList<>();
+
+    private Import(Format format) {
+      this.format = format;
+    }
+
+    /**
+     * Imports the next lines of the content, in order
+     */
+    public synchronized void addLines(List<String> lines) {
+      long first = lineNumber + 1;
+      lineNumber += lines.size();
+      Object[] rows = new Object[lines.size()]; // Account, or the error of the line
+      IntStream.range(0, rows.length).parallel().forEach(i -> rows[i] = parse(lines.get(i), first + i));
+      List<Account> accounts = new ArrayList<>(rows.length);
+      for (Object row : rows) {
+        if (row instanceof Account) {
+          Account account = (Account) row;
+          if (partitioner == null || partitioner.isLocal(account.getAccountId())) {
+            accounts.add(account);
+          } else {
+            skipped++;
+            report(skippedIds, account.getAccountId());
+          }
+        } else if (row != null) {
+          invalid++;
+          report(errors, (String) row);
+        }
+      }
+      List<String> batchDuplicates = accountsRepository.createAccounts(accounts);
+      created += accounts.size() - batchDuplicates.size();
+      duplicates += batchDuplicates.size();
+      for (String duplicateId : batchDuplicates) {
+        report(duplicateIds, duplicateId);
+      }
+    }
+
+    public synchronized ImportResult result() {
+      return new ImportResult(created, duplicates, invalid, skipped, List.copyOf(duplicateIds), List.copyOf(skippedIds),
+        List.copyOf(errors));
+    }
+
+    /**
+     * @return the account, the error message or null for a line to skip (blank, CSV header)
+     */
+    private Object parse(String line, long number) {
+      if (line.isBlank() || (format == Format.CSV && number == 1 && line.trim().startsWith("accountId"))) {
+        return null;
+      }
+      try {
+        Account account = format == Format.CSV ? parseCsv(line) : accountReader.readValue(line);
+        Set<ConstraintViolation<Account>> violations = validator.validate(account);
+        if (!violations.isEmpty()) {
+          return "line " + number + ": " + violations.stream()
+            .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+            .collect(Collectors.joining(", "));
+        }
+        return account;
+      } catch (JsonProcessingException e) {
+        return "line " + number + ": " + e.getOriginalMessage();
+      } catch (RuntimeException e) {
+        return "line " + number + ": " + (e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage());
+      }
+    }
+
+    private Account parseCsv(String line) {
+      int comma = line.indexOf(',');
+      if (comma < 0) {
+        throw new IllegalArgumentException("expected accountId,balance");
+      }
+      return new Account(line.substring(0, comma).trim(), new BigDecimal(line.substring(comma + 1).trim()));
+    }
+
+    private void report(List<String> reported, String value) {
+      if (reported.size() < MAX_REPORTED) {
+        reported.add(value);
+      }
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.exception.PartitionUnavailableException;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Partitioned deployment: the accounts are spread over the nodes listed in account.cluster.nodes (their base URLs,
+ * comma separated) by a {@link ConsistentHashRing}, account.cluster.self is the URL of this node.
+ * Every node is given the same list, so they all agree on the owner of an account without talking to each other.
+ *
+ * Requests for accounts owned by another node are forwarded to it, transfers between partitions go through the
+ * {@link ClusterTransferCoordinator}. Calls to other nodes time out after account.cluster.timeout-ms.
+ * They carry account.cluster.secret, shared by the nodes: a request is only trusted as coming from a node
+ * (not forwarded again, allowed on the cluster endpoints) when it names a node of the list and has the secret.
+ */
+@Component
+@ConditionalOnProperty(name = "account.cluster.nodes")
+@Slf4j
+public class AccountPartitioner {
+
+  /** Set on forwarded requests, a node never forwards them again (e.g. while the nodes disagree on the ring) */
+  public static final String FORWARDED_HEADER = "X-Partition-Forwarded";
+
+  public static final String SECRET_HEADER = "X-Cluster-Secret";
+
+  @Getter
+  private final String self;
+
+  @Getter
+  private final List<String> nodes;
+
+  @Getter
+  private final Duration timeout;
+
+  private final String secret;
+
+  private final ConsistentHashRing ring;
+
+  private final HttpClient httpClient;
+
+  @Autowired
+  public AccountPartitioner(@Value("${account.cluster.nodes}") String nodes,
+                            @Value("${account.cluster.self}") String self,
+                            @Value("${account.cluster.secret:}") String secret,
+                            @Value("${account.cluster.virtual-nodes:128}") int virtualNodes,
+                            @Value("${account.cluster.timeout-ms:2000}") long timeoutMillis) {
+    this.nodes = new ArrayList<>();
+    for (String node : nodes.split(",")) {
+      if (!node.isBlank()) {
+        this.nodes.add(normalize(node));
+      }
+    }
+    this.self = normalize(self);
+    if (!this.nodes.contains(this.self)) {
+      throw new IllegalArgumentException("account.cluster.self " + self + " is not one of account.cluster.nodes " + nodes);
+    }
+    if (secret.isBlank()) {
+      throw new IllegalArgumentException("account.cluster.secret must be set, the nodes authenticate each other with it");
+    }
+    this.secret = secret;
+    this.ring = new ConsistentHashRing(this.nodes, virtualNodes);
+    this.timeout = Duration.ofMillis(timeoutMillis);
+    this.httpClient = HttpClient.newBuilder().connectTimeout(timeout).build();
+    log.info("Partition {} of {} nodes", this.self, this.nodes.size());
+  }
+
+  private static String normalize(String node) {
+    String url = node.trim();
+    return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+  }
+
+  public String ownerOf(String accountId) {
+    return ring.ownerOf(accountId);
+  }
+
+  public boolean isLocal(String accountId) {
+    return ring.ownerOf(accountId).equals(self);
+  }
+
+  /**
+   * @param pathAndQuery already encoded, starting with /
+   */
+  public HttpRequest.Builder request(String node, String pathAndQuery) {
+    return HttpRequest.newBuilder(URI.create(node + pathAndQuery))
+      .timeout(timeout)
+      .header(FORWARDED_HEADER, self)
+      .header(SECRET_HEADER, secret);
+  }
+
+  /**
+   * @param node   value of the {@link #FORWARDED_HEADER} of a request, null if it has none
+   * @param secret value of its {@link #SECRET_HEADER}
+   * @return true if the request comes from a node of the cluster
+   */
+  public boolean isNode(String node, String secret) {
+    return node != null && secret != null && nodes.contains(node)
+      && MessageDigest.isEqual(this.secret.getBytes(StandardCharsets.UTF_8), secret.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @throws PartitionUnavailableException if the node can't be reached or doesn't answer in time
+   */
+  public HttpResponse<byte[]> send(String node, HttpRequest request) {
+    try {
+      return httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+    } catch (IOException e) {
+      throw new PartitionUnavailableException(node, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PartitionUnavailableException(node, e);
+    }
+  }
+
+  public static String encode(String value) {
+    return URLEncoder.encode(value, StandardCharsets.UTF_8);
+  }
+}
@@ -1,6 +1,7 @@
 package com.dws.challenge.service;
 
 import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.AccountPage;
 import com.dws.challenge.repository.AccountsRepository;
 import lombok.Getter;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -11,6 +12,8 @@ import java.math.BigDecimal;
 @Service
 public class AccountsService {
 
+  public static final int MAX_PAGE_SIZE = 1000;
+
   @Getter
   private final AccountsRepository accountsRepository;
 
@@ -27,5 +30,15 @@ public class AccountsService {
     return this.accountsRepository.getAccount(accountId);
   }
 
+  /**
+   * @see AccountsRepository#listAccounts(String, int)
+   */
+  public AccountPage listAccounts(String cursor, int limit) {
+    if (limit < 1 || limit > MAX_PAGE_SIZE) {
+      throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_SIZE);
+    }
+    return this.accountsRepository.listAccounts(cursor, limit);
+  }
+
 
 }
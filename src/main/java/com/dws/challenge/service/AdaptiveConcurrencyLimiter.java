@@ -0,0 +1,133 @@
+package com.dws.challenge.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limit of the transfer requests in flight, adapted to their latency like a TCP congestion window (AIMD).
+ *
+ * A request is admitted while fewer than limit requests are in flight, otherwise it is rejected at once
+ * instead of queueing on the server threads and the account locks. Every completed request is a sample:
+ * - slower than latency-target-ms: the engine is saturated, the limit is multiplied by backoff-ratio.
+ *   Only requests admitted since the last decrease can cut it again, so a burst of slow requests cuts it once.
+ * - faster, with at least half of the limit in use: the limit grows by 1/limit, i.e. by one per limit samples.
+ * The limit stays between min-limit and max-limit. It is updated with compare and set, releasing a request
+ * takes no lock.
+ */
+@Component
+public class AdaptiveConcurrencyLimiter implements MeterBinder {
+
+  /** Returned by {@link #tryAcquire()} when the request is rejected */
+  public static final long REJECTED = -1;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final long latencyTargetNanos;
+  private final double backoffRatio;
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final LongAdder rejected = new LongAdder();
+
+  /** Bits of the double limit, requests are admitted up to its integer part */
+  private final AtomicLong limit = new AtomicLong();
+  /** Number of decreases, a request knows it was admitted before the last one */
+  private final AtomicLong epoch = new AtomicLong();
+
+  @Autowired
+  public AdaptiveConcurrencyLimiter(@Value("${account.admission.initial-limit:64}") int initialLimit,
+                                    @Value("${account.admission.min-limit:4}") int minLimit,
+                                    @Value("${account.admission.max-limit:1024}") int maxLimit,
+                                    @Value("${account.admission.latency-target-ms:50}") long latencyTargetMillis,
+                                    @Value("${account.admission.backoff-ratio:0.9}") double backoffRatio) {
+    if (minLimit < 1 || maxLimit < minLimit || backoffRatio <= 0 || backoffRatio >= 1) {
+      throw new IllegalArgumentException("Invalid admission limits " + minLimit + ".." + maxLimit + " or backoff ratio " + backoffRatio);
+    }
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.latencyTargetNanos = TimeUnit.MILLISECONDS.toNanos(latencyTargetMillis);
+    this.backoffRatio = backoffRatio;
+    this.limit.set(Double.doubleToRawLongBits(Math.max(minLimit, Math.min(maxLimit, initialLimit))));
+  }
+
+  /**
+   * @return a ticket to give back to {@link #release} once the request completed, {@link #REJECTED} if over the limit
+   */
+  public long tryAcquire() {
+    int current;
+    do {
+      current = inFlight.get();
+      if (current >= getLimit()) {
+        rejected.increment();
+        return REJECTED;
+      }
+    } while (!inFlight.compareAndSet(current, current + 1));
+    return epoch.get();
+  }
+
+  /**
+   * @param latencyNanos time the admitted request took
+   */
+  public void release(long ticket, long latencyNanos) {
+    int inFlightBefore = inFlight.getAndDecrement();
+    if (latencyNanos > latencyTargetNanos) {
+      if (ticket == epoch.get() && epoch.compareAndSet(ticket, ticket + 1)) {
+        long current;
+        double next;
+        do {
+          current = limit.get();
+          next = Math.max(minLimit, Double.longBitsToDouble(current) * backoffRatio);
+        } while (!limit.compareAndSet(current, Double.doubleToRawLongBits(next)));
+      }
+      return;
+    }
+    long current;
+    double next;
+    do {
+      current = limit.get();
+      double value = Double.longBitsToDouble(current);
+      if (inFlightBefore * 2 < value || value >= maxLimit) {
+        return;
+      }
+      next = Math.min(maxLimit, value + 1 / value);
+    } while (!limit.compareAndSet(current, Double.doubleToRawLongBits(next)));
+  }
+
+  /**
+   * Gives back a request which isn't a latency sample (e.g. a batch, slower than a transfer by design)
+   */
+  public void release(long ticket) {
+    inFlight.decrementAndGet();
+  }
+
+  public int getLimit() {
+    return (int) Double.longBitsToDouble(limit.get());
+  }
+
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    Gauge.builder("admission.limit", this, AdaptiveConcurrencyLimiter::getLimit)
+      .description("Transfer requests admitted concurrently")
+      .register(registry);
+    Gauge.builder("admission.inflight", this, AdaptiveConcurrencyLimiter::getInFlight)
+      .description("Transfer requests in flight")
+      .register(registry);
+    FunctionCounter.builder("admission.rejected", rejected, LongAdder::sum)
+      .tag("reason", "overload")
+      .description("Transfer requests rejected with 503 because the limit was reached")
+      .register(registry);
+  }
+}
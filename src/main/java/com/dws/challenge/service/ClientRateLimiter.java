@@ -0,0 +1,120 @@
+package com.dws.challenge.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket per client, so that one client can't take the whole capacity of the transfer endpoints.
+ *
+ * A client gets rate-per-second requests, with bursts of up to burst requests. Buckets are kept for at most
+ * max-clients clients: when full, the new clients share one bucket and the buckets which refilled are evicted.
+ * Evictions scan all the buckets, so they run at most once per max-clients / EVICTION_BATCHES new clients:
+ * a stream of new (or spoofed) client ids costs a few bucket checks per request, not a scan each.
+ * rate-per-second=0 disables the limiter.
+ */
+@Component
+public class ClientRateLimiter implements MeterBinder {
+
+  private static final String SHARED = "";
+  private static final int EVICTION_BATCHES = 8;
+
+  private final double nanosPerToken;
+  private final double burst;
+  private final int maxClients;
+  private final LongSupplier nanoClock;
+  private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+  private final LongAdder throttled = new LongAdder();
+  /** New clients which found the buckets full since the last eviction */
+  private final AtomicInteger overflows = new AtomicInteger();
+  private final int overflowsPerEviction;
+
+  @Autowired
+  public ClientRateLimiter(@Value("${account.admission.client.rate-per-second:0}") double ratePerSecond,
+                           @Value("${account.admission.client.burst:100}") int burst,
+                           @Value("${account.admission.client.max-clients:10000}") int maxClients) {
+    this(ratePerSecond, burst, maxClients, System::nanoTime);
+  }
+
+  ClientRateLimiter(double ratePerSecond, int burst, int maxClients, LongSupplier nanoClock) {
+    this.nanosPerToken = ratePerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / ratePerSecond : 0;
+    this.burst = Math.max(burst, 1);
+    this.maxClients = maxClients;
+    this.nanoClock = nanoClock;
+    this.overflowsPerEviction = Math.max(1, maxClients / EVICTION_BATCHES);
+  }
+
+  /**
+   * Takes a token of the client
+   *
+   * @return 0 if the client had one, else the nanos until it gets one
+   */
+  public long tryAcquire(String clientId) {
+    if (nanosPerToken <= 0) {
+      return 0;
+    }
+    long now = nanoClock.getAsLong();
+    Bucket bucket = buckets.get(clientId);
+    if (bucket == null) {
+      if (buckets.size() >= maxClients && overflows.incrementAndGet() >= overflowsPerEviction) {
+        overflows.set(0);
+        buckets.values().removeIf(idle -> idle.isFull(now));
+      }
+      bucket = buckets.size() < maxClients ? buckets.computeIfAbsent(clientId, id -> new Bucket(now))
+        : buckets.computeIfAbsent(SHARED, id -> new Bucket(now));
+    }
+    long wait = bucket.take(now);
+    if (wait > 0) {
+      throttled.increment();
+    }
+    return wait;
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    FunctionCounter.builder("admission.rejected", throttled, LongAdder::sum)
+      .tag("reason", "client-rate")
+      .description("Transfer requests rejected with 429 because their client was over its rate")
+      .register(registry);
+  }
+
+  private final class Bucket {
+    private double tokens = burst;
+    private long refilled;
+
+    Bucket(long now) {
+      this.refilled = now;
+    }
+
+    synchronized long take(long now) {
+      refill(now);
+      if (tokens >= 1) {
+        tokens--;
+        return 0;
+      }
+      return (long) Math.ceil((1 - tokens) * nanosPerToken);
+    }
+
+    synchronized boolean isFull(long now) {
+      refill(now);
+      return tokens >= burst;
+    }
+
+    private void refill(long now) {
+      if (now > refilled) { // callers may pass a clock read before the one of the last refill
+        tokens = Math.min(burst, tokens + (now - refilled) / nanosPerToken);
+        refilled = now;
+      }
+    }
+  }
+}
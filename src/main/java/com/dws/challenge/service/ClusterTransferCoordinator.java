@@ -0,0 +1,262 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.exception.InvalidTransactionException;
+import com.dws.challenge.exception.PartitionUnavailableException;
+import com.dws.challenge.repository.AccountsRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transfers between accounts owned by different nodes (see {@link AccountPartitioner}), in two phases.
+ *
+ * The node owning the source coordinates:
+ * 1. reserve: the source is debited locally, with all the checks of a local transfer, the money is now in flight
+ * 2. prepare: the node of the destination checks its account and keeps the pending credit
+ * 3. the decision is recorded, then sent: on commit the destination node credits its account; when the prepare
+ *    is rejected or times out the decision is abort, the source is refunded.
+ * A pending credit without decision after twice the timeout is resolved by asking the coordinator;
+ * an unknown transaction is aborted (presumed abort). A committed decision is kept until the participant acknowledged
+ * it (answered the commit, or confirmed it after asking): forgetting it earlier would abort a credit whose source
+ * was debited. Acknowledged commits and aborts are forgotten after account.cluster.decision-retention-ms.
+ *
+ * Decisions and pending credits are kept in memory: in-doubt transfers don't survive a restart of their nodes.
+ */
+@Service
+@ConditionalOnProperty(name = "account.cluster.nodes")
+@Slf4j
+public class ClusterTransferCoordinator {
+
+  public enum Decision {
+    PENDING, COMMITTED, ABORTED
+  }
+
+  private final AccountPartitioner partitioner;
+
+  private final AccountBalanceService accountBalanceService;
+
+  private final AccountsRepository accountsRepository;
+
+  private final long decisionRetentionMillis;
+
+  /** transactions coordinated by this node */
+  private final Map<String, Outcome> decisions = new ConcurrentHashMap<>();
+
+  /** prepared credits of local accounts, waiting for the decision of their coordinator */
+  private final Map<String, PendingCredit> pendingCredits = new ConcurrentHashMap<>();
+
+  private final ScheduledExecutorService resolver = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "cluster-resolver");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  @Autowired
+  public ClusterTransferCoordinator(AccountPartitioner partitioner, AccountBalanceService accountBalanceService,
+                                    AccountsRepository accountsRepository,
+                                    @Value("${account.cluster.decision-retention-ms:600000}")
+                                    long decisionRetentionMillis) {
+    this.partitioner = partitioner;
+    this.accountBalanceService = accountBalanceService;
+    this.accountsRepository = accountsRepository;
+    this.decisionRetentionMillis = decisionRetentionMillis;
+    long period = partitioner.getTimeout().toMillis();
+    resolver.scheduleWithFixedDelay(this::resolve, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  public boolean isLocal(String accountId) {
+    return partitioner.isLocal(accountId);
+  }
+
+  /**
+   * Transfers from a local source to a destination owned by another node
+   *
+   * @throws InvalidTransactionException if the source or the destination node rejects the transfer
+   * @throws PartitionUnavailableException if the destination node can't be reached, the source is refunded
+   */
+  public boolean transfer(String sourceAccountId, String destinationAccountId, long amount) {
+    String node = partitioner.ownerOf(destinationAccountId);
+    String transactionId = UUID.randomUUID().toString();
+    decisions.put(transactionId, new Outcome(Decision.PENDING, System.currentTimeMillis(), false));
+    try {
+      accountBalanceService.debitForRemote(sourceAccountId, destinationAccountId, amount);
+    } catch (RuntimeException e) {
+      decisions.remove(transactionId);
+      throw e;
+    }
+
+    HttpResponse<byte[]> prepared;
+    try {
+      prepared = call(node, "/prepare?source=" + AccountPartitioner.encode(sourceAccountId)
+        + "&destination=" + AccountPartitioner.encode(destinationAccountId)
+        + "&amount=" + amount
+        + "&coordinator=" + AccountPartitioner.encode(partitioner.getSelf()), transactionId);
+    } catch (PartitionUnavailableException e) {
+      abort(transactionId, node, sourceAccountId, destinationAccountId, amount);
+      throw e;
+    }
+    if (prepared.statusCode() != 200) {
+      abort(transactionId, node, sourceAccountId, destinationAccountId, amount);
+      throw new InvalidTransactionException(new String(prepared.body(), StandardCharsets.UTF_8), false);
+    }
+
+    decisions.put(transactionId, new Outcome(Decision.COMMITTED, System.currentTimeMillis(), false));
+    try {
+      if (call(node, "/commit", transactionId).statusCode() == 200) {
+        acknowledge(transactionId);
+      } else {
+        log.warn("Commit of transfer {} not applied by {}, the decision is kept", transactionId, node);
+      }
+    } catch (PartitionUnavailableException e) {
+      log.warn("Commit of transfer {} not delivered to {}, it will ask for the decision", transactionId, node);
+    }
+    return true;
+  }
+
+  private void abort(String transactionId, String node, String sourceAccountId, String destinationAccountId, long amount) {
+    decisions.put(transactionId, new Outcome(Decision.ABORTED, System.currentTimeMillis(), false));
+    accountBalanceService.cancelDebitForRemote(sourceAccountId, destinationAccountId, amount);
+    try {
+      call(node, "/abort", transactionId);
+    } catch (PartitionUnavailableException e) {
+      log.debug("Abort of transfer {} not delivered to {}, it will ask for the decision", transactionId, node);
+    }
+  }
+
+  private HttpResponse<byte[]> call(String node, String action, String transactionId) {
+    HttpRequest request = partitioner.request(node, "/v1/cluster/transactions/" + transactionId + action)
+      .POST(HttpRequest.BodyPublishers.noBody())
+      .build();
+    return partitioner.send(node, request);
+  }
+
+  /**
+   * Participant side: keeps the credit of a local account until the decision of the coordinator
+   *
+   * @throws InvalidTransactionException if the destination doesn't exist on this node, the amount isn't positive
+   *                                     or the coordinator isn't a node of the cluster (it is asked for the decision)
+   */
+  public void prepare(String transactionId, String sourceAccountId, String destinationAccountId, long amount,
+                      String coordinator) {
+    if (!partitioner.getNodes().contains(coordinator)) {
+      throw new InvalidTransactionException("Unknown coordinator " + coordinator);
+    }
+    if (amount <= 0) {
+      throw TransferRejection.NON_POSITIVE_AMOUNT.toException(sourceAccountId, destinationAccountId);
+    }
+    if (!partitioner.isLocal(destinationAccountId) || accountsRepository.getAccount(destinationAccountId) == null) {
+      throw TransferRejection.INVALID_ACCOUNT.toException(sourceAccountId, destinationAccountId);
+    }
+    long deadline = System.currentTimeMillis() + 2 * partitioner.getTimeout().toMillis();
+    pendingCredits.putIfAbsent(transactionId,
+      new PendingCredit(sourceAccountId, destinationAccountId, amount, coordinator, deadline));
+  }
+
+  /**
+   * Credits the destination of a prepared transfer; a transfer already committed or aborted is ignored
+   */
+  public void commit(String transactionId) {
+    PendingCredit credit = pendingCredits.remove(transactionId);
+    if (credit != null) {
+      accountBalanceService.creditFromRemote(credit.getSourceAccountId(), credit.getDestinationAccountId(), credit.getAmount());
+    }
+  }
+
+  public void abort(String transactionId) {
+    pendingCredits.remove(transactionId);
+  }
+
+  /**
+   * The participant applied the committed decision, it can be forgotten after the retention
+   */
+  public void acknowledge(String transactionId) {
+    decisions.computeIfPresent(transactionId, (id, outcome) -> outcome.getDecision() == Decision.COMMITTED
+      ? new Outcome(Decision.COMMITTED, System.currentTimeMillis(), true)
+      : outcome);
+  }
+
+  /**
+   * Decision of a transaction coordinated by this node, ABORTED if it is unknown
+   */
+  public Decision decisionOf(String transactionId) {
+    Outcome outcome = decisions.get(transactionId);
+    return outcome == null ? Decision.ABORTED : outcome.getDecision();
+  }
+
+  /**
+   * Asks the coordinators of the credits past their deadline for their decision, and forgets old decisions
+   */
+  void resolve() {
+    long now = System.currentTimeMillis();
+    pendingCredits.forEach((transactionId, credit) -> {
+      if (credit.getDeadline() > now) {
+        return;
+      }
+      try {
+        HttpRequest request = partitioner.request(credit.getCoordinator(), "/v1/cluster/transactions/" + transactionId)
+          .GET()
+          .build();
+        HttpResponse<byte[]> response = partitioner.send(credit.getCoordinator(), request);
+        Decision decision = response.statusCode() == 200
+          ? Decision.valueOf(new String(response.body(), StandardCharsets.UTF_8).trim())
+          : Decision.PENDING;
+        if (decision == Decision.COMMITTED) {
+          commit(transactionId);
+          acknowledgeTo(credit.getCoordinator(), transactionId);
+        } else if (decision == Decision.ABORTED) {
+          abort(transactionId);
+        }
+      } catch (RuntimeException e) {
+        log.warn("Transfer {} is in doubt, its coordinator {} can't tell the decision: {}", transactionId,
+          credit.getCoordinator(), e.getMessage());
+      }
+    });
+    decisions.values().removeIf(outcome -> (outcome.getDecision() == Decision.ABORTED || outcome.isAcknowledged())
+      && outcome.getRecordedAt() < now - decisionRetentionMillis);
+  }
+
+  /**
+   * Lost acknowledgements only keep the decision on the coordinator, the credit is already applied
+   */
+  private void acknowledgeTo(String coordinator, String transactionId) {
+    try {
+      call(coordinator, "/acknowledge", transactionId);
+    } catch (PartitionUnavailableException e) {
+      log.warn("Transfer {} credited, its coordinator {} can't be told: {}", transactionId, coordinator, e.getMessage());
+    }
+  }
+
+  @PreDestroy
+  public void close() {
+    resolver.shutdownNow();
+  }
+
+  @lombok.Value
+  private static class Outcome {
+    Decision decision;
+    long recordedAt;
+    boolean acknowledged;
+  }
+
+  @lombok.Value
+  private static class PendingCredit {
+    String sourceAccountId;
+    String destinationAccountId;
+    long amount;
+    String coordinator;
+    long deadline;
+  }
+}
@@ -0,0 +1,63 @@
+package com.dws.challenge.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Consistent hashing of account ids to nodes.
+ *
+ * Every node gets virtualNodes points on a 64-bit ring, an account belongs to the node of the first point at or
+ * after its hash (wrapping around). Adding or removing a node only moves the accounts of its own points, about
+ * 1/n of them. Points are kept sorted in a primitive array, a lookup is a hash and a binary search.
+ */
+public final class ConsistentHashRing {
+
+  private final long[] points;
+
+  private final String[] owners;
+
+  public ConsistentHashRing(List<String> nodes, int virtualNodes) {
+    if (nodes.isEmpty() || virtualNodes < 1) {
+      throw new IllegalArgumentException("A ring needs at least one node and one virtual node per node");
+    }
+    long[][] entries = new long[nodes.size() * virtualNodes][];
+    for (int n = 0; n < nodes.size(); n++) {
+      for (int v = 0; v < virtualNodes; v++) {
+        entries[n * virtualNodes + v] = new long[]{hash(nodes.get(n) + "#" + v), n};
+      }
+    }
+    Arrays.sort(entries, (left, right) -> Long.compare(left[0], right[0]));
+    this.points = new long[entries.length];
+    this.owners = new String[entries.length];
+    for (int i = 0; i < entries.length; i++) {
+      points[i] = entries[i][0];
+      owners[i] = nodes.get((int) entries[i][1]);
+    }
+  }
+
+  public String ownerOf(String accountId) {
+    int index = Arrays.binarySearch(points, hash(accountId));
+    if (index < 0) {
+      index = -index - 1;
+    }
+    return owners[index == points.length ? 0 : index];
+  }
+
+  /**
+   * FNV-1a over the UTF-8 bytes, then the murmur3 finalizer so close ids land far apart on the ring
+   */
+  static long hash(String value) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b;
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
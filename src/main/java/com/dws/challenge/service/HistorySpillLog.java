@@ -0,0 +1,192 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Money;
+import com.dws.challenge.domain.TransactionRecord;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memory-mapped append log of every history record, so history older than the rings can still be queried.
+ *
+ * Records are [long sequence + 1][long offset of the previous record of the account][long offset + 1 of the next one]
+ * [long timestamp][long amount][short counterparty length][counterparty UTF-8 bytes], 8 aligned. The records of
+ * an account are chained both ways, from its last one and from its first one, so a query only reads the records
+ * of its account, and stops once it has enough of them when it starts from the first one.
+ * Space is claimed with an atomic add, the sequence is written last with a release store: a reader following
+ * the chain waits for it. The file is recreated at startup, and records are dropped once it is full.
+ * Records whose counterparty id is longer than {@link #MAX_COUNTERPARTY_BYTES} are only kept in the ring.
+ */
+@Slf4j
+class HistorySpillLog implements AutoCloseable {
+
+  private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+  private static final int SEQUENCE = 0;
+  private static final int PREVIOUS = 8;
+  private static final int NEXT = 16;
+  private static final int TIMESTAMP = 24;
+  private static final int AMOUNT = 32;
+  private static final int COUNTERPARTY_LENGTH = 40;
+  private static final int COUNTERPARTY = 42;
+
+  /** Counterparty lengths are unsigned shorts */
+  static final int MAX_COUNTERPARTY_BYTES = 0xFFFF;
+
+  private final FileChannel channel;
+
+  private final MappedByteBuffer buffer;
+
+  private final AtomicLong position = new AtomicLong();
+
+  private volatile boolean full;
+
+  HistorySpillLog(Path file, int size) throws IOException {
+    Files.createDirectories(file.toAbsolutePath().getParent());
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+      StandardOpenOption.TRUNCATE_EXISTING);
+    this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    this.buffer.order(ByteOrder.nativeOrder());
+  }
+
+  void append(AccountHistory history, long sequence, String counterparty, long amount, long timestamp) {
+    if (full) {
+      return;
+    }
+    byte[] encoded = isAscii(counterparty) ? null : counterparty.getBytes(StandardCharsets.UTF_8);
+    int length = encoded == null ? counterparty.length() : encoded.length;
+    if (length > MAX_COUNTERPARTY_BYTES) {
+      log.debug("Counterparty id of {} bytes is too long for the spill log, record {} is only kept in the ring",
+        length, sequence);
+      return;
+    }
+    int recordSize = (COUNTERPARTY + length + 7) & ~7;
+    long claimed = position.getAndAdd(recordSize);
+    if (claimed + recordSize > buffer.capacity()) {
+      full = true;
+      log.warn("History spill log is full, older transactions are only kept in the account rings");
+      return;
+    }
+    int offset = (int) claimed;
+    long previous = history.swapSpillHead(offset);
+    if (previous < 0) {
+      history.setSpillTail(offset);
+    } else {
+      LONGS.setRelease(buffer, (int) previous + NEXT, offset + 1L);
+    }
+    buffer.putLong(offset + PREVIOUS, previous);
+    buffer.putLong(offset + TIMESTAMP, timestamp);
+    buffer.putLong(offset + AMOUNT, amount);
+    buffer.putShort(offset + COUNTERPARTY_LENGTH, (short) length);
+    for (int i = 0; i < length; i++) {
+      buffer.put(offset + COUNTERPARTY + i, encoded == null ? (byte) counterparty.charAt(i) : encoded[i]);
+    }
+    LONGS.setRelease(buffer, offset + SEQUENCE, sequence + 1);
+  }
+
+  /**
+   * Adds the records of the account with a sequence below beforeSequence and a timestamp in [fromMillis, toMillis),
+   * at most limit of them, the oldest ones. They are in chain order, i.e. in sequence order up to the scheduling
+   * delay between concurrent writers.
+   * When the first record of the account is in the range, the chain is read from it and the read stops after limit
+   * records. Otherwise it is read from the last record back to the first one older than fromMillis.
+   */
+  void readInto(AccountHistory history, long beforeSequence, long fromMillis, long toMillis, int limit,
+                List<TransactionRecord> records) {
+    long tail = history.spillTail();
+    if (tail >= 0 && timestampAt((int) tail) >= fromMillis) {
+      readForward(tail, beforeSequence, toMillis, limit, records);
+    } else {
+      readBackward(history.spillHead(), beforeSequence, fromMillis, toMillis, limit, records);
+    }
+  }
+
+  private void readForward(long offset, long beforeSequence, long toMillis, int limit, List<TransactionRecord> records) {
+    int found = 0;
+    while (offset >= 0 && found < limit) {
+      int at = (int) offset;
+      long sequence = awaitSequence(at);
+      if (buffer.getLong(at + TIMESTAMP) >= toMillis) {
+        return;
+      }
+      if (sequence < beforeSequence) {
+        records.add(recordAt(at, sequence));
+        found++;
+      }
+      offset = (long) LONGS.getAcquire(buffer, at + NEXT) - 1; // -1 for the last record, or one not linked yet
+    }
+  }
+
+  /**
+   * Keeps the offsets of the last limit records in range seen, the oldest ones, and only reads those
+   */
+  private void readBackward(long offset, long beforeSequence, long fromMillis, long toMillis, int limit,
+                            List<TransactionRecord> records) {
+    int[] kept = new int[limit];
+    long found = 0;
+    while (offset >= 0) {
+      int at = (int) offset;
+      long sequence = awaitSequence(at);
+      long timestamp = buffer.getLong(at + TIMESTAMP);
+      if (timestamp < fromMillis) {
+        break;
+      }
+      if (sequence < beforeSequence && timestamp < toMillis) {
+        kept[(int) (found++ % limit)] = at;
+      }
+      offset = buffer.getLong(at + PREVIOUS);
+    }
+    for (long i = found - 1; i >= Math.max(0, found - limit); i--) {
+      int at = kept[(int) (i % limit)];
+      records.add(recordAt(at, awaitSequence(at)));
+    }
+  }
+
+  private long awaitSequence(int at) {
+    long stamp;
+    while ((stamp = (long) LONGS.getAcquire(buffer, at + SEQUENCE)) == 0) {
+      Thread.onSpinWait(); // claimed and chained, not written yet
+    }
+    return stamp - 1;
+  }
+
+  private long timestampAt(int at) {
+    awaitSequence(at);
+    return buffer.getLong(at + TIMESTAMP);
+  }
+
+  private TransactionRecord recordAt(int at, long sequence) {
+    byte[] counterparty = new byte[Short.toUnsignedInt(buffer.getShort(at + COUNTERPARTY_LENGTH))];
+    for (int i = 0; i < counterparty.length; i++) {
+      counterparty[i] = buffer.get(at + COUNTERPARTY + i);
+    }
+    return new TransactionRecord(sequence, Instant.ofEpochMilli(buffer.getLong(at + TIMESTAMP)),
+      new String(counterparty, StandardCharsets.UTF_8), Money.toBigDecimal(buffer.getLong(at + AMOUNT)));
+  }
+
+  private static boolean isAscii(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      if (value.charAt(i) >= 0x80) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
@@ -0,0 +1,123 @@
+package com.dws.challenge.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runtime detection of hot accounts, i.e. accounts credited by many concurrent transfers (merchants, fees).
+ *
+ * The locking engine reports the transfers which had to wait for the lock of their destination account.
+ * At the end of every window (window-ms) the accounts contended at least threshold times are promoted:
+ * credits to a hot account no longer take its lock, they are a single atomic add on the balance.
+ * A hot account is demoted when it received less than threshold credits in a window, cold accounts keep
+ * the plain two-lock path. Contention is tracked for at most max-tracked-accounts accounts per window.
+ *
+ * Windows are rotated by the callers themselves, there is no background thread; threshold=0 disables detection.
+ */
+@Component
+@Slf4j
+public class HotAccountDetector implements MeterBinder {
+
+  private final int threshold;
+  private final long windowNanos;
+  private final int maxTrackedAccounts;
+  private final Map<String, LongAdder> contention = new ConcurrentHashMap<>();
+  private final Map<String, LongAdder> hotAccounts = new ConcurrentHashMap<>(); // credits during the window
+  private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+
+  @Autowired
+  public HotAccountDetector(@Value("${account.hot.threshold:50}") int threshold,
+                            @Value("${account.hot.window-ms:1000}") long windowMillis,
+                            @Value("${account.hot.max-tracked-accounts:10000}") int maxTrackedAccounts) {
+    this.threshold = threshold;
+    this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    this.maxTrackedAccounts = maxTrackedAccounts;
+  }
+
+  /**
+   * Detector which never promotes an account, for engines created outside of Spring
+   */
+  public static HotAccountDetector disabled() {
+    return new HotAccountDetector(0, 1000, 0);
+  }
+
+  /**
+   * A transfer had to wait for the lock of its destination account
+   */
+  public void contendedCredit(String accountId) {
+    if (threshold <= 0) {
+      return;
+    }
+    LongAdder counter = contention.get(accountId);
+    if (counter == null) {
+      if (contention.size() >= maxTrackedAccounts) {
+        return;
+      }
+      counter = contention.computeIfAbsent(accountId, id -> new LongAdder());
+    }
+    counter.increment();
+    rotateIfElapsed();
+  }
+
+  /**
+   * @return true if credits to the account don't take its lock, the call is counted as such a credit
+   */
+  public boolean isHot(String accountId) {
+    LongAdder credits = hotAccounts.get(accountId);
+    if (credits == null) {
+      return false;
+    }
+    credits.increment();
+    rotateIfElapsed();
+    return true;
+  }
+
+  public Set<String> getHotAccounts() {
+    return Set.copyOf(hotAccounts.keySet());
+  }
+
+  private void rotateIfElapsed() {
+    long start = windowStart.get();
+    long now = System.nanoTime();
+    if (now - start >= windowNanos && windowStart.compareAndSet(start, now)) {
+      rotateWindow();
+    }
+  }
+
+  /**
+   * Ends the current window: demotes the hot accounts which were not credited enough, then promotes the contended ones
+   */
+  synchronized void rotateWindow() {
+    hotAccounts.forEach((accountId, credits) -> {
+      if (credits.sumThenReset() < threshold) {
+        hotAccounts.remove(accountId);
+        log.info("Account {} is no longer hot", accountId);
+      }
+    });
+    contention.forEach((accountId, counter) -> {
+      if (counter.sum() >= threshold && hotAccounts.putIfAbsent(accountId, new LongAdder()) == null) {
+        log.info("Account {} is hot, {} contended credits in the last window", accountId, counter.sum());
+      }
+    });
+    contention.clear();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    Gauge.builder("transfer.hot.accounts", hotAccounts, Map::size)
+      .description("Accounts credited without taking their lock")
+      .register(registry);
+  }
+}
@@ -0,0 +1,182 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.exception.InvalidTransactionException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Recent idempotency keys of transfers and their outcome, so a retried transfer is applied only once.
+ *
+ * Keys are spread over independently locked stripes; a stripe is a map in insertion order, so the
+ * oldest key is always the first one and eviction (expired after ttl-seconds, or over capacity) is O(1).
+ * A retry which arrives while the original transfer is still running waits for its outcome.
+ * Only outcomes are kept: a transfer applied, or rejected with an {@link InvalidTransactionException}. Any other
+ * failure (journal full, engine stopped, partition unavailable...) applied nothing, its key is forgotten so a retry
+ * runs the transfer again.
+ * Memory is bounded by capacity keys of at most MAX_KEY_LENGTH chars.
+ */
+@Component
+public class IdempotencyCache {
+
+    static final int MAX_KEY_LENGTH = 255;
+
+    private final Stripe[] stripes;
+    private final int stripeCapacity;
+    private final long ttlNanos;
+    private final LongSupplier nanoClock;
+
+    @Autowired
+    public IdempotencyCache(@Value("${account.idempotency.capacity:100000}") int capacity,
+                            @Value("${account.idempotency.ttl-seconds:3600}") long ttlSeconds,
+                            @Value("${account.idempotency.stripes:64}") int stripeCount) {
+        this(capacity, ttlSeconds, stripeCount, System::nanoTime);
+    }
+
+    IdempotencyCache(int capacity, long ttlSeconds, int stripeCount, LongSupplier nanoClock) {
+        int stripes = stripeCount <= 1 ? 1 : Integer.highestOneBit(stripeCount - 1) << 1; // power of 2, for masking
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.stripeCapacity = Math.max(1, capacity / stripes);
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Runs the transfer unless the key was already seen, in which case the original outcome is returned
+     * (or its exception thrown again) without running it.
+     *
+     * @throws InvalidTransactionException if the key was used for a different transfer
+     */
+    public boolean execute(String idempotencyKey, String sourceAccountId, String destinationAccountId, long amount,
+                           BooleanSupplier transfer) {
+        if (idempotencyKey.isEmpty() || idempotencyKey.length() > MAX_KEY_LENGTH) {
+            throw new InvalidTransactionException("Idempotency key must have 1 to "+MAX_KEY_LENGTH+" characters");
+        }
+        Stripe stripe = stripeOf(idempotencyKey);
+        while (true) {
+            Entry entry;
+            boolean owner = false;
+            synchronized (stripe) {
+                long now = nanoClock.getAsLong();
+                stripe.evict(now, stripeCapacity, ttlNanos);
+                entry = stripe.entries.get(idempotencyKey);
+                if (entry == null) {
+                    entry = new Entry(sourceAccountId, destinationAccountId, amount, now);
+                    stripe.entries.put(idempotencyKey, entry);
+                    owner = true;
+                }
+            }
+            if (owner) {
+                return run(stripe, idempotencyKey, entry, transfer);
+            }
+            if (!entry.matches(sourceAccountId, destinationAccountId, amount)) {
+                throw new InvalidTransactionException("Idempotency key <"+idempotencyKey+"> was used for a different transfer");
+            }
+            if (entry.awaitOutcome()) {
+                return entry.replay();
+            }
+            // the original transfer failed without outcome, this retry runs it
+        }
+    }
+
+    private boolean run(Stripe stripe, String idempotencyKey, Entry entry, BooleanSupplier transfer) {
+        try {
+            entry.result = transfer.getAsBoolean();
+            return entry.result;
+        } catch (InvalidTransactionException e) {
+            entry.failure = e;
+            throw e;
+        } catch (RuntimeException e) {
+            entry.forgotten = true;
+            synchronized (stripe) {
+                stripe.entries.remove(idempotencyKey, entry);
+            }
+            throw e;
+        } finally {
+            entry.completed.countDown(); // after the removal, waiters must not find the entry again
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.entries.size();
+            }
+        }
+        return size;
+    }
+
+    private Stripe stripeOf(String idempotencyKey) {
+        int hash = idempotencyKey.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+    }
+
+    private static final class Stripe {
+        final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+        void evict(long now, int capacity, long ttlNanos) {
+            Iterator<Entry> oldest = entries.values().iterator();
+            while (oldest.hasNext()) {
+                Entry entry = oldest.next();
+                if (entries.size() < capacity && now - entry.createdNanos < ttlNanos) {
+                    return;
+                }
+                oldest.remove(); // a running transfer may be evicted, it completes anyway
+            }
+        }
+    }
+
+    private static final class Entry {
+        final String sourceAccountId;
+        final String destinationAccountId;
+        final long amount;
+        final long createdNanos;
+        final CountDownLatch completed = new CountDownLatch(1);
+        boolean result; // published by the latch
+        InvalidTransactionException failure;
+        boolean forgotten;
+
+        Entry(String sourceAccountId, String destinationAccountId, long amount, long createdNanos) {
+            this.sourceAccountId = sourceAccountId;
+            this.destinationAccountId = destinationAccountId;
+            this.amount = amount;
+            this.createdNanos = createdNanos;
+        }
+
+        boolean matches(String sourceAccountId, String destinationAccountId, long amount) {
+            return this.amount == amount && this.sourceAccountId.equals(sourceAccountId)
+                    && this.destinationAccountId.equals(destinationAccountId);
+        }
+
+        /**
+         * @return false if the transfer completed without outcome to replay
+         */
+        boolean awaitOutcome() {
+            try {
+                completed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the original transfer", e);
+            }
+            return !forgotten;
+        }
+
+        boolean replay() {
+            if (failure != null) {
+                throw failure;
+            }
+            return result;
+        }
+    }
+}
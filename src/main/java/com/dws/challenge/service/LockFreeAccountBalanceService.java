@@ -0,0 +1,89 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.repository.AccountsRepository;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+
+/**
+ * Lock-free implementation for Account's balance related operations,
+ * enabled with account.transfer.engine=lock-free
+ *
+ * No mutex is taken: a transfer is a two-phase reservation on the accounts' atomic balances
+ * 1. debit (reserve) the amount from source with a compare-and-set loop which also checks the funds
+ * 2. credit the reserved amount to destination, which can't fail
+ * The debit always happens first, so money is never created, and it is only in flight between the two steps.
+ * Multi-leg transfers reserve all their debits the same way before any credit, see {@link MultiLegTransfer}.
+ */
+@Service
+@ConditionalOnProperty(name = "account.transfer.engine", havingValue = "lock-free")
+public class LockFreeAccountBalanceService implements AccountBalanceService {
+
+    @Getter
+    private final AccountsRepository accountsRepository;
+
+    private final NotificationDispatcher notificationDispatcher;
+
+    private final TransactionHistory transactionHistory;
+
+    @Getter
+    private final IdempotencyCache idempotencyCache;
+
+    public LockFreeAccountBalanceService(AccountsRepository accountsRepository, NotificationDispatcher notificationDispatcher) {
+        this(accountsRepository, notificationDispatcher, TransactionHistory.disabled(), new IdempotencyCache(10_000, 3600, 16));
+    }
+
+    @Autowired
+    public LockFreeAccountBalanceService(AccountsRepository accountsRepository, NotificationDispatcher notificationDispatcher,
+                                         TransactionHistory transactionHistory, IdempotencyCache idempotencyCache) {
+        this.accountsRepository = accountsRepository;
+        this.notificationDispatcher = notificationDispatcher;
+        this.transactionHistory = transactionHistory;
+        this.idempotencyCache = idempotencyCache;
+    }
+
+    @Override
+    public boolean transferBalanceBWAccounts(String srcAccountId, String destAccountId, long amount) {
+        if (amount <= 0){
+            throw TransferRejection.NON_POSITIVE_AMOUNT.toException(srcAccountId, destAccountId);
+        }
+        Account srcAccount = accountsRepository.getAccount(srcAccountId);
+        Account destAccount = accountsRepository.getAccount(destAccountId);
+        if (srcAccount == null || destAccount == null) {
+            throw TransferRejection.INVALID_ACCOUNT.toException(srcAccountId, destAccountId);
+        }
+
+        if (!srcAccount.tryDebit(amount)) {
+            throw TransferRejection.INSUFFICIENT_FUNDS.toException(srcAccountId, destAccountId);
+        }
+        // journaled before the credit, so a transfer spending this money is always journaled after this one
+        long journalSequence;
+        try {
+            journalSequence = accountsRepository.journalTransfer(srcAccountId, destAccountId, amount);
+        } catch (RuntimeException e) {
+            srcAccount.credit(amount); // not journaled, the transfer didn't happen
+            throw e;
+        }
+        destAccount.credit(amount);
+        accountsRepository.awaitDurable(journalSequence);
+
+        transactionHistory.record(srcAccount, destAccount, amount);
+        notificationDispatcher.publish(srcAccount, amount, true);
+        notificationDispatcher.publish(destAccount, amount, false);
+        return true;
+    }
+
+    /**
+     * All of the legs or none: every debited account is debited once with a compare-and-set, see {@link MultiLegTransfer}
+     */
+    @Override
+    public boolean transferMultiLeg(List<TransferLeg> debits, List<TransferLeg> credits) {
+        return MultiLegTransfer.apply(accountsRepository, notificationDispatcher, transactionHistory, debits, credits);
+    }
+}
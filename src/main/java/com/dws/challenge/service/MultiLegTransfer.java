@@ -0,0 +1,113 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.Transfer;
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.repository.AccountsRepository;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * All-or-nothing multi-leg transfer for the engines which don't lock accounts (lock-free and sharded)
+ *
+ * It is the two-phase reservation of a single lock-free transfer, applied to many accounts:
+ * 1. debit (reserve) the net debit of each debited account with a compare-and-set which checks the funds;
+ *    when a debit fails the debits already made are credited back and the transfer is rejected
+ * 2. journal all the transfers of {@link AccountBalanceService#toTransfers} as one record, or give back the debits
+ * 3. credit the credited accounts, which can't fail
+ * No credit is visible before the whole record is journaled, and money is only in flight between the steps.
+ */
+final class MultiLegTransfer {
+
+    private MultiLegTransfer() {
+    }
+
+    static boolean apply(AccountsRepository accountsRepository, NotificationDispatcher notificationDispatcher,
+                         TransactionHistory transactionHistory, List<TransferLeg> debits, List<TransferLeg> credits) {
+        List<Transfer> transfers = AccountBalanceService.toTransfers(debits, credits);
+        int size = transfers.size();
+        Account[] sources = new Account[size];
+        Account[] destinations = new Account[size];
+        Map<String, Debit> debitTotals = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            Transfer transfer = transfers.get(i);
+            sources[i] = accountsRepository.getAccount(transfer.getSourceAccountId());
+            destinations[i] = accountsRepository.getAccount(transfer.getDestinationAccountId());
+            if (sources[i] == null || destinations[i] == null) {
+                throw TransferRejection.INVALID_ACCOUNT.toException(transfer.getSourceAccountId(), transfer.getDestinationAccountId());
+            }
+            Account source = sources[i];
+            debitTotals.computeIfAbsent(transfer.getSourceAccountId(), id -> new Debit(source)).total += transfer.getAmount();
+        }
+
+        String rejected = debitAll(debitTotals);
+        if (rejected != null) {
+            for (int i = 0; i < size; i++) {
+                if (transfers.get(i).getSourceAccountId().equals(rejected)) {
+                    throw TransferRejection.INSUFFICIENT_FUNDS.toException(
+                            transfers.get(i).getSourceAccountId(), transfers.get(i).getDestinationAccountId());
+                }
+            }
+        }
+        // journaled before the credits, so a transfer spending this money is always journaled after this one
+        long journalSequence;
+        try {
+            journalSequence = accountsRepository.journalTransfers(transfers);
+        } catch (RuntimeException e) {
+            creditBack(debitTotals, null); // not journaled, the transfer didn't happen
+            throw e;
+        }
+        for (int i = 0; i < size; i++) {
+            destinations[i].credit(transfers.get(i).getAmount());
+        }
+        accountsRepository.awaitDurable(journalSequence);
+
+        for (int i = 0; i < size; i++) {
+            transactionHistory.record(sources[i], destinations[i], transfers.get(i).getAmount());
+            notificationDispatcher.publish(destinations[i], transfers.get(i).getAmount(), false);
+        }
+        // one notification per debited account, not one per credit
+        debitTotals.values().forEach(debit -> notificationDispatcher.publish(debit.account, debit.total, true));
+        return true;
+    }
+
+    /**
+     * @return id of the account which couldn't be debited, after crediting back the ones debited before it; null once all are debited
+     */
+    private static String debitAll(Map<String, Debit> debitTotals) {
+        for (Map.Entry<String, Debit> debit : debitTotals.entrySet()) {
+            if (!debit.getValue().account.tryDebit(debit.getValue().total)) {
+                creditBack(debitTotals, debit.getKey());
+                return debit.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Credits back the debited accounts in their debit order, up to (excluding) the given account, or all of them when null
+     */
+    private static void creditBack(Map<String, Debit> debitTotals, String upTo) {
+        for (Map.Entry<String, Debit> debit : debitTotals.entrySet()) {
+            if (debit.getKey().equals(upTo)) {
+                return;
+            }
+            debit.getValue().account.credit(debit.getValue().total);
+        }
+    }
+
+    /**
+     * Net debit of an account, keyed by account id: Account's equals depends on its balance
+     */
+    private static final class Debit {
+        final Account account;
+        long total;
+
+        Debit(Account account) {
+            this.account = account;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Asynchronous delivery of transfer notifications, outside of the transfer critical section.
+ *
+ * Engines publish a notification once the transfer is committed. Every worker thread owns a bounded
+ * {@link NotificationRing}; an account always maps to the same worker so its notifications stay in order.
+ * A worker drains up to max-batch notifications at once and sends one notification per account of the batch.
+ *
+ * When a ring is full the overflow policy applies:
+ * BLOCK waits up to offer-timeout-ms for space (backpressure) and then drops,
+ * DROP drops the notification immediately, CALLER_RUNS delivers it in the publishing thread.
+ * Pending notifications are flushed on shutdown, including the ones whose offer raced it.
+ * Queue depth and dropped notifications are exported as notification.queue.depth / notification.dropped.
+ */
+@Slf4j
+@Service
+public class NotificationDispatcher implements MeterBinder {
+
+    public enum OverflowPolicy { BLOCK, DROP, CALLER_RUNS }
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final NotificationService notificationService;
+    private final OverflowPolicy overflowPolicy;
+    private final long offerTimeoutNanos;
+    private final long shutdownTimeoutMillis;
+    private final int maxBatch;
+    private final NotificationRing[] rings;
+    private final Thread[] workers;
+    private final LongAdder dropped = new LongAdder();
+
+    private volatile boolean running = true;
+
+    @Autowired
+    public NotificationDispatcher(NotificationService notificationService,
+                                  @Value("${account.notification.workers:2}") int workerCount,
+                                  @Value("${account.notification.queue-capacity:8192}") int queueCapacity,
+                                  @Value("${account.notification.max-batch:256}") int maxBatch,
+                                  @Value("${account.notification.overflow-policy:BLOCK}") OverflowPolicy overflowPolicy,
+                                  @Value("${account.notification.offer-timeout-ms:50}") long offerTimeoutMillis,
+                                  @Value("${account.notification.shutdown-timeout-ms:5000}") long shutdownTimeoutMillis) {
+        this.notificationService = notificationService;
+        this.overflowPolicy = overflowPolicy;
+        this.offerTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(offerTimeoutMillis);
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+        this.maxBatch = maxBatch;
+        this.rings = new NotificationRing[workerCount];
+        this.workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            NotificationRing ring = new NotificationRing(queueCapacity);
+            rings[i] = ring;
+            workers[i] = new Thread(() -> deliver(ring), "notification-dispatcher-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Queues the notification of a committed debit / credit, never blocks longer than offer-timeout-ms
+     */
+    public void publish(Account account, long amount, boolean debit) {
+        int worker = (account.getAccountId().hashCode() & Integer.MAX_VALUE) % rings.length;
+        NotificationRing ring = rings[worker];
+        if (running && ring.offer(account, amount, debit)) {
+            if (!running) {
+                // shutdown raced the offer, the worker may have made its last check of the ring before it
+                flushStopped(worker);
+            }
+            return;
+        }
+        if (!running || overflowPolicy == OverflowPolicy.CALLER_RUNS) {
+            notificationService.notifyAboutTransfer(account, amount, debit);
+        } else if (overflowPolicy == OverflowPolicy.DROP || !ring.offer(account, amount, debit, offerTimeoutNanos)) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * @return number of notifications waiting for delivery
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (NotificationRing ring : rings) {
+            depth += ring.size();
+        }
+        return depth;
+    }
+
+    /**
+     * @return number of notifications dropped because a queue was full
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("notification.queue.depth", this, NotificationDispatcher::getQueueDepth)
+                .description("Notifications waiting for delivery")
+                .register(registry);
+        FunctionCounter.builder("notification.dropped", this, NotificationDispatcher::getDroppedCount)
+                .description("Notifications dropped because the queue was full")
+                .register(registry);
+    }
+
+    /**
+     * Stops accepting notifications (late ones are delivered by the caller) and flushes the queues
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        long deadline = System.currentTimeMillis() + shutdownTimeoutMillis;
+        for (Thread worker : workers) {
+            worker.join(Math.max(deadline - System.currentTimeMillis(), 1));
+        }
+        int pending = getQueueDepth();
+        if (pending > 0) {
+            log.warn("{} notifications were not delivered before shutdown", pending);
+        }
+    }
+
+    private void deliver(NotificationRing ring) {
+        Account[] accounts = new Account[maxBatch];
+        long[] amounts = new long[maxBatch];
+        boolean[] debits = new boolean[maxBatch];
+        while (running || !ring.isEmpty()) {
+            int count = ring.drainTo(accounts, amounts, debits, maxBatch);
+            if (count == 0) {
+                if (running) {
+                    ring.awaitNotifications(IDLE_PARK_NANOS);
+                }
+                continue;
+            }
+            deliverBatch(accounts, amounts, debits, count);
+        }
+    }
+
+    /**
+     * Delivers what is left in the ring once its worker stopped, by the publisher whose offer raced shutdown.
+     * A worker still running delivers it itself: it only stops once its ring is empty.
+     */
+    private void flushStopped(int worker) {
+        try {
+            workers[worker].join(shutdownTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (workers[worker].isAlive()) {
+            return;
+        }
+        NotificationRing ring = rings[worker];
+        Account[] accounts = new Account[maxBatch];
+        long[] amounts = new long[maxBatch];
+        boolean[] debits = new boolean[maxBatch];
+        synchronized (ring) { // late publishers drain one at a time, the ring has a single consumer
+            int count;
+            while ((count = ring.drainTo(accounts, amounts, debits, maxBatch)) > 0) {
+                deliverBatch(accounts, amounts, debits, count);
+            }
+        }
+    }
+
+    private void deliverBatch(Account[] accounts, long[] amounts, boolean[] debits, int count) {
+        // grouped by id, Account's hashCode depends on the balance which keeps changing
+        Map<String, List<Integer>> byAccount = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            byAccount.computeIfAbsent(accounts[i].getAccountId(), accountId -> new ArrayList<>()).add(i);
+        }
+        byAccount.forEach((accountId, indexes) -> {
+            Account account = accounts[indexes.get(0)];
+            try {
+                if (indexes.size() == 1) {
+                    int i = indexes.get(0);
+                    notificationService.notifyAboutTransfer(account, amounts[i], debits[i]);
+                } else {
+                    long[] accountAmounts = new long[indexes.size()];
+                    boolean[] accountDebits = new boolean[indexes.size()];
+                    for (int j = 0; j < accountAmounts.length; j++) {
+                        accountAmounts[j] = amounts[indexes.get(j)];
+                        accountDebits[j] = debits[indexes.get(j)];
+                    }
+                    notificationService.notifyAboutTransfers(account, accountAmounts, accountDebits);
+                }
+            } catch (RuntimeException e) {
+                log.error("Failed to notify owner of {}", accountId, e);
+            }
+        });
+        for (int i = 0; i < count; i++) {
+            accounts[i] = null;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded multi-producer / single-consumer ring of pending notifications.
+ *
+ * Slots are preallocated parallel arrays which are overwritten in place, so publishing allocates nothing.
+ * Producers claim a slot with a CAS on the tail and publish it by writing the slot's sequence
+ * (bounded queue of D. Vyukov). Only the owning worker thread reads from the ring.
+ */
+class NotificationRing {
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final Account[] accounts;
+    private final long[] amounts;
+    private final boolean[] debits;
+
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    private volatile Thread consumer;
+    private volatile boolean consumerParked;
+
+    NotificationRing(int requestedCapacity) {
+        this.capacity = Integer.highestOneBit(Math.max(requestedCapacity - 1, 1)) << 1;
+        this.mask = capacity - 1;
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.accounts = new Account[capacity];
+        this.amounts = new long[capacity];
+        this.debits = new boolean[capacity];
+    }
+
+    /**
+     * @return false if the ring is full
+     */
+    boolean offer(Account account, long amount, boolean debit) {
+        long position = tail.get();
+        int index;
+        for (;;) {
+            index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+        accounts[index] = account;
+        amounts[index] = amount;
+        debits[index] = debit;
+        sequences.set(index, position + 1);
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * Retries {@link #offer} until the timeout elapses, this is the backpressure on publishers
+     */
+    boolean offer(Account account, long amount, boolean debit, long timeoutNanos) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        int spins = 0;
+        while (!offer(account, amount, debit)) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            if (++spins < 100) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(10_000L);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves up to max notifications into the given arrays, consumer thread only
+     *
+     * @return number of notifications moved
+     */
+    int drainTo(Account[] toAccounts, long[] toAmounts, boolean[] toDebits, int max) {
+        long position = head;
+        int drained = 0;
+        while (drained < max) {
+            int index = (int) (position & mask);
+            if (sequences.get(index) != position + 1) {
+                break;
+            }
+            toAccounts[drained] = accounts[index];
+            toAmounts[drained] = amounts[index];
+            toDebits[drained] = debits[index];
+            accounts[index] = null;
+            sequences.set(index, position + capacity);
+            position++;
+            drained++;
+        }
+        head = position;
+        return drained;
+    }
+
+    /**
+     * Parks the consumer thread until a notification is published or the timeout elapses
+     */
+    void awaitNotifications(long timeoutNanos) {
+        consumer = Thread.currentThread();
+        consumerParked = true;
+        if (isEmpty()) {
+            LockSupport.parkNanos(this, timeoutNanos);
+        }
+        consumerParked = false;
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    int size() {
+        return (int) Math.max(tail.get() - head, 0);
+    }
+}
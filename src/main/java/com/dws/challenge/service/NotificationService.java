@@ -1,8 +1,36 @@
 package com.dws.challenge.service;
 
 import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.Money;
 
 public interface NotificationService {
 
   void notifyAboutTransfer(Account account, String transferDescription);
+
+  /**
+   * Notifies about a debit / credit of an amount in minor units.
+   * The description is only built here, so implementations which don't need the text don't pay for it.
+   */
+  default void notifyAboutTransfer(Account account, long amount, boolean debit) {
+    notifyAboutTransfer(account, describeTransfer(account, amount, debit));
+  }
+
+  /**
+   * Notifies about several debits / credits of the same account at once, as a single notification.
+   */
+  default void notifyAboutTransfers(Account account, long[] amounts, boolean[] debits) {
+    StringBuilder description = new StringBuilder();
+    for (int i = 0; i < amounts.length; i++) {
+      if (i > 0) {
+        description.append('\n');
+      }
+      description.append(describeTransfer(account, amounts[i], debits[i]));
+    }
+    notifyAboutTransfer(account, description.toString());
+  }
+
+  static String describeTransfer(Account account, long amount, boolean debit) {
+    return "Dear account holder ! $" + Money.toBigDecimal(amount) + " is "
+      + (debit ? "debited" : "credited") + " from account :" + account.getAccountId();
+  }
 }
@@ -0,0 +1,388 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.repository.AccountsRepository;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Sharded single-writer implementation for Account's balance related operations,
+ * enabled with account.transfer.engine=sharded (LMAX style)
+ *
+ * Accounts are partitioned by hash of their id across account.transfer.shards single threaded shards.
+ * Only the owning shard thread changes the balance of an account, commands reach it through a ring buffer,
+ * so no lock is taken on accounts.
+ * A transfer is sent to the shard of the source account which debits it; when the destination
+ * belongs to another shard the debited amount is forwarded to that shard as a credit message.
+ * The caller is parked until its transfer is completed.
+ * A command failing on a shard (e.g. the journal append throws) is undone if it wasn't journaled yet and its exception
+ * is rethrown to the caller; the shard goes on with the next command. Callers stop waiting once the engine is shut down.
+ * Multi-leg transfers don't go through the shards: they reserve their debits on the caller thread, with the same
+ * compare-and-set as the shards, before any credit (see {@link MultiLegTransfer}), so they span shards all or nothing.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "account.transfer.engine", havingValue = "sharded")
+public class ShardedAccountBalanceService implements AccountBalanceService {
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    /** A waiting caller checks that the shards are still running this often */
+    private static final long AWAIT_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Getter
+    private final AccountsRepository accountsRepository;
+
+    private final NotificationDispatcher notificationDispatcher;
+
+    private final TransactionHistory transactionHistory;
+
+    @Getter
+    private final IdempotencyCache idempotencyCache;
+
+    private final Shard[] shards;
+
+    /** A caller has a single transfer in flight, so its command is reused */
+    private final ThreadLocal<Command> commands = ThreadLocal.withInitial(Command::new);
+
+    public ShardedAccountBalanceService(AccountsRepository accountsRepository, NotificationDispatcher notificationDispatcher,
+                                        int shardCount, int ringSize) {
+        this(accountsRepository, notificationDispatcher, TransactionHistory.disabled(), new IdempotencyCache(10_000, 3600, 16),
+                shardCount, ringSize);
+    }
+
+    @Autowired
+    public ShardedAccountBalanceService(AccountsRepository accountsRepository, NotificationDispatcher notificationDispatcher,
+                                        TransactionHistory transactionHistory, IdempotencyCache idempotencyCache,
+                                        @Value("${account.transfer.shards:0}") int shardCount,
+                                        @Value("${account.transfer.ring-size:4096}") int ringSize) {
+        this.accountsRepository = accountsRepository;
+        this.notificationDispatcher = notificationDispatcher;
+        this.transactionHistory = transactionHistory;
+        this.idempotencyCache = idempotencyCache;
+        int count = shardCount > 0 ? shardCount : Runtime.getRuntime().availableProcessors();
+        this.shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard(i, ringSize);
+        }
+        for (Shard shard : shards) {
+            shard.start();
+        }
+    }
+
+    @Override
+    public boolean transferBalanceBWAccounts(String srcAccountId, String destAccountId, long transferAmount) {
+        if (transferAmount <= 0){
+            throw TransferRejection.NON_POSITIVE_AMOUNT.toException(srcAccountId, destAccountId);
+        }
+        Account srcAccount = accountsRepository.getAccount(srcAccountId);
+        Account destAccount = accountsRepository.getAccount(destAccountId);
+        if (srcAccount == null || destAccount == null) {
+            throw TransferRejection.INVALID_ACCOUNT.toException(srcAccountId, destAccountId);
+        }
+
+        Command command = commands.get();
+        command.prepare(srcAccount, destAccount, transferAmount);
+        int result;
+        try {
+            shardOf(srcAccount).submit(command);
+            result = command.await();
+        } finally {
+            command.clear();
+        }
+        long journalSequence = command.journalSequence;
+        if (result == Command.FAILED) {
+            throw command.failure;
+        }
+        if (result == Command.REJECTED) {
+            throw TransferRejection.INSUFFICIENT_FUNDS.toException(srcAccountId, destAccountId);
+        }
+        accountsRepository.awaitDurable(journalSequence);
+
+        transactionHistory.record(srcAccount, destAccount, transferAmount);
+        notificationDispatcher.publish(srcAccount, transferAmount, true);
+        notificationDispatcher.publish(destAccount, transferAmount, false);
+        return true;
+    }
+
+    /**
+     * All of the legs or none, applied on the caller thread, see {@link MultiLegTransfer}
+     */
+    @Override
+    public boolean transferMultiLeg(List<TransferLeg> debits, List<TransferLeg> credits) {
+        return MultiLegTransfer.apply(accountsRepository, notificationDispatcher, transactionHistory, debits, credits);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        for (Shard shard : shards) {
+            shard.running = false;
+        }
+        for (Shard shard : shards) {
+            shard.thread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    private Shard shardOf(Account account) {
+        return shards[(account.getAccountId().hashCode() & Integer.MAX_VALUE) % shards.length];
+    }
+
+    /**
+     * @return true once a shard thread ended (shut down, or died), the commands it holds will never complete
+     */
+    private boolean stopped() {
+        for (Shard shard : shards) {
+            if (!shard.thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A transfer travelling through the shards: DEBIT on the source shard, then CREDIT on the destination shard
+     */
+    private final class Command {
+        static final int PENDING = 0;
+        static final int APPLIED = 1;
+        static final int REJECTED = 2;
+        static final int FAILED = 3;
+
+        Account source;
+        Account destination;
+        long amount;
+        boolean credit;
+        long journalSequence;
+        Thread caller;
+        RuntimeException failure;
+        volatile int result;
+
+        void prepare(Account source, Account destination, long amount) {
+            this.source = source;
+            this.destination = destination;
+            this.amount = amount;
+            this.credit = false;
+            this.journalSequence = -1;
+            this.failure = null;
+            this.caller = Thread.currentThread();
+            this.result = PENDING;
+        }
+
+        void complete(int result) {
+            Thread waiting = caller;
+            this.result = result;
+            LockSupport.unpark(waiting);
+        }
+
+        void fail(RuntimeException failure) {
+            this.failure = failure;
+            complete(FAILED);
+        }
+
+        /**
+         * @throws IllegalStateException if the engine stops before the command is completed
+         */
+        int await() {
+            int current;
+            while ((current = result) == PENDING) {
+                if (stopped() && (current = result) == PENDING) {
+                    throw new IllegalStateException("Transfer engine stopped before completing the transfer");
+                }
+                LockSupport.parkNanos(this, AWAIT_PARK_NANOS);
+            }
+            return current;
+        }
+
+        void clear() {
+            source = null;
+            destination = null;
+            caller = null;
+        }
+    }
+
+    private final class Shard implements Runnable {
+        private final CommandRing ring;
+        /** Credits which didn't fit in another shard's ring, retried by this shard; never blocks two shards on each other */
+        private final ArrayDeque<Command> pendingForwards = new ArrayDeque<>();
+        private final Thread thread;
+        private volatile boolean running = true;
+
+        Shard(int index, int ringSize) {
+            this.ring = new CommandRing(ringSize);
+            this.thread = new Thread(this, "transfer-shard-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        void submit(Command command) {
+            if (!running) {
+                throw new IllegalStateException("Transfer engine is shut down");
+            }
+            int spins = 0;
+            while (!ring.offer(command)) {
+                if (++spins < 100) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+            if (ring.consumerParked) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                retryForwards();
+                Command command = ring.poll();
+                if (command == null) {
+                    ring.consumerParked = true;
+                    if (ring.isEmpty() && pendingForwards.isEmpty()) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                    ring.consumerParked = false;
+                    continue;
+                }
+                try {
+                    apply(command);
+                } catch (RuntimeException e) {
+                    log.error("Transfer from {} to {} failed on {}", command.source.getAccountId(),
+                            command.destination.getAccountId(), thread.getName(), e);
+                    command.fail(e);
+                }
+            }
+        }
+
+        private void apply(Command command) {
+            if (command.credit) {
+                command.destination.credit(command.amount);
+                command.complete(Command.APPLIED);
+                return;
+            }
+            // single writer of the source account but for multi-leg transfers, the CAS inside tryDebit is rarely contended
+            if (!command.source.tryDebit(command.amount)) {
+                command.complete(Command.REJECTED);
+                return;
+            }
+            // journaled before the credit, so a transfer spending this money is always journaled after this one
+            try {
+                command.journalSequence = accountsRepository.journalTransfer(
+                        command.source.getAccountId(), command.destination.getAccountId(), command.amount);
+            } catch (RuntimeException e) {
+                command.source.credit(command.amount); // not journaled, nothing else saw the debit yet
+                throw e;
+            }
+            Shard destinationShard = shardOf(command.destination);
+            if (destinationShard == this) {
+                command.destination.credit(command.amount);
+                command.complete(Command.APPLIED);
+            } else {
+                command.credit = true;
+                forward(destinationShard, command);
+            }
+        }
+
+        private void forward(Shard destinationShard, Command command) {
+            if (!pendingForwards.isEmpty() || !destinationShard.ring.offer(command)) {
+                pendingForwards.addLast(command);
+            } else if (destinationShard.ring.consumerParked) {
+                LockSupport.unpark(destinationShard.thread);
+            }
+        }
+
+        private void retryForwards() {
+            while (!pendingForwards.isEmpty()) {
+                Command command = pendingForwards.peekFirst();
+                Shard destinationShard = shardOf(command.destination);
+                if (!destinationShard.ring.offer(command)) {
+                    return;
+                }
+                pendingForwards.pollFirst();
+                if (destinationShard.ring.consumerParked) {
+                    LockSupport.unpark(destinationShard.thread);
+                }
+            }
+        }
+    }
+
+    /**
+     * Bounded multi-producer / single-consumer ring of commands (bounded queue of D. Vyukov)
+     */
+    private static final class CommandRing {
+        private final int mask;
+        private final long capacity;
+        private final AtomicReferenceArray<Command> slots;
+        private final AtomicLongArray sequences;
+        private final AtomicLong tail = new AtomicLong();
+        private long head;
+        volatile boolean consumerParked;
+
+        CommandRing(int requestedCapacity) {
+            int size = Integer.highestOneBit(Math.max(requestedCapacity - 1, 1)) << 1;
+            this.mask = size - 1;
+            this.capacity = size;
+            this.slots = new AtomicReferenceArray<>(size);
+            this.sequences = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        boolean offer(Command command) {
+            long position = tail.get();
+            int slot;
+            for (;;) {
+                slot = (int) (position & mask);
+                long difference = sequences.get(slot) - position;
+                if (difference == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        break;
+                    }
+                    position = tail.get();
+                } else if (difference < 0) {
+                    return false;
+                } else {
+                    position = tail.get();
+                }
+            }
+            slots.lazySet(slot, command);
+            sequences.set(slot, position + 1);
+            return true;
+        }
+
+        Command poll() {
+            int slot = (int) (head & mask);
+            if (sequences.get(slot) != head + 1) {
+                return null;
+            }
+            Command command = slots.get(slot);
+            slots.lazySet(slot, null);
+            sequences.set(slot, head + capacity);
+            head++;
+            return command;
+        }
+
+        boolean isEmpty() {
+            return sequences.get((int) (head & mask)) != head + 1;
+        }
+    }
+}
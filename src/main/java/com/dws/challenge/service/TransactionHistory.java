@@ -0,0 +1,176 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransactionRecord;
+import com.dws.challenge.repository.AccountsRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory history of the transfers of every account, for statements.
+ *
+ * Every account gets a bounded ring of its last capacity transfers (see {@link AccountHistory}), created on its
+ * first transfer. The engines append both sides of a transfer once it is applied, after their locks are released:
+ * an append is an atomic increment and a few stores per account, it takes no lock.
+ * With spill-file set, every record is also appended to a memory-mapped log (see {@link HistorySpillLog}),
+ * which serves the part of a query older than the ring. capacity=0 disables the history.
+ *
+ * Rings are on the heap (about 32 bytes per record), so at most max-accounts accounts are tracked: the transfers
+ * of the accounts beyond are not recorded. Set it, or capacity=0, to keep the heap bounded with the off-heap store.
+ * Histories are dropped when the accounts are cleared (the handle epoch of the repository changed), an account
+ * created again with the same id starts with an empty history.
+ */
+@Component
+@Slf4j
+public class TransactionHistory {
+
+  public static final int MAX_QUERY_SIZE = 1000;
+
+  private final int capacity;
+
+  private final HistorySpillLog spillLog;
+
+  private final Map<String, AccountHistory> histories = new ConcurrentHashMap<>();
+
+  private final int maxAccounts;
+
+  /** null outside of Spring, the histories are then never dropped */
+  private final AccountsRepository accountsRepository;
+
+  /** handle epoch of the repository the histories belong to */
+  private volatile int epoch;
+
+  private volatile boolean full;
+
+  @Autowired
+  public TransactionHistory(@Value("${account.history.capacity:64}") int capacity,
+                            @Value("${account.history.spill-file:}") String spillFile,
+                            @Value("${account.history.spill-size:268435456}") int spillSize,
+                            @Value("${account.history.max-accounts:10000}") int maxAccounts,
+                            AccountsRepository accountsRepository) {
+    this.capacity = capacity <= 0 ? 0 : Integer.highestOneBit(capacity * 2 - 1);
+    this.maxAccounts = maxAccounts;
+    this.accountsRepository = accountsRepository;
+    this.epoch = accountsRepository == null ? 0 : accountsRepository.getHandleEpoch();
+    try {
+      this.spillLog = this.capacity > 0 && !spillFile.isEmpty() ? new HistorySpillLog(Paths.get(spillFile), spillSize) : null;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Can't create the history spill log " + spillFile, e);
+    }
+    log.info("Transaction history of {} transfers per account for {} accounts, spilled to {}", this.capacity,
+      maxAccounts, spillLog == null ? "nothing" : spillFile);
+  }
+
+  public TransactionHistory(int capacity, String spillFile, int spillSize) {
+    this(capacity, spillFile, spillSize, Integer.MAX_VALUE, null);
+  }
+
+  /**
+   * History which records nothing, for engines created outside of Spring
+   */
+  public static TransactionHistory disabled() {
+    return new TransactionHistory(0, "", 0);
+  }
+
+  /**
+   * Records an applied transfer on both of its accounts
+   */
+  public void record(Account source, Account destination, long amount) {
+    if (capacity == 0) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    append(source.getAccountId(), destination.getAccountId(), -amount, now);
+    append(destination.getAccountId(), source.getAccountId(), amount, now);
+  }
+
+  private void append(String accountId, String counterparty, long amount, long timestamp) {
+    checkEpoch();
+    AccountHistory history = histories.get(accountId);
+    if (history == null) {
+      if (histories.size() >= maxAccounts) {
+        if (!full) {
+          full = true;
+          log.warn("Transaction history full, the transfers of new accounts beyond {} are not recorded", maxAccounts);
+        }
+        return;
+      }
+      history = histories.computeIfAbsent(accountId, id -> new AccountHistory(capacity));
+    }
+    long sequence = history.append(counterparty, amount, timestamp);
+    if (spillLog != null) {
+      spillLog.append(history, sequence, counterparty, amount, timestamp);
+    }
+  }
+
+  /**
+   * Transfers of the account with a timestamp in [fromMillis, toMillis), oldest first, at most limit of them.
+   * Records still being written are not returned, records which left the ring are read from the spill log if any.
+   */
+  public List<TransactionRecord> getTransactions(String accountId, long fromMillis, long toMillis, int limit) {
+    if (limit < 1 || limit > MAX_QUERY_SIZE) {
+      throw new IllegalArgumentException("limit must be between 1 and " + MAX_QUERY_SIZE);
+    }
+    checkEpoch();
+    AccountHistory history = histories.get(accountId);
+    if (history == null) {
+      return Collections.emptyList();
+    }
+    long end = history.size();
+    long ringStart = Math.max(0, end - history.capacity());
+    long first = history.search(ringStart, end, fromMillis);
+    List<TransactionRecord> records = new ArrayList<>();
+    if (first == ringStart && ringStart > 0 && spillLog != null) {
+      // the ring may not go back to fromMillis
+      spillLog.readInto(history, ringStart, fromMillis, toMillis, limit, records);
+      records.sort(Comparator.comparingLong(TransactionRecord::getSequence));
+    }
+    for (long sequence = first; sequence < end && records.size() < limit; sequence++) {
+      long timestamp = history.timestampAt(sequence);
+      if (timestamp == AccountHistory.PENDING || timestamp >= toMillis) {
+        break;
+      }
+      history.readInto(sequence, records);
+    }
+    return records.size() > limit ? records.subList(0, limit) : records;
+  }
+
+  /**
+   * Drops the histories of cleared accounts. Their spilled records stay in the log, unreachable.
+   */
+  private void checkEpoch() {
+    if (accountsRepository == null) {
+      return;
+    }
+    int current = accountsRepository.getHandleEpoch();
+    if (current != epoch) {
+      synchronized (histories) {
+        if (current != epoch) {
+          histories.clear();
+          full = false;
+          epoch = current;
+        }
+      }
+    }
+  }
+
+  @PreDestroy
+  public void close() throws IOException {
+    if (spillLog != null) {
+      spillLog.close();
+    }
+  }
+}
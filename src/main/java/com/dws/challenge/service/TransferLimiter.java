@@ -0,0 +1,128 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.Money;
+import com.dws.challenge.domain.TransferLimits;
+import com.dws.challenge.domain.VelocityCounter;
+import com.dws.challenge.repository.AccountsRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Per account velocity limits: amount and number of the transfers out of an account over a rolling window
+ * (window-ms, daily by default, sliding by window-ms / buckets).
+ *
+ * An IN_LOCK {@link TransferRule}: the {@link VelocityCounter} is carried by the account itself, so an account
+ * without limits costs a null check and one with limits a couple of comparisons, with no lookup nor allocation.
+ * Counters are updated under the lock of the source account, enforced by the locking engine only: with another
+ * engine (see {@link AccountBalanceService#appliesTransferRules()}) limits can't be set.
+ * Limits are kept in memory, they are not journaled.
+ */
+@Component
+@Slf4j
+public class TransferLimiter implements TransferRule {
+
+  static final TransferRejection AMOUNT_LIMIT_EXCEEDED = new TransferRejection(TransferMetrics.Reason.LIMIT_EXCEEDED,
+    "Transfer amount limit reached for account", TransferRejection.Subject.SOURCE);
+
+  static final TransferRejection COUNT_LIMIT_EXCEEDED = new TransferRejection(TransferMetrics.Reason.LIMIT_EXCEEDED,
+    "Transfer count limit reached for account", TransferRejection.Subject.SOURCE);
+
+  public static final String NOT_ENFORCED = "Transfer limits are only enforced by the locking transfer engine";
+
+  private final AccountsRepository accountsRepository;
+
+  private final long windowMillis;
+
+  private final int buckets;
+
+  @Autowired
+  public TransferLimiter(AccountsRepository accountsRepository,
+                         @Value("${account.limits.window-ms:86400000}") long windowMillis,
+                         @Value("${account.limits.buckets:24}") int buckets) {
+    this.accountsRepository = accountsRepository;
+    this.windowMillis = windowMillis;
+    this.buckets = buckets;
+  }
+
+  @Override
+  public Phase getPhase() {
+    return Phase.IN_LOCK;
+  }
+
+  @Override
+  public TransferRejection check(Account source, Account destination, long amount) {
+    VelocityCounter counter = source.getVelocityCounter();
+    if (counter == null || counter.allows(amount, System.currentTimeMillis())) {
+      return null;
+    }
+    return counter.exceedsAmount(amount) ? AMOUNT_LIMIT_EXCEEDED : COUNT_LIMIT_EXCEEDED;
+  }
+
+  @Override
+  public void applied(Account source, Account destination, long amount) {
+    VelocityCounter counter = source.getVelocityCounter();
+    if (counter != null) {
+      counter.record(amount);
+    }
+  }
+
+  @Override
+  public void reverted(Account source, Account destination, long amount) {
+    VelocityCounter counter = source.getVelocityCounter();
+    if (counter != null) {
+      counter.revert(amount);
+    }
+  }
+
+  /**
+   * Sets or replaces the limits of the account, the usage of the current window is kept.
+   * Limits without maxAmount nor maxCount remove the limits of the account.
+   *
+   * @return the limits with their usage, null if the account doesn't exist
+   */
+  public synchronized TransferLimits setLimits(String accountId, TransferLimits limits) {
+    if (limits.getMaxAmount() != null && limits.getMaxAmount().signum() < 0
+      || limits.getMaxCount() != null && limits.getMaxCount() < 0) {
+      throw new IllegalArgumentException("Transfer limits can't be negative");
+    }
+    Account account = accountsRepository.getAccount(accountId);
+    if (account == null) {
+      return null;
+    }
+    long maxAmount = limits.getMaxAmount() == null ? Long.MAX_VALUE : Money.toMinorUnits(limits.getMaxAmount());
+    long maxCount = limits.getMaxCount() == null ? Long.MAX_VALUE : limits.getMaxCount();
+    VelocityCounter counter = account.getVelocityCounter();
+    if (limits.getMaxAmount() == null && limits.getMaxCount() == null) {
+      account.setVelocityCounter(null);
+    } else if (counter == null) {
+      account.setVelocityCounter(new VelocityCounter(windowMillis, buckets, maxAmount, maxCount));
+    } else {
+      counter.setLimits(maxAmount, maxCount);
+    }
+    log.info("Transfer limits of account {} set to {}", accountId, limits);
+    return usageOf(account);
+  }
+
+  /**
+   * @return the limits of the account with their usage (no limits: empty limits), null if the account doesn't exist
+   */
+  public TransferLimits getLimits(String accountId) {
+    Account account = accountsRepository.getAccount(accountId);
+    return account == null ? null : usageOf(account);
+  }
+
+  private static TransferLimits usageOf(Account account) {
+    VelocityCounter counter = account.getVelocityCounter();
+    if (counter == null) {
+      return new TransferLimits(null, null);
+    }
+    long now = System.currentTimeMillis();
+    return new TransferLimits(
+      counter.getMaxAmount() == Long.MAX_VALUE ? null : Money.toBigDecimal(counter.getMaxAmount()),
+      counter.getMaxCount() == Long.MAX_VALUE ? null : counter.getMaxCount(),
+      Money.toBigDecimal(counter.getAmountInWindow(now)), counter.getCountInWindow(now));
+  }
+}
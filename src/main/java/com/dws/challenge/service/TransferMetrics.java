@@ -0,0 +1,138 @@
+package com.dws.challenge.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instrumentation of the transfer path, exported through Micrometer (/actuator/prometheus).
+ *
+ * transfer.requests: latency of the whole call, tagged by outcome and rejection reason,
+ * with a percentile histogram and HDR based percentiles. Its count is the throughput.
+ * transfer.lock.wait / transfer.lock.hold: time spent acquiring and holding the account locks.
+ * transfer.lock.contended: lock acquisitions which had to wait.
+ *
+ * Contention per account is not a Prometheus label (unbounded cardinality), it is kept for at most
+ * max-tracked-accounts accounts and the most contended ones are served by /actuator/contention.
+ * Recording is lock free (Micrometer timers, LongAdder) so it can stay on in production.
+ */
+@Component
+@Endpoint(id = "contention")
+public class TransferMetrics {
+
+    public enum Reason {
+        NONE, INSUFFICIENT_FUNDS, INVALID_ACCOUNT, NON_POSITIVE_AMOUNT, LIMIT_EXCEEDED, RULE;
+
+        final String tag = name().toLowerCase();
+    }
+
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final Timer[] requests;
+    private final Timer lockWait;
+    private final Timer lockHold;
+    private final Counter contended;
+    private final Map<String, LongAdder> contentionByAccount = new ConcurrentHashMap<>();
+    private final int maxTrackedAccounts;
+
+    @Autowired
+    public TransferMetrics(MeterRegistry meterRegistry,
+                           @Value("${account.metrics.max-tracked-accounts:10000}") int maxTrackedAccounts) {
+        this.maxTrackedAccounts = maxTrackedAccounts;
+        Reason[] reasons = Reason.values();
+        requests = new Timer[reasons.length];
+        for (Reason reason : reasons) {
+            requests[reason.ordinal()] = Timer.builder("transfer.requests")
+                    .description("Transfers between two accounts")
+                    .tag("outcome", reason == Reason.NONE ? "applied" : "rejected")
+                    .tag("reason", reason.tag)
+                    .publishPercentileHistogram()
+                    .publishPercentiles(PERCENTILES)
+                    .register(meterRegistry);
+        }
+        lockWait = Timer.builder("transfer.lock.wait")
+                .description("Time to acquire the locks of both accounts")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        lockHold = Timer.builder("transfer.lock.hold")
+                .description("Time the locks of both accounts are held")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        contended = Counter.builder("transfer.lock.contended")
+                .description("Account lock acquisitions which had to wait")
+                .register(meterRegistry);
+        Gauge.builder("transfer.lock.contended.accounts", contentionByAccount, Map::size)
+                .description("Accounts tracked for contention")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Metrics which are recorded nowhere, for engines created outside of Spring
+     */
+    public static TransferMetrics noop() {
+        return new TransferMetrics(new CompositeMeterRegistry(), 0);
+    }
+
+    public void record(Reason reason, long startNanos) {
+        requests[reason.ordinal()].record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param acquiredNanos 0 when the locks were never acquired
+     */
+    public void recordLocking(long requestedNanos, long acquiredNanos, long releasedNanos) {
+        if (acquiredNanos != 0) {
+            lockWait.record(acquiredNanos - requestedNanos, TimeUnit.NANOSECONDS);
+            lockHold.record(releasedNanos - acquiredNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void contended(String accountId) {
+        contended.increment();
+        LongAdder counter = contentionByAccount.get(accountId);
+        if (counter == null) {
+            if (contentionByAccount.size() >= maxTrackedAccounts) {
+                return; // only the total is counted once the bound is reached
+            }
+            counter = contentionByAccount.computeIfAbsent(accountId, id -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    public long getContention(String accountId) {
+        LongAdder counter = contentionByAccount.get(accountId);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * @return the most contended accounts, most contended first, none for a negative limit
+     */
+    @ReadOperation
+    public Map<String, Long> mostContended(@Nullable Integer limit) {
+        List<Map.Entry<String, Long>> counts = new ArrayList<>(contentionByAccount.size());
+        contentionByAccount.forEach((accountId, counter) -> counts.add(Map.entry(accountId, counter.sum())));
+        counts.sort(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()));
+        Map<String, Long> mostContended = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> count : counts.subList(0, Math.max(0, Math.min(limit == null ? 20 : limit, counts.size())))) {
+            mostContended.put(count.getKey(), count.getValue());
+        }
+        return mostContended;
+    }
+}
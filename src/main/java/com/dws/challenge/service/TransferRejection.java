@@ -0,0 +1,57 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.exception.TransferRejectedException;
+import lombok.Value;
+
+/**
+ * Why a {@link TransferRule} rejects a transfer. Rules return shared constants, the message naming
+ * the account is only built once the transfer is rejected, outside of the locks.
+ */
+@Value
+public class TransferRejection {
+
+  public enum Subject {
+    NONE, SOURCE, DESTINATION
+  }
+
+  public static final TransferRejection NON_POSITIVE_AMOUNT =
+    new TransferRejection(TransferMetrics.Reason.NON_POSITIVE_AMOUNT, "Transfer amount can't be less than 0", Subject.NONE);
+
+  public static final TransferRejection INVALID_ACCOUNT =
+    new TransferRejection(TransferMetrics.Reason.INVALID_ACCOUNT, "invalid account !", Subject.NONE);
+
+  public static final TransferRejection INSUFFICIENT_FUNDS =
+    new TransferRejection(TransferMetrics.Reason.INSUFFICIENT_FUNDS, "Not sufficient balance in account", Subject.SOURCE);
+
+  TransferMetrics.Reason reason;
+
+  String message;
+
+  /** account appended to the message as "message <accountId>" */
+  Subject subject;
+
+  /**
+   * A rejection of a custom rule, reported as reason "rule" in the metrics
+   */
+  public static TransferRejection of(String message, Subject subject) {
+    return new TransferRejection(TransferMetrics.Reason.RULE, message, subject);
+  }
+
+  public String describe(String sourceAccountId, String destinationAccountId) {
+    switch (subject) {
+      case SOURCE:
+        return message + " <" + sourceAccountId + ">";
+      case DESTINATION:
+        return message + " <" + destinationAccountId + ">";
+      default:
+        return message;
+    }
+  }
+
+  /**
+   * Rejections are expected outcomes, the exception has no stack trace
+   */
+  public TransferRejectedException toException(String sourceAccountId, String destinationAccountId) {
+    return new TransferRejectedException(this, describe(sourceAccountId, destinationAccountId));
+  }
+}
@@ -0,0 +1,41 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+
+/**
+ * A check of the {@link TransferValidator} pipeline. Rules declared as beans are added after the built-in
+ * ones (positive amount, existing accounts), in {@link org.springframework.core.annotation.Order} order.
+ *
+ * PRE_LOCK rules don't depend on balances and run before any lock is taken, accounts may be null.
+ * IN_LOCK rules run while the source account is locked (and the destination, unless it is a hot account),
+ * right before the debit: keep them short, they extend the lock hold time.
+ */
+@FunctionalInterface
+public interface TransferRule {
+
+  enum Phase {
+    PRE_LOCK, IN_LOCK
+  }
+
+  /**
+   * @return null if the transfer passes the rule, otherwise a shared rejection (no allocation on the rejection path)
+   */
+  TransferRejection check(Account source, Account destination, long amount);
+
+  default Phase getPhase() {
+    return Phase.PRE_LOCK;
+  }
+
+  /**
+   * Called for IN_LOCK rules under the same locks, once the transfer passed every rule and its debit succeeded
+   * (in the dry run of an all-or-nothing batch, before the batch is known to be applied)
+   */
+  default void applied(Account source, Account destination, long amount) {
+  }
+
+  /**
+   * Takes back {@link #applied(Account, Account, long)} of a transfer of an all-or-nothing batch which is not applied
+   */
+  default void reverted(Account source, Account destination, long amount) {
+  }
+}
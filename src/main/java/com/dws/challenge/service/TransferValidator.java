@@ -0,0 +1,100 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Validation pipeline of the transfers, see {@link TransferRule}.
+ *
+ * Rules are compiled once into one flat array per phase, so a check is a loop over an array:
+ * no lookup, string comparison or allocation per transfer, and rejections are shared constants.
+ * The sufficient funds check is not a rule, it is the atomic debit itself.
+ */
+@Component
+@Slf4j
+public class TransferValidator {
+
+  static final TransferRule POSITIVE_AMOUNT =
+    (source, destination, amount) -> amount > 0 ? null : TransferRejection.NON_POSITIVE_AMOUNT;
+
+  static final TransferRule EXISTING_ACCOUNTS =
+    (source, destination, amount) -> source != null && destination != null ? null : TransferRejection.INVALID_ACCOUNT;
+
+  private final TransferRule[] preLockRules;
+
+  private final TransferRule[] inLockRules;
+
+  @Autowired
+  public TransferValidator(ObjectProvider<TransferRule> rules) {
+    this(rules.orderedStream().collect(Collectors.toList()));
+  }
+
+  public TransferValidator(List<TransferRule> rules) {
+    List<TransferRule> preLock = new ArrayList<>(List.of(POSITIVE_AMOUNT, EXISTING_ACCOUNTS));
+    List<TransferRule> inLock = new ArrayList<>();
+    for (TransferRule rule : rules) {
+      (rule.getPhase() == TransferRule.Phase.IN_LOCK ? inLock : preLock).add(rule);
+    }
+    this.preLockRules = preLock.toArray(new TransferRule[0]);
+    this.inLockRules = inLock.toArray(new TransferRule[0]);
+    if (!rules.isEmpty()) {
+      log.info("Transfer rules: {} before locking, {} under the locks", preLockRules.length, inLockRules.length);
+    }
+  }
+
+  /**
+   * Only the built-in rules, for engines created outside of Spring
+   */
+  public static TransferValidator defaults() {
+    return new TransferValidator(List.of());
+  }
+
+  /**
+   * @return the first rejection of the PRE_LOCK rules, null if the transfer passes them
+   */
+  public TransferRejection checkBeforeLocking(Account source, Account destination, long amount) {
+    return check(preLockRules, source, destination, amount);
+  }
+
+  /**
+   * @return the first rejection of the IN_LOCK rules, null if the transfer passes them
+   */
+  public TransferRejection checkLocked(Account source, Account destination, long amount) {
+    return check(inLockRules, source, destination, amount);
+  }
+
+  /**
+   * @see TransferRule#applied(Account, Account, long)
+   */
+  public void applied(Account source, Account destination, long amount) {
+    for (TransferRule rule : inLockRules) {
+      rule.applied(source, destination, amount);
+    }
+  }
+
+  /**
+   * @see TransferRule#reverted(Account, Account, long)
+   */
+  public void reverted(Account source, Account destination, long amount) {
+    for (TransferRule rule : inLockRules) {
+      rule.reverted(source, destination, amount);
+    }
+  }
+
+  private static TransferRejection check(TransferRule[] rules, Account source, Account destination, long amount) {
+    for (TransferRule rule : rules) {
+      TransferRejection rejection = rule.check(source, destination, amount);
+      if (rejection != null) {
+        return rejection;
+      }
+    }
+    return null;
+  }
+}
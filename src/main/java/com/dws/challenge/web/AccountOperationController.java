@@ -1,48 +1,184 @@
 package com.dws.challenge.web;
 
 
+import com.dws.challenge.domain.BatchMode;
+import com.dws.challenge.domain.MultiLegTransferRequest;
+import com.dws.challenge.domain.Transfer;
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.domain.TransferRequest;
+import com.dws.challenge.domain.TransferResult;
 import com.dws.challenge.exception.InvalidTransactionException;
+import com.dws.challenge.exception.PartitionUnavailableException;
 import com.dws.challenge.service.AccountBalanceService;
+import com.dws.challenge.service.ClusterTransferCoordinator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.RuntimeJsonMappingException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This controller class is created to rest apis for Account operations
  * currently exposing transferBWAccounts to do balance transfer
+ * and transferBatch to apply many transfers in one request
+ * and transferMultiLeg to apply one debit and many credits (or the other way round) atomically
  */
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET) // see ReactiveAccountsRouter
 @RequestMapping("/v1/accounts/operation")
 @Slf4j
 public class AccountOperationController {
     private final AccountBalanceService accountBalanceService;
 
+    private final ObjectMapper objectMapper;
+
+    private final int maxBatchSize;
+
+    private ClusterTransferCoordinator clusterTransferCoordinator;
+
     @Autowired
-    public AccountOperationController(AccountBalanceService accountBalanceService) {
+    public AccountOperationController(AccountBalanceService accountBalanceService, ObjectMapper objectMapper,
+                                      @Value("${account.batch.max-size:10000}") int maxBatchSize) {
         this.accountBalanceService = accountBalanceService;
+        this.objectMapper = objectMapper;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Set in a partitioned deployment, transfers to accounts of other nodes go through it
+     */
+    @Autowired(required = false)
+    public void setClusterTransferCoordinator(ClusterTransferCoordinator clusterTransferCoordinator) {
+        this.clusterTransferCoordinator = clusterTransferCoordinator;
     }
 
     @RequestMapping
     public ResponseEntity<Object> transferBWAccounts(@RequestParam("source") String source,
                                                      @RequestParam("destination") String destination ,
-                                                     @RequestParam("amount")  BigDecimal amount) {
+                                                     @RequestParam("amount")  BigDecimal amount,
+                                                     @RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey) {
         log.info("Transferring from account {} to account {} and transfer amount is {}", source,destination,amount);
 
         try {
-            this.accountBalanceService.transferBalanceBWAccounts(source,destination,amount);
+            // BigDecimal is only used at the edge, the service works on minor units
+            long transferAmount = AccountBalanceService.toMinorUnits(amount);
+            if (isRemote(destination)) { // the source is local, see PartitionForwardingFilter
+                if (idempotencyKey != null) {
+                    throw new InvalidTransactionException("Idempotency keys are not supported for transfers between partitions");
+                }
+                this.clusterTransferCoordinator.transfer(source, destination, transferAmount);
+            } else if (idempotencyKey == null) {
+                this.accountBalanceService.transferBalanceBWAccounts(source,destination,transferAmount);
+            } else { // a retry with the same key is answered like the first call, without a second debit
+                this.accountBalanceService.transferBalanceBWAccounts(source,destination,transferAmount,idempotencyKey);
+            }
             log.info("Transfer done!");
 
         } catch (InvalidTransactionException ite) {
             return new ResponseEntity<>(ite.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (PartitionUnavailableException pue) {
+            return new ResponseEntity<>(pue.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
         }
 
 
         return new ResponseEntity<>(HttpStatus.OK);
     }
+
+    /**
+     * Applies a multi-leg transfer atomically, e.g. a payroll:
+     * {"debits":[{"accountId":..,"amount":..}],"credits":[{"accountId":..,"amount":..},..]}
+     */
+    @PostMapping(path = "/multi-leg", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Object> transferMultiLeg(@RequestBody MultiLegTransferRequest request) {
+        try {
+            List<TransferLeg> debits = toLegs(request.getDebits());
+            List<TransferLeg> credits = toLegs(request.getCredits());
+            log.info("Applying a transfer of {} debits and {} credits", debits.size(), credits.size());
+            this.accountBalanceService.transferMultiLeg(debits, credits);
+        } catch (InvalidTransactionException ite) {
+            return new ResponseEntity<>(ite.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+        return new ResponseEntity<>(HttpStatus.OK);
+    }
+
+    private List<TransferLeg> toLegs(List<MultiLegTransferRequest.Leg> legs) {
+        List<TransferLeg> converted = new ArrayList<>(legs == null ? 0 : legs.size());
+        for (MultiLegTransferRequest.Leg leg : legs == null ? List.<MultiLegTransferRequest.Leg>of() : legs) {
+            if (leg.getAmount() == null) {
+                throw new InvalidTransactionException("Every leg needs an amount");
+            }
+            if (isRemote(leg.getAccountId())) {
+                throw new InvalidTransactionException("Multi-leg transfers can only use the accounts of this partition");
+            }
+            converted.add(new TransferLeg(leg.getAccountId(), AccountBalanceService.toMinorUnits(leg.getAmount())));
+        }
+        return converted;
+    }
+
+    private boolean isRemote(String accountId) {
+        return clusterTransferCoordinator != null && accountId != null && !clusterTransferCoordinator.isLocal(accountId);
+    }
+
+    /**
+     * Applies many transfers in one request.
+     * The body is a JSON array or a NDJSON stream of {"source":..,"destination":..,"amount":..} objects,
+     * it is parsed incrementally. The response has one result per transfer, in the same order.
+     * A rejected ALL_OR_NOTHING batch is answered with 400, its results tell which transfer was rejected.
+     * A batch of more than account.batch.max-size transfers is answered with 413 before anything is applied:
+     * the batch is held in memory, and an ALL_OR_NOTHING batch locks all of its accounts at once.
+     */
+    @PostMapping(path = "/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<Object> transferBatch(@RequestParam(name = "mode", defaultValue = "BEST_EFFORT") BatchMode mode,
+                                                HttpServletRequest request) throws IOException {
+        List<Transfer> transfers = new ArrayList<>();
+        try (MappingIterator<TransferRequest> items = objectMapper.readerFor(TransferRequest.class)
+                .readValues(request.getInputStream())) {
+            while (items.hasNext()) {
+                if (transfers.size() == maxBatchSize) {
+                    return new ResponseEntity<>("A batch can't have more than " + maxBatchSize + " transfers",
+                            HttpStatus.PAYLOAD_TOO_LARGE);
+                }
+                TransferRequest item = items.next();
+                if (item.getSource() == null || item.getDestination() == null) {
+                    throw new IllegalArgumentException("source and destination are required");
+                }
+                if (isRemote(item.getSource()) || isRemote(item.getDestination())) {
+                    throw new IllegalArgumentException("batches can only use the accounts of this partition");
+                }
+                transfers.add(new Transfer(item.getSource(), item.getDestination(),
+                        AccountBalanceService.toMinorUnits(item.getAmount())));
+            }
+        } catch (InvalidTransactionException | IllegalArgumentException | RuntimeJsonMappingException | JsonProcessingException e) {
+            return new ResponseEntity<>("Transfer #" + transfers.size() + " is invalid: " + e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+        log.info("Applying a batch of {} transfers in {} mode", transfers.size(), mode);
+
+        List<TransferResult> results;
+        try {
+            results = this.accountBalanceService.transferBatch(transfers, mode);
+        } catch (InvalidTransactionException ite) {
+            return new ResponseEntity<>(ite.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+        boolean rejected = mode == BatchMode.ALL_OR_NOTHING
+                && results.stream().anyMatch(result -> result.getStatus() != TransferResult.Status.APPLIED);
+        return new ResponseEntity<>(results, rejected ? HttpStatus.BAD_REQUEST : HttpStatus.OK);
+    }
 }
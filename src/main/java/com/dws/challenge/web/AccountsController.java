@@ -1,33 +1,69 @@
 package com.dws.challenge.web;
 
 import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.AccountSnapshot;
+import com.dws.challenge.domain.TransferLimits;
 import com.dws.challenge.exception.DuplicateAccountIdException;
+import com.dws.challenge.service.AccountBalanceService;
+import com.dws.challenge.service.AccountExportService;
+import com.dws.challenge.service.AccountImportService;
 import com.dws.challenge.service.AccountsService;
+import com.dws.challenge.service.TransactionHistory;
+import com.dws.challenge.service.TransferLimiter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
 
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET) // see ReactiveAccountsRouter
 @RequestMapping("/v1/accounts")
 @Slf4j
 public class AccountsController {
 
   private final AccountsService accountsService;
 
+  private final AccountImportService accountImportService;
+
+  private final AccountExportService accountExportService;
+
+  private final TransferLimiter transferLimiter;
+
+  private final TransactionHistory transactionHistory;
+
+  private final AccountBalanceService accountBalanceService;
+
   @Autowired
-  public AccountsController(AccountsService accountsService) {
+  public AccountsController(AccountsService accountsService, AccountImportService accountImportService,
+                            AccountExportService accountExportService, TransferLimiter transferLimiter,
+                            TransactionHistory transactionHistory, AccountBalanceService accountBalanceService) {
     this.accountsService = accountsService;
+    this.accountImportService = accountImportService;
+    this.accountExportService = accountExportService;
+    this.transferLimiter = transferLimiter;
+    this.transactionHistory = transactionHistory;
+    this.accountBalanceService = accountBalanceService;
   }
 
   @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
@@ -43,12 +79,114 @@ public class AccountsController {
     return new ResponseEntity<>(HttpStatus.CREATED);
   }
 
+  /**
+   * Bulk creation of accounts from a NDJSON or CSV upload, streamed through {@link AccountImportService}.
+   * Duplicate ids and invalid lines don't fail the import, they are reported in the result.
+   */
+  @PostMapping(path = "/import", consumes = {MediaType.APPLICATION_NDJSON_VALUE, "text/csv"})
+  public ResponseEntity<Object> importAccounts(HttpServletRequest request) throws IOException {
+    log.info("Importing accounts from a {} upload", request.getContentType());
+    try {
+      return new ResponseEntity<>(this.accountImportService.importAccounts(request.getInputStream(),
+        AccountImportService.Format.of(request.getContentType())), HttpStatus.OK);
+    } catch (IllegalArgumentException | IllegalStateException e) { // rejected by the repository, e.g. full
+      return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+    }
+  }
+
+  /**
+   * Cursor-paginated listing, pass the nextCursor of a page to get the following one
+   */
+  @GetMapping
+  public ResponseEntity<Object> listAccounts(@RequestParam(required = false) String cursor,
+                                             @RequestParam(defaultValue = "100") int limit) {
+    try {
+      return new ResponseEntity<>(this.accountsService.listAccounts(cursor, limit), HttpStatus.OK);
+    } catch (IllegalArgumentException e) {
+      return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+    }
+  }
+
+  /**
+   * Export of every account (format=ndjson or binary), written to the response as the accounts are read,
+   * on an async request thread rather than a container thread.
+   */
+  @GetMapping(params = "format")
+  public ResponseEntity<StreamingResponseBody> exportAccounts(@RequestParam String format) {
+    AccountExportService.Format exportFormat;
+    try {
+      exportFormat = AccountExportService.Format.of(format);
+    } catch (IllegalArgumentException e) {
+      return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN)
+        .body(out -> out.write(e.getMessage().getBytes(StandardCharsets.UTF_8)));
+    }
+    log.info("Exporting accounts as {}", exportFormat);
+    StreamingResponseBody body = out -> {
+      OutputStream buffered = new BufferedOutputStream(out, 1 << 16);
+      this.accountExportService.export(buffered, exportFormat);
+    };
+    return ResponseEntity.ok().contentType(MediaType.parseMediaType(exportFormat.getContentType())).body(body);
+  }
+
+  /**
+   * Served from an immutable snapshot of the account, never from the live instance.
+   * The response has an ETag, a GET with a matching If-None-Match is answered 304 Not Modified.
+   */
   @GetMapping(path = "/{accountId}")
-  public Account getAccount(@PathVariable String accountId) {
+  public ResponseEntity<AccountSnapshot> getAccount(@PathVariable String accountId) {
     log.info("Retrieving account for id {}", accountId);
-    return this.accountsService.getAccount(accountId);
+    Account account = this.accountsService.getAccount(accountId);
+    if (account == null) {
+      return ResponseEntity.ok().build();
+    }
+    AccountSnapshot snapshot = account.snapshot();
+    return ResponseEntity.ok().eTag(snapshot.getETag()).body(snapshot);
   }
 
+  /**
+   * Sets the transfer limits of the account (maxAmount and / or maxCount over the rolling window),
+   * an empty body removes them. Answers the limits with the usage of the current window,
+   * or 409 Conflict if the transfer engine doesn't enforce them.
+   */
+  @PutMapping(path = "/{accountId}/limits", consumes = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<Object> setLimits(@PathVariable String accountId, @RequestBody TransferLimits limits) {
+    log.info("Setting transfer limits of account {} to {}", accountId, limits);
+    if (!this.accountBalanceService.appliesTransferRules()) {
+      return new ResponseEntity<>(TransferLimiter.NOT_ENFORCED, HttpStatus.CONFLICT);
+    }
+    TransferLimits updated;
+    try {
+      updated = this.transferLimiter.setLimits(accountId, limits);
+    } catch (IllegalArgumentException | ArithmeticException e) { // negative, or more decimals than the currency
+      return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+    }
+    return updated == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(updated);
+  }
 
+  @GetMapping(path = "/{accountId}/limits")
+  public ResponseEntity<TransferLimits> getLimits(@PathVariable String accountId) {
+    TransferLimits limits = this.transferLimiter.getLimits(accountId);
+    return limits == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(limits);
+  }
 
+  /**
+   * Statement of the account: its transfers between from (inclusive) and to (exclusive), ISO-8601 instants,
+   * oldest first. Only the latest transfers of an account are kept, see {@link TransactionHistory}.
+   */
+  @GetMapping(path = "/{accountId}/transactions")
+  public ResponseEntity<Object> getTransactions(@PathVariable String accountId,
+                                                @RequestParam(required = false) String from,
+                                                @RequestParam(required = false) String to,
+                                                @RequestParam(defaultValue = "100") int limit) {
+    if (this.accountsService.getAccount(accountId) == null) {
+      return ResponseEntity.notFound().build();
+    }
+    try {
+      return new ResponseEntity<>(this.transactionHistory.getTransactions(accountId,
+        from == null ? Long.MIN_VALUE : Instant.parse(from).toEpochMilli(),
+        to == null ? Long.MAX_VALUE : Instant.parse(to).toEpochMilli(), limit), HttpStatus.OK);
+    } catch (IllegalArgumentException | DateTimeException e) {
+      return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+    }
+  }
 }
@@ -0,0 +1,124 @@
+package com.dws.challenge.web;
+
+import com.dws.challenge.service.AccountPartitioner;
+import com.dws.challenge.service.AdaptiveConcurrencyLimiter;
+import com.dws.challenge.service.ClientRateLimiter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admission control of the transfer endpoints (/v1/accounts/operation...): a request over capacity is answered
+ * at once, with a Retry-After header, instead of waiting for a server thread and the account locks.
+ * - 429 when its client is over its rate, see {@link ClientRateLimiter}. The client is the X-Client-Id header,
+ *   or the remote address. Requests forwarded by another node were already counted there, they are only trusted
+ *   when the cluster is configured and they carry its secret (see {@link AccountPartitioner#isNode}).
+ * - 503 when the transfers in flight reached the limit of the {@link AdaptiveConcurrencyLimiter}.
+ *   Only single transfers are latency samples of the limiter: batches and multi-leg transfers take longer by design
+ *   and would cut the limit of all the transfers.
+ *
+ * Disabled with account.admission.enabled=false.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnProperty(name = "account.admission.enabled", havingValue = "true", matchIfMissing = true)
+@Order(Ordered.HIGHEST_PRECEDENCE + 100) // after the http metrics filter, shed requests are counted too
+@Slf4j
+public class AdmissionControlFilter extends OncePerRequestFilter {
+
+  public static final String CLIENT_HEADER = "X-Client-Id";
+
+  private static final String OPERATIONS = "/v1/accounts/operation";
+
+  private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+  private final ClientRateLimiter clientRateLimiter;
+
+  /** Null when the node isn't part of a cluster */
+  private final AccountPartitioner partitioner;
+
+  @Autowired
+  public AdmissionControlFilter(AdaptiveConcurrencyLimiter concurrencyLimiter, ClientRateLimiter clientRateLimiter,
+                                ObjectProvider<AccountPartitioner> partitioner) {
+    this.concurrencyLimiter = concurrencyLimiter;
+    this.clientRateLimiter = clientRateLimiter;
+    this.partitioner = partitioner.getIfAvailable();
+  }
+
+  public AdmissionControlFilter(AdaptiveConcurrencyLimiter concurrencyLimiter, ClientRateLimiter clientRateLimiter) {
+    this.concurrencyLimiter = concurrencyLimiter;
+    this.clientRateLimiter = clientRateLimiter;
+    this.partitioner = null;
+  }
+
+  @Override
+  protected boolean shouldNotFilter(HttpServletRequest request) {
+    return !request.getRequestURI().startsWith(OPERATIONS);
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+    throws ServletException, IOException {
+    if (!fromNode(request)) {
+      String clientId = request.getHeader(CLIENT_HEADER) != null ? request.getHeader(CLIENT_HEADER) : request.getRemoteAddr();
+      long wait = clientRateLimiter.tryAcquire(clientId);
+      if (wait > 0) {
+        reject(response, HttpStatus.TOO_MANY_REQUESTS, wait, "Too many requests from client " + clientId);
+        return;
+      }
+    }
+    long ticket = concurrencyLimiter.tryAcquire();
+    if (ticket == AdaptiveConcurrencyLimiter.REJECTED) {
+      log.debug("Transfer request rejected, {} in flight", concurrencyLimiter.getInFlight());
+      reject(response, HttpStatus.SERVICE_UNAVAILABLE, 0, "Server is over capacity");
+      return;
+    }
+    if (!OPERATIONS.equals(request.getRequestURI())) {
+      try {
+        chain.doFilter(request, response);
+      } finally {
+        concurrencyLimiter.release(ticket);
+      }
+      return;
+    }
+    long start = System.nanoTime();
+    try {
+      chain.doFilter(request, response);
+    } finally {
+      concurrencyLimiter.release(ticket, System.nanoTime() - start);
+    }
+  }
+
+  private boolean fromNode(HttpServletRequest request) {
+    return partitioner != null && partitioner.isNode(
+      request.getHeader(AccountPartitioner.FORWARDED_HEADER), request.getHeader(AccountPartitioner.SECRET_HEADER));
+  }
+
+  /**
+   * @param waitNanos time until a retry can be admitted, retries are asked to wait at least a second
+   */
+  private static void reject(HttpServletResponse response, HttpStatus status, long waitNanos, String message)
+    throws IOException {
+    long seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+    response.setStatus(status.value());
+    response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(seconds));
+    response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+    response.getWriter().write(message);
+  }
+}
@@ -0,0 +1,105 @@
+package com.dws.challenge.web;
+
+import com.dws.challenge.exception.InvalidTransactionException;
+import com.dws.challenge.service.AccountPartitioner;
+import com.dws.challenge.service.ClusterTransferCoordinator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Node to node endpoints of the cross-partition transfers, see {@link ClusterTransferCoordinator}.
+ * They move money without the checks of a transfer, so only the nodes of the cluster may call them (403 otherwise),
+ * see {@link AccountPartitioner#isNode(String, String)}.
+ */
+@RestController
+@ConditionalOnProperty(name = "account.cluster.nodes")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RequestMapping("/v1/cluster/transactions/{transactionId}")
+@Slf4j
+public class ClusterController {
+
+  private final ClusterTransferCoordinator coordinator;
+
+  private final AccountPartitioner partitioner;
+
+  @Autowired
+  public ClusterController(ClusterTransferCoordinator coordinator, AccountPartitioner partitioner) {
+    this.coordinator = coordinator;
+    this.partitioner = partitioner;
+  }
+
+  @PostMapping("/prepare")
+  public ResponseEntity<Object> prepare(@PathVariable String transactionId,
+                                        @RequestParam("source") String source,
+                                        @RequestParam("destination") String destination,
+                                        @RequestParam("amount") long amount,
+                                        @RequestParam("coordinator") String coordinator,
+                                        HttpServletRequest request) {
+    if (!fromNode(request)) {
+      return new ResponseEntity<>(HttpStatus.FORBIDDEN);
+    }
+    try {
+      this.coordinator.prepare(transactionId, source, destination, amount, coordinator);
+    } catch (InvalidTransactionException ite) {
+      return new ResponseEntity<>(ite.getMessage(), HttpStatus.BAD_REQUEST);
+    }
+    return new ResponseEntity<>(HttpStatus.OK);
+  }
+
+  @PostMapping("/commit")
+  public ResponseEntity<Object> commit(@PathVariable String transactionId, HttpServletRequest request) {
+    if (!fromNode(request)) {
+      return new ResponseEntity<>(HttpStatus.FORBIDDEN);
+    }
+    try {
+      this.coordinator.commit(transactionId);
+    } catch (InvalidTransactionException ite) {
+      log.error("Committed transfer {} can't be credited: {}", transactionId, ite.getMessage());
+      return new ResponseEntity<>(ite.getMessage(), HttpStatus.BAD_REQUEST);
+    }
+    return new ResponseEntity<>(HttpStatus.OK);
+  }
+
+  @PostMapping("/abort")
+  public ResponseEntity<Object> abort(@PathVariable String transactionId, HttpServletRequest request) {
+    if (!fromNode(request)) {
+      return new ResponseEntity<>(HttpStatus.FORBIDDEN);
+    }
+    this.coordinator.abort(transactionId);
+    return new ResponseEntity<>(HttpStatus.OK);
+  }
+
+  @PostMapping("/acknowledge")
+  public ResponseEntity<Object> acknowledge(@PathVariable String transactionId, HttpServletRequest request) {
+    if (!fromNode(request)) {
+      return new ResponseEntity<>(HttpStatus.FORBIDDEN);
+    }
+    this.coordinator.acknowledge(transactionId);
+    return new ResponseEntity<>(HttpStatus.OK);
+  }
+
+  @GetMapping
+  public ResponseEntity<Object> decision(@PathVariable String transactionId, HttpServletRequest request) {
+    if (!fromNode(request)) {
+      return new ResponseEntity<>(HttpStatus.FORBIDDEN);
+    }
+    return new ResponseEntity<>(this.coordinator.decisionOf(transactionId).name(), HttpStatus.OK);
+  }
+
+  private boolean fromNode(HttpServletRequest request) {
+    return partitioner.isNode(request.getHeader(AccountPartitioner.FORWARDED_HEADER),
+      request.getHeader(AccountPartitioner.SECRET_HEADER));
+  }
+}
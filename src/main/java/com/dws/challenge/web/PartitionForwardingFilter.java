@@ -0,0 +1,178 @@
+package com.dws.challenge.web;
+
+import com.dws.challenge.exception.PartitionUnavailableException;
+import com.dws.challenge.service.AccountPartitioner;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UriUtils;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Forwards the requests about an account owned by another node to that node, see {@link AccountPartitioner}.
+ *
+ * The account is the one of the path (/v1/accounts/{accountId}/...), the source of a transfer
+ * (its node coordinates it, see AccountOperationController), or the accountId of a created account.
+ * Listings, exports, imports and batches stay on the node which got them, they only cover its partition
+ * (an import skips and reports the accounts of other nodes, see AccountImportService).
+ */
+@Component
+@ConditionalOnProperty(name = "account.cluster.nodes")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@Slf4j
+public class PartitionForwardingFilter extends OncePerRequestFilter {
+
+  private static final String ACCOUNTS = "/v1/accounts";
+
+  private static final List<String> FORWARDED_HEADERS =
+    List.of(HttpHeaders.CONTENT_TYPE, HttpHeaders.ACCEPT, HttpHeaders.IF_NONE_MATCH, "Idempotency-Key");
+
+  private static final List<String> RETURNED_HEADERS =
+    List.of(HttpHeaders.CONTENT_TYPE, HttpHeaders.ETAG, HttpHeaders.LOCATION);
+
+  private final AccountPartitioner partitioner;
+
+  private final ObjectMapper objectMapper;
+
+  @Autowired
+  public PartitionForwardingFilter(AccountPartitioner partitioner, ObjectMapper objectMapper) {
+    this.partitioner = partitioner;
+    this.objectMapper = objectMapper;
+  }
+
+  @Override
+  protected boolean shouldNotFilter(HttpServletRequest request) {
+    return !request.getRequestURI().startsWith(ACCOUNTS) || partitioner.isNode(
+      request.getHeader(AccountPartitioner.FORWARDED_HEADER), request.getHeader(AccountPartitioner.SECRET_HEADER));
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+    throws ServletException, IOException {
+    byte[] body = null;
+    String accountId;
+    String path = request.getRequestURI();
+    if (path.equals(ACCOUNTS) && "POST".equals(request.getMethod())) {
+      body = request.getInputStream().readAllBytes();
+      accountId = createdAccountId(body);
+      request = new BufferedRequest(request, body);
+    } else if (path.equals(ACCOUNTS + "/operation")) {
+      accountId = request.getParameter("source");
+    } else if (path.startsWith(ACCOUNTS + "/") && !path.startsWith(ACCOUNTS + "/operation/")
+      && !path.equals(ACCOUNTS + "/import")) {
+      int end = path.indexOf('/', ACCOUNTS.length() + 1);
+      accountId = UriUtils.decode(path.substring(ACCOUNTS.length() + 1, end < 0 ? path.length() : end), StandardCharsets.UTF_8);
+    } else {
+      accountId = null;
+    }
+
+    String owner = accountId == null ? null : partitioner.ownerOf(accountId);
+    if (owner == null || owner.equals(partitioner.getSelf())) {
+      chain.doFilter(request, response);
+      return;
+    }
+    forward(owner, request, body == null ? request.getInputStream().readAllBytes() : body, response);
+  }
+
+  private String createdAccountId(byte[] body) {
+    try {
+      JsonNode accountId = objectMapper.readTree(body).get("accountId");
+      return accountId == null || !accountId.isTextual() ? null : accountId.asText();
+    } catch (IOException e) {
+      return null; // answered with 400 by the local controller
+    }
+  }
+
+  private void forward(String owner, HttpServletRequest request, byte[] body, HttpServletResponse response)
+    throws IOException {
+    String query = request.getQueryString();
+    HttpRequest.Builder forwarded = partitioner.request(owner, request.getRequestURI() + (query == null ? "" : "?" + query))
+      .method(request.getMethod(), body.length == 0 ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofByteArray(body));
+    for (String header : FORWARDED_HEADERS) {
+      String value = request.getHeader(header);
+      if (value != null) {
+        forwarded.header(header, value);
+      }
+    }
+    HttpResponse<byte[]> answer;
+    try {
+      answer = partitioner.send(owner, forwarded.build());
+    } catch (PartitionUnavailableException e) {
+      log.warn(e.getMessage());
+      response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+      response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+      response.getOutputStream().write(e.getMessage().getBytes(StandardCharsets.UTF_8));
+      return;
+    }
+    response.setStatus(answer.statusCode());
+    for (String header : RETURNED_HEADERS) {
+      answer.headers().firstValue(header).ifPresent(value -> response.setHeader(header, value));
+    }
+    response.getOutputStream().write(answer.body());
+  }
+
+  /**
+   * Request whose body was already read to find its account
+   */
+  private static class BufferedRequest extends HttpServletRequestWrapper {
+
+    private final ServletInputStream inputStream;
+
+    BufferedRequest(HttpServletRequest request, byte[] body) {
+      super(request);
+      ByteArrayInputStream in = new ByteArrayInputStream(body);
+      this.inputStream = new ServletInputStream() {
+        @Override
+        public boolean isFinished() {
+          return in.available() == 0;
+        }
+
+        @Override
+        public boolean isReady() {
+          return true;
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+          throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read() {
+          return in.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+          return in.read(buffer, offset, length);
+        }
+      };
+    }
+
+    @Override
+    public ServletInputStream getInputStream() {
+      return inputStream;
+    }
+  }
+}
@@ -0,0 +1,317 @@
+package com.dws.challenge.web;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.AccountPage;
+import com.dws.challenge.domain.AccountSnapshot;
+import com.dws.challenge.domain.BatchMode;
+import com.dws.challenge.domain.MultiLegTransferRequest;
+import com.dws.challenge.domain.Transfer;
+import com.dws.challenge.domain.TransactionRecord;
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.domain.TransferLimits;
+import com.dws.challenge.domain.TransferRequest;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.exception.DuplicateAccountIdException;
+import com.dws.challenge.exception.InvalidTransactionException;
+import com.dws.challenge.service.AccountBalanceService;
+import com.dws.challenge.service.AccountExportService;
+import com.dws.challenge.service.AccountImportService;
+import com.dws.challenge.service.AccountsService;
+import com.dws.challenge.service.TransactionHistory;
+import com.dws.challenge.service.TransferLimiter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.codec.CodecException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ServerWebInputException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.math.BigDecimal;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Handlers of the reactive serving mode, see {@link ReactiveAccountsRouter}.
+ * Status codes and bodies are the ones of the annotated controllers.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@Slf4j
+public class ReactiveAccountsHandler {
+
+    private final AccountsService accountsService;
+
+    private final AccountBalanceService accountBalanceService;
+
+    private final Validator validator;
+
+    private final Scheduler engineScheduler;
+
+    private final AccountImportService accountImportService;
+
+    private final AccountExportService accountExportService;
+
+    private final TransferLimiter transferLimiter;
+
+    private final TransactionHistory transactionHistory;
+
+    private final int maxBatchSize;
+
+    @Autowired
+    public ReactiveAccountsHandler(AccountsService accountsService, AccountBalanceService accountBalanceService,
+                                   Validator validator, Scheduler engineScheduler, AccountImportService accountImportService,
+                                   AccountExportService accountExportService, TransferLimiter transferLimiter,
+                                   TransactionHistory transactionHistory,
+                                   @Value("${account.batch.max-size:10000}") int maxBatchSize) {
+        this.accountsService = accountsService;
+        this.accountBalanceService = accountBalanceService;
+        this.validator = validator;
+        this.engineScheduler = engineScheduler;
+        this.accountImportService = accountImportService;
+        this.accountExportService = accountExportService;
+        this.transferLimiter = transferLimiter;
+        this.transactionHistory = transactionHistory;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public Mono<ServerResponse> createAccount(ServerRequest request) {
+        return request.bodyToMono(Account.class)
+                .flatMap(account -> {
+                    Set<ConstraintViolation<Account>> violations = validator.validate(account);
+                    if (!violations.isEmpty()) {
+                        return ServerResponse.badRequest().bodyValue(violations.stream()
+                                .map(ConstraintViolation::getMessage).collect(Collectors.joining(", ")));
+                    }
+                    log.info("Creating account {}", account);
+                    return Mono.fromRunnable(() -> accountsService.createAccount(account))
+                            .subscribeOn(engineScheduler)
+                            .then(ServerResponse.status(HttpStatus.CREATED).build());
+                })
+                .switchIfEmpty(Mono.defer(() -> ServerResponse.badRequest().build()))
+                .onErrorResume(DuplicateAccountIdException.class, e -> ServerResponse.badRequest().bodyValue(e.getMessage()))
+                .onErrorResume(ServerWebInputException.class, e -> ServerResponse.badRequest().bodyValue(e.getReason()));
+    }
+
+    /**
+     * The body is decoded line by line as it arrives, every batch of lines is imported on the engine scheduler
+     */
+    public Mono<ServerResponse> importAccounts(ServerRequest request) {
+        AccountImportService.Format format = AccountImportService.Format.of(
+                request.headers().contentType().map(MediaType::toString).orElse(null));
+        AccountImportService.Import anImport = accountImportService.newImport(format);
+        return request.bodyToFlux(String.class)
+                .buffer(accountImportService.getBatchSize())
+                .concatMap(lines -> Mono.fromRunnable(() -> anImport.addLines(lines)).subscribeOn(engineScheduler))
+                .then(Mono.fromCallable(anImport::result))
+                .flatMap(result -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(result))
+                .onErrorResume(e -> e instanceof IllegalArgumentException || e instanceof IllegalStateException,
+                        e -> ServerResponse.badRequest().bodyValue(e.getMessage()));
+    }
+
+    public Mono<ServerResponse> listAccounts(ServerRequest request) {
+        AccountPage page;
+        try {
+            page = accountsService.listAccounts(request.queryParam("cursor").orElse(null),
+                    Integer.parseInt(request.queryParam("limit").orElse("100")));
+        } catch (IllegalArgumentException e) { // including NumberFormatException
+            return ServerResponse.badRequest().bodyValue(e.getMessage());
+        }
+        return ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(page);
+    }
+
+    /**
+     * A page is only read and encoded when the client has consumed the previous one (backpressure),
+     * on the engine scheduler so a large export doesn't hold the event loop.
+     */
+    public Mono<ServerResponse> exportAccounts(ServerRequest request) {
+        AccountExportService.Format format;
+        try {
+            format = AccountExportService.Format.of(request.queryParam("format").orElse(null));
+        } catch (IllegalArgumentException e) {
+            return ServerResponse.badRequest().bodyValue(e.getMessage());
+        }
+        log.info("Exporting accounts as {}", format);
+        Flux<DataBuffer> pages = Flux.<DataBuffer, Optional<String>>generate(Optional::empty, (cursor, sink) -> {
+            AccountPage page = accountExportService.nextPage(cursor.orElse(null));
+            sink.next(DefaultDataBufferFactory.sharedInstance.wrap(accountExportService.encode(page.getAccounts(), format)));
+            if (page.getNextCursor() == null) {
+                sink.complete();
+            }
+            return Optional.ofNullable(page.getNextCursor());
+        }).subscribeOn(engineScheduler);
+        return ServerResponse.ok().contentType(MediaType.parseMediaType(format.getContentType()))
+                .body(BodyInserters.fromDataBuffers(pages));
+    }
+
+    /**
+     * A lookup doesn't block, it runs on the event loop. Served from a snapshot with an ETag, like the servlet mode
+     */
+    public Mono<ServerResponse> getAccount(ServerRequest request) {
+        Account account = accountsService.getAccount(request.pathVariable("accountId"));
+        if (account == null) {
+            return ServerResponse.ok().build();
+        }
+        AccountSnapshot snapshot = account.snapshot();
+        List<String> ifNoneMatch = request.headers().asHttpHeaders().getIfNoneMatch();
+        if (ifNoneMatch.contains(snapshot.getETag()) || ifNoneMatch.contains("*")) {
+            return ServerResponse.status(HttpStatus.NOT_MODIFIED).eTag(snapshot.getETag()).build();
+        }
+        return ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).eTag(snapshot.getETag()).bodyValue(snapshot);
+    }
+
+    /**
+     * Setting limits doesn't block, it runs on the event loop
+     */
+    public Mono<ServerResponse> setLimits(ServerRequest request) {
+        if (!accountBalanceService.appliesTransferRules()) {
+            return ServerResponse.status(HttpStatus.CONFLICT).bodyValue(TransferLimiter.NOT_ENFORCED);
+        }
+        String accountId = request.pathVariable("accountId");
+        return request.bodyToMono(TransferLimits.class)
+                .flatMap(limits -> {
+                    log.info("Setting transfer limits of account {} to {}", accountId, limits);
+                    return limitsResponse(transferLimiter.setLimits(accountId, limits));
+                })
+                .switchIfEmpty(Mono.defer(() -> ServerResponse.badRequest().build()))
+                .onErrorResume(e -> e instanceof IllegalArgumentException || e instanceof ArithmeticException,
+                        e -> ServerResponse.badRequest().bodyValue(e.getMessage()))
+                .onErrorResume(ServerWebInputException.class, e -> ServerResponse.badRequest().bodyValue(e.getReason()));
+    }
+
+    public Mono<ServerResponse> getLimits(ServerRequest request) {
+        return limitsResponse(transferLimiter.getLimits(request.pathVariable("accountId")));
+    }
+
+    private static Mono<ServerResponse> limitsResponse(TransferLimits limits) {
+        return limits == null ? ServerResponse.notFound().build()
+                : ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(limits);
+    }
+
+    /**
+     * Reads the rings (and the mapped spill log) without locking, it runs on the event loop
+     */
+    public Mono<ServerResponse> getTransactions(ServerRequest request) {
+        String accountId = request.pathVariable("accountId");
+        if (accountsService.getAccount(accountId) == null) {
+            return ServerResponse.notFound().build();
+        }
+        List<TransactionRecord> transactions;
+        try {
+            transactions = transactionHistory.getTransactions(accountId,
+                    request.queryParam("from").map(from -> Instant.parse(from).toEpochMilli()).orElse(Long.MIN_VALUE),
+                    request.queryParam("to").map(to -> Instant.parse(to).toEpochMilli()).orElse(Long.MAX_VALUE),
+                    Integer.parseInt(request.queryParam("limit").orElse("100")));
+        } catch (IllegalArgumentException | DateTimeException e) { // including NumberFormatException
+            return ServerResponse.badRequest().bodyValue(e.getMessage());
+        }
+        return ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(transactions);
+    }
+
+    public Mono<ServerResponse> transfer(ServerRequest request) {
+        String source = request.queryParam("source").orElse(null);
+        String destination = request.queryParam("destination").orElse(null);
+        String amount = request.queryParam("amount").orElse(null);
+        if (source == null || destination == null || amount == null) {
+            return ServerResponse.badRequest().bodyValue("source, destination and amount are required");
+        }
+        String idempotencyKey = request.headers().firstHeader("Idempotency-Key");
+        return Mono.fromCallable(() -> {
+                    long transferAmount = AccountBalanceService.toMinorUnits(new BigDecimal(amount));
+                    return idempotencyKey == null
+                            ? accountBalanceService.transferBalanceBWAccounts(source, destination, transferAmount)
+                            : accountBalanceService.transferBalanceBWAccounts(source, destination, transferAmount, idempotencyKey);
+                })
+                .subscribeOn(engineScheduler)
+                .flatMap(done -> ServerResponse.ok().build())
+                .onErrorResume(InvalidTransactionException.class, e -> ServerResponse.badRequest().bodyValue(e.getMessage()))
+                .onErrorResume(NumberFormatException.class, e -> ServerResponse.badRequest().bodyValue("Invalid amount " + amount));
+    }
+
+    /**
+     * The body (JSON array or NDJSON) is decoded as it arrives, the batch is applied once complete.
+     * Decoding stops past account.batch.max-size transfers, the batch is then answered with 413.
+     */
+    public Mono<ServerResponse> transferBatch(ServerRequest request) {
+        BatchMode mode;
+        try {
+            mode = BatchMode.valueOf(request.queryParam("mode").orElse(BatchMode.BEST_EFFORT.name()));
+        } catch (IllegalArgumentException e) {
+            return ServerResponse.badRequest().bodyValue(e.getMessage());
+        }
+        List<Transfer> transfers = new ArrayList<>();
+        return request.bodyToFlux(TransferRequest.class)
+                .take(maxBatchSize + 1L)
+                .doOnNext(item -> transfers.add(toTransfer(item)))
+                .then(Mono.defer(() -> transfers.size() > maxBatchSize
+                        ? ServerResponse.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                                .bodyValue("A batch can't have more than " + maxBatchSize + " transfers")
+                        : applyBatch(transfers, mode)))
+                .onErrorResume(e -> e instanceof InvalidTransactionException || e instanceof IllegalArgumentException
+                                || e instanceof CodecException || e instanceof ServerWebInputException,
+                        e -> ServerResponse.badRequest().bodyValue("Transfer #" + transfers.size() + " is invalid: " + e.getMessage()));
+    }
+
+    private Mono<ServerResponse> applyBatch(List<Transfer> transfers, BatchMode mode) {
+        log.info("Applying a batch of {} transfers in {} mode", transfers.size(), mode);
+        return Mono.fromCallable(() -> accountBalanceService.transferBatch(transfers, mode))
+                .subscribeOn(engineScheduler)
+                .flatMap(results -> {
+                    boolean rejected = mode == BatchMode.ALL_OR_NOTHING
+                            && results.stream().anyMatch(result -> result.getStatus() != TransferResult.Status.APPLIED);
+                    return ServerResponse.status(rejected ? HttpStatus.BAD_REQUEST : HttpStatus.OK)
+                            .contentType(MediaType.APPLICATION_JSON).bodyValue(results);
+                })
+                .onErrorResume(InvalidTransactionException.class, e -> ServerResponse.badRequest().bodyValue(e.getMessage()));
+    }
+
+    public Mono<ServerResponse> transferMultiLeg(ServerRequest request) {
+        return request.bodyToMono(MultiLegTransferRequest.class)
+                .flatMap(body -> {
+                    List<TransferLeg> debits = toLegs(body.getDebits());
+                    List<TransferLeg> credits = toLegs(body.getCredits());
+                    log.info("Applying a transfer of {} debits and {} credits", debits.size(), credits.size());
+                    return Mono.fromCallable(() -> accountBalanceService.transferMultiLeg(debits, credits))
+                            .subscribeOn(engineScheduler);
+                })
+                .flatMap(done -> ServerResponse.ok().build())
+                .onErrorResume(e -> e instanceof InvalidTransactionException || e instanceof CodecException
+                                || e instanceof ServerWebInputException,
+                        e -> ServerResponse.badRequest().bodyValue(e.getMessage()));
+    }
+
+    private static List<TransferLeg> toLegs(List<MultiLegTransferRequest.Leg> legs) {
+        List<TransferLeg> converted = new ArrayList<>(legs == null ? 0 : legs.size());
+        for (MultiLegTransferRequest.Leg leg : legs == null ? List.<MultiLegTransferRequest.Leg>of() : legs) {
+            if (leg.getAmount() == null) {
+                throw new InvalidTransactionException("Every leg needs an amount");
+            }
+            converted.add(new TransferLeg(leg.getAccountId(), AccountBalanceService.toMinorUnits(leg.getAmount())));
+        }
+        return converted;
+    }
+
+    private static Transfer toTransfer(TransferRequest item) {
+        if (item.getSource() == null || item.getDestination() == null) {
+            throw new IllegalArgumentException("source and destination are required");
+        }
+        return new Transfer(item.getSource(), item.getDestination(), AccountBalanceService.toMinorUnits(item.getAmount()));
+    }
+}
@@ -0,0 +1,70 @@
+package com.dws.challenge.web;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON;
+import static org.springframework.http.MediaType.parseMediaType;
+import static org.springframework.web.reactive.function.server.RequestPredicates.contentType;
+import static org.springframework.web.reactive.function.server.RequestPredicates.path;
+import static org.springframework.web.reactive.function.server.RequestPredicates.queryParam;
+import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+
+/**
+ * Non-blocking serving mode, turned on with spring.main.web-application-type=reactive.
+ *
+ * The same API as {@link AccountsController} and {@link AccountOperationController} is served by WebFlux
+ * functional endpoints on Netty: connections are handled by a few event loop threads, and a request only
+ * takes a thread of the engine scheduler for the duration of the engine call (lock / journal waits),
+ * never while its connection is idle or its body is read. The annotated controllers are servlet only.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveAccountsRouter {
+
+    private static final MediaType TEXT_CSV = parseMediaType("text/csv");
+
+    /**
+     * Netty rather than Tomcat's reactive adapter, which would be picked first as Tomcat is on the classpath
+     */
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    /**
+     * Threads running the (blocking) engine calls, bounded so a lock convoy can't grow the thread count
+     */
+    @Bean(destroyMethod = "dispose")
+    public Scheduler engineScheduler(@Value("${account.web.reactive.engine-threads:0}") int engineThreads,
+                                     @Value("${account.web.reactive.engine-queue:100000}") int engineQueue) {
+        int threads = engineThreads > 0 ? engineThreads : 4 * Runtime.getRuntime().availableProcessors();
+        return Schedulers.newBoundedElastic(threads, engineQueue, "engine");
+    }
+
+    @Bean
+    public RouterFunction<ServerResponse> accountRoutes(ReactiveAccountsHandler handler) {
+        return route()
+                .POST("/v1/accounts", contentType(APPLICATION_JSON), handler::createAccount)
+                .POST("/v1/accounts/import", contentType(APPLICATION_NDJSON, TEXT_CSV), handler::importAccounts)
+                .GET("/v1/accounts", queryParam("format", format -> true), handler::exportAccounts)
+                .GET("/v1/accounts", handler::listAccounts)
+                .GET("/v1/accounts/{accountId}", handler::getAccount)
+                .PUT("/v1/accounts/{accountId}/limits", contentType(APPLICATION_JSON), handler::setLimits)
+                .GET("/v1/accounts/{accountId}/limits", handler::getLimits)
+                .GET("/v1/accounts/{accountId}/transactions", handler::getTransactions)
+                .POST("/v1/accounts/operation/batch", contentType(APPLICATION_JSON, APPLICATION_NDJSON), handler::transferBatch)
+                .POST("/v1/accounts/operation/multi-leg", contentType(APPLICATION_JSON), handler::transferMultiLeg)
+                .route(path("/v1/accounts/operation"), handler::transfer)
+                .build();
+    }
+}
@@ -1,15 +1,21 @@
 package com.dws.challenge;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
 
 import java.math.BigDecimal;
 
 import com.dws.challenge.domain.Account;
+import com.dws.challenge.service.AccountBalanceService;
 import com.dws.challenge.service.AccountsService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -20,6 +26,7 @@ import org.springframework.http.MediaType;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.web.context.WebApplicationContext;
 
 @ExtendWith(SpringExtension.class)
@@ -32,6 +39,9 @@ class AccountsControllerTest {
   @Autowired
   private AccountsService accountsService;
 
+  @Autowired
+  private AccountBalanceService accountBalanceService;
+
   @Autowired
   private WebApplicationContext webApplicationContext;
 
@@ -102,4 +112,109 @@ class AccountsControllerTest {
       .andExpect(
         content().string("{\"accountId\":\"" + uniqueAccountId + "\",\"balance\":123.45}"));
   }
+
+  @Test
+  void getAccountConditional() throws Exception {
+    Account account = new Account("Id-etag", new BigDecimal("123.45"));
+    this.accountsService.createAccount(account);
+    String etag = this.mockMvc.perform(get("/v1/accounts/Id-etag"))
+      .andExpect(status().isOk())
+      .andExpect(header().exists("ETag"))
+      .andReturn().getResponse().getHeader("ETag");
+
+    this.mockMvc.perform(get("/v1/accounts/Id-etag").header("If-None-Match", etag))
+      .andExpect(status().isNotModified());
+
+    account.credit(100);
+    this.mockMvc.perform(get("/v1/accounts/Id-etag").header("If-None-Match", etag))
+      .andExpect(status().isOk())
+      .andExpect(content().string("{\"accountId\":\"Id-etag\",\"balance\":124.45}"));
+  }
+
+  @Test
+  void importAccounts() throws Exception {
+    this.mockMvc.perform(post("/v1/accounts/import").contentType("text/csv")
+        .content("accountId,balance\nId-1,10\nId-2,20\nId-1,30\n"))
+      .andExpect(status().isOk())
+      .andExpect(jsonPath("$.created").value(2))
+      .andExpect(jsonPath("$.duplicateIds[0]").value("Id-1"));
+
+    assertThat(accountsService.getAccount("Id-2").getBalance()).isEqualByComparingTo("20");
+  }
+
+  @Test
+  void listAccounts() throws Exception {
+    this.accountsService.createAccount(new Account("Id-2", new BigDecimal("2")));
+    this.accountsService.createAccount(new Account("Id-1", new BigDecimal("1")));
+
+    this.mockMvc.perform(get("/v1/accounts?limit=1"))
+      .andExpect(status().isOk())
+      .andExpect(jsonPath("$.accounts[0].accountId").value("Id-1"))
+      .andExpect(jsonPath("$.nextCursor").value("Id-1"));
+    this.mockMvc.perform(get("/v1/accounts?cursor=Id-1"))
+      .andExpect(status().isOk())
+      .andExpect(content().string("{\"accounts\":[{\"accountId\":\"Id-2\",\"balance\":2.00}],\"nextCursor\":null}"));
+    this.mockMvc.perform(get("/v1/accounts?limit=0")).andExpect(status().isBadRequest());
+  }
+
+  @Test
+  void exportAccounts() throws Exception {
+    this.accountsService.createAccount(new Account("Id-2", new BigDecimal("2")));
+    this.accountsService.createAccount(new Account("Id-1", new BigDecimal("1")));
+
+    MvcResult result = this.mockMvc.perform(get("/v1/accounts?format=ndjson"))
+      .andExpect(request().asyncStarted())
+      .andReturn();
+    this.mockMvc.perform(asyncDispatch(result))
+      .andExpect(status().isOk())
+      .andExpect(header().string("Content-Type", "application/x-ndjson"))
+      .andExpect(content().string("{\"accountId\":\"Id-1\",\"balance\":1.00}\n{\"accountId\":\"Id-2\",\"balance\":2.00}\n"));
+    this.mockMvc.perform(get("/v1/accounts?format=xml")).andExpect(status().isBadRequest());
+  }
+
+  @Test
+  void transferLimits() throws Exception {
+    this.accountsService.createAccount(new Account("Id-1", new BigDecimal("100")));
+
+    this.mockMvc.perform(put("/v1/accounts/Id-1/limits").contentType(MediaType.APPLICATION_JSON)
+      .content("{\"maxAmount\":50,\"maxCount\":10}"))
+      .andExpect(status().isOk())
+      .andExpect(content().string("{\"maxAmount\":50.00,\"maxCount\":10,\"amountInWindow\":0.00,\"countInWindow\":0}"));
+    this.mockMvc.perform(get("/v1/accounts/Id-1/limits"))
+      .andExpect(status().isOk())
+      .andExpect(jsonPath("$.maxCount").value(10));
+    this.mockMvc.perform(put("/v1/accounts/Id-1/limits").contentType(MediaType.APPLICATION_JSON)
+      .content("{\"maxAmount\":-1}")).andExpect(status().isBadRequest());
+    this.mockMvc.perform(put("/v1/accounts/Id-2/limits").contentType(MediaType.APPLICATION_JSON)
+      .content("{\"maxCount\":1}")).andExpect(status().isNotFound());
+    this.mockMvc.perform(put("/v1/accounts/Id-1/limits").contentType(MediaType.APPLICATION_JSON)
+      .content("{}")).andExpect(status().isOk()).andExpect(content().string("{}"));
+  }
+
+  @Test
+  void transactions() throws Exception {
+    // histories outlive clearAccounts, unique ids keep the ones of other runs out
+    String source = "Id-history-" + System.nanoTime();
+    String destination = source + "-destination";
+    this.accountsService.createAccount(new Account(source, new BigDecimal("100")));
+    this.accountsService.createAccount(new Account(destination, BigDecimal.ZERO));
+    this.accountBalanceService.transferBalanceBWAccounts(source, destination, 125L);
+
+    this.mockMvc.perform(get("/v1/accounts/" + source + "/transactions"))
+      .andExpect(status().isOk())
+      .andExpect(jsonPath("$[0].sequence").value(0))
+      .andExpect(jsonPath("$[0].counterpartyAccountId").value(destination))
+      .andExpect(jsonPath("$[0].amount").value(-1.25));
+    this.mockMvc.perform(get("/v1/accounts/" + destination + "/transactions").param("from", "2000-01-01T00:00:00Z"))
+      .andExpect(status().isOk())
+      .andExpect(jsonPath("$[0].amount").value(1.25));
+    this.mockMvc.perform(get("/v1/accounts/" + source + "/transactions").param("to", "2000-01-01T00:00:00Z"))
+      .andExpect(status().isOk())
+      .andExpect(content().string("[]"));
+    this.mockMvc.perform(get("/v1/accounts/" + source + "/transactions").param("from", "yesterday"))
+      .andExpect(status().isBadRequest());
+    this.mockMvc.perform(get("/v1/accounts/" + source + "/transactions").param("limit", "0"))
+      .andExpect(status().isBadRequest());
+    this.mockMvc.perform(get("/v1/accounts/Id-unknown/transactions")).andExpect(status().isNotFound());
+  }
 }
@@ -0,0 +1,197 @@
+package com.dws.challenge.binary;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.exception.InvalidTransactionException;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.service.AccountBalanceServiceImpl;
+import com.dws.challenge.service.LockFreeAccountBalanceService;
+import com.dws.challenge.service.NotificationDispatcher;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BinaryTransferServerTest {
+
+    private final AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory();
+
+    private NotificationDispatcher notificationDispatcher;
+
+    private BinaryTransferServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        notificationDispatcher = new NotificationDispatcher((account, description) -> { },
+                1, 1024, 256, NotificationDispatcher.OverflowPolicy.DROP, 0, 1000);
+        server = new BinaryTransferServer(new AccountBalanceServiceImpl(repository, notificationDispatcher), repository,
+                "127.0.0.1", 0, 2);
+        repository.createAccount(new Account("source", new BigDecimal("100.00")));
+        repository.createAccount(new Account("destination", BigDecimal.ZERO));
+    }
+
+    @AfterEach
+    void stopServer() throws Exception {
+        server.shutdown();
+        notificationDispatcher.shutdown();
+    }
+
+    @Test
+    void transfers_by_account_handle() throws IOException {
+        try (BinaryTransferClient client = new BinaryTransferClient("localhost", server.getPort())) {
+            long source = client.lookup("source");
+            long destination = client.lookup("destination");
+            assertThat(client.lookup("source")).isEqualTo(source);
+            assertThatThrownBy(() -> client.lookup("missing")).isInstanceOf(InvalidTransactionException.class);
+
+            assertThat(client.transfer(source, destination, 2_500)).isEqualTo(BinaryProtocol.OK);
+            assertThat(client.transfer(source, destination, 10_000)).isEqualTo(BinaryProtocol.INSUFFICIENT_FUNDS);
+            assertThat(client.transfer(source, destination, 0)).isEqualTo(BinaryProtocol.INVALID_AMOUNT);
+            assertThat(client.transfer(source, destination + 40, 1)).isEqualTo(BinaryProtocol.INVALID_ACCOUNT);
+        }
+        assertThat(repository.getAccount("source").getBalanceMinorUnits()).isEqualTo(7_500);
+        assertThat(repository.getAccount("destination").getBalanceMinorUnits()).isEqualTo(2_500);
+    }
+
+    /**
+     * Statuses come from the reason of the rejection, whichever engine rejected the transfer
+     */
+    @Test
+    void statuses_of_another_engine() throws Exception {
+        BinaryTransferServer lockFreeServer = new BinaryTransferServer(
+                new LockFreeAccountBalanceService(repository, notificationDispatcher), repository, "127.0.0.1", 0, 1);
+        try (BinaryTransferClient client = new BinaryTransferClient("localhost", lockFreeServer.getPort())) {
+            long source = client.lookup("source");
+            long destination = client.lookup("destination");
+
+            assertThat(client.transfer(source, destination, 2_500)).isEqualTo(BinaryProtocol.OK);
+            assertThat(client.transfer(source, destination, 10_000)).isEqualTo(BinaryProtocol.INSUFFICIENT_FUNDS);
+            assertThat(client.transfer(source, destination, 0)).isEqualTo(BinaryProtocol.INVALID_AMOUNT);
+        } finally {
+            lockFreeServer.shutdown();
+        }
+    }
+
+    @Test
+    void handles_are_shared_by_connections() throws IOException {
+        long source;
+        long destination;
+        try (BinaryTransferClient client = new BinaryTransferClient("localhost", server.getPort())) {
+            source = client.lookup("source");
+            destination = client.lookup("destination");
+        }
+        assertThat((int) source).isEqualTo(repository.handleOf("source"));
+        try (BinaryTransferClient client = new BinaryTransferClient("localhost", server.getPort())) {
+            assertThat(client.transfer(source, destination, 1_000)).isEqualTo(BinaryProtocol.OK);
+        }
+        assertThat(repository.getAccount("destination").getBalanceMinorUnits()).isEqualTo(1_000);
+    }
+
+    @Test
+    void pipelined_transfers_are_answered_in_order() throws IOException {
+        try (BinaryTransferClient client = new BinaryTransferClient("localhost", server.getPort())) {
+            long source = client.lookup("source");
+            long destination = client.lookup("destination");
+            for (int round = 0; round < 2; round++) {
+                for (int i = 0; i < 3_000; i++) { // more than the client buffer holds
+                    client.send(source, destination, 1);
+                }
+                client.flush();
+                while (client.pending() > 0) {
+                    assertThat(client.receive()).isEqualTo(BinaryProtocol.OK);
+                }
+            }
+            // the first ones drain the balance, the others are rejected
+            for (int i = 0; i < 20; i++) {
+                client.send(source, destination, 1_000);
+            }
+            client.flush();
+            int applied = 0;
+            for (int i = 0; i < 20; i++) {
+                applied += client.receive() == BinaryProtocol.OK ? 1 : 0;
+            }
+            assertThat(applied).isEqualTo(4);
+        }
+        assertThat(repository.getAccount("source").getBalanceMinorUnits()).isZero();
+        assertThat(repository.getAccount("destination").getBalanceMinorUnits()).isEqualTo(10_000);
+    }
+
+    @Test
+    void connections_are_served_concurrently() throws Exception {
+        int clients = 4;
+        repository.createAccount(new Account("rich", new BigDecimal(1_000_000)));
+        ExecutorService executorService = Executors.newFixedThreadPool(clients);
+        List<Future<Boolean>> tasks = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            tasks.add(executorService.submit(() -> {
+                try (BinaryTransferClient client = new BinaryTransferClient("localhost", server.getPort())) {
+                    long rich = client.lookup("rich");
+                    long destination = client.lookup("destination");
+                    for (int i = 0; i < 1_000; i++) {
+                        client.send(rich, destination, 1);
+                    }
+                    client.flush();
+                    while (client.pending() > 0) {
+                        assertThat(client.receive()).isEqualTo(BinaryProtocol.OK);
+                    }
+                }
+                return true;
+            }));
+        }
+        for (Future<Boolean> task : tasks) {
+            task.get(30, TimeUnit.SECONDS);
+        }
+        executorService.shutdown();
+        assertThat(repository.getAccount("destination").getBalanceMinorUnits()).isEqualTo(clients * 1_000);
+    }
+
+    @Test
+    void handles_of_cleared_accounts_are_stale() throws IOException {
+        try (BinaryTransferClient client = new BinaryTransferClient("localhost", server.getPort())) {
+            long source = client.lookup("source");
+            long destination = client.lookup("destination");
+            repository.clearAccounts();
+            // same ids in reverse order, the old handles now number the other account
+            repository.createAccount(new Account("destination", BigDecimal.ZERO));
+            repository.createAccount(new Account("source", new BigDecimal("100.00")));
+
+            assertThat(client.transfer(source, destination, 1_000)).isEqualTo(BinaryProtocol.STALE_HANDLES);
+            assertThat(repository.getAccount("source").getBalanceMinorUnits()).isEqualTo(10_000);
+            assertThat(client.transfer(client.lookup("source"), client.lookup("destination"), 1_000))
+                    .isEqualTo(BinaryProtocol.OK);
+            assertThat(repository.getAccount("destination").getBalanceMinorUnits()).isEqualTo(1_000);
+        }
+    }
+
+    @Test
+    void malformed_requests_close_the_connection() throws IOException {
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", server.getPort()))) {
+            channel.write(ByteBuffer.allocate(BinaryProtocol.TRANSFER_SIZE).put((byte) 9).putLong(7).flip());
+
+            ByteBuffer response = ByteBuffer.allocate(BinaryProtocol.RESPONSE_SIZE);
+            while (response.hasRemaining()) {
+                if (channel.read(response) < 0) {
+                    throw new EOFException();
+                }
+            }
+            response.flip();
+            assertThat(response.getLong()).isEqualTo(7);
+            assertThat(response.get()).isEqualTo(BinaryProtocol.MALFORMED);
+            assertThat(channel.read(ByteBuffer.allocate(1))).isEqualTo(-1);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.dws.challenge.domain;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AccountSnapshotTest {
+
+  @Test
+  void snapshot_is_cached_until_the_balance_changes() {
+    Account account = new Account("Id-1", new BigDecimal("10.00"));
+    AccountSnapshot first = account.snapshot();
+    assertThat(account.snapshot()).isSameAs(first);
+
+    assertThat(account.tryDebit(100)).isTrue();
+    AccountSnapshot second = account.snapshot();
+    assertThat(second).isNotSameAs(first);
+    assertThat(second.getVersion()).isEqualTo(first.getVersion() + 1);
+    assertThat(second.getBalance()).isEqualByComparingTo("9.00");
+    assertThat(second.getETag()).isNotEqualTo(first.getETag());
+
+    assertThat(account.tryDebit(100_000)).isFalse(); // a rejected debit is not a change
+    assertThat(account.snapshot()).isSameAs(second);
+  }
+
+  @Test
+  void snapshot_is_serialized_like_the_account() throws Exception {
+    ObjectMapper objectMapper = new ObjectMapper();
+    Account account = new Account("Id-1", new BigDecimal("123.45"));
+
+    assertThat(objectMapper.writeValueAsString(account.snapshot()))
+      .isEqualTo(objectMapper.writeValueAsString(account))
+      .isEqualTo("{\"accountId\":\"Id-1\",\"balance\":123.45}");
+  }
+}
@@ -0,0 +1,53 @@
+package com.dws.challenge.domain;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VelocityCounterTest {
+
+  private static final long HOUR = 3_600_000L;
+
+  @Test
+  void transfers_leave_the_window_bucket_by_bucket() {
+    VelocityCounter counter = new VelocityCounter(24 * HOUR, 24, 1000, 3);
+    long now = 1_000 * 24 * HOUR;
+    assertThat(counter.allows(600, now)).isTrue();
+    counter.record(600);
+    assertThat(counter.allows(300, now + HOUR)).isTrue();
+    counter.record(300);
+    assertThat(counter.allows(200, now + 2 * HOUR)).isFalse();
+    assertThat(counter.exceedsAmount(200)).isTrue();
+    assertThat(counter.getAmountInWindow(now + 2 * HOUR)).isEqualTo(900);
+    assertThat(counter.getCountInWindow(now + 2 * HOUR)).isEqualTo(2);
+
+    // the first transfer leaves the window after 24 hours
+    assertThat(counter.allows(200, now + 24 * HOUR)).isTrue();
+    assertThat(counter.getAmountInWindow(now + 24 * HOUR)).isEqualTo(300);
+    counter.record(200);
+    counter.record(100);
+    assertThat(counter.allows(1, now + 24 * HOUR)).isFalse();
+    assertThat(counter.exceedsAmount(1)).isFalse(); // 3 transfers in the window
+
+    // idle for more than the window
+    assertThat(counter.allows(1000, now + 100 * HOUR)).isTrue();
+    assertThat(counter.getAmountInWindow(now + 100 * HOUR)).isZero();
+    assertThat(counter.getCountInWindow(now + 100 * HOUR)).isZero();
+  }
+
+  @Test
+  void reverted_transfers_are_not_counted() {
+    VelocityCounter counter = new VelocityCounter(HOUR, 60, Long.MAX_VALUE, 1);
+    long now = System.currentTimeMillis();
+    assertThat(counter.allows(100, now)).isTrue();
+    counter.record(100);
+    assertThat(counter.allows(100, now)).isFalse();
+    counter.revert(100);
+    assertThat(counter.allows(100, now)).isTrue();
+    assertThat(counter.getCountInWindow(now)).isZero();
+
+    counter.setLimits(Long.MAX_VALUE, 2);
+    counter.record(100);
+    assertThat(counter.allows(100, now)).isTrue();
+  }
+}
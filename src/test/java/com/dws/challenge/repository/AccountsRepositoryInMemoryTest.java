@@ -0,0 +1,80 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.exception.DuplicateAccountIdException;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AccountsRepositoryInMemoryTest {
+
+    private final AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory(4);
+
+    @Test
+    void handles_are_dense_in_creation_order() {
+        for (int i = 0; i < 100; i++) { // past the initial capacity
+            repository.createAccount(new Account("Id-" + i, BigDecimal.ONE));
+        }
+        assertThatThrownBy(() -> repository.createAccount(new Account("Id-7", BigDecimal.ONE)))
+                .isInstanceOf(DuplicateAccountIdException.class);
+        assertThat(repository.createAccounts(List.of(new Account("Id-8", BigDecimal.ONE),
+                new Account("Id-100", BigDecimal.ONE)))).containsExactly("Id-8");
+
+        for (int i = 0; i <= 100; i++) {
+            assertThat(repository.handleOf("Id-" + i)).isEqualTo(i);
+            assertThat(repository.getAccount(i)).isSameAs(repository.getAccount("Id-" + i));
+            assertThat(repository.getAccount(i).getHandle()).isEqualTo(i);
+        }
+        assertThat(repository.handleOf("Id-101")).isEqualTo(-1);
+        assertThat(repository.getAccount(101)).isNull();
+        assertThat(repository.getAccount(-1)).isNull();
+
+        int epoch = repository.getHandleEpoch();
+        repository.clearAccounts();
+        assertThat(repository.getHandleEpoch()).isNotEqualTo(epoch);
+        assertThat(repository.getAccount(0)).isNull();
+        repository.createAccount(new Account("Id-new", BigDecimal.ONE));
+        assertThat(repository.handleOf("Id-new")).isZero();
+    }
+
+    @Test
+    void concurrent_creations_get_distinct_handles() throws Exception {
+        int threads = 4;
+        int accountsPerThread = 1_000;
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            tasks.add(executorService.submit(() -> {
+                for (int i = 0; i < accountsPerThread; i++) {
+                    repository.createAccount(new Account("Id-" + thread + "-" + i, BigDecimal.ONE));
+                }
+            }));
+        }
+        for (Future<?> task : tasks) {
+            task.get(30, TimeUnit.SECONDS);
+        }
+        executorService.shutdown();
+
+        Set<String> accountIds = new HashSet<>();
+        for (int handle = 0; handle < threads * accountsPerThread; handle++) {
+            Account account = repository.getAccount(handle);
+            assertThat(account.getHandle()).isEqualTo(handle);
+            assertThat(repository.handleOf(account.getAccountId())).isEqualTo(handle);
+            accountIds.add(account.getAccountId());
+        }
+        assertThat(accountIds).hasSize(threads * accountsPerThread);
+        assertThat(repository.getAccount(threads * accountsPerThread)).isNull();
+    }
+}
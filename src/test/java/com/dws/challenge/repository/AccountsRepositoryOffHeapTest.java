@@ -0,0 +1,206 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.AccountPage;
+import com.dws.challenge.domain.AccountSnapshot;
+import com.dws.challenge.domain.BatchMode;
+import com.dws.challenge.domain.Transfer;
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.exception.DuplicateAccountIdException;
+import com.dws.challenge.service.AccountBalanceServiceImpl;
+import com.dws.challenge.service.NotificationDispatcher;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AccountsRepositoryOffHeapTest {
+
+    private final AccountsRepositoryOffHeap repository = new AccountsRepositoryOffHeap(1 << 18, 54, 4096);
+
+    @Test
+    void createAndGetAccount() {
+        repository.createAccount(new Account("Id-123", new BigDecimal("123.45")));
+        repository.createAccount(new Account("Compte-é", new BigDecimal("1")));
+
+        Account account = repository.getAccount("Id-123");
+        assertThat(account.getAccountId()).isEqualTo("Id-123");
+        assertThat(account.getBalance()).isEqualByComparingTo("123.45");
+        assertThat(account).isEqualTo(new Account("Id-123", new BigDecimal("123.45")));
+        assertThat(repository.getAccount("Compte-é").getBalance()).isEqualByComparingTo("1");
+        assertThat(repository.getAccount("Id-124")).isNull();
+    }
+
+    @Test
+    void createAccountsReportsDuplicates() {
+        repository.createAccount(new Account("Id-1", new BigDecimal("1")));
+
+        List<String> duplicates = repository.createAccounts(List.of(new Account("Id-1", BigDecimal.TEN),
+                new Account("Id-2", BigDecimal.TEN), new Account("Id-2", BigDecimal.ONE), new Account("Id-3", BigDecimal.ONE)));
+
+        assertThat(duplicates).containsExactly("Id-1", "Id-2");
+        assertThat(repository.size()).isEqualTo(3);
+        assertThat(repository.getAccount("Id-1").getBalance()).isEqualByComparingTo("1");
+        assertThat(repository.getAccount("Id-2").getBalance()).isEqualByComparingTo("10");
+    }
+
+    @Test
+    void listAccountsInCreationOrder() {
+        repository.createAccounts(List.of(new Account("Id-b", BigDecimal.ONE), new Account("Compte-é", BigDecimal.TEN),
+                new Account("Id-a", BigDecimal.ONE)));
+        repository.getAccount("Compte-é").credit(50);
+
+        AccountPage first = repository.listAccounts(null, 2);
+        assertThat(first.getAccounts()).containsExactly(new AccountSnapshot("Id-b", 100, 0),
+                new AccountSnapshot("Compte-é", 1050, 1));
+        AccountPage last = repository.listAccounts(first.getNextCursor(), 2);
+        assertThat(last.getAccounts()).extracting("accountId").containsExactly("Id-a");
+        assertThat(last.getNextCursor()).isNull();
+
+        assertThatThrownBy(() -> repository.listAccounts("Id-a", 2)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void accounts_are_found_by_handle() {
+        repository.createAccounts(List.of(new Account("Id-a", BigDecimal.ONE), new Account("Compte-é", BigDecimal.TEN)));
+
+        assertThat(repository.handleOf("Id-a")).isZero();
+        assertThat(repository.handleOf("Compte-é")).isEqualTo(1);
+        assertThat(repository.handleOf("Id-b")).isEqualTo(-1);
+        Account account = repository.getAccount(1);
+        assertThat(account.getAccountId()).isEqualTo("Compte-é");
+        assertThat(account.getHandle()).isEqualTo(1);
+        account.credit(5);
+        assertThat(repository.getAccount("Compte-é").getBalanceMinorUnits()).isEqualTo(1005);
+        assertThat(repository.getAccount(2)).isNull();
+        assertThat(repository.getAccount(-1)).isNull();
+
+        int epoch = repository.getHandleEpoch();
+        repository.clearAccounts();
+        assertThat(repository.getHandleEpoch()).isNotEqualTo(epoch);
+        assertThat(repository.getAccount(0)).isNull();
+        repository.createAccount(new Account("Id-b", BigDecimal.ONE));
+        assertThat(repository.getAccount(0).getAccountId()).isEqualTo("Id-b");
+    }
+
+    @Test
+    void createDuplicateAccount() {
+        repository.createAccount(new Account("Id-123", new BigDecimal("1")));
+
+        assertThatThrownBy(() -> repository.createAccount(new Account("Id-123", new BigDecimal("2"))))
+                .isInstanceOf(DuplicateAccountIdException.class)
+                .hasMessage("Account id Id-123 already exists!");
+    }
+
+    @Test
+    void balance_updates_go_to_the_record() {
+        repository.createAccount(new Account("Id-123", new BigDecimal("10")));
+
+        Account view = repository.getAccount("Id-123");
+        assertThat(view.tryDebit(400)).isTrue();
+        assertThat(view.tryDebit(1000)).isFalse();
+        view.credit(50);
+        assertThat(repository.getAccount("Id-123").getBalance()).isEqualByComparingTo("6.50");
+        view.setBalance(new BigDecimal("99"));
+        assertThat(repository.getAccount("Id-123").getBalanceMinorUnits()).isEqualTo(9900);
+    }
+
+    @Test
+    void many_accounts_stay_off_heap() {
+        int accounts = 200_000;
+        long heapBefore = usedHeap();
+        for (int i = 0; i < accounts; i++) {
+            repository.createAccount(new Account("account-" + i, new BigDecimal(i)));
+        }
+        long heapGrowth = usedHeap() - heapBefore;
+
+        assertThat(repository.size()).isEqualTo(accounts);
+        for (int i = 0; i < accounts; i += 997) {
+            assertThat(repository.getAccount("account-" + i).getBalance()).isEqualByComparingTo(new BigDecimal(i));
+        }
+        assertThat(repository.getOffHeapBytes()).isGreaterThan(accounts * 64L);
+        // a heap Account with its String id and BigDecimal is above 100 bytes, the off-heap store keeps none of them
+        assertThat(heapGrowth).isLessThan(accounts * 50L);
+
+        repository.clearAccounts();
+        assertThat(repository.getAccount("account-0")).isNull();
+        repository.createAccount(new Account("account-0", BigDecimal.ONE));
+        assertThat(repository.getAccount("account-0").getBalance()).isEqualByComparingTo("1");
+    }
+
+    @Test
+    void concurrent_transfers_on_off_heap_balances() throws Exception {
+        int threads = 4;
+        for (int t = 0; t < threads; t++) {
+            repository.createAccount(new Account("ring_" + t, new BigDecimal(1000)));
+        }
+        NotificationDispatcher notificationDispatcher = new NotificationDispatcher((account, description) -> { },
+                1, 1024, 256, NotificationDispatcher.OverflowPolicy.DROP, 0, 1000);
+        AccountBalanceServiceImpl service = new AccountBalanceServiceImpl(repository, notificationDispatcher);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        List<Future<Boolean>> tasks = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String from = "ring_" + t;
+            String to = "ring_" + ((t + 1) % threads);
+            tasks.add(executorService.submit(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    service.transferBalanceBWAccounts(from, to, 100L);
+                }
+                return true;
+            }));
+        }
+        for (Future<Boolean> task : tasks) {
+            task.get(30, TimeUnit.SECONDS);
+        }
+        executorService.shutdown();
+        notificationDispatcher.shutdown();
+
+        long total = 0;
+        for (int t = 0; t < threads; t++) {
+            total += repository.getAccount("ring_" + t).getBalanceMinorUnits();
+        }
+        assertThat(total).isEqualTo(threads * 100_000L);
+    }
+
+    /**
+     * Every lookup returns a new view of the record: an account debited by several legs must still be checked once
+     */
+    @Test
+    void multi_leg_transfers_check_the_total_debit() throws InterruptedException {
+        repository.createAccount(new Account("payer", new BigDecimal("1.00")));
+        repository.createAccount(new Account("payee_1", BigDecimal.ZERO));
+        repository.createAccount(new Account("payee_2", BigDecimal.ZERO));
+        NotificationDispatcher notificationDispatcher = new NotificationDispatcher((account, description) -> { },
+                1, 1024, 256, NotificationDispatcher.OverflowPolicy.DROP, 0, 1000);
+        AccountBalanceServiceImpl service = new AccountBalanceServiceImpl(repository, notificationDispatcher);
+
+        assertThatThrownBy(() -> service.transferMultiLeg(List.of(new TransferLeg("payer", 120)),
+                List.of(new TransferLeg("payee_1", 60), new TransferLeg("payee_2", 60))))
+                .hasMessageContaining("Not sufficient balance in account <payer>");
+        List<TransferResult> results = service.transferBatch(List.of(new Transfer("payer", "payee_1", 60),
+                new Transfer("payer", "payee_2", 60)), BatchMode.ALL_OR_NOTHING);
+        notificationDispatcher.shutdown();
+
+        assertThat(results).extracting(TransferResult::getStatus)
+                .containsExactly(TransferResult.Status.ABORTED, TransferResult.Status.REJECTED);
+        assertThat(repository.getAccount("payer").getBalanceMinorUnits()).isEqualTo(100);
+        assertThat(repository.getAccount("payee_1").getBalanceMinorUnits()).isZero();
+        assertThat(repository.getAccount("payee_2").getBalanceMinorUnits()).isZero();
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
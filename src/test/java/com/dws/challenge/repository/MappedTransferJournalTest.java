@@ -0,0 +1,180 @@
+package com.dws.challenge.repository;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.service.AccountBalanceServiceImpl;
+import com.dws.challenge.service.NotificationDispatcher;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MappedTransferJournalTest {
+
+    @TempDir
+    Path directory;
+
+    private NotificationDispatcher notificationDispatcher;
+
+    @BeforeEach
+    void createDispatcher() {
+        notificationDispatcher = new NotificationDispatcher((account, description) -> { },
+                1, 1024, 256, NotificationDispatcher.OverflowPolicy.DROP, 0, 1000);
+    }
+
+    @AfterEach
+    void stopDispatcher() throws InterruptedException {
+        notificationDispatcher.shutdown();
+    }
+
+    @Test
+    void balances_survive_a_restart() throws Exception {
+        MappedTransferJournal journal = newJournal(1 << 20);
+        AccountsRepositoryInMemory repository = newRepository(journal);
+        repository.createAccount(new Account("source", new BigDecimal(1000)));
+        repository.createAccount(new Account("dest", new BigDecimal(10)));
+        AccountBalanceServiceImpl service = new AccountBalanceServiceImpl(repository, notificationDispatcher);
+        for (int i = 0; i < 100; i++) {
+            service.transferBalanceBWAccounts("source", "dest", 250L);
+        }
+        journal.close();
+
+        AccountsRepositoryInMemory restarted = newRepository(newJournal(1 << 20));
+
+        assertThat(restarted.getAccount("source").getBalance()).isEqualByComparingTo("750");
+        assertThat(restarted.getAccount("dest").getBalance()).isEqualByComparingTo("260");
+        assertThat(restarted.getAccount(restarted.handleOf("dest")).getAccountId()).isEqualTo("dest");
+    }
+
+    @Test
+    void full_segments_are_compacted_into_a_snapshot() throws Exception {
+        MappedTransferJournal journal = newJournal(4096);
+        AccountsRepositoryInMemory repository = newRepository(journal);
+        repository.createAccount(new Account("source", new BigDecimal(100000)));
+        repository.createAccount(new Account("dest", BigDecimal.ZERO));
+        AccountBalanceServiceImpl service = new AccountBalanceServiceImpl(repository, notificationDispatcher);
+        for (int i = 0; i < 2000; i++) {
+            service.transferBalanceBWAccounts("source", "dest", 1L);
+        }
+        journal.close();
+
+        assertThat(directory.resolve("snapshot.bin")).exists();
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files.filter(path -> path.getFileName().toString().startsWith("journal-")).count()).isLessThan(5);
+        }
+        Map<String, Long> recovered = newJournal(4096).recover();
+        assertThat(recovered).containsEntry("source", 10_000_000L - 2000).containsEntry("dest", 2000L);
+    }
+
+    @Test
+    void records_of_closed_segments_are_made_durable_by_the_flusher() throws Exception {
+        MappedTransferJournal journal = newJournal(4096);
+        journal.recover();
+        journal.appendAccount("source", 100_000L);
+        long last = 0;
+        for (int i = 0; i < 1000; i++) { // rolls over several segments without waiting for any of them
+            last = journal.appendTransfer("source", "dest", 1L);
+        }
+        journal.awaitDurable(last);
+        journal.close();
+
+        assertThat(newJournal(4096).recover()).containsEntry("source", 100_000L - 1000);
+    }
+
+    @Test
+    void replay_stops_at_a_torn_record() throws Exception {
+        MappedTransferJournal journal = newJournal(1 << 16);
+        AccountsRepositoryInMemory repository = newRepository(journal);
+        repository.createAccount(new Account("source", new BigDecimal(100)));
+        repository.createAccount(new Account("dest", BigDecimal.ZERO));
+        repository.awaitDurable(repository.journalTransfer("source", "dest", 1000L));
+        long last = repository.journalTransfer("source", "dest", 2000L);
+        repository.awaitDurable(last);
+        journal.close();
+
+        // corrupt the last byte of the last record, as a crash in the middle of the write would
+        Path segment = directory.resolve("journal-1.log");
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(segment));
+            int position = 0;
+            int lastRecord = 0;
+            while (content.getInt(position) > 0) {
+                lastRecord = position;
+                position += 8 + content.getInt(position);
+            }
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) 0xFF}), position - 1);
+            assertThat(lastRecord).isPositive();
+        }
+
+        Map<String, Long> recovered = newJournal(1 << 16).recover();
+        assertThat(recovered).containsEntry("source", 9000L).containsEntry("dest", 1000L);
+    }
+
+    @Test
+    void multi_leg_transfers_are_replayed_together() throws Exception {
+        MappedTransferJournal journal = newJournal(1 << 20);
+        AccountsRepositoryInMemory repository = newRepository(journal);
+        repository.createAccount(new Account("employer", new BigDecimal(100)));
+        repository.createAccount(new Account("employee_1", BigDecimal.ZERO));
+        repository.createAccount(new Account("employee_2", BigDecimal.ZERO));
+        AccountBalanceServiceImpl service = new AccountBalanceServiceImpl(repository, notificationDispatcher);
+        service.transferMultiLeg(List.of(new TransferLeg("employer", 3_000)),
+                List.of(new TransferLeg("employee_1", 1_000), new TransferLeg("employee_2", 2_000)));
+        journal.close();
+
+        assertThat(newJournal(1 << 20).recover()).containsEntry("employer", 7_000L)
+                .containsEntry("employee_1", 1_000L).containsEntry("employee_2", 2_000L);
+    }
+
+    @Test
+    void ids_too_long_for_the_record_are_rejected() throws Exception {
+        MappedTransferJournal journal = newJournal(1 << 20);
+        AccountsRepositoryInMemory repository = newRepository(journal);
+        String longId = "x".repeat(70_000);
+
+        assertThatThrownBy(() -> repository.createAccount(new Account(longId, BigDecimal.ONE)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(repository.getAccount(longId)).isNull();
+        repository.createAccount(new Account("source", BigDecimal.ONE));
+        journal.close();
+
+        assertThat(newJournal(1 << 20).recover()).containsOnlyKeys("source");
+    }
+
+    @Test
+    void records_are_not_reported_durable_once_closed() throws Exception {
+        MappedTransferJournal journal = newJournal(1 << 20);
+        journal.recover();
+        long sequence = journal.appendAccount("source", 100L);
+        journal.close();
+
+        journal.awaitDurable(sequence); // forced by close
+        assertThatThrownBy(() -> journal.awaitDurable(sequence + 1)).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> journal.appendTransfer("source", "dest", 1L)).isInstanceOf(IllegalStateException.class);
+    }
+
+    private MappedTransferJournal newJournal(int segmentSize) {
+        return new MappedTransferJournal(directory.toString(), segmentSize, 16, 100, 0);
+    }
+
+    private static AccountsRepositoryInMemory newRepository(MappedTransferJournal journal) throws IOException {
+        AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory();
+        repository.setJournal(journal);
+        repository.recover();
+        return repository;
+    }
+}
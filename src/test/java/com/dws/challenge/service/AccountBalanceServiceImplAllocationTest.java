@@ -0,0 +1,65 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.Money;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Allocation profile of the transfer hot path: once warmed up, a transfer in minor units must not allocate.
+ * Uses the per thread allocation counter of the HotSpot ThreadMXBean.
+ */
+class AccountBalanceServiceImplAllocationTest {
+
+    private static final int WARMUP = 50_000;
+    private static final int MEASURED = 100_000;
+
+    @Test
+    void steady_state_transfer_does_not_allocate() throws InterruptedException {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assertThat(threadMXBean.isThreadAllocatedMemorySupported()).isTrue();
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory();
+        accountsRepository.createAccount(new Account("source", new BigDecimal(1_000_000)));
+        accountsRepository.createAccount(new Account("dest", new BigDecimal(1_000_000)));
+        NotificationService silentNotifications = new NotificationService() {
+            @Override
+            public void notifyAboutTransfer(Account account, String transferDescription) {
+            }
+
+            @Override
+            public void notifyAboutTransfer(Account account, long amount, boolean debit) {
+            }
+        };
+        NotificationDispatcher notificationDispatcher = new NotificationDispatcher(silentNotifications, 1, 1024, 256,
+                NotificationDispatcher.OverflowPolicy.BLOCK, 1000, 1000);
+        AccountBalanceServiceImpl accountBalanceService = new AccountBalanceServiceImpl(accountsRepository, notificationDispatcher);
+
+        transferBackAndForth(accountBalanceService, WARMUP);
+
+        long threadId = Thread.currentThread().getId();
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        transferBackAndForth(accountBalanceService, MEASURED);
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+        notificationDispatcher.shutdown();
+
+        // a single object per transfer would already be MEASURED * 16 bytes, the margin only covers the counter itself
+        assertThat(allocated).isLessThan(MEASURED / 10);
+        assertThat(notificationDispatcher.getDroppedCount()).isZero();
+        assertThat(accountsRepository.getAccount("source").getBalance()).isEqualByComparingTo("1000000");
+        assertThat(Money.toBigDecimal(accountsRepository.getAccount("dest").getBalanceMinorUnits())).isEqualByComparingTo("1000000");
+    }
+
+    private static void transferBackAndForth(AccountBalanceServiceImpl accountBalanceService, int transfers) {
+        for (int i = 0; i < transfers; i += 2) {
+            accountBalanceService.transferBalanceBWAccounts("source", "dest", 125L);
+            accountBalanceService.transferBalanceBWAccounts("dest", "source", 125L);
+        }
+    }
+}
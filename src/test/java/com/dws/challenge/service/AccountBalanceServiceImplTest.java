@@ -1,17 +1,31 @@
 package com.dws.challenge.service;
 
 import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.BatchMode;
+import com.dws.challenge.domain.Transfer;
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.domain.TransferResult;
 import com.dws.challenge.exception.InvalidTransactionException;
+import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.AccountsRepositoryOffHeap;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 @ExtendWith(SpringExtension.class)
 @SpringBootTest
@@ -123,6 +137,356 @@ class AccountBalanceServiceImplTest {
         assertThat(accountsService.getAccount("source").getBalance()).isEqualByComparingTo("85000");
         assertThat(accountsService.getAccount("dest").getBalance()).isEqualByComparingTo("25000");
     }
+    /**
+     * N threads, each one doing 100 transfers of $10 between its own pair of accounts.
+     * Pairs are disjoint, so none of these transfers should wait on the other threads
+     * @throws InterruptedException
+     */
+    @Test
+    void transfer_multiple_threads_disjoint_accounts() throws InterruptedException, ExecutionException {
+        accountsService.getAccountsRepository().clearAccounts();
+        int threads = 8;
+        for (int t = 0; t < threads; t++) {
+            this.accountsService.createAccount(new Account("source_" + t, new BigDecimal(5000)));
+            this.accountsService.createAccount(new Account("dest_" + t, new BigDecimal(1000)));
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        List<Future<Boolean>> tasks = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String source = "source_" + t;
+            String dest = "dest_" + t;
+            tasks.add(executorService.submit(() -> {
+                for (int i = 0; i < 100 ; i++){
+                    accountBalanceService.transferBalanceBWAccounts(source, dest, new BigDecimal(10));
+                }
+                return true;
+            }));
+        }
+        for (Future<Boolean> task : tasks) {
+            task.get();
+        }
+        executorService.shutdown();
+
+        for (int t = 0; t < threads; t++) {
+            assertThat(accountsService.getAccount("source_" + t).getBalance()).isEqualByComparingTo("4000");
+            assertThat(accountsService.getAccount("dest_" + t).getBalance()).isEqualByComparingTo("2000");
+        }
+    }
+
+    /**
+     * N threads transferring $1 around a ring of accounts in both directions.
+     * Every account is locked by two threads in opposite orders, which would deadlock without lock ordering
+     * @throws Exception
+     */
+    @Test
+    void transfer_multiple_threads_ring_no_deadlock() throws Exception {
+        accountsService.getAccountsRepository().clearAccounts();
+        int threads = 8;
+        for (int t = 0; t < threads; t++) {
+            this.accountsService.createAccount(new Account("ring_" + t, new BigDecimal(1000)));
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        List<Future<Boolean>> tasks = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String from = "ring_" + t;
+            String to = "ring_" + ((t + 1) % threads);
+            boolean reverse = t % 2 == 1;
+            tasks.add(executorService.submit(() -> {
+                for (int i = 0; i < 500 ; i++){
+                    if (reverse) {
+                        accountBalanceService.transferBalanceBWAccounts(to, from, BigDecimal.ONE);
+                    } else {
+                        accountBalanceService.transferBalanceBWAccounts(from, to, BigDecimal.ONE);
+                    }
+                }
+                return true;
+            }));
+        }
+        for (Future<Boolean> task : tasks) {
+            task.get(30, TimeUnit.SECONDS);
+        }
+        executorService.shutdown();
+
+        BigDecimal total = BigDecimal.ZERO;
+        for (int t = 0; t < threads; t++) {
+            total = total.add(accountsService.getAccount("ring_" + t).getBalance());
+        }
+        assertThat(total).isEqualByComparingTo(new BigDecimal(threads * 1000));
+    }
+
+    @Test
+    void transferBatch_best_effort() {
+        accountsService.getAccountsRepository().clearAccounts();
+        this.accountsService.createAccount(new Account("acc_1", new BigDecimal(100)));
+        this.accountsService.createAccount(new Account("acc_2", new BigDecimal(100)));
+        this.accountsService.createAccount(new Account("acc_3", new BigDecimal(100)));
+        this.accountsService.createAccount(new Account("acc_4", new BigDecimal(100)));
+
+        List<TransferResult> results = accountBalanceService.transferBatch(Arrays.asList(
+                new Transfer("acc_1", "acc_2", 15000),   // money credited by the next transfer is not there yet
+                new Transfer("acc_2", "acc_1", 10000),
+                new Transfer("acc_1", "acc_2", 15000),
+                new Transfer("acc_3", "acc_4", 5000),
+                new Transfer("acc_3", "unknown", 5000),
+                new Transfer("acc_4", "acc_3", 0)), BatchMode.BEST_EFFORT);
+
+        assertThat(results).extracting(TransferResult::getStatus).containsExactly(
+                TransferResult.Status.REJECTED, TransferResult.Status.APPLIED, TransferResult.Status.APPLIED,
+                TransferResult.Status.APPLIED, TransferResult.Status.REJECTED, TransferResult.Status.REJECTED);
+        assertThat(results.get(0).getMessage()).isEqualTo("Not sufficient balance in account <acc_1>");
+        assertThat(accountsService.getAccount("acc_1").getBalance()).isEqualByComparingTo("50");
+        assertThat(accountsService.getAccount("acc_2").getBalance()).isEqualByComparingTo("150");
+        assertThat(accountsService.getAccount("acc_3").getBalance()).isEqualByComparingTo("50");
+        assertThat(accountsService.getAccount("acc_4").getBalance()).isEqualByComparingTo("150");
+    }
+
+    @Test
+    void transferBatch_all_or_nothing() {
+        accountsService.getAccountsRepository().clearAccounts();
+        this.accountsService.createAccount(new Account("acc_1", new BigDecimal(100)));
+        this.accountsService.createAccount(new Account("acc_2", new BigDecimal(100)));
+
+        List<TransferResult> results = accountBalanceService.transferBatch(Arrays.asList(
+                new Transfer("acc_1", "acc_2", 5000),
+                new Transfer("acc_2", "acc_1", 20000),
+                new Transfer("acc_2", "acc_1", 100)), BatchMode.ALL_OR_NOTHING);
+
+        assertThat(results).extracting(TransferResult::getStatus).containsExactly(
+                TransferResult.Status.ABORTED, TransferResult.Status.REJECTED, TransferResult.Status.ABORTED);
+        assertThat(accountsService.getAccount("acc_1").getBalance()).isEqualByComparingTo("100");
+        assertThat(accountsService.getAccount("acc_2").getBalance()).isEqualByComparingTo("100");
+
+        results = accountBalanceService.transferBatch(Arrays.asList(
+                new Transfer("acc_1", "acc_2", 5000),
+                new Transfer("acc_2", "acc_1", 15000)), BatchMode.ALL_OR_NOTHING);
+
+        assertThat(results).extracting(TransferResult::getStatus).containsOnly(TransferResult.Status.APPLIED);
+        assertThat(accountsService.getAccount("acc_1").getBalance()).isEqualByComparingTo("200");
+        assertThat(accountsService.getAccount("acc_2").getBalance()).isEqualByComparingTo("0");
+    }
+
+    @Test
+    void accounts_sharing_a_lock_stripe() {
+        accountsService.getAccountsRepository().clearAccounts();
+        String first = "acc_0";
+        String second = null;
+        for (int i = 1; second == null; i++) {
+            if (AccountBalanceServiceImpl.stripeOf("acc_" + i) == AccountBalanceServiceImpl.stripeOf(first)) {
+                second = "acc_" + i;
+            }
+        }
+        this.accountsService.createAccount(new Account(first, new BigDecimal(100)));
+        this.accountsService.createAccount(new Account(second, new BigDecimal(100)));
+
+        accountBalanceService.transferBalanceBWAccounts(first, second, 1000L);
+        List<TransferResult> results = accountBalanceService.transferBatch(Arrays.asList(
+                new Transfer(second, first, 500),
+                new Transfer(first, second, 200)), BatchMode.ALL_OR_NOTHING);
+
+        assertThat(results).extracting(TransferResult::getStatus).containsOnly(TransferResult.Status.APPLIED);
+        assertThat(accountsService.getAccount(first).getBalance()).isEqualByComparingTo("93");
+        assertThat(accountsService.getAccount(second).getBalance()).isEqualByComparingTo("107");
+    }
+
+    @Test
+    void transferBatch_by_handle() {
+        AccountsRepository accountsRepository = accountsService.getAccountsRepository();
+        accountsRepository.clearAccounts();
+        this.accountsService.createAccount(new Account("acc_1", new BigDecimal(100)));
+        this.accountsService.createAccount(new Account("acc_2", new BigDecimal(100)));
+        int acc1 = accountsRepository.handleOf("acc_1");
+        int acc2 = accountsRepository.handleOf("acc_2");
+
+        List<TransferResult> results = accountBalanceService.transferBatch(Arrays.asList(
+                new Transfer("acc_1", "acc_2", 1000, acc1, acc2),
+                new Transfer("acc_2", "acc_1", 500, acc1, acc2),   // handles of other accounts, the ids win
+                new Transfer("acc_1", "acc_2", 500, 42, -1)), BatchMode.BEST_EFFORT);
+
+        assertThat(results).extracting(TransferResult::getStatus).containsOnly(TransferResult.Status.APPLIED);
+        assertThat(accountsService.getAccount("acc_1").getBalance()).isEqualByComparingTo("90");
+        assertThat(accountsService.getAccount("acc_2").getBalance()).isEqualByComparingTo("110");
+    }
+
+    /**
+     * A transfer whose journal append fails is undone before the exception reaches the caller
+     */
+    @Test
+    void failed_journal_append_undoes_the_transfer() throws InterruptedException {
+        AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory() {
+            @Override
+            public long journalTransfer(String sourceAccountId, String destinationAccountId, long amount) {
+                throw new UncheckedIOException(new IOException("No space left on device"));
+            }
+        };
+        repository.createAccount(new Account("source", new BigDecimal(100)));
+        repository.createAccount(new Account("dest", BigDecimal.ZERO));
+        NotificationDispatcher notificationDispatcher = new NotificationDispatcher((account, description) -> { },
+                1, 1024, 256, NotificationDispatcher.OverflowPolicy.DROP, 0, 1000);
+        AccountBalanceServiceImpl service = new AccountBalanceServiceImpl(repository, notificationDispatcher);
+
+        assertThatThrownBy(() -> service.transferBalanceBWAccounts("source", "dest", 1_000L))
+                .isInstanceOf(UncheckedIOException.class);
+        assertThatThrownBy(() -> service.transferBatch(List.of(new Transfer("source", "dest", 1_000L)), BatchMode.BEST_EFFORT))
+                .isInstanceOf(UncheckedIOException.class);
+        notificationDispatcher.shutdown();
+
+        assertThat(repository.getAccount("source").getBalanceMinorUnits()).isEqualTo(10_000);
+        assertThat(repository.getAccount("dest").getBalanceMinorUnits()).isZero();
+    }
+
+    /**
+     * An all or nothing batch is applied with its net changes: it can spend money it credits itself,
+     * and a debit failing despite the dry run fails the batch instead of crediting money never debited
+     */
+    @Test
+    void all_or_nothing_batches_check_their_debits() throws InterruptedException {
+        AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory();
+        repository.createAccount(new Account("acc_1", new BigDecimal(100)));
+        repository.createAccount(new Account("acc_2", new BigDecimal(100)));
+        repository.createAccount(new Account("broken", new BigDecimal(100)) {
+            @Override
+            public boolean tryDebit(long amount) {
+                return false;
+            }
+        });
+        NotificationDispatcher notificationDispatcher = new NotificationDispatcher((account, description) -> { },
+                1, 1024, 256, NotificationDispatcher.OverflowPolicy.DROP, 0, 1000);
+        AccountBalanceServiceImpl service = new AccountBalanceServiceImpl(repository, notificationDispatcher);
+
+        assertThatThrownBy(() -> service.transferBatch(List.of(new Transfer("acc_1", "acc_2", 5_000),
+                new Transfer("broken", "acc_2", 5_000)), BatchMode.ALL_OR_NOTHING))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(repository.getAccount("acc_1").getBalanceMinorUnits()).isEqualTo(10_000);
+        assertThat(repository.getAccount("acc_2").getBalanceMinorUnits()).isEqualTo(10_000);
+
+        List<TransferResult> results = service.transferBatch(List.of(new Transfer("acc_1", "acc_2", 10_000),
+                new Transfer("acc_2", "acc_1", 20_000)), BatchMode.ALL_OR_NOTHING);
+        notificationDispatcher.shutdown();
+
+        assertThat(results).extracting(TransferResult::getStatus).containsOnly(TransferResult.Status.APPLIED);
+        assertThat(repository.getAccount("acc_1").getBalanceMinorUnits()).isEqualTo(20_000);
+        assertThat(repository.getAccount("acc_2").getBalanceMinorUnits()).isZero();
+    }
+
+    /**
+     * The legs are journaled as one record before any credit: when the append fails no leg is applied,
+     * and a debit failing despite the funds check fails the transfer instead of crediting money never debited
+     */
+    @Test
+    void multi_leg_transfers_are_all_or_nothing_on_failures() throws InterruptedException {
+        AtomicBoolean journalFails = new AtomicBoolean(true);
+        AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory() {
+            @Override
+            public long journalTransfers(List<Transfer> transfers) {
+                if (journalFails.get()) {
+                    throw new UncheckedIOException(new IOException("No space left on device"));
+                }
+                return -1;
+            }
+        };
+        repository.createAccount(new Account("employer", new BigDecimal(100)));
+        repository.createAccount(new Account("broken", new BigDecimal(100)) {
+            @Override
+            public boolean tryDebit(long amount) {
+                return false;
+            }
+        });
+        repository.createAccount(new Account("employee_1", BigDecimal.ZERO));
+        repository.createAccount(new Account("employee_2", BigDecimal.ZERO));
+        NotificationDispatcher notificationDispatcher = new NotificationDispatcher((account, description) -> { },
+                1, 1024, 256, NotificationDispatcher.OverflowPolicy.DROP, 0, 1000);
+        AccountBalanceServiceImpl service = new AccountBalanceServiceImpl(repository, notificationDispatcher);
+        List<TransferLeg> salaries = List.of(new TransferLeg("employee_1", 1_000), new TransferLeg("employee_2", 1_000));
+
+        assertThatThrownBy(() -> service.transferMultiLeg(List.of(new TransferLeg("employer", 2_000)), salaries))
+                .isInstanceOf(UncheckedIOException.class);
+        journalFails.set(false);
+        assertThatThrownBy(() -> service.transferMultiLeg(List.of(new TransferLeg("employer", 1_000),
+                new TransferLeg("broken", 1_000)), salaries))
+                .isInstanceOf(IllegalStateException.class);
+        notificationDispatcher.shutdown();
+
+        assertThat(repository.getAccount("employer").getBalanceMinorUnits()).isEqualTo(10_000);
+        assertThat(repository.getAccount("employee_1").getBalanceMinorUnits()).isZero();
+        assertThat(repository.getAccount("employee_2").getBalanceMinorUnits()).isZero();
+    }
+
+    /**
+     * The off-heap repository returns a new view per lookup: the funds of an account used by several transfers
+     * of a call are still checked against their total, not per view
+     */
+    @Test
+    void off_heap_accounts_are_checked_once_per_call() throws InterruptedException {
+        AccountsRepositoryOffHeap repository = new AccountsRepositoryOffHeap(16, 16, 16);
+        repository.createAccount(new Account("payer", new BigDecimal(150)));
+        repository.createAccount(new Account("payee_1", BigDecimal.ZERO));
+        repository.createAccount(new Account("payee_2", BigDecimal.ZERO));
+        NotificationDispatcher notificationDispatcher = new NotificationDispatcher((account, description) -> { },
+                1, 1024, 256, NotificationDispatcher.OverflowPolicy.DROP, 0, 1000);
+        AccountBalanceServiceImpl service = new AccountBalanceServiceImpl(repository, notificationDispatcher);
+
+        List<TransferResult> results = service.transferBatch(List.of(new Transfer("payer", "payee_1", 10_000),
+                new Transfer("payer", "payee_2", 10_000)), BatchMode.ALL_OR_NOTHING);
+        assertThat(results).extracting(TransferResult::getStatus)
+                .containsExactly(TransferResult.Status.ABORTED, TransferResult.Status.REJECTED);
+        assertThatThrownBy(() -> service.transferMultiLeg(List.of(new TransferLeg("payer", 20_000)),
+                List.of(new TransferLeg("payee_1", 10_000), new TransferLeg("payee_2", 10_000))))
+                .isInstanceOf(InvalidTransactionException.class);
+        notificationDispatcher.shutdown();
+
+        assertThat(repository.getAccount("payer").getBalanceMinorUnits()).isEqualTo(15_000);
+        assertThat(repository.getAccount("payee_1").getBalanceMinorUnits()).isZero();
+        assertThat(repository.getAccount("payee_2").getBalanceMinorUnits()).isZero();
+    }
+
+    @Test
+    void transferMultiLeg_payroll() {
+        accountsService.getAccountsRepository().clearAccounts();
+        this.accountsService.createAccount(new Account("employer", new BigDecimal(1000)));
+        List<TransferLeg> salaries = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            this.accountsService.createAccount(new Account("employee_" + i, BigDecimal.ZERO));
+            salaries.add(new TransferLeg("employee_" + i, 500));
+        }
+
+        accountBalanceService.transferMultiLeg(List.of(new TransferLeg("employer", 50000)), salaries);
+
+        assertThat(accountsService.getAccount("employer").getBalance()).isEqualByComparingTo("500");
+        assertThat(accountsService.getAccount("employee_99").getBalance()).isEqualByComparingTo("5");
+
+        // the second payroll doesn't fit, no employee is paid
+        assertThatThrownBy(() -> accountBalanceService.transferMultiLeg(List.of(new TransferLeg("employer", 100000)),
+                List.of(new TransferLeg("employee_0", 50000), new TransferLeg("employee_1", 50000))))
+                .isInstanceOf(InvalidTransactionException.class)
+                .hasMessage("Not sufficient balance in account <employer>");
+        assertThatThrownBy(() -> accountBalanceService.transferMultiLeg(List.of(new TransferLeg("employer", 100)),
+                List.of(new TransferLeg("employee_0", 50), new TransferLeg("unknown", 50))))
+                .hasMessage("invalid account !");
+        assertThat(accountsService.getAccount("employer").getBalance()).isEqualByComparingTo("500");
+        assertThat(accountsService.getAccount("employee_0").getBalance()).isEqualByComparingTo("5");
+    }
+
+    @Test
+    void multi_leg_transfers_are_paired() {
+        // 2 debits, 3 credits: 4 transfers at most
+        assertThat(AccountBalanceService.toTransfers(
+                List.of(new TransferLeg("a", 300), new TransferLeg("b", 200)),
+                List.of(new TransferLeg("x", 100), new TransferLeg("y", 250), new TransferLeg("z", 150))))
+                .containsExactly(new Transfer("a", "x", 100), new Transfer("a", "y", 200),
+                        new Transfer("b", "y", 50), new Transfer("b", "z", 150));
+
+        assertThatThrownBy(() -> AccountBalanceService.toTransfers(List.of(new TransferLeg("a", 300)),
+                List.of(new TransferLeg("x", 200)))).hasMessage("Debits (3.00) and credits (2.00) don't balance");
+        assertThatThrownBy(() -> AccountBalanceService.toTransfers(List.of(new TransferLeg("a", 300)),
+                List.of(new TransferLeg("a", 300)))).hasMessageContaining("can't be debited and credited");
+        assertThatThrownBy(() -> AccountBalanceService.toTransfers(List.of(new TransferLeg("a", 0)),
+                List.of(new TransferLeg("x", 0)))).hasMessage("Transfer amount can't be less than 0");
+        assertThatThrownBy(() -> AccountBalanceService.toTransfers(List.of(), List.of(new TransferLeg("x", 1))))
+                .isInstanceOf(InvalidTransactionException.class);
+    }
+
     @Test
     void transferBalanceBWAccounts_source_not_have_fund() throws InvalidTransactionException {
         accountsService.getAccountsRepository().clearAccounts();
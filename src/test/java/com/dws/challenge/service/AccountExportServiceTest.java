@@ -0,0 +1,77 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.AccountPage;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AccountExportServiceTest {
+
+    private final AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory();
+    private final AccountsService accountsService = new AccountsService(accountsRepository);
+    private final AccountExportService accountExportService = new AccountExportService(accountsRepository, new ObjectMapper(), 2);
+
+    @BeforeEach
+    void createAccounts() {
+        for (int i = 5; i > 0; i--) {
+            accountsService.createAccount(new Account("Id-" + i, new BigDecimal(i + ".50")));
+        }
+    }
+
+    @Test
+    void listAccountsPageByPage() {
+        AccountPage first = accountsService.listAccounts(null, 3);
+        assertThat(first.getAccounts()).extracting("accountId").containsExactly("Id-1", "Id-2", "Id-3");
+        assertThat(first.getNextCursor()).isEqualTo("Id-3");
+
+        accountsService.createAccount(new Account("Id-0", BigDecimal.ONE)); // before the cursor, not listed
+        AccountPage second = accountsService.listAccounts(first.getNextCursor(), 3);
+        assertThat(second.getAccounts()).extracting("accountId").containsExactly("Id-4", "Id-5");
+        assertThat(second.getNextCursor()).isNull();
+
+        assertThatThrownBy(() -> accountsService.listAccounts(null, AccountsService.MAX_PAGE_SIZE + 1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void exportNdjson() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        accountExportService.export(out, AccountExportService.Format.of("ndjson"));
+
+        assertThat(out.toString(StandardCharsets.UTF_8)).isEqualTo(
+                "{\"accountId\":\"Id-1\",\"balance\":1.50}\n"
+                        + "{\"accountId\":\"Id-2\",\"balance\":2.50}\n"
+                        + "{\"accountId\":\"Id-3\",\"balance\":3.50}\n"
+                        + "{\"accountId\":\"Id-4\",\"balance\":4.50}\n"
+                        + "{\"accountId\":\"Id-5\",\"balance\":5.50}\n");
+    }
+
+    @Test
+    void exportBinary() throws IOException {
+        accountsRepository.getAccount("Id-2").credit(50);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        accountExportService.export(out, AccountExportService.Format.BINARY);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        for (int i = 1; i <= 5; i++) {
+            byte[] encodedId = new byte[in.readShort()];
+            in.readFully(encodedId);
+            assertThat(new String(encodedId, StandardCharsets.UTF_8)).isEqualTo("Id-" + i);
+            assertThat(in.readLong()).isEqualTo(i * 100 + (i == 2 ? 100 : 50));
+            assertThat(in.readLong()).isEqualTo(i == 2 ? 1 : 0);
+        }
+        assertThat(in.read()).isEqualTo(-1);
+    }
+}
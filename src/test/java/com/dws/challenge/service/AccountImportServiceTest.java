@@ -0,0 +1,63 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.ImportResult;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import javax.validation.Validation;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AccountImportServiceTest {
+
+    private final AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory();
+    private final AccountImportService accountImportService = new AccountImportService(accountsRepository, new ObjectMapper(),
+            Validation.buildDefaultValidatorFactory().getValidator(), 3);
+
+    @Test
+    void importNdjson() throws IOException {
+        ImportResult result = accountImportService.importAccounts(content(
+                "{\"accountId\":\"Id-1\",\"balance\":10.50}\n"
+                        + "\n"
+                        + "{\"accountId\":\"Id-2\",\"balance\":-1}\n"
+                        + "{\"accountId\":\"Id-3\",\"balance\":1}\n"
+                        + "not json\n"
+                        + "{\"accountId\":\"Id-1\",\"balance\":1}\n"
+                        + "{\"accountId\":\"Id-4\",\"balance\":0.001}\n"), AccountImportService.Format.NDJSON);
+
+        assertThat(result.getCreated()).isEqualTo(2);
+        assertThat(result.getDuplicates()).isEqualTo(1);
+        assertThat(result.getDuplicateIds()).containsExactly("Id-1");
+        assertThat(result.getInvalid()).isEqualTo(3);
+        assertThat(result.getErrors()).hasSize(3);
+        assertThat(result.getErrors().get(0)).startsWith("line 3: ").contains("Initial balance must be positive.");
+        assertThat(result.getErrors().get(1)).startsWith("line 5: ");
+        assertThat(result.getErrors().get(2)).startsWith("line 7: ");
+        assertThat(accountsRepository.getAccount("Id-1").getBalance()).isEqualByComparingTo("10.50");
+    }
+
+    @Test
+    void importCsv() throws IOException {
+        String csv = "accountId,balance\n" + IntStream.range(0, 1000)
+                .mapToObj(i -> "Id-" + i + ", " + i + ".25")
+                .collect(Collectors.joining("\n")) + "\nId-missing-balance\n";
+
+        ImportResult result = accountImportService.importAccounts(content(csv), AccountImportService.Format.of("text/csv"));
+
+        assertThat(result.getCreated()).isEqualTo(1000);
+        assertThat(result.getInvalid()).isEqualTo(1);
+        assertThat(result.getErrors()).containsExactly("line 1002: expected accountId,balance");
+        assertThat(accountsRepository.getAccount("Id-999").getBalance()).isEqualByComparingTo("999.25");
+    }
+
+    private static InputStream content(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,111 @@
+package com.dws.challenge.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(200);
+
+    @Test
+    void requests_over_the_limit_are_rejected() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 10, 50, 0.5);
+
+        long first = limiter.tryAcquire();
+        long second = limiter.tryAcquire();
+        assertThat(first).isNotEqualTo(AdaptiveConcurrencyLimiter.REJECTED);
+        assertThat(second).isNotEqualTo(AdaptiveConcurrencyLimiter.REJECTED);
+        assertThat(limiter.tryAcquire()).isEqualTo(AdaptiveConcurrencyLimiter.REJECTED);
+
+        limiter.release(first, FAST);
+        assertThat(limiter.getInFlight()).isEqualTo(1);
+        assertThat(limiter.tryAcquire()).isNotEqualTo(AdaptiveConcurrencyLimiter.REJECTED);
+    }
+
+    @Test
+    void slow_requests_cut_the_limit_once_per_round_trip() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(40, 4, 100, 50, 0.5);
+        Deque<Long> tickets = acquire(limiter, 40);
+
+        // all admitted before the first cut, so only it counts
+        while (!tickets.isEmpty()) {
+            limiter.release(tickets.poll(), SLOW);
+        }
+        assertThat(limiter.getLimit()).isEqualTo(20);
+
+        limiter.release(limiter.tryAcquire(), SLOW);
+        assertThat(limiter.getLimit()).isEqualTo(10);
+        for (int i = 0; i < 10; i++) {
+            limiter.release(limiter.tryAcquire(), SLOW);
+        }
+        assertThat(limiter.getLimit()).isEqualTo(4);
+    }
+
+    @Test
+    void fast_requests_grow_the_limit_when_it_is_used() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 4, 12, 50, 0.5);
+
+        // one at a time, the limit isn't what holds the requests back
+        for (int i = 0; i < 100; i++) {
+            limiter.release(limiter.tryAcquire(), FAST);
+        }
+        assertThat(limiter.getLimit()).isEqualTo(10);
+
+        // by one per limit samples, up to the max
+        for (int round = 0; round < 5; round++) {
+            Deque<Long> tickets = acquire(limiter, limiter.getLimit());
+            while (!tickets.isEmpty()) {
+                limiter.release(tickets.poll(), FAST);
+            }
+        }
+        assertThat(limiter.getLimit()).isEqualTo(12);
+    }
+
+    @Test
+    void releases_without_sample_keep_the_limit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 4, 100, 50, 0.5);
+        Deque<Long> tickets = acquire(limiter, 10);
+
+        while (!tickets.isEmpty()) {
+            limiter.release(tickets.poll());
+        }
+        assertThat(limiter.getLimit()).isEqualTo(10);
+        assertThat(limiter.getInFlight()).isZero();
+    }
+
+    /**
+     * A server whose latency grows with the requests in flight: the limit settles around the concurrency
+     * which meets the latency target, whatever the offered load
+     */
+    @Test
+    void limit_converges_under_overload() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(200, 4, 1000, 50, 0.9);
+        long perRequest = TimeUnit.MILLISECONDS.toNanos(2); // target met up to 25 requests in flight
+
+        for (int round = 0; round < 300; round++) {
+            Deque<Long> tickets = acquire(limiter, 1000); // more offered than admitted
+            long latency = tickets.size() * perRequest;
+            while (!tickets.isEmpty()) {
+                limiter.release(tickets.poll(), latency);
+            }
+        }
+        assertThat(limiter.getLimit()).isBetween(20, 26);
+    }
+
+    private static Deque<Long> acquire(AdaptiveConcurrencyLimiter limiter, int requests) {
+        Deque<Long> tickets = new ArrayDeque<>();
+        for (int i = 0; i < requests; i++) {
+            long ticket = limiter.tryAcquire();
+            if (ticket != AdaptiveConcurrencyLimiter.REJECTED) {
+                tickets.add(ticket);
+            }
+        }
+        return tickets;
+    }
+}
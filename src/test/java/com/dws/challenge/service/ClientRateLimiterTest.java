@@ -0,0 +1,68 @@
+package com.dws.challenge.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ClientRateLimiterTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    void clients_get_their_rate_with_bursts() {
+        ClientRateLimiter limiter = new ClientRateLimiter(10, 3, 100, clock::get);
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(limiter.tryAcquire("client-a")).isZero();
+        }
+        assertThat(limiter.tryAcquire("client-a")).isEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+        assertThat(limiter.tryAcquire("client-b")).isZero(); // buckets are per client
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(50));
+        assertThat(limiter.tryAcquire("client-a")).isEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(50));
+        assertThat(limiter.tryAcquire("client-a")).isZero();
+    }
+
+    @Test
+    void clients_are_bounded() {
+        ClientRateLimiter limiter = new ClientRateLimiter(1, 1, 2, clock::get);
+
+        assertThat(limiter.tryAcquire("client-a")).isZero();
+        assertThat(limiter.tryAcquire("client-b")).isZero();
+        // no bucket refilled, the new clients share one
+        assertThat(limiter.tryAcquire("client-c")).isZero();
+        assertThat(limiter.tryAcquire("client-d")).isPositive();
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertThat(limiter.tryAcquire("client-d")).isZero(); // the refilled buckets were evicted
+        assertThat(limiter.tryAcquire("client-d")).isPositive();
+    }
+
+    @Test
+    void evictions_are_batched() {
+        ClientRateLimiter limiter = new ClientRateLimiter(1, 1, 24, clock::get); // evicts once per 3 new clients
+        for (int i = 0; i < 24; i++) {
+            assertThat(limiter.tryAcquire("client-" + i)).isZero();
+        }
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+
+        // every bucket refilled, but the first new clients share one until the batch is due
+        assertThat(limiter.tryAcquire("new-1")).isZero();
+        assertThat(limiter.tryAcquire("new-2")).isPositive();
+        assertThat(limiter.tryAcquire("new-3")).isZero();
+        assertThat(limiter.tryAcquire("new-2")).isZero();
+    }
+
+    @Test
+    void disabled_without_rate() {
+        ClientRateLimiter limiter = new ClientRateLimiter(0, 1, 2, clock::get);
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(limiter.tryAcquire("client-a")).isZero();
+        }
+    }
+}
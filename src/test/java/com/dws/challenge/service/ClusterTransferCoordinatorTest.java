@@ -0,0 +1,88 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ClusterTransferCoordinatorTest {
+
+    private final AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory();
+
+    /** transaction id to the last action received by the participant */
+    private final Map<String, String> received = new ConcurrentHashMap<>();
+
+    private HttpServer participant;
+
+    private NotificationDispatcher notificationDispatcher;
+
+    private AccountPartitioner partitioner;
+
+    private ClusterTransferCoordinator coordinator;
+
+    @BeforeEach
+    void startParticipant() throws IOException {
+        // prepares every transfer, fails every commit (e.g. restarted between the two)
+        participant = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        participant.createContext("/v1/cluster/transactions/", exchange -> {
+            String[] path = exchange.getRequestURI().getPath().split("/");
+            received.put(path[4], path[5]);
+            exchange.sendResponseHeaders(path[5].equals("prepare") ? 200 : 503, -1);
+            exchange.close();
+        });
+        participant.start();
+        String self = "http://127.0.0.1:1";
+        partitioner = new AccountPartitioner(self + ",http://127.0.0.1:" + participant.getAddress().getPort(), self,
+                "secret", 16, 60_000);
+        notificationDispatcher = new NotificationDispatcher((account, description) -> { },
+                1, 1024, 256, NotificationDispatcher.OverflowPolicy.DROP, 0, 1000);
+        coordinator = new ClusterTransferCoordinator(partitioner,
+                new AccountBalanceServiceImpl(repository, notificationDispatcher), repository, 0);
+    }
+
+    @AfterEach
+    void stopParticipant() throws InterruptedException {
+        coordinator.close();
+        participant.stop(0);
+        notificationDispatcher.shutdown();
+    }
+
+    @Test
+    void commits_are_kept_until_acknowledged() throws InterruptedException {
+        String source = accountOf(partitioner.getSelf());
+        repository.createAccount(new Account(source, new BigDecimal("100.00")));
+
+        assertThat(coordinator.transfer(source, accountOf(partitioner.getNodes().get(1)), 1_000)).isTrue();
+        String transactionId = received.keySet().iterator().next();
+        assertThat(received.get(transactionId)).isEqualTo("commit");
+        assertThat(repository.getAccount(source).getBalanceMinorUnits()).isEqualTo(9_000);
+
+        coordinator.resolve(); // past the retention, but the participant still has to ask
+        assertThat(coordinator.decisionOf(transactionId)).isEqualTo(ClusterTransferCoordinator.Decision.COMMITTED);
+
+        coordinator.acknowledge(transactionId);
+        Thread.sleep(5); // the retention runs from the acknowledgement
+        coordinator.resolve();
+        assertThat(coordinator.decisionOf(transactionId)).isEqualTo(ClusterTransferCoordinator.Decision.ABORTED);
+    }
+
+    private String accountOf(String node) {
+        while (true) {
+            String accountId = "Id-" + UUID.randomUUID();
+            if (partitioner.ownerOf(accountId).equals(node)) {
+                return accountId;
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.dws.challenge.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConsistentHashRingTest {
+
+    private static final int ACCOUNTS = 30_000;
+
+    @Test
+    void accounts_are_spread_over_the_nodes() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("node-a", "node-b", "node-c"), 128);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            counts.merge(ring.ownerOf("Id-" + i), 1, Integer::sum);
+        }
+        assertThat(counts).hasSize(3);
+        assertThat(counts.values()).allSatisfy(count -> assertThat(count).isBetween(ACCOUNTS / 3 * 8 / 10, ACCOUNTS / 3 * 12 / 10));
+    }
+
+    @Test
+    void adding_a_node_only_moves_accounts_to_it() {
+        ConsistentHashRing three = new ConsistentHashRing(List.of("node-a", "node-b", "node-c"), 128);
+        ConsistentHashRing four = new ConsistentHashRing(List.of("node-a", "node-b", "node-c", "node-d"), 128);
+        int moved = 0;
+        for (int i = 0; i < ACCOUNTS; i++) {
+            String before = three.ownerOf("Id-" + i);
+            String after = four.ownerOf("Id-" + i);
+            if (!before.equals(after)) {
+                assertThat(after).isEqualTo("node-d");
+                moved++;
+            }
+        }
+        assertThat(moved).isBetween(ACCOUNTS / 4 * 8 / 10, ACCOUNTS / 4 * 12 / 10);
+    }
+}
@@ -0,0 +1,125 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.MappedTransferJournal;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HotAccountDetectorTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void contended_accounts_become_hot_until_they_cool_down() {
+        HotAccountDetector detector = new HotAccountDetector(3, 3_600_000, 100);
+        for (int i = 0; i < 3; i++) {
+            detector.contendedCredit("merchant");
+        }
+        detector.contendedCredit("customer");
+        assertThat(detector.isHot("merchant")).isFalse(); // only at the end of the window
+
+        detector.rotateWindow();
+        assertThat(detector.getHotAccounts()).containsExactly("merchant");
+        assertThat(detector.isHot("merchant")).isTrue();
+        assertThat(detector.isHot("customer")).isFalse();
+
+        detector.isHot("merchant");
+        detector.isHot("merchant");
+        detector.rotateWindow();
+        assertThat(detector.getHotAccounts()).containsExactly("merchant"); // credited 3 times
+
+        detector.rotateWindow();
+        assertThat(detector.getHotAccounts()).isEmpty();
+    }
+
+    @Test
+    void disabled_detector_never_promotes() {
+        HotAccountDetector detector = HotAccountDetector.disabled();
+        for (int i = 0; i < 100; i++) {
+            detector.contendedCredit("merchant");
+        }
+        detector.rotateWindow();
+        assertThat(detector.isHot("merchant")).isFalse();
+    }
+
+    /**
+     * Customers pay a hot merchant while the merchant pays them back, balances are conserved
+     * and the journal replays to the same balances although credits to the merchant don't lock it.
+     */
+    @Test
+    void transfers_to_a_hot_account() throws Exception {
+        MappedTransferJournal journal = new MappedTransferJournal(directory.toString(), 1 << 20, 16, 100, 0);
+        AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory();
+        repository.setJournal(journal);
+        repository.recover();
+        int customers = 4;
+        repository.createAccount(new Account("merchant", BigDecimal.ZERO));
+        for (int c = 0; c < customers; c++) {
+            repository.createAccount(new Account("customer_" + c, new BigDecimal(100)));
+        }
+        HotAccountDetector detector = new HotAccountDetector(1, 3_600_000, 100);
+        detector.contendedCredit("merchant");
+        detector.rotateWindow();
+        NotificationDispatcher notificationDispatcher = new NotificationDispatcher((account, description) -> { },
+                1, 1024, 256, NotificationDispatcher.OverflowPolicy.DROP, 0, 1000);
+        AccountBalanceServiceImpl service = new AccountBalanceServiceImpl(repository, notificationDispatcher,
+                TransferMetrics.noop(), new IdempotencyCache(100, 60, 1), detector);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(customers + 1);
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int c = 0; c < customers; c++) {
+            String customer = "customer_" + c;
+            tasks.add(executorService.submit(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    service.transferBalanceBWAccounts(customer, "merchant", 1L);
+                }
+                return null;
+            }));
+        }
+        tasks.add(executorService.submit(() -> {
+            int refunds = 0;
+            for (int i = 0; refunds < 4000; i++) {
+                if (repository.getAccount("merchant").getBalanceMinorUnits() > 0) {
+                    service.transferBalanceBWAccounts("merchant", "customer_" + (i % customers), 1L);
+                    refunds++;
+                }
+            }
+            return null;
+        }));
+        for (Future<?> task : tasks) {
+            task.get(30, TimeUnit.SECONDS);
+        }
+        executorService.shutdown();
+        notificationDispatcher.shutdown();
+
+        long total = repository.getAccount("merchant").getBalanceMinorUnits();
+        for (int c = 0; c < customers; c++) {
+            total += repository.getAccount("customer_" + c).getBalanceMinorUnits();
+        }
+        assertThat(total).isEqualTo(customers * 10_000L);
+        assertThat(repository.getAccount("merchant").getBalanceMinorUnits()).isEqualTo(4000L);
+        assertThat(detector.getHotAccounts()).containsExactly("merchant");
+        journal.close();
+
+        Map<String, Long> recovered = new MappedTransferJournal(directory.toString(), 1 << 20, 16, 100, 0).recover();
+        assertThat(recovered).containsEntry("merchant", 4000L);
+        for (int c = 0; c < customers; c++) {
+            assertThat(recovered).containsEntry("customer_" + c,
+                    repository.getAccount("customer_" + c).getBalanceMinorUnits());
+        }
+    }
+}
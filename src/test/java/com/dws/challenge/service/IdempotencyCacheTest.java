@@ -0,0 +1,111 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.exception.InvalidTransactionException;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IdempotencyCacheTest {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicInteger applied = new AtomicInteger();
+
+    @Test
+    void repeated_key_replays_the_outcome() {
+        IdempotencyCache cache = new IdempotencyCache(100, 60, 4, clock::get);
+
+        assertThat(cache.execute("key", "a", "b", 10, this::apply)).isTrue();
+        assertThat(cache.execute("key", "a", "b", 10, this::apply)).isTrue();
+        assertThat(applied).hasValue(1);
+
+        assertThatThrownBy(() -> cache.execute("failing", "a", "b", 10, () -> {
+            throw new InvalidTransactionException("Not sufficient balance in account <a>");
+        })).hasMessageContaining("Not sufficient balance");
+        assertThatThrownBy(() -> cache.execute("failing", "a", "b", 10, this::apply))
+                .hasMessageContaining("Not sufficient balance");
+        assertThat(applied).hasValue(1);
+
+        assertThatThrownBy(() -> cache.execute("key", "a", "b", 20, this::apply))
+                .isInstanceOf(InvalidTransactionException.class)
+                .hasMessageContaining("different transfer");
+    }
+
+    @Test
+    void failures_without_outcome_are_not_replayed() {
+        IdempotencyCache cache = new IdempotencyCache(100, 60, 4, clock::get);
+
+        assertThatThrownBy(() -> cache.execute("key", "a", "b", 10, () -> {
+            throw new IllegalStateException("Transfer journal full");
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(cache.size()).isZero();
+
+        assertThat(cache.execute("key", "a", "b", 10, this::apply)).isTrue();
+        assertThat(cache.execute("key", "a", "b", 10, this::apply)).isTrue();
+        assertThat(applied).hasValue(1);
+    }
+
+    @Test
+    void keys_expire_and_are_bounded() {
+        IdempotencyCache cache = new IdempotencyCache(4, 60, 1, clock::get);
+
+        cache.execute("key", "a", "b", 10, this::apply);
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(61));
+        cache.execute("key", "a", "b", 10, this::apply);
+        assertThat(applied).hasValue(2);
+
+        for (int i = 0; i < 10; i++) {
+            cache.execute("key-" + i, "a", "b", 10, this::apply);
+        }
+        assertThat(cache.size()).isEqualTo(4);
+        cache.execute("key-0", "a", "b", 10, this::apply); // evicted, so applied again
+        assertThat(applied).hasValue(13);
+    }
+
+    @Test
+    void retry_waits_for_the_running_transfer() throws Exception {
+        IdempotencyCache cache = new IdempotencyCache(100, 60, 4, clock::get);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Boolean> original = executor.submit(() -> cache.execute("key", "a", "b", 10, () -> {
+                started.countDown();
+                await(release);
+                return apply();
+            }));
+            started.await();
+            Future<Boolean> retry = executor.submit(() -> cache.execute("key", "a", "b", 10, this::apply));
+            Thread.sleep(50);
+            assertThat(retry.isDone()).isFalse();
+
+            release.countDown();
+            assertThat(original.get(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(retry.get(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(applied).hasValue(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private boolean apply() {
+        applied.incrementAndGet();
+        return true;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
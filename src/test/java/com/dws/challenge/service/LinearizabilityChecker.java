@@ -0,0 +1,104 @@
+package com.dws.challenge.service;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Linearizability checker of transfer histories against a sequential bank (Wing & Gong search with Lowe's memoization).
+ *
+ * A history is linearizable if its operations can be ordered so that the order respects real time (an operation which
+ * returned before another was invoked comes first), every transfer has the outcome the sequential bank gives it in
+ * that order (applied iff the source has the funds), and the bank ends with the observed balances.
+ * The outcomes are fixed by the history, so the balances only depend on the set of operations already ordered:
+ * that set (a bit mask) is the memoization key, histories are limited to 63 operations.
+ */
+final class LinearizabilityChecker {
+
+  /**
+   * One recorded call of an engine: the accounts are indexes in the balances
+   */
+  static final class Operation {
+    final int thread;
+    final int source;
+    final int destination;
+    final long amount;
+    final long invoked;
+    final long returned;
+    final boolean applied;
+
+    Operation(int thread, int source, int destination, long amount, long invoked, long returned, boolean applied) {
+      this.thread = thread;
+      this.source = source;
+      this.destination = destination;
+      this.amount = amount;
+      this.invoked = invoked;
+      this.returned = returned;
+      this.applied = applied;
+    }
+
+    @Override
+    public String toString() {
+      return "thread " + thread + ": " + source + " -> " + destination + " " + amount + (applied ? " applied" : " rejected")
+        + " [" + invoked + ", " + returned + "]";
+    }
+  }
+
+  private final List<Operation> history;
+
+  private final long[] balances;
+
+  private final long[] finalBalances;
+
+  private final Set<Long> visited = new HashSet<>();
+
+  private LinearizabilityChecker(long[] initialBalances, List<Operation> history, long[] finalBalances) {
+    if (history.size() > 63) {
+      throw new IllegalArgumentException("Histories are limited to 63 operations");
+    }
+    this.history = history;
+    this.balances = initialBalances.clone();
+    this.finalBalances = finalBalances;
+  }
+
+  static boolean isLinearizable(long[] initialBalances, List<Operation> history, long[] finalBalances) {
+    return new LinearizabilityChecker(initialBalances, history, finalBalances).search(0L);
+  }
+
+  private boolean search(long linearized) {
+    if (linearized == (1L << history.size()) - 1) {
+      return Arrays.equals(balances, finalBalances);
+    }
+    if (!visited.add(linearized)) {
+      return false;
+    }
+    // an operation can come next if no pending operation returned before it was invoked
+    long firstReturn = Long.MAX_VALUE;
+    for (int i = 0; i < history.size(); i++) {
+      if ((linearized & (1L << i)) == 0) {
+        firstReturn = Math.min(firstReturn, history.get(i).returned);
+      }
+    }
+    for (int i = 0; i < history.size(); i++) {
+      Operation operation = history.get(i);
+      if ((linearized & (1L << i)) != 0 || operation.invoked > firstReturn
+        || operation.applied != balances[operation.source] >= operation.amount) {
+        continue;
+      }
+      if (operation.applied) {
+        balances[operation.source] -= operation.amount;
+        balances[operation.destination] += operation.amount;
+      }
+      boolean found = search(linearized | (1L << i));
+      if (operation.applied) {
+        balances[operation.source] += operation.amount;
+        balances[operation.destination] -= operation.amount;
+      }
+      if (found) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
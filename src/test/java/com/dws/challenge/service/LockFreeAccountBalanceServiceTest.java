@@ -0,0 +1,161 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.domain.TransferLimits;
+import com.dws.challenge.exception.InvalidTransactionException;
+import com.dws.challenge.web.AccountsController;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(properties = "account.transfer.engine=lock-free")
+class LockFreeAccountBalanceServiceTest {
+
+    @Autowired
+    private AccountBalanceService accountBalanceService;
+
+    @Autowired
+    private AccountsService accountsService;
+
+    @Autowired
+    private AccountsController accountsController;
+
+    @BeforeEach
+    void clearAccounts() {
+        accountsService.getAccountsRepository().clearAccounts();
+    }
+
+    @Test
+    void lockFreeEngineIsSelected() {
+        assertThat(accountBalanceService).isInstanceOf(LockFreeAccountBalanceService.class);
+    }
+
+    @Test
+    void limits_are_refused_as_they_would_not_be_enforced() {
+        this.accountsService.createAccount(new Account("source", new BigDecimal(9000)));
+
+        ResponseEntity<Object> response = accountsController.setLimits("source",
+                new TransferLimits(new BigDecimal(100), null));
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.CONFLICT);
+        assertThat(accountBalanceService.appliesTransferRules()).isFalse();
+    }
+
+    @Test
+    void transferBalanceBWAccounts() {
+        this.accountsService.createAccount(new Account("source", new BigDecimal(9000)));
+        this.accountsService.createAccount(new Account("dest", new BigDecimal(3000)));
+
+        accountBalanceService.transferBalanceBWAccounts("source","dest",new BigDecimal("2000.50"));
+
+        assertThat(accountsService.getAccount("source").getBalance()).isEqualByComparingTo("6999.50");
+        assertThat(accountsService.getAccount("dest").getBalance()).isEqualByComparingTo("5000.50");
+    }
+
+    @Test
+    void transferBalanceBWAccounts_source_not_have_fund() {
+        this.accountsService.createAccount(new Account("source_exceptional", new BigDecimal(3000)));
+        this.accountsService.createAccount(new Account("dest_exceptional", new BigDecimal(1000)));
+
+        assertThatThrownBy(() -> accountBalanceService.transferBalanceBWAccounts("source_exceptional","dest_exceptional",new BigDecimal(4000)))
+                .isInstanceOf(InvalidTransactionException.class)
+                .hasMessageContaining("Not sufficient balance in account <source_exceptional>");
+        assertThat(accountsService.getAccount("source_exceptional").getBalance()).isEqualByComparingTo("3000");
+        assertThat(accountsService.getAccount("dest_exceptional").getBalance()).isEqualByComparingTo("1000");
+    }
+
+    @Test
+    void transferMultiLeg_all_or_nothing() {
+        this.accountsService.createAccount(new Account("employer", new BigDecimal(1000)));
+        this.accountsService.createAccount(new Account("sponsor", new BigDecimal(100)));
+        List<TransferLeg> salaries = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            this.accountsService.createAccount(new Account("employee_" + i, BigDecimal.ZERO));
+            salaries.add(new TransferLeg("employee_" + i, 2500));
+        }
+
+        accountBalanceService.transferMultiLeg(List.of(new TransferLeg("employer", 40000), new TransferLeg("sponsor", 10000)), salaries);
+
+        assertThat(accountsService.getAccount("employer").getBalance()).isEqualByComparingTo("600");
+        assertThat(accountsService.getAccount("sponsor").getBalance()).isEqualByComparingTo("0");
+        assertThat(accountsService.getAccount("employee_19").getBalance()).isEqualByComparingTo("25");
+
+        // the employer is debited before the sponsor fails, its debit is given back and no employee is paid
+        assertThatThrownBy(() -> accountBalanceService.transferMultiLeg(
+                List.of(new TransferLeg("employer", 10000), new TransferLeg("sponsor", 100)),
+                List.of(new TransferLeg("employee_0", 5050), new TransferLeg("employee_1", 5050))))
+                .isInstanceOf(InvalidTransactionException.class)
+                .hasMessage("Not sufficient balance in account <sponsor>");
+        assertThatThrownBy(() -> accountBalanceService.transferMultiLeg(List.of(new TransferLeg("employer", 100)),
+                List.of(new TransferLeg("employee_0", 50), new TransferLeg("unknown", 50))))
+                .hasMessage("invalid account !");
+        assertThat(accountsService.getAccount("employer").getBalance()).isEqualByComparingTo("600");
+        assertThat(accountsService.getAccount("employee_0").getBalance()).isEqualByComparingTo("25");
+        assertThat(accountsService.getAccount("employee_1").getBalance()).isEqualByComparingTo("25");
+    }
+
+    @Test
+    void transferBalanceBWAccounts_too_many_decimals() {
+        this.accountsService.createAccount(new Account("source", new BigDecimal(3000)));
+        this.accountsService.createAccount(new Account("dest", new BigDecimal(1000)));
+
+        assertThatThrownBy(() -> accountBalanceService.transferBalanceBWAccounts("source","dest",new BigDecimal("0.001")))
+                .isInstanceOf(InvalidTransactionException.class);
+    }
+
+    /**
+     * N threads draining one hot account concurrently; the balance must end at exactly zero and never go negative
+     */
+    @Test
+    void transfer_multiple_threads_hot_source_account() throws Exception {
+        int threads = 8;
+        this.accountsService.createAccount(new Account("hot", new BigDecimal(1000)));
+        for (int t = 0; t < threads; t++) {
+            this.accountsService.createAccount(new Account("dest_" + t, BigDecimal.ZERO));
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> tasks = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String dest = "dest_" + t;
+            tasks.add(executorService.submit(() -> {
+                int rejected = 0;
+                for (int i = 0; i < 200 ; i++){
+                    try {
+                        accountBalanceService.transferBalanceBWAccounts("hot", dest, BigDecimal.ONE);
+                    } catch (InvalidTransactionException ite) {
+                        rejected++;
+                    }
+                }
+                return rejected;
+            }));
+        }
+        int rejected = 0;
+        for (Future<Integer> task : tasks) {
+            rejected += task.get(30, TimeUnit.SECONDS);
+        }
+        executorService.shutdown();
+
+        assertThat(rejected).isEqualTo(threads * 200 - 1000);
+        assertThat(accountsService.getAccount("hot").getBalance()).isEqualByComparingTo("0");
+        BigDecimal credited = BigDecimal.ZERO;
+        for (int t = 0; t < threads; t++) {
+            credited = credited.add(accountsService.getAccount("dest_" + t).getBalance());
+        }
+        assertThat(credited).isEqualByComparingTo("1000");
+    }
+}
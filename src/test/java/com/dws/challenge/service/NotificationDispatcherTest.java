@@ -0,0 +1,136 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NotificationDispatcherTest {
+
+    /**
+     * Collects every description, blocking the worker until released when a latch is given
+     */
+    private static class RecordingNotificationService implements NotificationService {
+        private final List<String> descriptions = new CopyOnWriteArrayList<>();
+        private final CountDownLatch release;
+
+        RecordingNotificationService(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void notifyAboutTransfer(Account account, String transferDescription) {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            descriptions.add(account.getAccountId() + ":" + transferDescription);
+        }
+    }
+
+    @Test
+    void notifications_are_flushed_on_shutdown() throws InterruptedException {
+        RecordingNotificationService notificationService = new RecordingNotificationService(new CountDownLatch(0));
+        NotificationDispatcher dispatcher = new NotificationDispatcher(notificationService, 2, 64, 16,
+                NotificationDispatcher.OverflowPolicy.BLOCK, 1000, 5000);
+        Account account = new Account("acc_1");
+
+        for (int i = 0; i < 50; i++) {
+            dispatcher.publish(account, 100, i % 2 == 0);
+        }
+        dispatcher.shutdown();
+
+        long lines = notificationService.descriptions.stream()
+                .mapToLong(description -> description.split("\n").length)
+                .sum();
+        assertThat(lines).isEqualTo(50);
+        assertThat(dispatcher.getQueueDepth()).isZero();
+        assertThat(notificationService.descriptions.get(0)).startsWith("acc_1:Dear account holder ! $1.00 is debited");
+    }
+
+    /**
+     * Publishers racing shutdown: every notification is delivered, by a worker or by its publisher
+     */
+    @Test
+    void notifications_published_during_shutdown_are_delivered() throws Exception {
+        RecordingNotificationService notificationService = new RecordingNotificationService(new CountDownLatch(0));
+        NotificationDispatcher dispatcher = new NotificationDispatcher(notificationService, 2, 1 << 16, 16,
+                NotificationDispatcher.OverflowPolicy.BLOCK, 1000, 5000);
+        int publishers = 4;
+        int notifications = 2000;
+        CountDownLatch started = new CountDownLatch(publishers);
+        List<Thread> threads = new CopyOnWriteArrayList<>();
+        for (int p = 0; p < publishers; p++) {
+            Account account = new Account("acc_" + p);
+            Thread thread = new Thread(() -> {
+                started.countDown();
+                for (int i = 0; i < notifications; i++) {
+                    dispatcher.publish(account, 100, true);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        started.await();
+        dispatcher.shutdown();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+        }
+
+        long lines = notificationService.descriptions.stream()
+                .mapToLong(description -> description.split("\n").length)
+                .sum();
+        assertThat(lines).isEqualTo((long) publishers * notifications);
+        assertThat(dispatcher.getDroppedCount()).isZero();
+    }
+
+    @Test
+    void notifications_of_an_account_are_batched() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingNotificationService notificationService = new RecordingNotificationService(release);
+        NotificationDispatcher dispatcher = new NotificationDispatcher(notificationService, 1, 64, 64,
+                NotificationDispatcher.OverflowPolicy.BLOCK, 1000, 5000);
+        Account first = new Account("acc_1");
+        Account second = new Account("acc_2");
+
+        // the worker is stuck on the first notification while the next ones pile up
+        dispatcher.publish(first, 100, true);
+        Thread.sleep(200);
+        for (int i = 0; i < 5; i++) {
+            dispatcher.publish(first, 100, true);
+            dispatcher.publish(second, 100, false);
+        }
+        release.countDown();
+        dispatcher.shutdown();
+
+        assertThat(notificationService.descriptions).hasSize(3);
+        assertThat(notificationService.descriptions.get(1).split("\n")).hasSize(5);
+        assertThat(notificationService.descriptions.get(2)).startsWith("acc_2:").contains("credited");
+    }
+
+    @Test
+    void overflowing_notifications_are_dropped() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingNotificationService notificationService = new RecordingNotificationService(release);
+        NotificationDispatcher dispatcher = new NotificationDispatcher(notificationService, 1, 4, 1,
+                NotificationDispatcher.OverflowPolicy.DROP, 0, 5000);
+        Account account = new Account("acc_1");
+
+        dispatcher.publish(account, 100, true);
+        Thread.sleep(200);
+        for (int i = 0; i < 10; i++) {
+            dispatcher.publish(account, 100, true);
+        }
+        release.countDown();
+        dispatcher.shutdown();
+
+        assertThat(dispatcher.getDroppedCount()).isEqualTo(6);
+        assertThat(notificationService.descriptions).hasSize(5);
+    }
+}
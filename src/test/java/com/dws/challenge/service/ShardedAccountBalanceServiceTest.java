@@ -0,0 +1,262 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.exception.InvalidTransactionException;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Slf4j
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(properties = {"account.transfer.engine=sharded", "account.transfer.shards=4"})
+class ShardedAccountBalanceServiceTest {
+
+    @Autowired
+    private AccountBalanceService accountBalanceService;
+
+    @Autowired
+    private AccountsService accountsService;
+
+    @BeforeEach
+    void clearAccounts() {
+        accountsService.getAccountsRepository().clearAccounts();
+    }
+
+    @Test
+    void shardedEngineIsSelected() {
+        assertThat(accountBalanceService).isInstanceOf(ShardedAccountBalanceService.class);
+    }
+
+    @Test
+    void transferBalanceBWAccounts() {
+        this.accountsService.createAccount(new Account("source", new BigDecimal(9000)));
+        this.accountsService.createAccount(new Account("dest", new BigDecimal(3000)));
+
+        accountBalanceService.transferBalanceBWAccounts("source","dest",new BigDecimal(2000));
+
+        assertThat(accountsService.getAccount("source").getBalance()).isEqualByComparingTo("7000");
+        assertThat(accountsService.getAccount("dest").getBalance()).isEqualByComparingTo("5000");
+    }
+
+    @Test
+    void retries_with_an_idempotency_key_are_applied_once() {
+        this.accountsService.createAccount(new Account("source", new BigDecimal(9000)));
+        this.accountsService.createAccount(new Account("dest", new BigDecimal(3000)));
+
+        accountBalanceService.transferBalanceBWAccounts("source", "dest", 200_000, "sharded-retry");
+        accountBalanceService.transferBalanceBWAccounts("source", "dest", 200_000, "sharded-retry");
+
+        assertThat(accountsService.getAccount("source").getBalance()).isEqualByComparingTo("7000");
+        assertThat(accountsService.getAccount("dest").getBalance()).isEqualByComparingTo("5000");
+        assertThatThrownBy(() -> accountBalanceService.transferBalanceBWAccounts("source", "dest", 100, "sharded-retry"))
+                .isInstanceOf(InvalidTransactionException.class);
+    }
+
+    @Test
+    void transferMultiLeg_all_or_nothing() {
+        this.accountsService.createAccount(new Account("employer", new BigDecimal(1000)));
+        this.accountsService.createAccount(new Account("sponsor", new BigDecimal(100)));
+        List<TransferLeg> salaries = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            this.accountsService.createAccount(new Account("employee_" + i, BigDecimal.ZERO));
+            salaries.add(new TransferLeg("employee_" + i, 2500));
+        }
+
+        accountBalanceService.transferMultiLeg(List.of(new TransferLeg("employer", 40000), new TransferLeg("sponsor", 10000)), salaries);
+
+        assertThat(accountsService.getAccount("employer").getBalance()).isEqualByComparingTo("600");
+        assertThat(accountsService.getAccount("sponsor").getBalance()).isEqualByComparingTo("0");
+        assertThat(accountsService.getAccount("employee_19").getBalance()).isEqualByComparingTo("25");
+
+        // the employer is debited before the sponsor fails, its debit is given back and no employee is paid
+        assertThatThrownBy(() -> accountBalanceService.transferMultiLeg(
+                List.of(new TransferLeg("employer", 10000), new TransferLeg("sponsor", 100)),
+                List.of(new TransferLeg("employee_0", 5050), new TransferLeg("employee_1", 5050))))
+                .isInstanceOf(InvalidTransactionException.class)
+                .hasMessage("Not sufficient balance in account <sponsor>");
+        assertThatThrownBy(() -> accountBalanceService.transferMultiLeg(List.of(new TransferLeg("employer", 100)),
+                List.of(new TransferLeg("employee_0", 50), new TransferLeg("unknown", 50))))
+                .hasMessage("invalid account !");
+        assertThat(accountsService.getAccount("employer").getBalance()).isEqualByComparingTo("600");
+        assertThat(accountsService.getAccount("employee_0").getBalance()).isEqualByComparingTo("25");
+        assertThat(accountsService.getAccount("employee_1").getBalance()).isEqualByComparingTo("25");
+    }
+
+    @Test
+    void transferBalanceBWAccounts_source_not_have_fund() {
+        this.accountsService.createAccount(new Account("source_exceptional", new BigDecimal(3000)));
+        this.accountsService.createAccount(new Account("dest_exceptional", new BigDecimal(1000)));
+
+        assertThatThrownBy(() -> accountBalanceService.transferBalanceBWAccounts("source_exceptional","dest_exceptional",new BigDecimal(4000)))
+                .isInstanceOf(InvalidTransactionException.class)
+                .hasMessageContaining("Not sufficient balance in account <source_exceptional>");
+        assertThat(accountsService.getAccount("source_exceptional").getBalance()).isEqualByComparingTo("3000");
+    }
+
+    @Test
+    void transferBalanceBWAccounts_invalid_account() {
+        this.accountsService.createAccount(new Account("source_exceptional", new BigDecimal(3000)));
+
+        assertThatThrownBy(() -> accountBalanceService.transferBalanceBWAccounts("source_exceptional","missing",new BigDecimal(500)))
+                .hasMessage("invalid account !");
+    }
+
+    /**
+     * The journal append fails on the shard thread: the debit is undone, the caller gets the exception
+     * and the shard keeps serving; once shut down callers fail instead of waiting forever
+     */
+    @Test
+    void failed_journal_append_is_undone_and_rethrown() throws InterruptedException {
+        AtomicBoolean failNext = new AtomicBoolean(true);
+        AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory() {
+            @Override
+            public long journalTransfer(String sourceAccountId, String destinationAccountId, long amount) {
+                if (failNext.getAndSet(false)) {
+                    throw new UncheckedIOException(new IOException("No space left on device"));
+                }
+                return -1;
+            }
+        };
+        repository.createAccount(new Account("source", new BigDecimal(100)));
+        repository.createAccount(new Account("dest", BigDecimal.ZERO));
+        NotificationDispatcher notificationDispatcher = new NotificationDispatcher((account, description) -> { },
+                1, 1024, 256, NotificationDispatcher.OverflowPolicy.DROP, 0, 1000);
+        ShardedAccountBalanceService service = new ShardedAccountBalanceService(repository, notificationDispatcher, 2, 64);
+        try {
+            assertThatThrownBy(() -> service.transferBalanceBWAccounts("source", "dest", 1_000L))
+                    .isInstanceOf(UncheckedIOException.class);
+            assertThat(repository.getAccount("source").getBalanceMinorUnits()).isEqualTo(10_000);
+            assertThat(repository.getAccount("dest").getBalanceMinorUnits()).isZero();
+
+            assertThat(service.transferBalanceBWAccounts("source", "dest", 1_000L)).isTrue();
+            assertThat(repository.getAccount("dest").getBalanceMinorUnits()).isEqualTo(1_000);
+        } finally {
+            service.shutdown();
+            notificationDispatcher.shutdown();
+        }
+        assertThatThrownBy(() -> service.transferBalanceBWAccounts("source", "dest", 1_000L))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    /**
+     * N threads transferring $1 around a ring of accounts in both directions, most transfers cross shards
+     */
+    @Test
+    void transfer_multiple_threads_across_shards() throws Exception {
+        int threads = 8;
+        for (int t = 0; t < threads; t++) {
+            this.accountsService.createAccount(new Account("ring_" + t, new BigDecimal(1000)));
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        List<Future<Boolean>> tasks = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String from = "ring_" + t;
+            String to = "ring_" + ((t + 1) % threads);
+            boolean reverse = t % 2 == 1;
+            tasks.add(executorService.submit(() -> {
+                for (int i = 0; i < 500 ; i++){
+                    accountBalanceService.transferBalanceBWAccounts(reverse ? to : from, reverse ? from : to, BigDecimal.ONE);
+                }
+                return true;
+            }));
+        }
+        for (Future<Boolean> task : tasks) {
+            task.get(30, TimeUnit.SECONDS);
+        }
+        executorService.shutdown();
+
+        BigDecimal total = BigDecimal.ZERO;
+        for (int t = 0; t < threads; t++) {
+            total = total.add(accountsService.getAccount("ring_" + t).getBalance());
+        }
+        assertThat(total).isEqualByComparingTo(new BigDecimal(threads * 1000));
+    }
+
+    /**
+     * Same uniform workload on the lock-based and the sharded engine; the numbers are logged, not asserted,
+     * as they depend on the machine. The JMH benchmarks give the reliable comparison.
+     */
+    @Test
+    void throughput_comparison() throws Exception {
+        int threads = Math.max(Runtime.getRuntime().availableProcessors(), 2);
+        int accounts = 1024;
+        int transfersPerThread = 20_000;
+
+        NotificationDispatcher notificationDispatcher = new NotificationDispatcher((account, description) -> { },
+                1, 1024, 256, NotificationDispatcher.OverflowPolicy.DROP, 0, 1000);
+        AccountsRepositoryInMemory lockingRepository = newRepository(accounts);
+        double locking = measure(new AccountBalanceServiceImpl(lockingRepository, notificationDispatcher),
+                threads, accounts, transfersPerThread);
+        AccountsRepositoryInMemory shardedRepository = newRepository(accounts);
+        ShardedAccountBalanceService sharded = new ShardedAccountBalanceService(shardedRepository, notificationDispatcher, 4, 4096);
+        double shardedRate = measure(sharded, threads, accounts, transfersPerThread);
+        sharded.shutdown();
+        notificationDispatcher.shutdown();
+
+        log.info("Transfers per second with {} threads over {} accounts: locking {}, sharded {}",
+                threads, accounts, String.format("%.0f", locking), String.format("%.0f", shardedRate));
+        assertThat(totalOf(lockingRepository, accounts)).isEqualTo(accounts * 1_000_000L);
+        assertThat(totalOf(shardedRepository, accounts)).isEqualTo(accounts * 1_000_000L);
+    }
+
+    private static AccountsRepositoryInMemory newRepository(int accounts) {
+        AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory();
+        for (int i = 0; i < accounts; i++) {
+            repository.createAccount(new Account("acc_" + i, new BigDecimal(10_000)));
+        }
+        return repository;
+    }
+
+    private static long totalOf(AccountsRepositoryInMemory repository, int accounts) {
+        long total = 0;
+        for (int i = 0; i < accounts; i++) {
+            total += repository.getAccount("acc_" + i).getBalanceMinorUnits();
+        }
+        return total;
+    }
+
+    private static double measure(AccountBalanceService service, int threads, int accounts, int transfersPerThread) throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            tasks.add(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < transfersPerThread; i++) {
+                    int source = random.nextInt(accounts);
+                    int destination = random.nextInt(accounts);
+                    try {
+                        service.transferBalanceBWAccounts("acc_" + source, "acc_" + destination, 1L + random.nextInt(100));
+                    } catch (InvalidTransactionException ignored) {
+                        // not enough funds left on a randomly drained account
+                    }
+                }
+                return true;
+            });
+        }
+        long start = System.nanoTime();
+        for (Future<Boolean> task : executorService.invokeAll(tasks)) {
+            task.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        executorService.shutdown();
+        return threads * (double) transfersPerThread * TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+}
@@ -0,0 +1,166 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransactionRecord;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TransactionHistoryTest {
+
+    @TempDir
+    Path directory;
+
+    private final Account merchant = new Account("merchant");
+
+    private final Account customer = new Account("customer");
+
+    @Test
+    void both_sides_of_a_transfer_are_recorded() {
+        TransactionHistory history = new TransactionHistory(8, "", 0);
+        history.record(customer, merchant, 125L);
+        history.record(merchant, customer, 25L);
+
+        List<TransactionRecord> records = history.getTransactions("customer", Long.MIN_VALUE, Long.MAX_VALUE, 10);
+        assertThat(records).extracting(TransactionRecord::getSequence).containsExactly(0L, 1L);
+        assertThat(records).extracting(TransactionRecord::getCounterpartyAccountId).containsExactly("merchant", "merchant");
+        assertThat(records).extracting(TransactionRecord::getAmount)
+                .containsExactly(new BigDecimal("-1.25"), new BigDecimal("0.25"));
+        assertThat(history.getTransactions("merchant", Long.MIN_VALUE, Long.MAX_VALUE, 1))
+                .extracting(TransactionRecord::getAmount).containsExactly(new BigDecimal("1.25"));
+        assertThat(history.getTransactions("unknown", Long.MIN_VALUE, Long.MAX_VALUE, 10)).isEmpty();
+        assertThatThrownBy(() -> history.getTransactions("customer", 0, 1, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(TransactionHistory.disabled().getTransactions("customer", Long.MIN_VALUE, Long.MAX_VALUE, 10)).isEmpty();
+    }
+
+    @Test
+    void histories_are_bounded_and_dropped_with_the_accounts() {
+        AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory();
+        TransactionHistory history = new TransactionHistory(8, "", 0, 2, repository);
+        history.record(customer, merchant, 125L);
+        history.record(customer, new Account("untracked"), 125L);
+        assertThat(history.getTransactions("customer", Long.MIN_VALUE, Long.MAX_VALUE, 10)).hasSize(2);
+        assertThat(history.getTransactions("untracked", Long.MIN_VALUE, Long.MAX_VALUE, 10)).isEmpty();
+
+        repository.clearAccounts();
+        assertThat(history.getTransactions("customer", Long.MIN_VALUE, Long.MAX_VALUE, 10)).isEmpty();
+        history.record(new Account("untracked"), customer, 25L);
+        assertThat(history.getTransactions("untracked", Long.MIN_VALUE, Long.MAX_VALUE, 10)).hasSize(1);
+    }
+
+    @Test
+    void time_ranges_are_searched_in_the_ring() {
+        AccountHistory history = new AccountHistory(8);
+        for (long timestamp = 1000; timestamp < 1020; timestamp++) { // 20 records, the last 8 are kept
+            history.append("merchant", 1L, timestamp);
+        }
+        assertThat(history.search(12, 20, 1015)).isEqualTo(15);
+        assertThat(history.search(12, 20, 0)).isEqualTo(12);
+        assertThat(history.search(12, 20, 2000)).isEqualTo(20);
+        assertThat(history.timestampAt(3)).isEqualTo(AccountHistory.OVERWRITTEN);
+        assertThat(history.timestampAt(20)).isEqualTo(AccountHistory.PENDING);
+    }
+
+    @Test
+    void older_transfers_are_read_from_the_spill_log() {
+        TransactionHistory history = new TransactionHistory(4, directory.resolve("history.log").toString(), 1 << 16);
+        for (int i = 1; i <= 10; i++) {
+            history.record(customer, merchant, i);
+        }
+        List<TransactionRecord> records = history.getTransactions("merchant", Long.MIN_VALUE, Long.MAX_VALUE, 100);
+        assertThat(records).extracting(TransactionRecord::getSequence)
+                .containsExactly(0L, 1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L);
+        assertThat(records.get(0).getAmount()).isEqualByComparingTo("0.01");
+        assertThat(records.get(0).getCounterpartyAccountId()).isEqualTo("customer");
+        assertThat(history.getTransactions("merchant", Long.MIN_VALUE, Long.MAX_VALUE, 3))
+                .extracting(TransactionRecord::getSequence).containsExactly(0L, 1L, 2L);
+
+        TransactionHistory ringOnly = new TransactionHistory(4, "", 0);
+        for (int i = 1; i <= 10; i++) {
+            ringOnly.record(customer, merchant, i);
+        }
+        assertThat(ringOnly.getTransactions("merchant", Long.MIN_VALUE, Long.MAX_VALUE, 100))
+                .extracting(TransactionRecord::getSequence).containsExactly(6L, 7L, 8L, 9L);
+    }
+
+    @Test
+    void spill_log_reads_stop_at_the_limit() throws Exception {
+        AccountHistory history = new AccountHistory(4);
+        try (HistorySpillLog spillLog = new HistorySpillLog(directory.resolve("history.log"), 1 << 16)) {
+            for (int i = 0; i < 100; i++) {
+                spillLog.append(history, history.append("customer", i, 1000 + i), "customer", i, 1000 + i);
+            }
+            String tooLong = "x".repeat(HistorySpillLog.MAX_COUNTERPARTY_BYTES + 1);
+            spillLog.append(history, history.append(tooLong, 1, 2000), tooLong, 1, 2000);
+
+            // from the first record: the oldest ones
+            List<TransactionRecord> records = new ArrayList<>();
+            spillLog.readInto(history, 96, Long.MIN_VALUE, Long.MAX_VALUE, 3, records);
+            assertThat(records).extracting(TransactionRecord::getSequence).containsExactly(0L, 1L, 2L);
+
+            // from the last record back to fromMillis: still the oldest ones of the range
+            records.clear();
+            spillLog.readInto(history, 96, 1050, 1090, 3, records);
+            assertThat(records).extracting(TransactionRecord::getSequence).containsExactly(50L, 51L, 52L);
+
+            // the record with the long counterparty is only in the ring
+            records.clear();
+            spillLog.readInto(history, Long.MAX_VALUE, 1095, Long.MAX_VALUE, 10, records);
+            assertThat(records).extracting(TransactionRecord::getSequence).containsExactly(95L, 96L, 97L, 98L, 99L);
+        }
+    }
+
+    /**
+     * Customers pay a hot merchant concurrently: the ring keeps the last sequences, the spill log has every one once
+     */
+    @Test
+    void concurrent_transfers_to_an_account() throws Exception {
+        AccountHistory history = new AccountHistory(1024);
+        int customers = 4;
+        int transfers = 1000;
+        try (HistorySpillLog spillLog = new HistorySpillLog(directory.resolve("history.log"), 1 << 20)) {
+            ExecutorService executorService = Executors.newFixedThreadPool(customers);
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int c = 0; c < customers; c++) {
+                String customer = "customer_" + c;
+                tasks.add(executorService.submit(() -> {
+                    for (int i = 0; i < transfers; i++) {
+                        long sequence = history.append(customer, 1L, System.currentTimeMillis());
+                        spillLog.append(history, sequence, customer, 1L, System.currentTimeMillis());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get(30, TimeUnit.SECONDS);
+            }
+            executorService.shutdown();
+
+            List<TransactionRecord> records = new ArrayList<>();
+            for (long sequence = 0; sequence < customers * transfers; sequence++) {
+                assertThat(history.readInto(sequence, records)).isEqualTo(sequence >= customers * transfers - 1024);
+            }
+            assertThat(records).hasSize(1024);
+
+            // read from the first record, then from the last one
+            records.clear();
+            spillLog.readInto(history, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, customers * transfers, records);
+            assertThat(records).extracting(TransactionRecord::getSequence).doesNotHaveDuplicates().hasSize(customers * transfers);
+            records.clear();
+            spillLog.readInto(history, Long.MAX_VALUE, 1, Long.MAX_VALUE, customers * transfers, records);
+            assertThat(records).extracting(TransactionRecord::getSequence).doesNotHaveDuplicates().hasSize(customers * transfers);
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.BatchMode;
+import com.dws.challenge.domain.Transfer;
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.exception.InvalidTransactionException;
+import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.AccountsRepositoryOffHeap;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Randomized transfer workloads run against every engine, with and without hot accounts, on both repositories.
+ *
+ * The workload of each thread is drawn from the seed, so a failure can be replayed with the seed it reports
+ * (-Dstress.seed=...); the interleavings still vary between runs. The threads meet on a barrier after every step:
+ * money is conserved and no balance is negative at each of these quiescent points, and a thread stuck past the
+ * timeout fails the test with the deadlocked threads and the stacks of the workers.
+ * Short histories are checked by {@link LinearizabilityChecker}; balances read while transfers are in flight are
+ * not part of them, an engine only promises consistent reads of a single account.
+ *
+ * The sizes can be raised for a longer run, e.g. ./gradlew test --tests '*TransferEngineStressTest' -Dstress.steps=500
+ */
+@Slf4j
+class TransferEngineStressTest {
+
+  private static final long SEED = Long.getLong("stress.seed", 42);
+  private static final int ACCOUNTS = Integer.getInteger("stress.accounts", 32);
+  private static final int HOT_ACCOUNTS = 4;
+  private static final int THREADS = Integer.getInteger("stress.threads", 8);
+  private static final int STEPS = Integer.getInteger("stress.steps", 20);
+  private static final int OPERATIONS_PER_STEP = Integer.getInteger("stress.operations", 100);
+  private static final int HISTORIES = Integer.getInteger("stress.histories", 100);
+  private static final long INITIAL_BALANCE = 1_000;
+  private static final long TIMEOUT_SECONDS = 30;
+
+  private static final String INSUFFICIENT_FUNDS = "Not sufficient balance in account";
+
+  @ParameterizedTest
+  @ValueSource(strings = {"locking", "locking-hot", "locking-off-heap", "lock-free", "sharded"})
+  void money_is_conserved_under_random_transfers(String engineName) throws Exception {
+    try (Engine engine = new Engine(engineName, ACCOUNTS)) {
+      String[] accountIds = engine.createAccounts("stress-", ACCOUNTS, INITIAL_BALANCE);
+      Queue<String> violations = new ConcurrentLinkedQueue<>();
+      AtomicInteger step = new AtomicInteger();
+      AtomicLong applied = new AtomicLong();
+      // run by the last thread reaching the barrier, while the others wait on it
+      CyclicBarrier barrier = new CyclicBarrier(THREADS, () -> {
+        long total = 0;
+        for (String accountId : accountIds) {
+          long balance = engine.balanceOf(accountId);
+          if (balance < 0) {
+            violations.add("step " + step + ": balance of " + accountId + " is " + balance);
+          }
+          total += balance;
+        }
+        if (total != ACCOUNTS * INITIAL_BALANCE) {
+          violations.add("step " + step + ": total is " + total + ", expected " + ACCOUNTS * INITIAL_BALANCE);
+        }
+        step.incrementAndGet();
+      });
+
+      run(THREADS, thread -> {
+        Random random = new Random(SEED + thread);
+        for (int s = 0; s < STEPS; s++) {
+          for (int i = 0; i < OPERATIONS_PER_STEP; i++) {
+            applied.addAndGet(randomOperation(engine, accountIds, random, violations));
+          }
+          barrier.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+      });
+
+      assertThat(violations).as("seed %d, %s engine", SEED, engineName).isEmpty();
+      assertThat(step.get()).isEqualTo(STEPS);
+      assertThat(applied.get()).isPositive();
+      log.info("{} engine: {} transfers applied by {} threads over {} accounts", engineName, applied, THREADS, ACCOUNTS);
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"locking", "locking-hot", "locking-off-heap", "lock-free", "sharded"})
+  void histories_are_linearizable(String engineName) throws Exception {
+    int threads = 3;
+    int accounts = 3;
+    int operationsPerThread = 5;
+    long[] initialBalances = {10, 10, 10}; // low, so that transfers get rejected
+    try (Engine engine = new Engine(engineName, HISTORIES * accounts)) {
+      for (int h = 0; h < HISTORIES; h++) {
+        String[] accountIds = engine.createAccounts("history-" + h + "-", accounts, initialBalances[0]);
+        Queue<LinearizabilityChecker.Operation> history = new ConcurrentLinkedQueue<>();
+        CyclicBarrier start = new CyclicBarrier(threads);
+        long historySeed = SEED * 31 + h;
+        run(threads, thread -> {
+          Random random = new Random(historySeed * 31 + thread);
+          start.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+          for (int i = 0; i < operationsPerThread; i++) {
+            int source = random.nextInt(accounts);
+            int destination = (source + 1 + random.nextInt(accounts - 1)) % accounts;
+            long amount = 1 + random.nextInt(8);
+            long invoked = System.nanoTime();
+            boolean applied = transfer(engine.service, accountIds[source], accountIds[destination], amount);
+            history.add(new LinearizabilityChecker.Operation(thread, source, destination, amount, invoked,
+              System.nanoTime(), applied));
+          }
+        });
+
+        long[] finalBalances = new long[accounts];
+        for (int a = 0; a < accounts; a++) {
+          finalBalances[a] = engine.balanceOf(accountIds[a]);
+        }
+        List<LinearizabilityChecker.Operation> operations = new ArrayList<>(history);
+        assertThat(LinearizabilityChecker.isLinearizable(initialBalances, operations, finalBalances))
+          .as("seed %d, %s engine, history %d ending with %s is not linearizable:%n%s", SEED, engineName, h,
+            Arrays.toString(finalBalances), operations)
+          .isTrue();
+      }
+    }
+  }
+
+  /**
+   * @return number of transfers applied
+   */
+  private static long randomOperation(Engine engine, String[] accountIds, Random random, Queue<String> violations) {
+    int kind = random.nextInt(100);
+    String source = accountIds[random.nextInt(accountIds.length)];
+    if (kind < 80) {
+      return transfer(engine.service, source, destinationOf(source, accountIds, random), 1 + random.nextInt(300)) ? 1 : 0;
+    }
+    if (kind < 92) {
+      List<Transfer> transfers = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        String batchSource = accountIds[random.nextInt(accountIds.length)];
+        transfers.add(new Transfer(batchSource, destinationOf(batchSource, accountIds, random), 1 + random.nextInt(300)));
+      }
+      BatchMode mode = engine.allOrNothing && random.nextBoolean() ? BatchMode.ALL_OR_NOTHING : BatchMode.BEST_EFFORT;
+      long applied = 0;
+      for (TransferResult result : engine.service.transferBatch(transfers, mode)) {
+        if (result.getStatus() == TransferResult.Status.APPLIED) {
+          applied++;
+        } else if (result.getStatus() == TransferResult.Status.REJECTED
+          && !result.getMessage().startsWith(INSUFFICIENT_FUNDS)) {
+          violations.add("unexpected batch result " + result);
+        }
+      }
+      return applied;
+    }
+    // payout from the source to distinct accounts
+    long amount = 1 + random.nextInt(50);
+    List<TransferLeg> credits = new ArrayList<>();
+    for (int i = 0; i < 1 + random.nextInt(4); i++) {
+      String destination = destinationOf(source, accountIds, random);
+      if (credits.stream().noneMatch(credit -> credit.getAccountId().equals(destination))) {
+        credits.add(new TransferLeg(destination, amount));
+      }
+    }
+    try {
+      engine.service.transferMultiLeg(List.of(new TransferLeg(source, amount * credits.size())), credits);
+      return credits.size();
+    } catch (InvalidTransactionException e) {
+      if (!e.getMessage().startsWith(INSUFFICIENT_FUNDS)) {
+        violations.add("unexpected multi-leg rejection " + e.getMessage());
+      }
+      return 0;
+    }
+  }
+
+  /**
+   * Half of the transfers go to a few hot accounts
+   */
+  private static String destinationOf(String source, String[] accountIds, Random random) {
+    while (true) {
+      String destination = accountIds[random.nextBoolean() ? random.nextInt(HOT_ACCOUNTS) : random.nextInt(accountIds.length)];
+      if (!destination.equals(source)) {
+        return destination;
+      }
+    }
+  }
+
+  /**
+   * @return false if the source hasn't the funds
+   */
+  private static boolean transfer(AccountBalanceService service, String source, String destination, long amount) {
+    try {
+      return service.transferBalanceBWAccounts(source, destination, amount);
+    } catch (InvalidTransactionException e) {
+      assertThat(e.getMessage()).startsWith(INSUFFICIENT_FUNDS);
+      return false;
+    }
+  }
+
+  private interface Worker {
+    void run(int thread) throws Exception;
+  }
+
+  /**
+   * Runs the worker on its own threads, fails with the deadlocked threads and the worker stacks if one of them
+   * doesn't complete in time
+   */
+  private static void run(int threads, Worker worker) throws Exception {
+    AtomicInteger threadNumber = new AtomicInteger();
+    ExecutorService executorService = Executors.newFixedThreadPool(threads,
+      runnable -> new Thread(runnable, "stress-worker-" + threadNumber.getAndIncrement()));
+    try {
+      List<Future<?>> tasks = new ArrayList<>(threads);
+      for (int t = 0; t < threads; t++) {
+        int thread = t;
+        tasks.add(executorService.submit(() -> {
+          worker.run(thread);
+          return null;
+        }));
+      }
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS * 2);
+      for (Future<?> task : tasks) {
+        try {
+          task.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+          fail("seed " + SEED + ": workers didn't complete in time\n" + threadReport());
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof TimeoutException) {
+            fail("seed " + SEED + ": a worker waited too long on the barrier\n" + threadReport());
+          }
+          if (e.getCause() instanceof Error) {
+            throw (Error) e.getCause();
+          }
+          throw e;
+        }
+      }
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  private static String threadReport() {
+    ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    StringBuilder report = new StringBuilder();
+    long[] deadlocked = threadMXBean.findDeadlockedThreads();
+    if (deadlocked != null) {
+      report.append("Deadlocked threads:\n");
+      for (ThreadInfo threadInfo : threadMXBean.getThreadInfo(deadlocked, true, true)) {
+        report.append(threadInfo);
+      }
+    }
+    for (Map.Entry<Thread, StackTraceElement[]> entry : Thread.getAllStackTraces().entrySet()) {
+      if (entry.getKey().getName().startsWith("stress-worker-")) {
+        report.append(entry.getKey().getName()).append(" ").append(entry.getKey().getState()).append('\n');
+        for (StackTraceElement element : entry.getValue()) {
+          report.append("\tat ").append(element).append('\n');
+        }
+      }
+    }
+    return report.toString();
+  }
+
+  /**
+   * An engine with its own repository and dispatcher
+   */
+  private static final class Engine implements AutoCloseable {
+    final AccountsRepository repository;
+    final NotificationDispatcher notificationDispatcher;
+    final AccountBalanceService service;
+    final boolean allOrNothing;
+
+    Engine(String name, int accounts) {
+      repository = name.endsWith("off-heap") ? new AccountsRepositoryOffHeap(accounts, 32, 1024)
+        : new AccountsRepositoryInMemory();
+      notificationDispatcher = new NotificationDispatcher((account, description) -> { },
+        1, 1024, 256, NotificationDispatcher.OverflowPolicy.DROP, 0, 1000);
+      switch (name) {
+        case "locking":
+        case "locking-off-heap":
+          service = new AccountBalanceServiceImpl(repository, notificationDispatcher);
+          break;
+        case "locking-hot":
+          // promoted after a few contended credits, so that the hot path is taken
+          service = new AccountBalanceServiceImpl(repository, notificationDispatcher, TransferMetrics.noop(),
+            new IdempotencyCache(10_000, 3600, 16), new HotAccountDetector(2, 100, 10_000));
+          break;
+        case "lock-free":
+          service = new LockFreeAccountBalanceService(repository, notificationDispatcher);
+          break;
+        case "sharded":
+          service = new ShardedAccountBalanceService(repository, notificationDispatcher, 4, 4096);
+          break;
+        default:
+          throw new IllegalArgumentException(name);
+      }
+      // the other engines only support best effort batches
+      allOrNothing = service instanceof AccountBalanceServiceImpl;
+    }
+
+    String[] createAccounts(String prefix, int count, long balance) {
+      String[] accountIds = new String[count];
+      for (int i = 0; i < count; i++) {
+        accountIds[i] = prefix + i;
+        repository.createAccount(new Account(accountIds[i], BigDecimal.valueOf(balance, 2)));
+      }
+      return accountIds;
+    }
+
+    long balanceOf(String accountId) {
+      return repository.getAccount(accountId).getBalanceMinorUnits();
+    }
+
+    /**
+     * Doesn't throw InterruptedException, an AutoCloseable which can throw it makes try-with-resources lint warnings
+     */
+    @Override
+    public void close() {
+      try {
+        if (service instanceof ShardedAccountBalanceService) {
+          ((ShardedAccountBalanceService) service).shutdown();
+        }
+        notificationDispatcher.shutdown();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
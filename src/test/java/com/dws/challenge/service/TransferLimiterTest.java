@@ -0,0 +1,127 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.BatchMode;
+import com.dws.challenge.domain.Transfer;
+import com.dws.challenge.domain.TransferLimits;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.exception.InvalidTransactionException;
+import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.AccountsRepositoryOffHeap;
+import com.sun.management.ThreadMXBean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TransferLimiterTest {
+
+    private NotificationDispatcher notificationDispatcher;
+
+    private TransferLimiter transferLimiter;
+
+    private AccountBalanceServiceImpl newService(AccountsRepository repository) {
+        repository.createAccount(new Account("source", new BigDecimal(1000)));
+        repository.createAccount(new Account("dest", BigDecimal.ZERO));
+        notificationDispatcher = new NotificationDispatcher((account, description) -> { },
+                1, 1024, 256, NotificationDispatcher.OverflowPolicy.DROP, 0, 1000);
+        transferLimiter = new TransferLimiter(repository, 86_400_000, 24);
+        return new AccountBalanceServiceImpl(repository, notificationDispatcher, TransferMetrics.noop(),
+                new IdempotencyCache(16, 60, 1), HotAccountDetector.disabled(),
+                new TransferValidator(List.of(transferLimiter)));
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        notificationDispatcher.shutdown();
+    }
+
+    @Test
+    void transfers_over_the_limits_are_rejected() {
+        AccountBalanceServiceImpl service = newService(new AccountsRepositoryInMemory());
+        assertThat(transferLimiter.setLimits("source", new TransferLimits(new BigDecimal("100.00"), 3L)))
+                .isEqualTo(new TransferLimits(new BigDecimal("100.00"), 3L, new BigDecimal("0.00"), 0L));
+
+        service.transferBalanceBWAccounts("source", "dest", 6000L);
+        assertThatThrownBy(() -> service.transferBalanceBWAccounts("source", "dest", 5000L))
+                .isInstanceOf(InvalidTransactionException.class)
+                .hasMessage("Transfer amount limit reached for account <source>");
+        service.transferBalanceBWAccounts("source", "dest", 1000L);
+        service.transferBalanceBWAccounts("source", "dest", 1000L);
+        assertThatThrownBy(() -> service.transferBalanceBWAccounts("source", "dest", 1000L))
+                .isInstanceOf(InvalidTransactionException.class)
+                .hasMessage("Transfer count limit reached for account <source>");
+        service.transferBalanceBWAccounts("dest", "source", 1000L); // no limits on dest
+
+        assertThat(transferLimiter.getLimits("source"))
+                .isEqualTo(new TransferLimits(new BigDecimal("100.00"), 3L, new BigDecimal("80.00"), 3L));
+        assertThat(transferLimiter.getLimits("dest")).isEqualTo(new TransferLimits(null, null));
+        assertThat(transferLimiter.getLimits("unknown")).isNull();
+
+        // raised limits keep the usage, removed limits drop it
+        transferLimiter.setLimits("source", new TransferLimits(null, 4L));
+        service.transferBalanceBWAccounts("source", "dest", 5000L);
+        assertThat(transferLimiter.getLimits("source").getCountInWindow()).isEqualTo(4L);
+        transferLimiter.setLimits("source", new TransferLimits(null, null));
+        assertThat(transferLimiter.getLimits("source")).isEqualTo(new TransferLimits(null, null));
+        service.transferBalanceBWAccounts("source", "dest", 1000L);
+    }
+
+    @Test
+    void batches_count_every_transfer_against_the_limits() {
+        AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory();
+        AccountBalanceServiceImpl service = newService(repository);
+        transferLimiter.setLimits("source", new TransferLimits(new BigDecimal("50.00"), null));
+        List<Transfer> transfers = List.of(new Transfer("source", "dest", 3000L), new Transfer("source", "dest", 3000L));
+
+        List<TransferResult> results = service.transferBatch(transfers, BatchMode.ALL_OR_NOTHING);
+        assertThat(results).extracting(TransferResult::getStatus)
+                .containsExactly(TransferResult.Status.ABORTED, TransferResult.Status.REJECTED);
+        assertThat(transferLimiter.getLimits("source").getAmountInWindow()).isEqualByComparingTo("0");
+
+        results = service.transferBatch(transfers, BatchMode.BEST_EFFORT);
+        assertThat(results).extracting(TransferResult::getStatus)
+                .containsExactly(TransferResult.Status.APPLIED, TransferResult.Status.REJECTED);
+        assertThat(results.get(1).getMessage()).isEqualTo("Transfer amount limit reached for account <source>");
+        assertThat(transferLimiter.getLimits("source").getAmountInWindow()).isEqualByComparingTo("30");
+        assertThat(repository.getAccount("source").getBalanceMinorUnits()).isEqualTo(97000L);
+    }
+
+    @Test
+    void off_heap_accounts_keep_their_counters() {
+        AccountBalanceServiceImpl service = newService(new AccountsRepositoryOffHeap(16, 54, 4));
+        transferLimiter.setLimits("source", new TransferLimits(null, 1L));
+        service.transferBalanceBWAccounts("source", "dest", 1000L);
+        assertThatThrownBy(() -> service.transferBalanceBWAccounts("source", "dest", 1000L))
+                .hasMessage("Transfer count limit reached for account <source>");
+        assertThat(transferLimiter.getLimits("source").getCountInWindow()).isEqualTo(1L);
+    }
+
+    @Test
+    void checking_limits_does_not_allocate() {
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+        AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory();
+        AccountBalanceServiceImpl service = newService(repository);
+        repository.getAccount("dest").credit(100_000L);
+        transferLimiter.setLimits("source", new TransferLimits(new BigDecimal(1_000_000), Long.MAX_VALUE / 2));
+        transferLimiter.setLimits("dest", new TransferLimits(new BigDecimal(1_000_000), Long.MAX_VALUE / 2));
+        for (int i = 0; i < 20_000; i++) {
+            service.transferBalanceBWAccounts(i % 2 == 0 ? "source" : "dest", i % 2 == 0 ? "dest" : "source", 1L);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 20_000; i++) {
+            service.transferBalanceBWAccounts(i % 2 == 0 ? "source" : "dest", i % 2 == 0 ? "dest" : "source", 1L);
+        }
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+        assertThat(allocated).isLessThan(20_000 / 10);
+    }
+}
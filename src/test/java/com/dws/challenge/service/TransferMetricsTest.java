@@ -0,0 +1,96 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.BatchMode;
+import com.dws.challenge.domain.Transfer;
+import com.dws.challenge.exception.InvalidTransactionException;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TransferMetricsTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final TransferMetrics transferMetrics = new TransferMetrics(meterRegistry, 2);
+    private NotificationDispatcher notificationDispatcher;
+    private AccountBalanceServiceImpl accountBalanceService;
+
+    @BeforeEach
+    void setUp() {
+        AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory();
+        accountsRepository.createAccount(new Account("source", new BigDecimal(100)));
+        accountsRepository.createAccount(new Account("dest", new BigDecimal(100)));
+        notificationDispatcher = new NotificationDispatcher((account, description) -> { }, 1, 1024, 256,
+                NotificationDispatcher.OverflowPolicy.DROP, 0, 1000);
+        notificationDispatcher.bindTo(meterRegistry);
+        accountBalanceService = new AccountBalanceServiceImpl(accountsRepository, notificationDispatcher, transferMetrics,
+                new IdempotencyCache(16, 60, 1));
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        notificationDispatcher.shutdown();
+    }
+
+    @Test
+    void transfers_are_counted_by_outcome_and_reason() {
+        accountBalanceService.transferBalanceBWAccounts("source", "dest", 10L);
+        accountBalanceService.transferBalanceBWAccounts("dest", "source", 10L);
+        assertThatThrownBy(() -> accountBalanceService.transferBalanceBWAccounts("source", "dest", 1_000_000L))
+                .isInstanceOf(InvalidTransactionException.class);
+        assertThatThrownBy(() -> accountBalanceService.transferBalanceBWAccounts("source", "unknown", 10L))
+                .isInstanceOf(RuntimeException.class);
+        assertThatThrownBy(() -> accountBalanceService.transferBalanceBWAccounts("source", "dest", 0L))
+                .isInstanceOf(InvalidTransactionException.class);
+
+        assertThat(requests("applied", "none")).isEqualTo(2);
+        assertThat(requests("rejected", "insufficient_funds")).isEqualTo(1);
+        assertThat(requests("rejected", "invalid_account")).isEqualTo(1);
+        assertThat(requests("rejected", "non_positive_amount")).isEqualTo(1);
+        // only the transfers which reached the locks
+        assertThat(meterRegistry.get("transfer.lock.hold").timer().count()).isEqualTo(3);
+        assertThat(meterRegistry.get("transfer.lock.wait").timer().count()).isEqualTo(3);
+        assertThat(meterRegistry.get("notification.queue.depth").gauge().value()).isGreaterThanOrEqualTo(0);
+    }
+
+    @Test
+    void batched_transfers_are_counted() {
+        accountBalanceService.transferBatch(List.of(new Transfer("source", "dest", 10L), new Transfer("dest", "source", 10L),
+                new Transfer("source", "dest", 1_000_000L)), BatchMode.BEST_EFFORT);
+        accountBalanceService.transferBatch(List.of(new Transfer("source", "dest", 10L),
+                new Transfer("source", "dest", 0L)), BatchMode.ALL_OR_NOTHING);
+
+        assertThat(requests("applied", "none")).isEqualTo(2);
+        assertThat(requests("rejected", "insufficient_funds")).isEqualTo(1);
+        assertThat(requests("rejected", "non_positive_amount")).isEqualTo(1);
+        // one group of accounts, the all-or-nothing batch was rejected before locking
+        assertThat(meterRegistry.get("transfer.lock.hold").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void contention_is_tracked_for_a_bounded_number_of_accounts() {
+        transferMetrics.contended("dest");
+        transferMetrics.contended("dest");
+        transferMetrics.contended("source");
+        transferMetrics.contended("other"); // over the bound of 2 tracked accounts
+
+        assertThat(transferMetrics.mostContended(1)).containsExactly(Map.entry("dest", 2L));
+        assertThat(transferMetrics.mostContended(null)).containsOnlyKeys("dest", "source");
+        assertThat(transferMetrics.mostContended(-1)).isEmpty();
+        assertThat(transferMetrics.getContention("other")).isZero();
+        assertThat(meterRegistry.get("transfer.lock.contended").counter().count()).isEqualTo(4);
+    }
+
+    private long requests(String outcome, String reason) {
+        return meterRegistry.get("transfer.requests").tag("outcome", outcome).tag("reason", reason).timer().count();
+    }
+}
@@ -0,0 +1,113 @@
+package com.dws.challenge.service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.BatchMode;
+import com.dws.challenge.domain.Transfer;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.exception.InvalidTransactionException;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TransferValidatorTest {
+
+    /** Keeps a floor of 50.00 on the source account, needs its balance so it runs under the locks */
+    private static final TransferRejection BELOW_FLOOR = TransferRejection.of("Balance floor reached for account", TransferRejection.Subject.SOURCE);
+
+    private static final TransferRule BALANCE_FLOOR = new TransferRule() {
+        @Override
+        public TransferRejection check(Account source, Account destination, long amount) {
+            return source.getBalanceMinorUnits() - amount < 5000 ? BELOW_FLOOR : null;
+        }
+
+        @Override
+        public Phase getPhase() {
+            return Phase.IN_LOCK;
+        }
+    };
+
+    private static final TransferRejection BLOCKED = TransferRejection.of("Transfers blocked to account", TransferRejection.Subject.DESTINATION);
+
+    private static final TransferRule BLOCKED_DESTINATION =
+            (source, destination, amount) -> "blocked".equals(destination.getAccountId()) ? BLOCKED : null;
+
+    private AccountsRepositoryInMemory repository;
+
+    private NotificationDispatcher notificationDispatcher;
+
+    private AccountBalanceServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        repository = new AccountsRepositoryInMemory();
+        repository.createAccount(new Account("source", new BigDecimal(100)));
+        repository.createAccount(new Account("dest", BigDecimal.ZERO));
+        repository.createAccount(new Account("blocked", BigDecimal.ZERO));
+        notificationDispatcher = new NotificationDispatcher((account, description) -> { },
+                1, 1024, 256, NotificationDispatcher.OverflowPolicy.DROP, 0, 1000);
+        service = new AccountBalanceServiceImpl(repository, notificationDispatcher, TransferMetrics.noop(),
+                new IdempotencyCache(16, 60, 1), HotAccountDetector.disabled(),
+                new TransferValidator(List.of(BALANCE_FLOOR, BLOCKED_DESTINATION)));
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        notificationDispatcher.shutdown();
+    }
+
+    @Test
+    void built_in_rules_run_first() {
+        TransferValidator validator = new TransferValidator(List.of(BLOCKED_DESTINATION));
+        Account source = repository.getAccount("source");
+        assertThat(validator.checkBeforeLocking(source, repository.getAccount("blocked"), 0L))
+                .isSameAs(TransferRejection.NON_POSITIVE_AMOUNT);
+        assertThat(validator.checkBeforeLocking(source, null, 10L)).isSameAs(TransferRejection.INVALID_ACCOUNT);
+        assertThat(validator.checkBeforeLocking(source, repository.getAccount("blocked"), 10L)).isSameAs(BLOCKED);
+        assertThat(validator.checkBeforeLocking(source, repository.getAccount("dest"), 10L)).isNull();
+        assertThat(validator.checkLocked(source, repository.getAccount("dest"), 10L)).isNull();
+    }
+
+    @Test
+    void rules_reject_transfers() {
+        service.transferBalanceBWAccounts("source", "dest", 4000L);
+        assertThatThrownBy(() -> service.transferBalanceBWAccounts("source", "dest", 2000L))
+                .isInstanceOf(InvalidTransactionException.class)
+                .hasMessage("Balance floor reached for account <source>");
+        assertThatThrownBy(() -> service.transferBalanceBWAccounts("source", "blocked", 10L))
+                .isInstanceOf(InvalidTransactionException.class)
+                .hasMessage("Transfers blocked to account <blocked>");
+        assertThatThrownBy(() -> service.transferBalanceBWAccounts("source", "unknown", 10L))
+                .isInstanceOf(InvalidTransactionException.class)
+                .hasMessage("invalid account !");
+
+        assertThat(repository.getAccount("source").getBalanceMinorUnits()).isEqualTo(6000L);
+        assertThat(repository.getAccount("dest").getBalanceMinorUnits()).isEqualTo(4000L);
+        assertThat(repository.getAccount("blocked").getBalanceMinorUnits()).isZero();
+    }
+
+    @Test
+    void rules_reject_batch_transfers() {
+        List<Transfer> transfers = List.of(
+                new Transfer("source", "dest", 3000L),
+                new Transfer("source", "blocked", 1000L),
+                new Transfer("source", "dest", 3000L));
+
+        List<TransferResult> results = service.transferBatch(transfers, BatchMode.ALL_OR_NOTHING);
+        assertThat(results).extracting(TransferResult::getMessage)
+                .containsExactly(null, "Transfers blocked to account <blocked>", null);
+        assertThat(repository.getAccount("source").getBalanceMinorUnits()).isEqualTo(10000L);
+
+        results = service.transferBatch(transfers, BatchMode.BEST_EFFORT);
+        assertThat(results).extracting(TransferResult::getStatus).containsExactly(
+                TransferResult.Status.APPLIED, TransferResult.Status.REJECTED, TransferResult.Status.REJECTED);
+        assertThat(results.get(2).getMessage()).isEqualTo("Balance floor reached for account <source>");
+        assertThat(repository.getAccount("source").getBalanceMinorUnits()).isEqualTo(7000L);
+    }
+}
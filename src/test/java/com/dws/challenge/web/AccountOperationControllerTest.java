@@ -2,12 +2,16 @@ package com.dws.challenge.web;
 
 import com.dws.challenge.domain.Account;
 import com.dws.challenge.service.AccountBalanceServiceImpl;
+import com.dws.challenge.service.AccountPartitioner;
 import com.dws.challenge.service.AccountsService;
+import com.dws.challenge.service.AdaptiveConcurrencyLimiter;
+import com.dws.challenge.service.ClientRateLimiter;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.context.web.WebAppConfiguration;
@@ -16,13 +20,15 @@ import org.springframework.web.context.WebApplicationContext;
 
 import java.math.BigDecimal;
 
-import static org.junit.jupiter.api.Assertions.*;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
 
 @ExtendWith(SpringExtension.class)
-@SpringBootTest
+@SpringBootTest(properties = "account.batch.max-size=2")
 @WebAppConfiguration
 class AccountOperationControllerTest {
 
@@ -59,4 +65,137 @@ class AccountOperationControllerTest {
 
 
     }
-}
\ No newline at end of file
+
+    @Test
+    void transferBWAccounts_retried_with_idempotency_key() throws Exception {
+        accountsService.createAccount(new Account("source_acc_1",new BigDecimal(4000)));
+        accountsService.createAccount(new Account("dest_acc",new BigDecimal(2000)));
+
+        for (int i = 0; i < 3; i++) {
+            this.mockMvc.perform(post("/v1/accounts/operation")
+                            .header("Idempotency-Key", "retried-transfer")
+                            .param("source","source_acc_1")
+                            .param("destination","dest_acc")
+                            .param("amount","100"))
+                    .andExpect(status().isOk());
+        }
+        this.mockMvc.perform(post("/v1/accounts/operation")
+                        .header("Idempotency-Key", "retried-transfer")
+                        .param("source","source_acc_1")
+                        .param("destination","dest_acc")
+                        .param("amount","200"))
+                .andExpect(status().isBadRequest());
+
+        assertThat(accountsService.getAccount("source_acc_1").getBalance()).isEqualByComparingTo("3900");
+        assertThat(accountsService.getAccount("dest_acc").getBalance()).isEqualByComparingTo("2100");
+    }
+
+    @Test
+    void transferBatch_json() throws Exception {
+        accountsService.createAccount(new Account("source_acc_1",new BigDecimal(4000)));
+        accountsService.createAccount(new Account("dest_acc",new BigDecimal(2000)));
+
+        this.mockMvc.perform(post("/v1/accounts/operation/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"source\":\"source_acc_1\",\"destination\":\"dest_acc\",\"amount\":100.50},"
+                                + "{\"source\":\"source_acc_1\",\"destination\":\"dest_acc\",\"amount\":9000}]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status").value("APPLIED"))
+                .andExpect(jsonPath("$[1].status").value("REJECTED"));
+
+        assertThat(accountsService.getAccount("dest_acc").getBalance()).isEqualByComparingTo("2100.50");
+    }
+
+    @Test
+    void transferBatch_ndjson_all_or_nothing() throws Exception {
+        accountsService.createAccount(new Account("source_acc_1",new BigDecimal(4000)));
+        accountsService.createAccount(new Account("dest_acc",new BigDecimal(2000)));
+
+        this.mockMvc.perform(post("/v1/accounts/operation/batch")
+                        .param("mode", "ALL_OR_NOTHING")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content("{\"source\":\"source_acc_1\",\"destination\":\"dest_acc\",\"amount\":100}\n"
+                                + "{\"source\":\"source_acc_1\",\"destination\":\"dest_acc\",\"amount\":9000}\n"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$[0].status").value("ABORTED"))
+                .andExpect(jsonPath("$[1].status").value("REJECTED"));
+
+        assertThat(accountsService.getAccount("dest_acc").getBalance()).isEqualByComparingTo("2000");
+    }
+
+    @Test
+    void transferBatch_too_large() throws Exception {
+        accountsService.createAccount(new Account("source_acc_1",new BigDecimal(4000)));
+        accountsService.createAccount(new Account("dest_acc",new BigDecimal(2000)));
+
+        this.mockMvc.perform(post("/v1/accounts/operation/batch")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content("{\"source\":\"source_acc_1\",\"destination\":\"dest_acc\",\"amount\":1}\n".repeat(3)))
+                .andExpect(status().isPayloadTooLarge());
+
+        assertThat(accountsService.getAccount("dest_acc").getBalance()).isEqualByComparingTo("2000");
+    }
+
+    @Test
+    void transferBatch_invalid_amount() throws Exception {
+        this.mockMvc.perform(post("/v1/accounts/operation/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"source\":\"a\",\"destination\":\"b\",\"amount\":0.001}]"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void transferMultiLeg() throws Exception {
+        accountsService.createAccount(new Account("source_acc_1",new BigDecimal(4000)));
+        accountsService.createAccount(new Account("dest_acc",new BigDecimal(2000)));
+        accountsService.createAccount(new Account("dest_acc_2",new BigDecimal(0)));
+
+        this.mockMvc.perform(post("/v1/accounts/operation/multi-leg")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"debits\":[{\"accountId\":\"source_acc_1\",\"amount\":150}],"
+                                + "\"credits\":[{\"accountId\":\"dest_acc\",\"amount\":100},{\"accountId\":\"dest_acc_2\",\"amount\":50}]}"))
+                .andExpect(status().isOk());
+        this.mockMvc.perform(post("/v1/accounts/operation/multi-leg")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"debits\":[{\"accountId\":\"source_acc_1\",\"amount\":150}],"
+                                + "\"credits\":[{\"accountId\":\"dest_acc\",\"amount\":100}]}"))
+                .andExpect(status().isBadRequest());
+
+        assertThat(accountsService.getAccount("source_acc_1").getBalance()).isEqualByComparingTo("3850");
+        assertThat(accountsService.getAccount("dest_acc").getBalance()).isEqualByComparingTo("2100");
+        assertThat(accountsService.getAccount("dest_acc_2").getBalance()).isEqualByComparingTo("50");
+    }
+
+    @Test
+    void transfers_over_capacity_are_shed() throws Exception {
+        accountsService.createAccount(new Account("source_acc_1",new BigDecimal(4000)));
+        accountsService.createAccount(new Account("dest_acc",new BigDecimal(2000)));
+        AdaptiveConcurrencyLimiter concurrencyLimiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 50, 0.9);
+        MockMvc admissionMockMvc = webAppContextSetup(this.webApplicationContext)
+                .addFilters(new AdmissionControlFilter(concurrencyLimiter, new ClientRateLimiter(1, 1, 100)))
+                .build();
+
+        admissionMockMvc.perform(post("/v1/accounts/operation").header(AdmissionControlFilter.CLIENT_HEADER, "client-a")
+                        .param("source","source_acc_1").param("destination","dest_acc").param("amount","100"))
+                .andExpect(status().isOk());
+        admissionMockMvc.perform(post("/v1/accounts/operation").header(AdmissionControlFilter.CLIENT_HEADER, "client-a")
+                        .param("source","source_acc_1").param("destination","dest_acc").param("amount","100"))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"));
+        // not a cluster node, the header doesn't skip the client's rate
+        admissionMockMvc.perform(post("/v1/accounts/operation").header(AdmissionControlFilter.CLIENT_HEADER, "client-a")
+                        .header(AccountPartitioner.FORWARDED_HEADER, "http://localhost:8080")
+                        .param("source","source_acc_1").param("destination","dest_acc").param("amount","100"))
+                .andExpect(status().isTooManyRequests());
+
+        long ticket = concurrencyLimiter.tryAcquire(); // the only slot is taken
+        admissionMockMvc.perform(post("/v1/accounts/operation").header(AdmissionControlFilter.CLIENT_HEADER, "client-b")
+                        .param("source","source_acc_1").param("destination","dest_acc").param("amount","100"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"));
+        concurrencyLimiter.release(ticket, 0);
+
+        assertThat(accountsService.getAccount("source_acc_1").getBalance()).isEqualByComparingTo("3900");
+        assertThat(concurrencyLimiter.getInFlight()).isZero();
+    }
+}
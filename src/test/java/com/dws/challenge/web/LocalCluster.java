@@ -0,0 +1,112 @@
+package com.dws.challenge.web;
+
+import com.dws.challenge.ChallengeApplication;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Partitioned deployment on one box: starts nodes on free localhost ports, each one knowing all of them
+ * (account.cluster.nodes), so scale-out and failures can be tested locally.
+ * Nodes can be stopped and started again on the same port, e.g. to test what happens to transfers while one is down.
+ *
+ * Run it standalone with ./gradlew localCluster [-PclusterNodes=3], extra args are passed as properties to every node.
+ */
+@Slf4j
+public class LocalCluster implements AutoCloseable {
+
+  private final List<String> urls;
+
+  private final ConfigurableApplicationContext[] contexts;
+
+  private final String[] properties;
+
+  private LocalCluster(int nodes, String[] properties) {
+    this.urls = new ArrayList<>(nodes);
+    for (int i = 0; i < nodes; i++) {
+      urls.add("http://localhost:" + freePort());
+    }
+    this.contexts = new ConfigurableApplicationContext[nodes];
+    this.properties = properties;
+  }
+
+  /**
+   * @param properties extra properties of every node, e.g. "account.cluster.timeout-ms=500"
+   */
+  public static LocalCluster start(int nodes, String... properties) {
+    LocalCluster cluster = new LocalCluster(nodes, properties);
+    try {
+      for (int i = 0; i < nodes; i++) {
+        cluster.start(i);
+      }
+    } catch (RuntimeException e) {
+      cluster.close();
+      throw e;
+    }
+    return cluster;
+  }
+
+  public void start(int node) {
+    List<String> nodeProperties = new ArrayList<>(List.of(
+      "server.port=" + urls.get(node).substring(urls.get(node).lastIndexOf(':') + 1),
+      "spring.main.web-application-type=servlet",
+      "account.cluster.nodes=" + String.join(",", urls),
+      "account.cluster.self=" + urls.get(node),
+      "account.cluster.secret=local-cluster-secret",
+      "logging.level.com.dws.challenge.web.AccountOperationController=WARN"));
+    nodeProperties.addAll(Arrays.asList(properties));
+    // as command line arguments, default properties wouldn't override application.properties
+    contexts[node] = new SpringApplicationBuilder(ChallengeApplication.class)
+      .run(nodeProperties.stream().map(property -> "--" + property).toArray(String[]::new));
+  }
+
+  public void stop(int node) {
+    if (contexts[node] != null) {
+      contexts[node].close();
+      contexts[node] = null;
+    }
+  }
+
+  public String url(int node) {
+    return urls.get(node);
+  }
+
+  public List<String> urls() {
+    return urls;
+  }
+
+  public ConfigurableApplicationContext context(int node) {
+    return contexts[node];
+  }
+
+  @Override
+  public void close() {
+    for (int i = 0; i < contexts.length; i++) {
+      stop(i);
+    }
+  }
+
+  private static int freePort() {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int nodes = Integer.parseInt(System.getProperty("cluster.nodes", "3"));
+    LocalCluster cluster = start(nodes, args);
+    Runtime.getRuntime().addShutdownHook(new Thread(cluster::close));
+    log.info("Local cluster of {} nodes: {}", nodes, String.join(" ", cluster.urls()));
+    new CountDownLatch(1).await();
+  }
+}
@@ -0,0 +1,203 @@
+package com.dws.challenge.web;
+
+import com.dws.challenge.service.AccountPartitioner;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Three nodes of a partitioned deployment on localhost, see {@link LocalCluster}
+ */
+class PartitionedClusterTest {
+
+  private static final HttpClient client = HttpClient.newHttpClient();
+
+  private static LocalCluster cluster;
+
+  private static AccountPartitioner partitioner;
+
+  @BeforeAll
+  static void startCluster() {
+    cluster = LocalCluster.start(3, "account.cluster.timeout-ms=500", "logging.level.com.dws.challenge.service=WARN");
+    partitioner = cluster.context(0).getBean(AccountPartitioner.class);
+  }
+
+  @AfterAll
+  static void stopCluster() {
+    cluster.close();
+  }
+
+  @Test
+  void accounts_are_served_by_any_node() throws Exception {
+    String accountId = accountOf(2);
+    assertThat(send(0, "POST", "/v1/accounts", "{\"accountId\":\"" + accountId + "\",\"balance\":100}").statusCode())
+      .isEqualTo(201);
+
+    for (int node = 0; node < 3; node++) {
+      assertThat(balance(node, accountId)).isEqualByComparingTo("100");
+    }
+    // only created on its owner
+    assertThat(send(2, "GET", "/v1/accounts?limit=1000", null).body()).contains(accountId);
+    assertThat(send(0, "GET", "/v1/accounts?limit=1000", null).body()).doesNotContain(accountId);
+  }
+
+  @Test
+  void imports_create_the_accounts_of_their_partition() throws Exception {
+    String[] accountIds = {accountOf(0), accountOf(1), accountOf(2)};
+    StringBuilder ndjson = new StringBuilder();
+    for (String accountId : accountIds) {
+      ndjson.append("{\"accountId\":\"").append(accountId).append("\",\"balance\":10}\n");
+    }
+
+    for (int node = 0; node < 3; node++) {
+      HttpRequest request = HttpRequest.newBuilder(URI.create(cluster.url(node) + "/v1/accounts/import"))
+        .header("Content-Type", "application/x-ndjson")
+        .POST(HttpRequest.BodyPublishers.ofString(ndjson.toString()))
+        .build();
+      HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+      assertThat(response.statusCode()).isEqualTo(200);
+      assertThat(response.body()).contains("\"created\":1", "\"skipped\":2").doesNotContain(accountIds[node]);
+    }
+    for (String accountId : accountIds) {
+      assertThat(balance(0, accountId)).isEqualByComparingTo("10");
+    }
+  }
+
+  @Test
+  void transfers_between_partitions() throws Exception {
+    String source = create(0, "100");
+    String destination = create(1, "0");
+
+    // sent to a third node, forwarded to the node of the source which coordinates
+    assertThat(transfer(2, source, destination, "30").statusCode()).isEqualTo(200);
+    assertThat(balance(0, source)).isEqualByComparingTo("70");
+    assertThat(balance(0, destination)).isEqualByComparingTo("30");
+
+    HttpResponse<String> insufficient = transfer(1, source, destination, "1000");
+    assertThat(insufficient.statusCode()).isEqualTo(400);
+    assertThat(insufficient.body()).contains("Not sufficient balance");
+
+    HttpResponse<String> unknown = transfer(0, source, accountOf(1), "10");
+    assertThat(unknown.statusCode()).isEqualTo(400);
+    assertThat(balance(0, source)).isEqualByComparingTo("70"); // refunded
+
+    assertThat(send(0, "GET", "/v1/accounts/" + source + "/transactions", null).body()).contains(destination);
+  }
+
+  @Test
+  void transfers_to_a_stopped_node_are_refunded() throws Exception {
+    String source = create(0, "100");
+    String destination = create(1, "0");
+    cluster.stop(1);
+    try {
+      assertThat(transfer(0, source, destination, "30").statusCode()).isEqualTo(503);
+      assertThat(balance(0, source)).isEqualByComparingTo("100");
+      assertThat(send(0, "GET", "/v1/accounts/" + destination, null).statusCode()).isEqualTo(503);
+    } finally {
+      cluster.start(1);
+    }
+  }
+
+  @Test
+  void credits_without_decision_are_resolved_by_their_coordinator() throws Exception {
+    String destination = create(1, "0");
+
+    // prepared by a coordinator which never decided (e.g. it crashed before recording the decision)
+    String unknown = UUID.randomUUID().toString();
+    assertThat(prepare(unknown, destination).statusCode()).isEqualTo(200);
+    Thread.sleep(2500); // past the deadline (2 x timeout) and the next resolution
+    sendAsNode(1, "/v1/cluster/transactions/" + unknown + "/commit");
+    assertThat(balance(1, destination)).isEqualByComparingTo("0"); // presumed abort
+
+    String committed = UUID.randomUUID().toString();
+    assertThat(prepare(committed, destination).statusCode()).isEqualTo(200);
+    sendAsNode(1, "/v1/cluster/transactions/" + committed + "/commit");
+    sendAsNode(1, "/v1/cluster/transactions/" + committed + "/commit");
+    assertThat(balance(1, destination)).isEqualByComparingTo("0.05");
+  }
+
+  @Test
+  void only_nodes_can_prepare_and_commit() throws Exception {
+    String destination = create(1, "0");
+    String transactionId = UUID.randomUUID().toString();
+    String prepare = "/v1/cluster/transactions/" + transactionId + "/prepare?source=remote&destination=" + destination;
+
+    assertThat(send(1, "POST", prepare + "&amount=5&coordinator=" + cluster.url(0), null).statusCode()).isEqualTo(403);
+    HttpRequest spoofed = HttpRequest.newBuilder(URI.create(cluster.url(1) + prepare + "&amount=5&coordinator=" + cluster.url(0)))
+      .header(AccountPartitioner.FORWARDED_HEADER, cluster.url(0))
+      .header(AccountPartitioner.SECRET_HEADER, "guessed")
+      .POST(HttpRequest.BodyPublishers.noBody())
+      .build();
+    assertThat(client.send(spoofed, HttpResponse.BodyHandlers.ofString()).statusCode()).isEqualTo(403);
+    assertThat(sendAsNode(1, prepare + "&amount=5&coordinator=http://attacker.example").statusCode()).isEqualTo(400);
+    assertThat(sendAsNode(1, prepare + "&amount=-5&coordinator=" + cluster.url(0)).statusCode()).isEqualTo(400);
+    assertThat(send(1, "POST", "/v1/cluster/transactions/" + transactionId + "/commit", null).statusCode()).isEqualTo(403);
+    assertThat(balance(1, destination)).isEqualByComparingTo("0");
+  }
+
+  private HttpResponse<String> prepare(String transactionId, String destination) throws Exception {
+    return sendAsNode(1, "/v1/cluster/transactions/" + transactionId + "/prepare?source=remote&destination="
+      + destination + "&amount=5&coordinator=" + cluster.url(0));
+  }
+
+  /**
+   * POST with the headers of node 0
+   */
+  private static HttpResponse<String> sendAsNode(int node, String path) throws Exception {
+    HttpRequest request = partitioner.request(cluster.url(node), path)
+      .POST(HttpRequest.BodyPublishers.noBody())
+      .build();
+    return client.send(request, HttpResponse.BodyHandlers.ofString());
+  }
+
+  /**
+   * @return id of a new account owned by the node
+   */
+  private static String create(int node, String balance) throws Exception {
+    String accountId = accountOf(node);
+    HttpResponse<String> response = send(node, "POST", "/v1/accounts",
+      "{\"accountId\":\"" + accountId + "\",\"balance\":" + balance + "}");
+    assertThat(response.statusCode()).isEqualTo(201);
+    return accountId;
+  }
+
+  private static String accountOf(int node) {
+    while (true) {
+      String accountId = "Id-" + UUID.randomUUID();
+      if (partitioner.ownerOf(accountId).equals(cluster.url(node))) {
+        return accountId;
+      }
+    }
+  }
+
+  private static HttpResponse<String> transfer(int node, String source, String destination, String amount) throws Exception {
+    return send(node, "POST", "/v1/accounts/operation?source=" + source + "&destination=" + destination
+      + "&amount=" + amount, null);
+  }
+
+  private static BigDecimal balance(int node, String accountId) throws Exception {
+    HttpResponse<String> response = send(node, "GET", "/v1/accounts/" + accountId, null);
+    assertThat(response.statusCode()).isEqualTo(200);
+    String body = response.body();
+    return new BigDecimal(body.substring(body.indexOf("\"balance\":") + 10, body.lastIndexOf('}')));
+  }
+
+  private static HttpResponse<String> send(int node, String method, String path, String json) throws Exception {
+    HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(cluster.url(node) + path));
+    if (json == null) {
+      request.method(method, HttpRequest.BodyPublishers.noBody());
+    } else {
+      request.method(method, HttpRequest.BodyPublishers.ofString(json)).header("Content-Type", "application/json");
+    }
+    return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+  }
+}
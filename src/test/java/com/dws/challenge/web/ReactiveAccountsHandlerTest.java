@@ -0,0 +1,182 @@
+package com.dws.challenge.web;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.service.AccountsService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"spring.main.web-application-type=reactive", "account.batch.max-size=2"})
+class ReactiveAccountsHandlerTest {
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Autowired
+    private AccountsService accountsService;
+
+    @BeforeEach
+    void clearAccounts() {
+        accountsService.getAccountsRepository().clearAccounts();
+    }
+
+    @Test
+    void createAndGetAccount() {
+        webTestClient.post().uri("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"accountId\":\"Id-123\",\"balance\":1000}")
+                .exchange().expectStatus().isCreated();
+        webTestClient.post().uri("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"accountId\":\"Id-123\",\"balance\":1000}")
+                .exchange().expectStatus().isBadRequest();
+        webTestClient.post().uri("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"accountId\":\"Id-124\",\"balance\":-1}")
+                .exchange().expectStatus().isBadRequest();
+
+        String etag = webTestClient.get().uri("/v1/accounts/Id-123").exchange()
+                .expectStatus().isOk()
+                .expectBody().json("{\"accountId\":\"Id-123\",\"balance\":1000}")
+                .returnResult().getResponseHeaders().getETag();
+        webTestClient.get().uri("/v1/accounts/Id-123").ifNoneMatch(etag).exchange()
+                .expectStatus().isNotModified();
+    }
+
+    @Test
+    void transferBWAccounts() {
+        accountsService.createAccount(new Account("source_acc_1", new BigDecimal(4000)));
+        accountsService.createAccount(new Account("dest_acc", new BigDecimal(2000)));
+
+        for (int i = 0; i < 2; i++) {
+            webTestClient.post().uri("/v1/accounts/operation?source=source_acc_1&destination=dest_acc&amount=100")
+                    .header("Idempotency-Key", "reactive-retried-transfer")
+                    .exchange().expectStatus().isOk();
+        }
+        webTestClient.post().uri("/v1/accounts/operation?source=source_acc_1&destination=dest_acc&amount=9000")
+                .exchange().expectStatus().isBadRequest();
+        webTestClient.post().uri("/v1/accounts/operation?source=source_acc_1&destination=dest_acc&amount=0.001")
+                .exchange().expectStatus().isBadRequest();
+
+        assertThat(accountsService.getAccount("source_acc_1").getBalance()).isEqualByComparingTo("3900");
+        assertThat(accountsService.getAccount("dest_acc").getBalance()).isEqualByComparingTo("2100");
+    }
+
+    @Test
+    void transferBatch() {
+        accountsService.createAccount(new Account("source_acc_1", new BigDecimal(4000)));
+        accountsService.createAccount(new Account("dest_acc", new BigDecimal(2000)));
+
+        webTestClient.post().uri("/v1/accounts/operation/batch?mode=ALL_OR_NOTHING")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .bodyValue("{\"source\":\"source_acc_1\",\"destination\":\"dest_acc\",\"amount\":100}\n"
+                        + "{\"source\":\"source_acc_1\",\"destination\":\"dest_acc\",\"amount\":9000}\n")
+                .exchange().expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$[0].status").isEqualTo("ABORTED")
+                .jsonPath("$[1].status").isEqualTo("REJECTED");
+
+        webTestClient.post().uri("/v1/accounts/operation/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("[{\"source\":\"source_acc_1\",\"destination\":\"dest_acc\",\"amount\":100.50},"
+                        + "{\"source\":\"source_acc_1\",\"destination\":\"dest_acc\",\"amount\":9000}]")
+                .exchange().expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].status").isEqualTo("APPLIED")
+                .jsonPath("$[1].status").isEqualTo("REJECTED");
+
+        webTestClient.post().uri("/v1/accounts/operation/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("[{\"source\":\"a\",\"destination\":\"b\",\"amount\":0.001}]")
+                .exchange().expectStatus().isBadRequest();
+
+        webTestClient.post().uri("/v1/accounts/operation/batch")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .bodyValue("{\"source\":\"source_acc_1\",\"destination\":\"dest_acc\",\"amount\":1}\n".repeat(3))
+                .exchange().expectStatus().isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE);
+
+        assertThat(accountsService.getAccount("dest_acc").getBalance()).isEqualByComparingTo("2100.50");
+    }
+
+    @Test
+    void transferMultiLeg() {
+        accountsService.createAccount(new Account("source_acc_1", new BigDecimal(4000)));
+        accountsService.createAccount(new Account("dest_acc", new BigDecimal(2000)));
+        accountsService.createAccount(new Account("dest_acc_2", new BigDecimal(0)));
+
+        webTestClient.post().uri("/v1/accounts/operation/multi-leg")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"debits\":[{\"accountId\":\"source_acc_1\",\"amount\":150}],"
+                        + "\"credits\":[{\"accountId\":\"dest_acc\",\"amount\":100},{\"accountId\":\"dest_acc_2\",\"amount\":50}]}")
+                .exchange().expectStatus().isOk();
+        webTestClient.post().uri("/v1/accounts/operation/multi-leg")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"debits\":[{\"accountId\":\"source_acc_1\",\"amount\":5000}],"
+                        + "\"credits\":[{\"accountId\":\"dest_acc\",\"amount\":5000}]}")
+                .exchange().expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("Not sufficient balance in account <source_acc_1>");
+
+        assertThat(accountsService.getAccount("source_acc_1").getBalance()).isEqualByComparingTo("3850");
+        assertThat(accountsService.getAccount("dest_acc_2").getBalance()).isEqualByComparingTo("50");
+    }
+
+    @Test
+    void importAccounts() {
+        webTestClient.post().uri("/v1/accounts/import")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .bodyValue("{\"accountId\":\"Id-1\",\"balance\":10}\n{\"accountId\":\"Id-1\",\"balance\":10}\n"
+                        + "{\"accountId\":\"Id-2\",\"balance\":20}\n")
+                .exchange().expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.created").isEqualTo(2)
+                .jsonPath("$.duplicates").isEqualTo(1);
+
+        assertThat(accountsService.getAccount("Id-2").getBalance()).isEqualByComparingTo("20");
+    }
+
+    @Test
+    void listAndExportAccounts() {
+        accountsService.createAccount(new Account("Id-2", new BigDecimal(2)));
+        accountsService.createAccount(new Account("Id-1", new BigDecimal(1)));
+
+        webTestClient.get().uri("/v1/accounts?limit=1").exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.accounts[0].accountId").isEqualTo("Id-1")
+                .jsonPath("$.nextCursor").isEqualTo("Id-1");
+        webTestClient.get().uri("/v1/accounts?limit=x").exchange().expectStatus().isBadRequest();
+
+        webTestClient.get().uri("/v1/accounts?format=ndjson").exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_NDJSON)
+                .expectBody(String.class).isEqualTo("{\"accountId\":\"Id-1\",\"balance\":1.00}\n{\"accountId\":\"Id-2\",\"balance\":2.00}\n");
+    }
+
+    @Test
+    void transferLimits() {
+        accountsService.createAccount(new Account("source_acc_1", new BigDecimal(4000)));
+        accountsService.createAccount(new Account("dest_acc", new BigDecimal(2000)));
+
+        webTestClient.put().uri("/v1/accounts/source_acc_1/limits").contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"maxCount\":1}")
+                .exchange().expectStatus().isOk()
+                .expectBody().json("{\"maxCount\":1,\"amountInWindow\":0,\"countInWindow\":0}");
+        webTestClient.put().uri("/v1/accounts/unknown/limits").contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"maxCount\":1}")
+                .exchange().expectStatus().isNotFound();
+        webTestClient.post().uri("/v1/accounts/operation?source=source_acc_1&destination=dest_acc&amount=100")
+                .exchange().expectStatus().isOk();
+        webTestClient.post().uri("/v1/accounts/operation?source=source_acc_1&destination=dest_acc&amount=100")
+                .exchange().expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("Transfer count limit reached for account <source_acc_1>");
+        webTestClient.get().uri("/v1/accounts/source_acc_1/limits").exchange()
+                .expectStatus().isOk()
+                .expectBody().json("{\"maxCount\":1,\"amountInWindow\":100,\"countInWindow\":1}");
+    }
+}
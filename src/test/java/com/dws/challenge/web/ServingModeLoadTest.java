@@ -0,0 +1,178 @@
+package com.dws.challenge.web;
+
+import com.dws.challenge.ChallengeApplication;
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.service.AccountsService;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpHeaders;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the servlet (Tomcat, thread per request) and reactive (Netty + engine scheduler) serving modes,
+ * and the servlet mode with and without admission control.
+ *
+ * Every level keeps that many connections busy with transfers, each connection sends its next request as soon as
+ * the previous one is answered. Transfers are durable (journal with group commit), so they block like they would
+ * in production. The table of throughput and p99 per mode and level is logged; run with ./gradlew loadTest
+ */
+@Slf4j
+@Tag("load")
+class ServingModeLoadTest {
+
+    private static final int[] CONNECTIONS = {32, 256, 1024};
+    private static final int ACCOUNTS = 1000;
+    private static final Duration RUN = Duration.ofSeconds(3);
+
+    @Test
+    void servlet_vs_reactive() throws Exception {
+        List<String> report = new ArrayList<>();
+        for (String mode : new String[]{"servlet", "reactive"}) {
+            ConfigurableApplicationContext context = start(mode, "account.admission.enabled=false");
+            try {
+                int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+                run(port, 32, Duration.ofSeconds(1)); // warm up
+                for (int connections : CONNECTIONS) {
+                    Result result = run(port, connections, RUN);
+                    report.add(String.format("%-8s %6d connections %8.0f transfers/s  p50 %7.2f ms  p99 %7.2f ms  errors %d",
+                            mode, connections, result.throughput, result.p50Millis, result.p99Millis, result.errors));
+                    assertThat(result.errors).as("failed requests in %s mode", mode).isZero();
+                }
+            } finally {
+                context.close();
+            }
+        }
+        log.info("Serving modes:\n{}", String.join("\n", report));
+    }
+
+    /**
+     * Past saturation, requests over the adaptive limit are shed with 503 and the admitted ones keep a bounded p99,
+     * instead of every request queueing on the Tomcat threads
+     */
+    @Test
+    void admission_control_under_overload() throws Exception {
+        List<String> report = new ArrayList<>();
+        for (String enabled : new String[]{"false", "true"}) {
+            ConfigurableApplicationContext context = start("servlet", "account.admission.enabled=" + enabled);
+            try {
+                int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+                run(port, 32, Duration.ofSeconds(1)); // warm up
+                Result result = run(port, CONNECTIONS[CONNECTIONS.length - 1], RUN);
+                report.add(String.format("admission %-5s %8.0f transfers/s  p50 %7.2f ms  p99 %7.2f ms  shed %d  errors %d",
+                        enabled, result.throughput, result.p50Millis, result.p99Millis, result.shed, result.errors));
+                assertThat(result.errors).as("failed requests with admission %s", enabled).isZero();
+            } finally {
+                context.close();
+            }
+        }
+        log.info("Admission control with {} connections:\n{}", CONNECTIONS[CONNECTIONS.length - 1], String.join("\n", report));
+    }
+
+    private static ConfigurableApplicationContext start(String mode, String... properties) {
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(ChallengeApplication.class)
+                .properties(properties)
+                .properties("server.port=0",
+                        "spring.main.web-application-type=" + mode,
+                        "logging.level.com.dws.challenge.service=WARN",
+                        "logging.level.com.dws.challenge.web.AccountOperationController=WARN",
+                        "logging.level.com.dws.challenge.web.ReactiveAccountsHandler=WARN",
+                        "account.notification.overflow-policy=DROP",
+                        "account.journal.enabled=true",
+                        "account.journal.dir=build/load-test/journal-" + mode + "-" + System.nanoTime(),
+                        "account.journal.group-commit-micros=1000")
+                .run();
+        AccountsService accountsService = context.getBean(AccountsService.class);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accountsService.createAccount(new Account("account-" + i, new BigDecimal(1_000_000_000)));
+        }
+        return context;
+    }
+
+    private static Result run(int port, int connections, Duration duration) throws InterruptedException {
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+        ConcurrentLinkedQueue<long[]> latencies = new ConcurrentLinkedQueue<>();
+        AtomicLong errors = new AtomicLong();
+        AtomicLong shed = new AtomicLong();
+        long deadline = System.nanoTime() + duration.toNanos();
+        List<CompletableFuture<Void>> loops = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            long[] connectionLatencies = new long[1 << 16];
+            connectionLatencies[0] = 1;
+            latencies.add(connectionLatencies);
+            loops.add(loop(client, port, deadline, connectionLatencies, errors, shed));
+        }
+        CompletableFuture.allOf(loops.toArray(CompletableFuture<?>[]::new)).orTimeout(2 * duration.toSeconds() + 30, TimeUnit.SECONDS).join();
+
+        long[] all = latencies.stream()
+                .flatMapToLong(connection -> Arrays.stream(connection, 1, (int) connection[0]))
+                .sorted().toArray();
+        Result result = new Result();
+        result.throughput = all.length / (duration.toNanos() / 1e9);
+        result.p50Millis = all.length == 0 ? 0 : all[all.length / 2] / 1e6;
+        result.p99Millis = all.length == 0 ? 0 : all[(int) (all.length * 0.99)] / 1e6;
+        result.errors = errors.get();
+        result.shed = shed.get();
+        return result;
+    }
+
+    /**
+     * One connection: sends transfers until the deadline, latencies[0] is the number of slots used.
+     * Latencies are the ones of the applied transfers, requests shed by admission control are counted and retried
+     * after their Retry-After delay
+     */
+    private static CompletableFuture<Void> loop(HttpClient client, int port, long deadline, long[] latencies,
+                                                AtomicLong errors, AtomicLong shed) {
+        if (System.nanoTime() > deadline) {
+            return CompletableFuture.completedFuture(null);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        URI uri = URI.create("http://localhost:" + port + "/v1/accounts/operation?source=account-" + random.nextInt(ACCOUNTS)
+                + "&destination=account-" + random.nextInt(ACCOUNTS) + "&amount=1");
+        long start = System.nanoTime();
+        return client.sendAsync(HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.noBody()).build(),
+                        HttpResponse.BodyHandlers.discarding())
+                .handle((response, failure) -> {
+                    if (failure == null && (response.statusCode() == 503 || response.statusCode() == 429)) {
+                        shed.incrementAndGet();
+                        // like a well behaved client
+                        return Long.parseLong(response.headers().firstValue(HttpHeaders.RETRY_AFTER).orElse("1"));
+                    } else if (failure != null || response.statusCode() != 200) {
+                        errors.incrementAndGet();
+                    } else if (latencies[0] < latencies.length) {
+                        latencies[(int) latencies[0]++] = System.nanoTime() - start;
+                    }
+                    return 0L;
+                })
+                .thenCompose(retryAfter -> CompletableFuture.supplyAsync(() -> null,
+                                CompletableFuture.delayedExecutor(retryAfter, TimeUnit.SECONDS))
+                        .thenCompose(ignored -> loop(client, port, deadline, latencies, errors, shed)));
+    }
+
+    private static final class Result {
+        double throughput;
+        double p50Millis;
+        double p99Millis;
+        long errors;
+        long shed;
+    }
+}